@@ -42,6 +42,7 @@ import org.springframework.util.ClassUtils;
 
 import com.googlecode.psiprobe.model.jsp.Item;
 import com.googlecode.psiprobe.model.jsp.Summary;
+import com.googlecode.psiprobe.tools.LatencyHistogram;
 
 /**
  * Abstration layer to implement some functionality, which is common between different container adaptors.
@@ -500,6 +501,26 @@ public abstract class AbstractTomcatContainer implements TomcatContainer {
         return jcctx;
     }
 
+    /**
+     * Request durations are only recorded by the valves of Tomcat 7 and later.
+     */
+    public LatencyHistogram snapshotLatencies(Context context) {
+        return null;
+    }
+
+    /**
+     * Contexts before Tomcat 7 only let their listeners be replaced as a whole.
+     */
+    public boolean addApplicationListener(Context context, Object listener) {
+        return false;
+    }
+
+    /**
+     * Nothing has been added to the listeners before Tomcat 7.
+     */
+    public void removeApplicationListener(Context context, Object listener) {
+    }
+
     protected abstract void removeInternal(String name) throws Exception;
 
     protected abstract void installContextInternal(String contextName, File f) throws Exception;
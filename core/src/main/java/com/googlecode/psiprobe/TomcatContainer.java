@@ -11,6 +11,7 @@
 package com.googlecode.psiprobe;
 
 import com.googlecode.psiprobe.model.jsp.Summary;
+import com.googlecode.psiprobe.tools.LatencyHistogram;
 
 import java.io.File;
 import java.net.URL;
@@ -96,4 +97,27 @@ public interface TomcatContainer {
     public List getApplicationInitParams(Context context);
     
     public Long[] getResourceAttributes(String name, Context context);
+
+    /**
+     * Takes the durations of the requests to a context recorded by the agent valve since the
+     * previous call.
+     *
+     * @return durations or null if the valve of the container does not record them
+     */
+    public LatencyHistogram snapshotLatencies(Context context);
+
+    /**
+     * Adds a listener to the session and attribute events of a context. The
+     * listeners of the context are added to in place, never replaced.
+     *
+     * @return false if the container cannot add listeners that way
+     */
+    public boolean addApplicationListener(Context context, Object listener);
+
+    /**
+     * Removes a listener added by {@link #addApplicationListener(Context, Object)}.
+     * The listeners of the context are replaced by the ones left, listeners
+     * added at the same time may be lost.
+     */
+    public void removeApplicationListener(Context context, Object listener);
 }
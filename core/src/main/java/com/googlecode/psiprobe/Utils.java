@@ -14,6 +14,7 @@ import com.googlecode.psiprobe.tokenizer.StringTokenizer;
 import com.googlecode.psiprobe.tokenizer.Token;
 import com.googlecode.psiprobe.tokenizer.Tokenizer;
 import com.googlecode.psiprobe.tokenizer.TokenizerSymbol;
+import com.googlecode.psiprobe.tools.ProbeMeter;
 import com.uwyn.jhighlight.renderer.Renderer;
 import com.uwyn.jhighlight.renderer.XhtmlRendererFactory;
 import java.io.BufferedReader;
@@ -420,7 +421,7 @@ public class Utils {
 
     public static boolean isThreadingEnabled() {
         try {
-            MBeanServer mBeanServer = new Registry().getMBeanServer();
+            MBeanServer mBeanServer = ProbeMeter.countCalls(new Registry().getMBeanServer());
             ObjectName threadingOName = new ObjectName("java.lang:type=Threading");
             Set s = mBeanServer.queryMBeans(threadingOName, null);
             return s != null && s.size() > 0;
@@ -15,7 +15,9 @@ import com.googlecode.psiprobe.model.jmx.Cluster;
 import com.googlecode.psiprobe.model.jmx.ClusterSender;
 import com.googlecode.psiprobe.model.jmx.PooledClusterSender;
 import com.googlecode.psiprobe.model.jmx.SyncClusterSender;
+import com.googlecode.psiprobe.tools.JmxAttributes;
 import com.googlecode.psiprobe.tools.JmxTools;
+import com.googlecode.psiprobe.tools.ProbeMeter;
 import java.util.Set;
 import javax.management.MBeanServer;
 import javax.management.ObjectInstance;
@@ -28,10 +30,23 @@ import org.apache.commons.modeler.Registry;
  */
 public class ClusterWrapperBean {
 
+    private static final String[] CLUSTER_ATTRIBUTES = new String[] {"clusterName", "info", "managerClassName"};
+    private static final String[] MEMBERSHIP_ATTRIBUTES = new String[] {"mcastAddr", "mcastBindAddress",
+            "mcastClusterDomain", "mcastDropTime", "mcastFrequency", "mcastPort", "mcastSoTimeout", "mcastTTL"};
+    private static final String[] RECEIVER_ATTRIBUTES = new String[] {"tcpListenAddress", "tcpListenPort",
+            "nrOfMsgsReceived", "totalReceivedBytes"};
+    private static final String[] SENDER_ATTRIBUTES = new String[] {"ackTimeout", "autoConnect", "failureCounter",
+            "nrOfRequests", "replicationMode", "totalBytes"};
+    private static final String[] MEMBER_ATTRIBUTES = new String[] {"address", "port", "avgMessageSize",
+            "avgProcessingTime", "connectCounter", "disconnectCounter", "connected", "keepAliveTimeout",
+            "nrOfRequests", "totalBytes", "resend", "suspect", "maxPoolSocketLimit", "dataFailureCounter",
+            "dataResendCounter", "socketOpenCounter", "socketCloseCounter", "socketOpenFailureCounter",
+            "inQueueCounter", "outQueueCounter", "queueSize", "queuedNrOfBytes"};
+
     public Cluster getCluster(String serverName, String hostName, boolean loadMembers) throws Exception {
         Cluster cluster = null;
 
-        MBeanServer mBeanServer = new Registry().getMBeanServer();
+        MBeanServer mBeanServer = ProbeMeter.countCalls(new Registry().getMBeanServer());
         ObjectName membershipOName = new ObjectName(serverName +":type=ClusterMembership,host=" + hostName);
         ObjectName receiverOName = new ObjectName(serverName +":type=ClusterReceiver,host=" + hostName);
         ObjectName senderOName = new ObjectName(serverName +":type=ClusterSender,host=" + hostName);
@@ -46,32 +61,36 @@ public class ClusterWrapperBean {
             ObjectName clusterOName = ((ObjectInstance) clusters.iterator().next()).getObjectName();
             cluster = new Cluster();
 
-            cluster.setName(JmxTools.getStringAttr(mBeanServer, clusterOName, "clusterName"));
-            cluster.setInfo(JmxTools.getStringAttr(mBeanServer, clusterOName, "info"));
-            cluster.setManagerClassName(JmxTools.getStringAttr(mBeanServer, clusterOName, "managerClassName"));
-
-            cluster.setMcastAddress(JmxTools.getStringAttr(mBeanServer, membershipOName, "mcastAddr"));
-            cluster.setMcastBindAddress(JmxTools.getStringAttr(mBeanServer, membershipOName, "mcastBindAddress"));
-            cluster.setMcastClusterDomain(JmxTools.getStringAttr(mBeanServer, membershipOName, "mcastClusterDomain"));
-            cluster.setMcastDropTime(JmxTools.getLongAttr(mBeanServer, membershipOName, "mcastDropTime"));
-            cluster.setMcastFrequency(JmxTools.getLongAttr(mBeanServer, membershipOName, "mcastFrequency"));
-            cluster.setMcastPort(JmxTools.getIntAttr(mBeanServer, membershipOName, "mcastPort"));
-            cluster.setMcastSoTimeout(JmxTools.getIntAttr(mBeanServer, membershipOName, "mcastSoTimeout"));
-            cluster.setMcastTTL(JmxTools.getIntAttr(mBeanServer, membershipOName, "mcastTTL"));
-
-            cluster.setTcpListenAddress(JmxTools.getStringAttr(mBeanServer, receiverOName, "tcpListenAddress"));
-            cluster.setTcpListenPort(JmxTools.getIntAttr(mBeanServer, receiverOName, "tcpListenPort"));
-            cluster.setNrOfMsgsReceived(JmxTools.getLongAttr(mBeanServer, receiverOName, "nrOfMsgsReceived"));
-            cluster.setTotalReceivedBytes(JmxTools.getLongAttr(mBeanServer, receiverOName, "totalReceivedBytes"));
-//            cluster.setTcpSelectorTimeout(getLongAttr(mBeanServer, receiverOName, "tcpSelectorTimeout"));
-//            cluster.setTcpThreadCount(getIntAttr(mBeanServer, receiverOName, "tcpThreadCount"));
-
-            cluster.setSenderAckTimeout(JmxTools.getLongAttr(mBeanServer, senderOName, "ackTimeout"));
-            cluster.setSenderAutoConnect(((Boolean) mBeanServer.getAttribute(senderOName, "autoConnect")).booleanValue());
-            cluster.setSenderFailureCounter(JmxTools.getLongAttr(mBeanServer, senderOName, "failureCounter"));
-            cluster.setSenderNrOfRequests(JmxTools.getLongAttr(mBeanServer, senderOName, "nrOfRequests"));
-            cluster.setSenderReplicationMode(JmxTools.getStringAttr(mBeanServer, senderOName, "replicationMode"));
-            cluster.setSenderTotalBytes(JmxTools.getLongAttr(mBeanServer, senderOName, "totalBytes"));
+            JmxAttributes clusterAttrs = JmxTools.getAttributes(mBeanServer, clusterOName, CLUSTER_ATTRIBUTES);
+            cluster.setName(clusterAttrs.getString("clusterName"));
+            cluster.setInfo(clusterAttrs.getString("info"));
+            cluster.setManagerClassName(clusterAttrs.getString("managerClassName"));
+
+            JmxAttributes membershipAttrs = JmxTools.getAttributes(mBeanServer, membershipOName, MEMBERSHIP_ATTRIBUTES);
+            cluster.setMcastAddress(membershipAttrs.getString("mcastAddr"));
+            cluster.setMcastBindAddress(membershipAttrs.getString("mcastBindAddress"));
+            cluster.setMcastClusterDomain(membershipAttrs.getString("mcastClusterDomain"));
+            cluster.setMcastDropTime(membershipAttrs.getLong("mcastDropTime"));
+            cluster.setMcastFrequency(membershipAttrs.getLong("mcastFrequency"));
+            cluster.setMcastPort(membershipAttrs.getInt("mcastPort"));
+            cluster.setMcastSoTimeout(membershipAttrs.getInt("mcastSoTimeout"));
+            cluster.setMcastTTL(membershipAttrs.getInt("mcastTTL"));
+
+            JmxAttributes receiverAttrs = JmxTools.getAttributes(mBeanServer, receiverOName, RECEIVER_ATTRIBUTES);
+            cluster.setTcpListenAddress(receiverAttrs.getString("tcpListenAddress"));
+            cluster.setTcpListenPort(receiverAttrs.getInt("tcpListenPort"));
+            cluster.setNrOfMsgsReceived(receiverAttrs.getLong("nrOfMsgsReceived"));
+            cluster.setTotalReceivedBytes(receiverAttrs.getLong("totalReceivedBytes"));
+//            cluster.setTcpSelectorTimeout(receiverAttrs.getLong("tcpSelectorTimeout"));
+//            cluster.setTcpThreadCount(receiverAttrs.getInt("tcpThreadCount"));
+
+            JmxAttributes senderAttrs = JmxTools.getAttributes(mBeanServer, senderOName, SENDER_ATTRIBUTES);
+            cluster.setSenderAckTimeout(senderAttrs.getLong("ackTimeout"));
+            cluster.setSenderAutoConnect(senderAttrs.getBoolean("autoConnect"));
+            cluster.setSenderFailureCounter(senderAttrs.getLong("failureCounter"));
+            cluster.setSenderNrOfRequests(senderAttrs.getLong("nrOfRequests"));
+            cluster.setSenderReplicationMode(senderAttrs.getString("replicationMode"));
+            cluster.setSenderTotalBytes(senderAttrs.getLong("totalBytes"));
 
             if (loadMembers) {
                 ObjectName senders[] = (ObjectName[]) mBeanServer.getAttribute(senderOName, "senderObjectNames");
@@ -91,40 +110,42 @@ public class ClusterWrapperBean {
                     }
                     ObjectName localSenderOName = senders[i];
 
-                    sender.setAddress(JmxTools.getStringAttr(mBeanServer, localSenderOName, "address"));
-                    sender.setPort(JmxTools.getIntAttr(mBeanServer, localSenderOName, "port"));
+                    // the attributes of all sender types are read at once, those of the other types are missing
+                    JmxAttributes attrs = JmxTools.getAttributes(mBeanServer, localSenderOName, MEMBER_ATTRIBUTES);
+                    sender.setAddress(attrs.getString("address"));
+                    sender.setPort(attrs.getInt("port"));
 
-                    sender.setAvgMessageSize(JmxTools.getLongAttr(mBeanServer, localSenderOName, "avgMessageSize", -1));
-                    sender.setAvgProcessingTime(JmxTools.getLongAttr(mBeanServer, localSenderOName, "avgProcessingTime", -1));
+                    sender.setAvgMessageSize(attrs.getLong("avgMessageSize", -1));
+                    sender.setAvgProcessingTime(attrs.getLong("avgProcessingTime", -1));
 
-                    sender.setConnectCounter(JmxTools.getLongAttr(mBeanServer, localSenderOName, "connectCounter"));
-                    sender.setDisconnectCounter(JmxTools.getLongAttr(mBeanServer, localSenderOName, "disconnectCounter"));
-                    sender.setConnected(((Boolean) mBeanServer.getAttribute(localSenderOName, "connected")).booleanValue());
-                    sender.setKeepAliveTimeout(JmxTools.getLongAttr(mBeanServer, localSenderOName, "keepAliveTimeout"));
-                    sender.setNrOfRequests(JmxTools.getLongAttr(mBeanServer, localSenderOName, "nrOfRequests"));
-                    sender.setTotalBytes(JmxTools.getLongAttr(mBeanServer, localSenderOName, "totalBytes"));
-                    sender.setResend(((Boolean) mBeanServer.getAttribute(localSenderOName, "resend")).booleanValue());
-                    sender.setSuspect(((Boolean) mBeanServer.getAttribute(localSenderOName, "suspect")).booleanValue());
+                    sender.setConnectCounter(attrs.getLong("connectCounter"));
+                    sender.setDisconnectCounter(attrs.getLong("disconnectCounter"));
+                    sender.setConnected(attrs.getBoolean("connected"));
+                    sender.setKeepAliveTimeout(attrs.getLong("keepAliveTimeout"));
+                    sender.setNrOfRequests(attrs.getLong("nrOfRequests"));
+                    sender.setTotalBytes(attrs.getLong("totalBytes"));
+                    sender.setResend(attrs.getBoolean("resend"));
+                    sender.setSuspect(attrs.getBoolean("suspect"));
 
                     if (sender instanceof PooledClusterSender) {
-                        ((PooledClusterSender) sender).setMaxPoolSocketLimit(JmxTools.getIntAttr(mBeanServer, localSenderOName, "maxPoolSocketLimit"));
+                        ((PooledClusterSender) sender).setMaxPoolSocketLimit(attrs.getInt("maxPoolSocketLimit"));
                     }
 
                     if (sender instanceof SyncClusterSender) {
                         SyncClusterSender syncSender = (SyncClusterSender) sender;
-                        syncSender.setDataFailureCounter(JmxTools.getLongAttr(mBeanServer, localSenderOName, "dataFailureCounter"));
-                        syncSender.setDataResendCounter(JmxTools.getLongAttr(mBeanServer, localSenderOName, "dataResendCounter"));
-                        syncSender.setSocketOpenCounter(JmxTools.getIntAttr(mBeanServer, localSenderOName, "socketOpenCounter"));
-                        syncSender.setSocketCloseCounter(JmxTools.getIntAttr(mBeanServer, localSenderOName, "socketCloseCounter"));
-                        syncSender.setSocketOpenFailureCounter(JmxTools.getIntAttr(mBeanServer, localSenderOName, "socketOpenFailureCounter"));
+                        syncSender.setDataFailureCounter(attrs.getLong("dataFailureCounter"));
+                        syncSender.setDataResendCounter(attrs.getLong("dataResendCounter"));
+                        syncSender.setSocketOpenCounter(attrs.getInt("socketOpenCounter"));
+                        syncSender.setSocketCloseCounter(attrs.getInt("socketCloseCounter"));
+                        syncSender.setSocketOpenFailureCounter(attrs.getInt("socketOpenFailureCounter"));
                     }
 
                     if (sender instanceof AsyncClusterSender) {
                         AsyncClusterSender asyncSender = (AsyncClusterSender) sender;
-                        asyncSender.setInQueueCounter(JmxTools.getLongAttr(mBeanServer, localSenderOName, "inQueueCounter"));
-                        asyncSender.setOutQueueCounter(JmxTools.getLongAttr(mBeanServer, localSenderOName, "outQueueCounter"));
-                        asyncSender.setQueueSize(JmxTools.getIntAttr(mBeanServer, localSenderOName, "queueSize"));
-                        asyncSender.setQueuedNrOfBytes(JmxTools.getLongAttr(mBeanServer, localSenderOName, "queuedNrOfBytes"));
+                        asyncSender.setInQueueCounter(attrs.getLong("inQueueCounter"));
+                        asyncSender.setOutQueueCounter(attrs.getLong("outQueueCounter"));
+                        asyncSender.setQueueSize(attrs.getInt("queueSize"));
+                        asyncSender.setQueuedNrOfBytes(attrs.getLong("queuedNrOfBytes"));
                     }
                     cluster.getMembers().add(sender);
                 }
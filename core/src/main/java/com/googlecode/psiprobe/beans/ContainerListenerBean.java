@@ -14,6 +14,7 @@ import com.googlecode.psiprobe.model.Connector;
 import com.googlecode.psiprobe.model.RequestProcessor;
 import com.googlecode.psiprobe.model.ThreadPool;
 import com.googlecode.psiprobe.model.jmx.ThreadPoolObjectName;
+import com.googlecode.psiprobe.tools.JmxAttributes;
 import com.googlecode.psiprobe.tools.JmxTools;
 import net.sf.javainetlocator.InetAddressLocator;
 import java.net.InetAddress;
@@ -28,7 +29,6 @@ import javax.management.Notification;
 import javax.management.NotificationListener;
 import javax.management.ObjectInstance;
 import javax.management.ObjectName;
-import javax.management.RuntimeOperationsException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -41,6 +41,19 @@ import org.apache.commons.logging.LogFactory;
  */
 public class ContainerListenerBean implements NotificationListener {
 
+    private static final String[] EXECUTOR_ATTRIBUTES = new String[] {
+            "maxThreads", "largestPoolSize", "minSpareThreads", "activeCount", "poolSize"};
+    private static final String[] THREAD_POOL_ATTRIBUTES = new String[] {
+            "maxThreads", "maxSpareThreads", "minSpareThreads", "currentThreadsBusy", "currentThreadCount"};
+    private static final String[] GLOBAL_REQUEST_PROCESSOR_ATTRIBUTES = new String[] {
+            "maxTime", "processingTime", "bytesReceived", "bytesSent", "requestCount", "errorCount"};
+    private static final String[] REQUEST_PROCESSOR_ATTRIBUTES = new String[] {
+            "stage", "requestProcessingTime", "requestBytesSent", "requestBytesReceived", "remoteAddr",
+            "virtualHost", "method", "currentUri", "currentQueryString", "protocol"};
+    private static final String[] REQUEST_PROCESSOR_ATTRIBUTES_WTN = new String[] {
+            "stage", "requestProcessingTime", "requestBytesSent", "requestBytesReceived", "remoteAddr",
+            "virtualHost", "method", "currentUri", "currentQueryString", "protocol", "workerThreadName"};
+
     private Log logger = LogFactory.getLog(getClass());
     private List poolNames = null;
     private List executorNames = null;
@@ -174,13 +187,14 @@ public class ContainerListenerBean implements NotificationListener {
         for (Iterator it = executorNames.iterator(); it.hasNext();) {
             ObjectName executorName = (ObjectName) it.next();
 
+            JmxAttributes attrs = JmxTools.getAttributes(server, executorName, EXECUTOR_ATTRIBUTES);
             ThreadPool threadPool = new ThreadPool();
             threadPool.setName(executorName.getKeyProperty("name"));
-            threadPool.setMaxThreads(JmxTools.getIntAttr(server, executorName, "maxThreads"));
-            threadPool.setMaxSpareThreads(JmxTools.getIntAttr(server, executorName, "largestPoolSize"));
-            threadPool.setMinSpareThreads(JmxTools.getIntAttr(server, executorName, "minSpareThreads"));
-            threadPool.setCurrentThreadsBusy(JmxTools.getIntAttr(server, executorName, "activeCount"));
-            threadPool.setCurrentThreadCount(JmxTools.getIntAttr(server, executorName, "poolSize"));
+            threadPool.setMaxThreads(attrs.getInt("maxThreads"));
+            threadPool.setMaxSpareThreads(attrs.getInt("largestPoolSize"));
+            threadPool.setMinSpareThreads(attrs.getInt("minSpareThreads"));
+            threadPool.setCurrentThreadsBusy(attrs.getInt("activeCount"));
+            threadPool.setCurrentThreadCount(attrs.getInt("poolSize"));
 
             threadPools.add(threadPool);
         }
@@ -191,17 +205,15 @@ public class ContainerListenerBean implements NotificationListener {
             try {
                 ObjectName poolName = threadPoolObjectName.getThreadPoolName();
 
+                // maxSpareThreads and minSpareThreads are missing from the newer connectors
+                JmxAttributes attrs = JmxTools.getAttributes(server, poolName, THREAD_POOL_ATTRIBUTES);
                 ThreadPool threadPool = new ThreadPool();
                 threadPool.setName(poolName.getKeyProperty("name"));
-                threadPool.setMaxThreads(JmxTools.getIntAttr(server, poolName, "maxThreads"));
-
-                if (JmxTools.hasAttribute(server, poolName, "maxSpareThreads")) {
-                    threadPool.setMaxSpareThreads(JmxTools.getIntAttr(server, poolName, "maxSpareThreads"));
-                    threadPool.setMinSpareThreads(JmxTools.getIntAttr(server, poolName, "minSpareThreads"));
-                }
-
-                threadPool.setCurrentThreadsBusy(JmxTools.getIntAttr(server, poolName, "currentThreadsBusy"));
-                threadPool.setCurrentThreadCount(JmxTools.getIntAttr(server, poolName, "currentThreadCount"));
+                threadPool.setMaxThreads(attrs.getInt("maxThreads", -1));
+                threadPool.setMaxSpareThreads(attrs.getInt("maxSpareThreads"));
+                threadPool.setMinSpareThreads(attrs.getInt("minSpareThreads"));
+                threadPool.setCurrentThreadsBusy(attrs.getInt("currentThreadsBusy"));
+                threadPool.setCurrentThreadCount(attrs.getInt("currentThreadCount"));
 
                 // Tomcat 6.0.21+ will return -1 for maxThreads if the connector uses an executor for its threads.
                 // In this case, don't add its ThreadPool to the results.
@@ -230,7 +242,6 @@ public class ContainerListenerBean implements NotificationListener {
         for (Iterator it = poolNames.iterator(); it.hasNext();) {
 
             ThreadPoolObjectName threadPoolObjectName = (ThreadPoolObjectName) it.next();
-            boolean remoteAddrAvailable = true;
             try {
                 ObjectName poolName = threadPoolObjectName.getThreadPoolName();
 
@@ -239,44 +250,44 @@ public class ContainerListenerBean implements NotificationListener {
 
                 ObjectName grpName = threadPoolObjectName.getGlobalRequestProcessorName();
 
-                connector.setMaxTime(JmxTools.getLongAttr(server, grpName, "maxTime"));
-                connector.setProcessingTime(JmxTools.getLongAttr(server, grpName, "processingTime"));
-                connector.setBytesReceived(JmxTools.getLongAttr(server, grpName, "bytesReceived"));
-                connector.setBytesSent(JmxTools.getLongAttr(server, grpName, "bytesSent"));
-                connector.setRequestCount(JmxTools.getIntAttr(server, grpName, "requestCount"));
-                connector.setErrorCount(JmxTools.getIntAttr(server, grpName, "errorCount"));
+                JmxAttributes grpAttrs = JmxTools.getAttributes(server, grpName, GLOBAL_REQUEST_PROCESSOR_ATTRIBUTES);
+                connector.setMaxTime(grpAttrs.getLong("maxTime"));
+                connector.setProcessingTime(grpAttrs.getLong("processingTime"));
+                connector.setBytesReceived(grpAttrs.getLong("bytesReceived"));
+                connector.setBytesSent(grpAttrs.getLong("bytesSent"));
+                connector.setRequestCount(grpAttrs.getInt("requestCount"));
+                connector.setErrorCount(grpAttrs.getInt("errorCount"));
 
                 if (includeRequestProcessors) {
                     for (Iterator wrkIt = threadPoolObjectName.getRequestProcessorNames().iterator(); wrkIt.hasNext();) {
                         ObjectName wrkName = (ObjectName) wrkIt.next();
 
                         try {
+                            // one call per request processor, the attributes that cannot be read, such as
+                            // remoteAddr between two requests, are just missing
+                            JmxAttributes attrs = JmxTools.getAttributes(server, wrkName,
+                                    workerThreadNameSupported ? REQUEST_PROCESSOR_ATTRIBUTES_WTN : REQUEST_PROCESSOR_ATTRIBUTES);
                             RequestProcessor rp = new RequestProcessor();
                             rp.setName(wrkName.getKeyProperty("name"));
-                            rp.setStage(JmxTools.getIntAttr(server, wrkName, "stage"));
-                            rp.setProcessingTime(JmxTools.getLongAttr(server, wrkName, "requestProcessingTime"));
-                            rp.setBytesSent(JmxTools.getLongAttr(server, wrkName, "requestBytesSent"));
-                            rp.setBytesReceived(JmxTools.getLongAttr(server, wrkName, "requestBytesReceived"));
-                            try {
-                                String remoteAddr = JmxTools.getStringAttr(server, wrkName, "remoteAddr");
+                            rp.setStage(attrs.getInt("stage"));
+                            rp.setProcessingTime(attrs.getLong("requestProcessingTime"));
+                            rp.setBytesSent(attrs.getLong("requestBytesSent"));
+                            rp.setBytesReceived(attrs.getLong("requestBytesReceived"));
+                            if (attrs.has("remoteAddr")) {
+                                String remoteAddr = attrs.getString("remoteAddr");
                                 rp.setRemoteAddr(remoteAddr);
                                 rp.setRemoteAddrLocale(InetAddressLocator.getLocale(InetAddress.getByName(remoteAddr).getAddress()));
-                            } catch (RuntimeOperationsException ex) {
-                                /*
-                                 * if it's not available for this request processor, then it's
-                                 * not available for any request processor in this thread pool
-                                 */
-                                remoteAddrAvailable = false;
                             }
-                            rp.setVirtualHost(JmxTools.getStringAttr(server, wrkName, "virtualHost"));
-                            rp.setMethod(JmxTools.getStringAttr(server, wrkName, "method"));
-                            rp.setCurrentUri(JmxTools.getStringAttr(server, wrkName, "currentUri"));
-                            rp.setCurrentQueryString(JmxTools.getStringAttr(server, wrkName, "currentQueryString"));
-                            rp.setProtocol(JmxTools.getStringAttr(server, wrkName, "protocol"));
-
-                            // Relies on https://issues.apache.org/bugzilla/show_bug.cgi?id=41128
-                            if (workerThreadNameSupported && JmxTools.hasAttribute(server, wrkName, "workerThreadName")) {
-                                rp.setWorkerThreadName(JmxTools.getStringAttr(server, wrkName, "workerThreadName"));
+                            rp.setVirtualHost(attrs.getString("virtualHost"));
+                            rp.setMethod(attrs.getString("method"));
+                            rp.setCurrentUri(attrs.getString("currentUri"));
+                            rp.setCurrentQueryString(attrs.getString("currentQueryString"));
+                            rp.setProtocol(attrs.getString("protocol"));
+
+                            // Relies on https://issues.apache.org/bugzilla/show_bug.cgi?id=41128, the batch
+                            // above leaves the attribute out where it does not exist
+                            if (workerThreadNameSupported && attrs.has("workerThreadName")) {
+                                rp.setWorkerThreadName(attrs.getString("workerThreadName"));
                                 rp.setWorkerThreadNameSupported(true);
                             } else {
                                 //
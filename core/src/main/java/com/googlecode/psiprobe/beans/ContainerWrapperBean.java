@@ -174,14 +174,26 @@ public class ContainerWrapperBean {
             List apps = getTomcatContainer().findContexts();
 
             for (int i = 0; i < apps.size(); i++) {
-                List appResources = getResourceResolver().getApplicationResources((Context) apps.get(i), this);
-                // add only those resources that have data source info
-                filterDataSources(appResources, resources);
+                resources.addAll(getPrivateDataSources((Context) apps.get(i)));
             }
         }
         return resources;
     }
 
+    /**
+     * @return data sources of a single application, which may hang on a data source prone to
+     * deadlocks, see {@link com.googlecode.psiprobe.tools.ApplicationUtils#getApplication}
+     */
+    public List getPrivateDataSources(Context context) throws Exception {
+        List resources = new ArrayList();
+        if (getResourceResolver().supportsPrivateResources()) {
+            List appResources = getResourceResolver().getApplicationResources(context, this);
+            // add only those resources that have data source info
+            filterDataSources(appResources, resources);
+        }
+        return resources;
+    }
+
     public List getGlobalDataSources() throws Exception {
         List resources = new ArrayList();
         if (getResourceResolver().supportsGlobalResources()) {
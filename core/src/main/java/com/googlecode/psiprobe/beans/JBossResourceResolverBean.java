@@ -12,6 +12,7 @@ package com.googlecode.psiprobe.beans;
 
 import com.googlecode.psiprobe.model.ApplicationResource;
 import com.googlecode.psiprobe.model.DataSourceInfo;
+import com.googlecode.psiprobe.tools.ProbeMeter;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -45,7 +46,7 @@ public class JBossResourceResolverBean implements ResourceResolver {
             MBeanServer server = (MBeanServer) it.next();
             if ("jboss".equals(server.getDefaultDomain())
                     || "DefaultDomain".equals(server.getDefaultDomain())) {
-                return server;
+                return ProbeMeter.countCalls(server);
             }
         }
         return null;
@@ -10,9 +10,192 @@
  */
 package com.googlecode.psiprobe.beans;
 
+import com.googlecode.psiprobe.model.jmx.GarbageCollector;
+import com.googlecode.psiprobe.tools.JmxAttributes;
+import com.googlecode.psiprobe.tools.JmxTools;
+import com.googlecode.psiprobe.tools.ProbeMeter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.modeler.Registry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
 /**
- * 
+ * Keeps track of the garbage collectors of the JVM and of the pauses they
+ * cause. Where the GarbageCollector MBeans send a notification at the end of
+ * every collection, as they do from Java 7 on HotSpot, each pause is timed
+ * from its notification. Otherwise the collection count and time are polled
+ * and the collections made between two polls are counted as pauses of their
+ * average duration.
+ * <p/>
+ * Occupancy of the old generation is read after the last collection of the
+ * pool, from the CollectionUsage of the heap pools named "old" or "tenured".
+ *
  * @author Vlad Ilyushchenko
  */
-public class JvmGCInfoAccessorBean {
+public class JvmGCInfoAccessorBean implements InitializingBean, DisposableBean, NotificationListener {
+
+    public static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+    private static final String[] GC_ATTRIBUTES = new String[] {"Name", "CollectionCount", "CollectionTime"};
+    private static final String[] POOL_ATTRIBUTES = new String[] {"Name", "Type", "CollectionUsage"};
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    private final Map collectors = new TreeMap();
+    private final List subscribed = new ArrayList();
+    private List oldGenPools;
+
+    public void afterPropertiesSet() throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        Set gcs = mBeanServer.queryMBeans(new ObjectName("java.lang:type=GarbageCollector,*"), null);
+        for (Iterator it = gcs.iterator(); it.hasNext();) {
+            ObjectName oName = ((ObjectInstance) it.next()).getObjectName();
+            GarbageCollector gc = new GarbageCollector();
+            gc.setName(JmxTools.getStringAttr(mBeanServer, oName, "Name"));
+            gc.setCollectionCount(-1);
+            try {
+                if (sendsNotifications(mBeanServer, oName)) {
+                    mBeanServer.addNotificationListener(oName, this, null, null);
+                    subscribed.add(oName);
+                    gc.setNotified(true);
+                }
+            } catch (Exception e) {
+                logger.info("Could not subscribe to " + oName + ", its pauses are polled");
+                logger.debug(e);
+            }
+            synchronized (collectors) {
+                collectors.put(gc.getName(), gc);
+            }
+        }
+        // the first poll only takes the counts the pauses are measured from
+        getCollectors();
+    }
+
+    public void destroy() throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        for (int i = 0; i < subscribed.size(); i++) {
+            try {
+                mBeanServer.removeNotificationListener((ObjectName) subscribed.get(i), this);
+            } catch (Exception e) {
+                logger.debug("Could not unsubscribe from " + subscribed.get(i), e);
+            }
+        }
+        subscribed.clear();
+    }
+
+    /**
+     * Called by the JVM at the end of every collection, kept short.
+     */
+    public void handleNotification(Notification notification, Object handback) {
+        if (GC_NOTIFICATION.equals(notification.getType()) && notification.getUserData() instanceof CompositeData) {
+            CompositeData cd = (CompositeData) notification.getUserData();
+            String name = JmxTools.getStringAttr(cd, "gcName");
+            CompositeData gcInfo = (CompositeData) cd.get("gcInfo");
+            if (name != null && gcInfo != null) {
+                synchronized (collectors) {
+                    GarbageCollector gc = (GarbageCollector) collectors.get(name);
+                    if (gc != null && gc.isNotified()) {
+                        gc.addPauses(JmxTools.getLongAttr(gcInfo, "duration"), 1);
+                        gc.setLastCause(JmxTools.getStringAttr(cd, "gcCause"));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Polls the collection count and time of every collector.
+     *
+     * @return copies of the collectors, by name
+     */
+    public List getCollectors() throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        Set gcs = mBeanServer.queryMBeans(new ObjectName("java.lang:type=GarbageCollector,*"), null);
+        List list = new ArrayList(gcs.size());
+        for (Iterator it = gcs.iterator(); it.hasNext();) {
+            ObjectName oName = ((ObjectInstance) it.next()).getObjectName();
+            JmxAttributes attrs = JmxTools.getAttributes(mBeanServer, oName, GC_ATTRIBUTES);
+            long count = attrs.getLong("CollectionCount", -1);
+            long time = attrs.getLong("CollectionTime", -1);
+            synchronized (collectors) {
+                GarbageCollector gc = (GarbageCollector) collectors.get(attrs.getString("Name"));
+                if (gc != null) {
+                    if (! gc.isNotified() && gc.getCollectionCount() >= 0 && count > gc.getCollectionCount()) {
+                        long collections = count - gc.getCollectionCount();
+                        gc.addPauses(Math.max(time - gc.getCollectionTime(), 0) / collections, collections);
+                    }
+                    gc.setCollectionCount(count);
+                    gc.setCollectionTime(time);
+                    list.add(new GarbageCollector(gc));
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return bytes of the old generation in use after its last collection, -1
+     * if there is no old generation pool
+     */
+    public long getOldGenUsedAfterGC() throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        List pools = getOldGenPools(mBeanServer);
+        long used = -1;
+        for (int i = 0; i < pools.size(); i++) {
+            CompositeData cd = (CompositeData) mBeanServer.getAttribute((ObjectName) pools.get(i), "CollectionUsage");
+            if (cd != null) {
+                used = Math.max(used, 0) + JmxTools.getLongAttr(cd, "used");
+            }
+        }
+        return used;
+    }
+
+    private synchronized List getOldGenPools(MBeanServer mBeanServer) throws Exception {
+        if (oldGenPools == null) {
+            List pools = new ArrayList();
+            Set set = mBeanServer.queryMBeans(new ObjectName("java.lang:type=MemoryPool,*"), null);
+            for (Iterator it = set.iterator(); it.hasNext();) {
+                ObjectName oName = ((ObjectInstance) it.next()).getObjectName();
+                JmxAttributes attrs = JmxTools.getAttributes(mBeanServer, oName, POOL_ATTRIBUTES);
+                String name = String.valueOf(attrs.getString("Name")).toLowerCase();
+                if ("HEAP".equals(attrs.getString("Type")) && attrs.get("CollectionUsage") != null
+                        && (name.indexOf("old") >= 0 || name.indexOf("tenured") >= 0)) {
+                    pools.add(oName);
+                }
+            }
+            oldGenPools = pools;
+        }
+        return oldGenPools;
+    }
+
+    private static boolean sendsNotifications(MBeanServer mBeanServer, ObjectName oName) throws Exception {
+        MBeanNotificationInfo[] infos = mBeanServer.getMBeanInfo(oName).getNotifications();
+        for (int i = 0; infos != null && i < infos.length; i++) {
+            String[] types = infos[i].getNotifTypes();
+            for (int j = 0; types != null && j < types.length; j++) {
+                if (GC_NOTIFICATION.equals(types[j])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static MBeanServer getMBeanServer() {
+        return ProbeMeter.countCalls(new Registry().getMBeanServer());
+    }
 }
@@ -11,18 +11,8 @@
 package com.googlecode.psiprobe.beans;
 
 import com.googlecode.psiprobe.model.jmx.MemoryPool;
-import com.googlecode.psiprobe.tools.JmxTools;
-import java.util.Iterator;
-import java.util.LinkedList;
+import com.googlecode.psiprobe.tools.JvmAccessorFactory;
 import java.util.List;
-import java.util.Set;
-import javax.management.MBeanServer;
-import javax.management.ObjectInstance;
-import javax.management.ObjectName;
-import javax.management.openmbean.CompositeDataSupport;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.apache.commons.modeler.Registry;
 
 /**
  * 
@@ -30,13 +20,9 @@ import org.apache.commons.modeler.Registry;
  */
 public class JvmMemoryInfoAccessorBean {
 
-    private Log logger = LogFactory.getLog(this.getClass());
-
     public List getPools() throws Exception {
 
-        List memoryPools = new LinkedList();
-        MBeanServer mBeanServer = new Registry().getMBeanServer();
-        Set memoryOPools = mBeanServer.queryMBeans(new ObjectName("java.lang:type=MemoryPool,*"), null);
+        List memoryPools = JvmAccessorFactory.getInstance().getMemoryPools();
 
         //
         // totals
@@ -46,33 +32,12 @@ public class JvmMemoryInfoAccessorBean {
         long totalUsed = 0;
         long totalCommitted = 0;
 
-        for (Iterator it = memoryOPools.iterator(); it.hasNext();) {
-            ObjectInstance oi = (ObjectInstance) it.next();
-            ObjectName oName = oi.getObjectName();
-            MemoryPool memoryPool = new MemoryPool();
-            memoryPool.setName(JmxTools.getStringAttr(mBeanServer, oName, "Name"));
-            memoryPool.setType(JmxTools.getStringAttr(mBeanServer, oName, "Type"));
-
-            CompositeDataSupport cd = (CompositeDataSupport) mBeanServer.getAttribute(oName, "Usage");
-            //
-            // It seems that "Usage" attribute of one of the pools may turn into null intermittently. We better have a
-            // dip in the graph then an NPE though.
-            //
-            if (cd != null) {
-                memoryPool.setMax(JmxTools.getLongAttr(cd, "max"));
-                memoryPool.setUsed(JmxTools.getLongAttr(cd, "used"));
-                memoryPool.setInit(JmxTools.getLongAttr(cd, "init"));
-                memoryPool.setCommitted(JmxTools.getLongAttr(cd, "committed"));
-            } else {
-                logger.error("Oops, JVM problem? "+oName.toString()+" \"Usage\" attribute is NULL!");
-            }
-
+        for (int i = 0; i < memoryPools.size(); i++) {
+            MemoryPool memoryPool = (MemoryPool) memoryPools.get(i);
             totalInit += memoryPool.getInit();
             totalMax += memoryPool.getMax();
             totalUsed += memoryPool.getUsed();
             totalCommitted += memoryPool.getCommitted();
-
-            memoryPools.add(memoryPool);
         }
 
         if (!memoryPools.isEmpty()) {
@@ -10,6 +10,7 @@
  */
 package com.googlecode.psiprobe.beans;
 
+import com.googlecode.psiprobe.tools.ProbeMeter;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -239,7 +240,7 @@ public class ResourceResolverBean implements ResourceResolver {
     }
 
     public MBeanServer getMBeanServer() {
-        return new Registry().getMBeanServer();
+        return ProbeMeter.countCalls(new Registry().getMBeanServer());
     }
 
     /**
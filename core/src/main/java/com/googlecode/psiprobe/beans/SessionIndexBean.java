@@ -0,0 +1,108 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans;
+
+import com.googlecode.psiprobe.TomcatContainer;
+import com.googlecode.psiprobe.tools.SessionIndex;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.catalina.Context;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Keeps a {@link SessionIndex} for every context the sessions are searched
+ * in. The index is added to the session and attribute listeners of the
+ * context the first time, and again after the context has been restarted,
+ * which drops the listeners. It is added through the container adaptor, which
+ * adds to the listeners of the context in place: replacing them would lose
+ * the listeners the application adds meanwhile, and on Tomcat 8 leave it
+ * without any for a moment.
+ * <p/>
+ * When the probe stops the indexes are removed from the listeners of their
+ * contexts, which would otherwise keep the class loader of the probe, and
+ * closed: they drop their sessions and ignore the events they might still get.
+ * Before Tomcat 7 listeners cannot be added in place, searches go through all
+ * the sessions there.
+ */
+public class SessionIndexBean implements DisposableBean {
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    private ContainerWrapperBean containerWrapper;
+    private final Map indexes = new WeakHashMap();
+    private boolean supported = true;
+
+    public ContainerWrapperBean getContainerWrapper() {
+        return containerWrapper;
+    }
+
+    public void setContainerWrapper(ContainerWrapperBean containerWrapper) {
+        this.containerWrapper = containerWrapper;
+    }
+
+    /**
+     * @return the index of the sessions of the context, null if the container
+     * does not support it
+     */
+    public synchronized SessionIndex getIndex(Context context) {
+        TomcatContainer container = containerWrapper == null ? null : containerWrapper.getTomcatContainer();
+        if (! supported || container == null) {
+            return null;
+        }
+        SessionIndex index = (SessionIndex) indexes.get(context);
+        if (index == null) {
+            index = new SessionIndex();
+            indexes.put(context, index);
+        }
+        if (indexOf(context.getApplicationLifecycleListeners(), index) < 0) {
+            if (! container.addApplicationListener(context, index)) {
+                logger.info("Application listeners cannot be added, sessions are not indexed");
+                supported = false;
+                indexes.clear();
+                return null;
+            }
+            // the events fired before are lost
+            index.invalidate();
+            logger.debug("Indexing the sessions of " + context.getName());
+        }
+        return index;
+    }
+
+    public synchronized void destroy() throws Exception {
+        TomcatContainer container = containerWrapper == null ? null : containerWrapper.getTomcatContainer();
+        for (Iterator it = indexes.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            Context context = (Context) entry.getKey();
+            SessionIndex index = (SessionIndex) entry.getValue();
+            if (container != null) {
+                try {
+                    container.removeApplicationListener(context, index);
+                } catch (Exception e) {
+                    logger.warn("Could not remove the session index of " + context.getName(), e);
+                }
+            }
+            index.close();
+        }
+        indexes.clear();
+    }
+
+    private static int indexOf(Object[] listeners, Object listener) {
+        for (int i = 0; listeners != null && i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans;
+
+import com.googlecode.psiprobe.beans.stats.scheduler.StatsWorkerPool;
+import com.googlecode.psiprobe.model.SessionSizeEstimate;
+import com.googlecode.psiprobe.tools.ApplicationUtils;
+import com.googlecode.psiprobe.tools.ObjectSizer;
+import com.googlecode.psiprobe.tools.ProbeMeter;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.catalina.Session;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sizes the sessions of an application without holding a core for minutes
+ * when there are a lot of them. Up to {@link #getExactLimit()} sessions are
+ * all sized on the calling thread. Beyond that either a random sample of
+ * {@link #getSampleSize()} sessions is sized and the total extrapolated, or,
+ * if {@link #isParallel()}, all of them are sized by the threads of the worker
+ * pool.
+ * <p/>
+ * Whatever the mode, sizing stops once the CPU time spent reaches
+ * {@link #getCpuBudget()}. The sessions are sized in a random order, so the
+ * ones sized by then are a random sample too and the total is extrapolated
+ * from them, with a 95% confidence interval corrected for the finite number of
+ * sessions, see {@link SessionSizeEstimate}.
+ */
+public class SessionSizeEstimatorBean {
+
+    /**
+     * Two sided 95% quantile of the normal distribution.
+     */
+    private static final double Z_95 = 1.96;
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    private StatsWorkerPool workerPool;
+    private int exactLimit = 1000;
+    private int sampleSize = 400;
+    private boolean parallel = false;
+    private long cpuBudget = 5000;
+    private long timeout = 30000;
+    private final Random random = new Random();
+
+    public StatsWorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * @param workerPool pool sizing the sessions in parallel mode, on the calling thread if null
+     */
+    public void setWorkerPool(StatsWorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    public int getExactLimit() {
+        return exactLimit;
+    }
+
+    /**
+     * @param exactLimit number of sessions up to which all of them are sized on the calling thread
+     */
+    public void setExactLimit(int exactLimit) {
+        this.exactLimit = exactLimit;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = Math.max(sampleSize, 2);
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel whether all sessions are sized by the worker pool rather than a sample
+     * of them when there are more than {@link #getExactLimit()}
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return CPU time in milliseconds sizing may take, all threads together
+     */
+    public long getCpuBudget() {
+        return cpuBudget;
+    }
+
+    public void setCpuBudget(long cpuBudget) {
+        this.cpuBudget = cpuBudget;
+    }
+
+    /**
+     * @return time in milliseconds the worker pool is given, the sessions it
+     * has not sized by then are extrapolated
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param sessions sessions of one application
+     * @return their size, see {@link SessionSizeEstimate#getSizes()} for the size of each
+     */
+    public SessionSizeEstimate estimate(Session[] sessions) throws InterruptedException {
+        int count = sessions.length;
+        String mode;
+        int limit;
+        if (count <= exactLimit) {
+            mode = SessionSizeEstimate.MODE_EXACT;
+            limit = count;
+        } else if (parallel) {
+            mode = SessionSizeEstimate.MODE_PARALLEL;
+            limit = count;
+        } else {
+            mode = SessionSizeEstimate.MODE_SAMPLED;
+            limit = Math.min(sampleSize, count);
+        }
+
+        Sizing sizing = new Sizing(sessions, shuffle(count), limit);
+        if (SessionSizeEstimate.MODE_PARALLEL.equals(mode) && workerPool != null) {
+            ProbeMeter parent = ProbeMeter.current();
+            Runnable[] jobs = new Runnable[workerPool.getThreads()];
+            for (int i = 0; i < jobs.length; i++) {
+                jobs[i] = new SizingJob(sizing, parent);
+            }
+            workerPool.invokeAll(jobs, timeout);
+        } else {
+            new SizingJob(sizing, null).run();
+        }
+
+        SessionSizeEstimate estimate = sizing.close();
+        if (estimate.getSizedCount() < limit && ! SessionSizeEstimate.MODE_SAMPLED.equals(mode)) {
+            mode = SessionSizeEstimate.MODE_PARTIAL;
+            logger.info("Sized " + estimate.getSizedCount() + " of " + count + " sessions in "
+                    + estimate.getCpuTime() + "ms of CPU time, extrapolating");
+        }
+        estimate.setMode(mode);
+        return estimate;
+    }
+
+    /**
+     * @return a random permutation of the indices up to the given count
+     */
+    private int[] shuffle(int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        synchronized (random) {
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Sessions handed out to the jobs in random order, and the sizes they
+     * bring back.
+     */
+    private class Sizing {
+
+        private final Session[] sessions;
+        private final int[] order;
+        private final int limit;
+        private final long budget;
+        private final long[] sizes;
+        private int next = 0;
+        private int sized = 0;
+        private long spent = 0;
+        private long sum = 0;
+        private double sumOfSquares = 0;
+        private boolean closed = false;
+
+        Sizing(Session[] sessions, int[] order, int limit) {
+            this.sessions = sessions;
+            this.order = order;
+            this.limit = limit;
+            this.budget = cpuBudget * 1000000;
+            this.sizes = new long[sessions.length];
+            Arrays.fill(sizes, -1);
+        }
+
+        /**
+         * @return index of the next session to size, -1 once the limit is
+         * reached or the budget spent
+         */
+        synchronized int take() {
+            return closed || next >= limit || spent >= budget ? -1 : order[next++];
+        }
+
+        synchronized void sized(int index, long size, long cost) {
+            if (! closed) {
+                // an invalidated session takes no room
+                sizes[index] = Math.max(size, 0);
+                sized++;
+                sum += sizes[index];
+                sumOfSquares += (double) sizes[index] * sizes[index];
+                spent += cost;
+            }
+        }
+
+        synchronized SessionSizeEstimate close() {
+            closed = true;
+            int count = sessions.length;
+            SessionSizeEstimate estimate = new SessionSizeEstimate();
+            estimate.setSessionCount(count);
+            estimate.setSizedCount(sized);
+            estimate.setSizes(sizes);
+            estimate.setCpuTime(spent / 1000000);
+            if (sized == count || sized == 0) {
+                estimate.setSize(sum);
+            } else {
+                double mean = (double) sum / sized;
+                estimate.setSize(Math.round(mean * count));
+                if (sized > 1) {
+                    double variance = Math.max((sumOfSquares - sized * mean * mean) / (sized - 1), 0);
+                    double correction = (double) (count - sized) / (count - 1);
+                    estimate.setMargin(Math.round(Z_95 * count * Math.sqrt(variance / sized * correction)));
+                }
+            }
+            return estimate;
+        }
+    }
+
+    private class SizingJob implements Runnable {
+
+        private final Sizing sizing;
+        private final ProbeMeter parent;
+
+        SizingJob(Sizing sizing, ProbeMeter parent) {
+            this.sizing = sizing;
+            this.parent = parent;
+        }
+
+        public void run() {
+            ObjectSizer sizer = new ObjectSizer();
+            int index;
+            while ((index = sizing.take()) >= 0) {
+                ProbeMeter meter = ProbeMeter.start();
+                long size;
+                try {
+                    size = ApplicationUtils.getSessionSize(sizing.sessions[index], sizer);
+                } catch (RuntimeException e) {
+                    logger.error("Cannot estimate size of session " + sizing.sessions[index].getId(), e);
+                    size = 0;
+                } finally {
+                    meter.stop();
+                }
+                if (parent != null) {
+                    parent.add(meter);
+                }
+                long cost = ProbeMeter.isCpuTimeSupported() ? meter.getCpuTime() : meter.getWallTime() * 1000000;
+                sizing.sized(index, size, cost);
+            }
+        }
+    }
+}
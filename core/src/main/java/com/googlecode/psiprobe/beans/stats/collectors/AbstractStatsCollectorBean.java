@@ -10,15 +10,20 @@
  */
 package com.googlecode.psiprobe.beans.stats.collectors;
 
-import com.googlecode.psiprobe.Utils;
 import com.googlecode.psiprobe.beans.stats.listeners.StatsCollectionEvent;
 import com.googlecode.psiprobe.beans.stats.listeners.StatsCollectionListener;
+import com.googlecode.psiprobe.beans.stats.scheduler.StatsQuarantine;
+import com.googlecode.psiprobe.beans.stats.scheduler.StatsWorkerPool;
 import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
+import com.googlecode.psiprobe.tools.ProbeMeter;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import org.jfree.data.xy.XYDataItem;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * 
@@ -28,10 +33,19 @@ import org.jfree.data.xy.XYDataItem;
  */
 public abstract class AbstractStatsCollectorBean {
 
+    private Log logger = LogFactory.getLog(AbstractStatsCollectorBean.class);
+
     private StatsCollection statsCollection;
     private int maxSeries = 240;
+    private StatsWorkerPool workerPool;
+    private long jobTimeout = 10000;
+    private final StatsQuarantine quarantine = new StatsQuarantine();
     private List listeners;
-    private Map previousData = new TreeMap();
+    private final Map handleCache = new IdentityHashMap();
+    private long[] previousValues = new long[0];
+    private long[] previousTimes = new long[0];
+    private boolean[] previousSet = new boolean[0];
+    private boolean[] afterGap = new boolean[0];
 
     public StatsCollection getStatsCollection() {
         return statsCollection;
@@ -49,6 +63,29 @@ public abstract class AbstractStatsCollectorBean {
         this.maxSeries = maxSeries;
     }
 
+    public StatsWorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * @param workerPool pool running the per-context work of the collector, the work is done on
+     * the collector thread if not set
+     */
+    public void setWorkerPool(StatsWorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    public long getJobTimeout() {
+        return jobTimeout;
+    }
+
+    /**
+     * @param jobTimeout time in milliseconds the work of a context may take, from when it starts
+     */
+    public void setJobTimeout(long jobTimeout) {
+        this.jobTimeout = jobTimeout;
+    }
+
     public List getListeners() {
         return listeners;
     }
@@ -59,18 +96,137 @@ public abstract class AbstractStatsCollectorBean {
 
     public abstract void collect() throws Exception;
 
+    /**
+     * Returns the handles of a family of stats. The names are built from the templates by replacing
+     * "{0}" with the key, and registered only the first time the key is seen. For example
+     * <code>getHandles(appName, new String[] {"app.requests.{0}", "app.errors.{0}"})</code>.
+     *
+     * @param key key of the family, such as an application or a connector name
+     * @param templates stat name templates, the same array has to be passed for every key as the
+     * handles are cached per array and key
+     * @return handles in the order of the templates
+     */
+    protected int[] getHandles(String key, String[] templates) {
+        return getHandles(null, key, templates);
+    }
+
+    /**
+     * Same as {@link #getHandles(String, String[])}, the templates are also registered with the
+     * stats collection so that the series can be selected by the tag, for example
+     * <code>app.requests{app=*}</code>.
+     *
+     * @param tag name of the tag the key is the value of, such as "app"
+     */
+    protected int[] getHandles(String tag, String key, String[] templates) {
+        Map keys = (Map) handleCache.get(templates);
+        if (keys == null) {
+            keys = new HashMap();
+            handleCache.put(templates, keys);
+        }
+        int[] handles = (int[]) keys.get(key);
+        if (handles == null) {
+            handles = new int[templates.length];
+            for (int i = 0; i < templates.length; i++) {
+                String name = templates[i];
+                int p = name.indexOf("{0}");
+                if (p >= 0) {
+                    if (tag != null) {
+                        statsCollection.addKeyTemplate(name, tag);
+                    }
+                    name = name.substring(0, p) + key + name.substring(p + 3);
+                }
+                handles[i] = statsCollection.getHandle(name);
+            }
+            keys.put(key, handles);
+        }
+        return handles;
+    }
+
+    /**
+     * Runs per-context work, such as reading the stats of every application, on the worker pool.
+     * Work not done by the job timeout is abandoned, and the keys that keep timing out sit out a
+     * growing number of cycles, see {@link StatsQuarantine}. Work that never got a thread is not
+     * held against its key. Callers record a gap in the series of the jobs that did not complete,
+     * see {@link #buildGapStats(int, long)}.
+     *
+     * @param keys key of every job, such as the application name
+     * @param jobs jobs collecting the figures, they must not touch the stats collection
+     * @return status of every job, {@link StatsWorkerPool#COMPLETED} if its figures can be used
+     * @throws InterruptedException
+     */
+    protected int[] invokeAll(String[] keys, Runnable[] jobs) throws InterruptedException {
+        Runnable[] run = new Runnable[jobs.length];
+        for (int i = 0; i < jobs.length; i++) {
+            run[i] = quarantine.skip(keys[i]) ? null : jobs[i];
+        }
+        int[] status;
+        if (workerPool != null) {
+            ProbeMeter meter = ProbeMeter.current();
+            if (meter != null) {
+                for (int i = 0; i < run.length; i++) {
+                    run[i] = run[i] == null ? null : new MeteredJob(run[i], meter);
+                }
+            }
+            status = workerPool.invokeAll(run, jobTimeout);
+        } else {
+            status = new int[run.length];
+            for (int i = 0; i < run.length; i++) {
+                status[i] = StatsWorkerPool.SKIPPED;
+                if (run[i] != null) {
+                    try {
+                        run[i].run();
+                        status[i] = StatsWorkerPool.COMPLETED;
+                    } catch (RuntimeException e) {
+                        logger.error("Could not collect stats of " + keys[i], e);
+                        status[i] = StatsWorkerPool.FAILED;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < status.length; i++) {
+            if (status[i] == StatsWorkerPool.TIMED_OUT) {
+                int skip = quarantine.timedOut(keys[i]);
+                logger.warn("Stats of " + keys[i] + " not collected in " + jobTimeout + "ms"
+                        + (skip > 0 ? ", skipping " + skip + " cycles" : ""));
+            } else if (status[i] == StatsWorkerPool.NOT_STARTED) {
+                // waited behind hanging jobs, says nothing of its own context
+                logger.info("Stats of " + keys[i] + " not collected, no thread was free in time");
+            } else if (status[i] == StatsWorkerPool.COMPLETED) {
+                quarantine.completed(keys[i]);
+            }
+        }
+        return status;
+    }
+
     protected long buildDeltaStats(String name, long value) throws InterruptedException {
         return buildDeltaStats(name, value, System.currentTimeMillis());
     }
 
     protected long buildDeltaStats(String name, long value, long time) throws InterruptedException {
+        return statsCollection == null ? 0 : buildDeltaStats(statsCollection.getHandle(name), value, time);
+    }
+
+    protected long buildDeltaStats(int handle, long value) throws InterruptedException {
+        return buildDeltaStats(handle, value, System.currentTimeMillis());
+    }
+
+    protected long buildDeltaStats(int handle, long value, long time) throws InterruptedException {
         long delta = 0;
         if (statsCollection != null) {
-            long previousValue = Utils.toLong((Long) previousData.get(name), 0);
+            ensurePrevious(handle);
+            if (afterGap[handle]) {
+                // the value has grown over all the cycles missed, it only becomes the new baseline
+                previousValues[handle] = value;
+                previousSet[handle] = true;
+                afterGap[handle] = false;
+                return 0;
+            }
+            long previousValue = previousSet[handle] ? previousValues[handle] : 0;
             delta = value - previousValue;
             delta = delta > 0 ? delta : 0;
-            buildAbsoluteStats(name, delta, time);
-            previousData.put(name, new Long(value));
+            buildAbsoluteStats(handle, delta, time);
+            previousValues[handle] = value;
+            previousSet[handle] = true;
         }
         return delta;
     }
@@ -79,22 +235,20 @@ public abstract class AbstractStatsCollectorBean {
         buildAbsoluteStats(name, value, System.currentTimeMillis());
     }
 
-
     protected void buildAbsoluteStats(String name, long value, long time) throws InterruptedException {
-        List stats = statsCollection.getStats(name);
+        buildAbsoluteStats(statsCollection.getHandle(name), value, time);
+    }
+
+    protected void buildAbsoluteStats(int handle, long value, long time) throws InterruptedException {
+        StatsSeries stats = statsCollection.getStats(handle);
         if (stats == null) {
-            stats = statsCollection.newStats(name, maxSeries);
+            stats = statsCollection.newStats(handle, maxSeries);
         } else {
-            XYDataItem data = new XYDataItem(time, value);
-            statsCollection.lockForUpdate();
-            try {
-                stats.add(data);
-                houseKeepStats(stats);
-            } finally {
-                statsCollection.releaseLock();
-            }
+            String name = statsCollection.getName(handle);
+            houseKeepStats(name, stats);
+            statsCollection.addValue(name, stats, time, value);
             if (listeners != null) {
-                StatsCollectionEvent event = new StatsCollectionEvent(name, data);
+                StatsCollectionEvent event = new StatsCollectionEvent(name, time, value, stats);
                 for (Iterator it = listeners.iterator(); it.hasNext();) {
                     Object o = it.next();
                     if (o instanceof StatsCollectionListener) {
@@ -108,9 +262,29 @@ public abstract class AbstractStatsCollectorBean {
         }
     }
 
-    private class Entry {
-        long time;
-        long value;
+    /**
+     * Records a gap marker in the series, for a cycle its figure could not be read in. The value
+     * the next delta of the series would be computed against is dropped, so the next value read
+     * only sets a new baseline rather than adding up the growth of all the cycles missed.
+     *
+     * @param handle handle of the series
+     * @param time time of the cycle
+     */
+    protected void buildGapStats(int handle, long time) {
+        ensurePrevious(handle);
+        afterGap[handle] = true;
+        StatsSeries stats = statsCollection.getStats(handle);
+        if (stats != null) {
+            statsCollection.addValue(statsCollection.getName(handle), stats, time, StatsSeries.GAP);
+        }
+    }
+
+    /**
+     * @return true if a gap has been recorded in the series since its last delta, the next call
+     * to {@link #buildDeltaStats(int, long, long)} then records nothing and returns 0
+     */
+    protected boolean isAfterGap(int handle) {
+        return handle < afterGap.length && afterGap[handle];
     }
 
     /**
@@ -129,27 +303,44 @@ public abstract class AbstractStatsCollectorBean {
      * @throws InterruptedException
      */
     protected void buildTimePercentageStats(String name, long value, long time) throws InterruptedException {
-        Entry entry = (Entry) previousData.get(name);
-        if (entry == null) {
-            entry = new Entry();
-            entry.value = value;
-            entry.time = time;
-            previousData.put(name, entry);
-        } else {
-            double valueDelta = value - entry.value;
-            double timeDelta = time - entry.time;
+        buildTimePercentageStats(statsCollection.getHandle(name), value, time);
+    }
+
+    protected void buildTimePercentageStats(int handle, long value, long time) throws InterruptedException {
+        ensurePrevious(handle);
+        if (previousSet[handle] && time > previousTimes[handle]) {
+            double valueDelta = value - previousValues[handle];
+            double timeDelta = time - previousTimes[handle];
             double statValue = valueDelta * 100 / timeDelta;
-            statsCollection.lockForUpdate();
-            try {
-                List stats = statsCollection.getStats(name);
-                if (stats == null) {
-                    stats = statsCollection.newStats(name, maxSeries);
-                }
-                stats.add(stats.size(), new XYDataItem(time, statValue));
-                houseKeepStats(stats);
-            } finally {
-                statsCollection.releaseLock();
+            StatsSeries stats = statsCollection.getStats(handle);
+            if (stats == null) {
+                stats = statsCollection.newStats(handle, maxSeries);
             }
+            String name = statsCollection.getName(handle);
+            houseKeepStats(name, stats);
+            statsCollection.addValue(name, stats, time, statValue);
+        }
+        // the next percentage covers the time from this sample only
+        previousValues[handle] = value;
+        previousTimes[handle] = time;
+        previousSet[handle] = true;
+    }
+
+    private void ensurePrevious(int handle) {
+        if (handle >= previousSet.length) {
+            int length = Math.max(handle + 1, previousSet.length * 2);
+            long[] values = new long[length];
+            long[] times = new long[length];
+            boolean[] set = new boolean[length];
+            boolean[] gap = new boolean[length];
+            System.arraycopy(previousValues, 0, values, 0, previousValues.length);
+            System.arraycopy(previousTimes, 0, times, 0, previousTimes.length);
+            System.arraycopy(previousSet, 0, set, 0, previousSet.length);
+            System.arraycopy(afterGap, 0, gap, 0, afterGap.length);
+            previousValues = values;
+            previousTimes = times;
+            previousSet = set;
+            afterGap = gap;
         }
     }
 
@@ -157,9 +348,38 @@ public abstract class AbstractStatsCollectorBean {
         statsCollection.resetStats(name);
     }
 
-    private void houseKeepStats(List stats) {
-        while (stats.size() > maxSeries) {
-            stats.remove(0);
+    /**
+     * The series trims itself once it is full, so there is nothing to remove here. Series restored
+     * from disk may have been created with a different span though, those are resized on first use.
+     * Retention policies of the stats collection take precedence over the span of the collector.
+     */
+    private void houseKeepStats(String name, StatsSeries stats) {
+        int capacity = statsCollection.getCapacity(name, maxSeries);
+        if (stats.getCapacity() != capacity) {
+            stats.setCapacity(capacity);
+        }
+    }
+
+    /**
+     * Job whose costs are added to the meter of the collector that started it.
+     */
+    private static class MeteredJob implements Runnable {
+        private final Runnable job;
+        private final ProbeMeter parent;
+
+        MeteredJob(Runnable job, ProbeMeter parent) {
+            this.job = job;
+            this.parent = parent;
+        }
+
+        public void run() {
+            ProbeMeter meter = ProbeMeter.start();
+            try {
+                job.run();
+            } finally {
+                meter.stop();
+                parent.add(meter);
+            }
         }
     }
 }
@@ -12,8 +12,10 @@ package com.googlecode.psiprobe.beans.stats.collectors;
 
 import com.googlecode.psiprobe.TomcatContainer;
 import com.googlecode.psiprobe.beans.ContainerWrapperBean;
+import com.googlecode.psiprobe.beans.stats.scheduler.StatsWorkerPool;
 import com.googlecode.psiprobe.tools.ApplicationUtils;
 import com.googlecode.psiprobe.model.Application;
+import com.googlecode.psiprobe.tools.LatencyHistogram;
 import java.util.List;
 import java.util.Iterator;
 import javax.servlet.ServletContext;
@@ -23,13 +25,24 @@ import org.apache.catalina.Context;
 import org.springframework.web.context.ServletContextAware;
 
 /**
- * Collects application statistics
+ * Collects application statistics. Where the agent valve records the duration
+ * of every request, the 50th, 90th and 99th percentile and the maximum of the
+ * durations since the previous collection are collected as well, in
+ * microseconds, as "app.latency.p50.{app}" and so on. The durations are taken
+ * every cycle, also for applications whose other stats could not be read.
  * 
  * @author Andy Shapoval
  * @author Mark Lewis
  */
 public class AppStatsCollectorBean extends AbstractStatsCollectorBean implements ServletContextAware {
 
+    private static final String[] APP_STATS = new String[] {
+            "app.requests.{0}", "app.errors.{0}", "app.proc_time.{0}", "app.avg_proc_time.{0}",
+            "app.latency.p50.{0}", "app.latency.p90.{0}", "app.latency.p99.{0}", "app.latency.max.{0}"};
+    private static final String[] TOTAL_STATS = new String[] {
+            "total.requests", "total.errors", "total.avg_proc_time",
+            "total.latency.p50", "total.latency.p90", "total.latency.p99", "total.latency.max"};
+
     private Log logger = LogFactory.getLog(AppStatsCollectorBean.class);
 
     private ContainerWrapperBean containerWrapper;
@@ -75,23 +88,70 @@ public class AppStatsCollectorBean extends AbstractStatsCollectorBean implements
                 long totalErrDelta = 0;
                 long totalAvgProcTime = 0;
                 int participatingAppCount = 0;
+                LatencyHistogram totalLatency = null;
 
                 List contexts = tomcatContainer.findContexts();
-                for (Iterator i = contexts.iterator(); i.hasNext(); ) {
-                    Context ctx = (Context) i.next();
-
+                final Context[] ctxs = new Context[contexts.size()];
+                final Application[] apps = new Application[ctxs.length];
+                String[] appNames = new String[ctxs.length];
+                Runnable[] jobs = new Runnable[ctxs.length];
+                for (int i = 0; i < ctxs.length; i++) {
+                    Context ctx = (Context) contexts.get(i);
                     if (ctx != null && ctx.getName() != null) {
-                        Application app = new Application();
-                        ApplicationUtils.collectApplicationServletStats(ctx, app);
+                        final int index = i;
+                        ctxs[i] = ctx;
+                        appNames[i] = "".equals(ctx.getName()) ? "/" : ctx.getName();
+                        jobs[i] = new Runnable() {
+                            public void run() {
+                                Application app = new Application();
+                                ApplicationUtils.collectApplicationServletStats(ctxs[index], app);
+                                apps[index] = app;
+                            }
+                        };
+                    }
+                }
+                int[] status = invokeAll(appNames, jobs);
 
-                        String appName = "".equals(ctx.getName()) ? "/" : ctx.getName();
+                for (int i = 0; i < ctxs.length; i++) {
+                    Context ctx = ctxs[i];
+                    if (ctx == null) {
+                        continue;
+                    }
+                    String appName = appNames[i];
+                    int[] handles = getHandles("app", appName, APP_STATS);
+
+                    // the durations are recorded by the valve rather than read from the
+                    // application, they are taken every cycle so that they never pile up
+                    LatencyHistogram latency = tomcatContainer.snapshotLatencies(ctx);
+                    if (latency != null) {
+                        buildLatencyStats(handles, 4, latency, currentTime);
+                        if (!excludeFromTotal(ctx)) {
+                            if (totalLatency == null) {
+                                totalLatency = new LatencyHistogram();
+                            }
+                            totalLatency.add(latency);
+                        }
+                    }
 
-                        long reqDelta = buildDeltaStats("app.requests." + appName, app.getRequestCount(), currentTime);
-                        long errDelta = buildDeltaStats("app.errors." + appName, app.getErrorCount());
-                        long procTimeDelta = buildDeltaStats("app.proc_time." + appName, app.getProcessingTime(), currentTime);
+                    if (status[i] != StatsWorkerPool.COMPLETED) {
+                        // stats that could not be read in time leave a gap and are left out of the totals
+                        for (int h = 0; h < 4; h++) {
+                            buildGapStats(handles[h], currentTime);
+                        }
+                    } else if (isAfterGap(handles[0])) {
+                        // the counters have grown over the cycles missed, they are only the new baseline
+                        Application app = apps[i];
+                        buildDeltaStats(handles[0], app.getRequestCount(), currentTime);
+                        buildDeltaStats(handles[1], app.getErrorCount(), currentTime);
+                        buildDeltaStats(handles[2], app.getProcessingTime(), currentTime);
+                    } else {
+                        Application app = apps[i];
+                        long reqDelta = buildDeltaStats(handles[0], app.getRequestCount(), currentTime);
+                        long errDelta = buildDeltaStats(handles[1], app.getErrorCount());
+                        long procTimeDelta = buildDeltaStats(handles[2], app.getProcessingTime(), currentTime);
 
                         long avgProcTime = reqDelta == 0 ? 0 : procTimeDelta / reqDelta;
-                        buildAbsoluteStats( "app.avg_proc_time." + appName, avgProcTime, currentTime);
+                        buildAbsoluteStats(handles[3], avgProcTime, currentTime);
 
                         // make sure applications that did not serve any requests
                         // do not participate in average response time equasion thus diluting the value
@@ -106,14 +166,26 @@ public class AppStatsCollectorBean extends AbstractStatsCollectorBean implements
                     }
                 }
                 // build totals for all applications
-                buildAbsoluteStats("total.requests", totalReqDelta, currentTime);
-                buildAbsoluteStats("total.errors", totalErrDelta, currentTime);
-                buildAbsoluteStats("total.avg_proc_time", participatingAppCount == 0 ? 0 : totalAvgProcTime / participatingAppCount, currentTime);
+                int[] totals = getHandles("", TOTAL_STATS);
+                buildAbsoluteStats(totals[0], totalReqDelta, currentTime);
+                buildAbsoluteStats(totals[1], totalErrDelta, currentTime);
+                buildAbsoluteStats(totals[2], participatingAppCount == 0 ? 0 : totalAvgProcTime / participatingAppCount, currentTime);
+                if (totalLatency != null) {
+                    buildLatencyStats(totals, 3, totalLatency, currentTime);
+                }
             }
             logger.debug("app stats collected in " + (System.currentTimeMillis() - currentTime) + "ms.");
         }
     }
 
+    private void buildLatencyStats(int[] handles, int offset, LatencyHistogram latency, long time)
+            throws InterruptedException {
+        buildAbsoluteStats(handles[offset], latency.getValueAtPercentile(50), time);
+        buildAbsoluteStats(handles[offset + 1], latency.getValueAtPercentile(90), time);
+        buildAbsoluteStats(handles[offset + 2], latency.getValueAtPercentile(99), time);
+        buildAbsoluteStats(handles[offset + 3], latency.getMax(), time);
+    }
+
     private boolean excludeFromTotal(Context ctx) {
         return isSelfIgnored() && getServletContext().equals(ctx.getServletContext());
     }
@@ -138,6 +210,10 @@ public class AppStatsCollectorBean extends AbstractStatsCollectorBean implements
         resetStats("total.requests");
         resetStats("total.errors");
         resetStats("total.avg_proc_time");
+        resetStats("total.latency.p50");
+        resetStats("total.latency.p90");
+        resetStats("total.latency.p99");
+        resetStats("total.latency.max");
     }
 
     public void reset(String appName) {
@@ -145,6 +221,10 @@ public class AppStatsCollectorBean extends AbstractStatsCollectorBean implements
         resetStats("app.proc_time." + appName);
         resetStats("app.errors." + appName);
         resetStats("app.avg_proc_time." + appName);
+        resetStats("app.latency.p50." + appName);
+        resetStats("app.latency.p90." + appName);
+        resetStats("app.latency.p99." + appName);
+        resetStats("app.latency.max." + appName);
     }
 
 }
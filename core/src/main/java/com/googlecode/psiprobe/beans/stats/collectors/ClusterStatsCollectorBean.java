@@ -20,6 +20,9 @@ import com.googlecode.psiprobe.model.jmx.Cluster;
  * @author Vlad Ilyushchenko
  */
 public class ClusterStatsCollectorBean extends AbstractStatsCollectorBean {
+    private static final String[] CLUSTER_STATS = new String[] {
+            "cluster.received", "cluster.sent", "cluster.req.received", "cluster.req.sent"};
+
     private ContainerWrapperBean containerWrapper;
     private ClusterWrapperBean clusterWrapper;
 
@@ -46,10 +49,11 @@ public class ClusterStatsCollectorBean extends AbstractStatsCollectorBean {
         if (container != null) {
             Cluster cluster = clusterWrapper.getCluster(container.getName(), container.getHostName(), false);
             if (cluster != null) {
-                buildDeltaStats("cluster.received", cluster.getTotalReceivedBytes());
-                buildDeltaStats("cluster.sent", cluster.getSenderTotalBytes());
-                buildDeltaStats("cluster.req.received", cluster.getNrOfMsgsReceived());
-                buildDeltaStats("cluster.req.sent", cluster.getSenderNrOfRequests());
+                int[] handles = getHandles("", CLUSTER_STATS);
+                buildDeltaStats(handles[0], cluster.getTotalReceivedBytes());
+                buildDeltaStats(handles[1], cluster.getSenderTotalBytes());
+                buildDeltaStats(handles[2], cluster.getNrOfMsgsReceived());
+                buildDeltaStats(handles[3], cluster.getSenderNrOfRequests());
             }
         }
     }
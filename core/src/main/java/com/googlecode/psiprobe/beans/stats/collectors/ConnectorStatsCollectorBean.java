@@ -22,6 +22,10 @@ import java.util.List;
  */
 public class ConnectorStatsCollectorBean extends AbstractStatsCollectorBean {
 
+    private static final String[] CONNECTOR_STATS = new String[] {
+            "stat.connector.{0}.requests", "stat.connector.{0}.errors", "stat.connector.{0}.sent",
+            "stat.connector.{0}.received", "stat.connector.{0}.proc_time"};
+
     private ContainerListenerBean listenerBean;
 
     public ContainerListenerBean getListenerBean() {
@@ -36,12 +40,12 @@ public class ConnectorStatsCollectorBean extends AbstractStatsCollectorBean {
         List connectors = listenerBean.getConnectors(false);
         for (Iterator it = connectors.iterator(); it.hasNext();) {
             Connector connector = (Connector) it.next();
-            String statName = "stat.connector." + connector.getName();
-            buildDeltaStats(statName + ".requests", connector.getRequestCount());
-            buildDeltaStats(statName + ".errors", connector.getErrorCount());
-            buildDeltaStats(statName + ".sent", connector.getBytesSent());
-            buildDeltaStats(statName + ".received", connector.getBytesReceived());
-            buildDeltaStats(statName + ".proc_time", connector.getProcessingTime());
+            int[] handles = getHandles("connector", connector.getName(), CONNECTOR_STATS);
+            buildDeltaStats(handles[0], connector.getRequestCount());
+            buildDeltaStats(handles[1], connector.getErrorCount());
+            buildDeltaStats(handles[2], connector.getBytesSent());
+            buildDeltaStats(handles[3], connector.getBytesReceived());
+            buildDeltaStats(handles[4], connector.getProcessingTime());
         }
     }
 
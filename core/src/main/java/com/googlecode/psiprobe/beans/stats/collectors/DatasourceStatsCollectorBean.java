@@ -11,9 +11,14 @@
 package com.googlecode.psiprobe.beans.stats.collectors;
 
 import com.googlecode.psiprobe.beans.ContainerWrapperBean;
+import com.googlecode.psiprobe.beans.stats.scheduler.StatsWorkerPool;
 import com.googlecode.psiprobe.model.ApplicationResource;
 import com.googlecode.psiprobe.model.DataSourceInfo;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import org.apache.catalina.Context;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -25,9 +30,15 @@ public class DatasourceStatsCollectorBean extends AbstractStatsCollectorBean {
 
     private static final String PREFIX_ESTABLISHED = "ds.est.";
     private static final String PREFIX_BUSY = "ds.busy.";
+    private static final String[] DATASOURCE_STATS = new String[] {PREFIX_ESTABLISHED + "{0}", PREFIX_BUSY + "{0}"};
 
     private Log logger = LogFactory.getLog(DatasourceStatsCollectorBean.class);
     private ContainerWrapperBean containerWrapper;
+    /**
+     * Handles of the data sources last read for every key, the series a job that did not
+     * complete leaves a gap in.
+     */
+    private Map keyHandles = new HashMap();
 
     public ContainerWrapperBean getContainerWrapper() {
         return containerWrapper;
@@ -42,22 +53,81 @@ public class DatasourceStatsCollectorBean extends AbstractStatsCollectorBean {
         if (containerWrapper == null) {
             logger.error("Cannot collect data source stats. Container wrapper is not set.");
         } else {
-            List dataSources = getContainerWrapper().getDataSources();
-            for (int i = 0; i < dataSources.size(); i++) {
-                ApplicationResource ds = (ApplicationResource) dataSources.get(i);
-                String appName = ds.getApplicationName();
-                String name = (appName == null ? "" : appName) + "/" + ds.getName();
-                DataSourceInfo dsi = ds.getDataSourceInfo();
-                int numEstablished = dsi.getEstablishedConnections();
-                int numBusy = dsi.getBusyConnections();
-                logger.trace("Collecting stats for datasource: " + name);
-                buildAbsoluteStats(PREFIX_ESTABLISHED + name, numEstablished, currentTime);
-                buildAbsoluteStats(PREFIX_BUSY + name, numBusy, currentTime);
+            // the data sources of every application are read by a job of their own, so that a
+            // deadlocked data source only leaves a gap in the series of its application
+            List contexts = containerWrapper.getTomcatContainer() == null
+                    ? new ArrayList() : containerWrapper.getTomcatContainer().findContexts();
+            final List[] dataSources = new List[contexts.size() + 1];
+            String[] keys = new String[dataSources.length];
+            Runnable[] jobs = new Runnable[dataSources.length];
+            for (int i = 0; i < contexts.size(); i++) {
+                final Context context = (Context) contexts.get(i);
+                final int index = i;
+                keys[i] = context.getName();
+                jobs[i] = new Runnable() {
+                    public void run() {
+                        dataSources[index] = readDataSources(context);
+                    }
+                };
+            }
+            keys[contexts.size()] = "global";
+            jobs[contexts.size()] = new Runnable() {
+                public void run() {
+                    dataSources[dataSources.length - 1] = readDataSources(null);
+                }
+            };
+            int[] status = invokeAll(keys, jobs);
+
+            // keys no longer deployed are dropped
+            Map previousHandles = keyHandles;
+            keyHandles = new HashMap();
+            for (int j = 0; j < dataSources.length; j++) {
+                if (status[j] != StatsWorkerPool.COMPLETED) {
+                    List handleList = (List) previousHandles.get(keys[j]);
+                    if (handleList != null) {
+                        keyHandles.put(keys[j], handleList);
+                    }
+                    for (int i = 0; handleList != null && i < handleList.size(); i++) {
+                        int[] handles = (int[]) handleList.get(i);
+                        buildGapStats(handles[0], currentTime);
+                        buildGapStats(handles[1], currentTime);
+                    }
+                    continue;
+                }
+                List handleList = new ArrayList(dataSources[j].size());
+                keyHandles.put(keys[j], handleList);
+                for (int i = 0; i < dataSources[j].size(); i++) {
+                    ApplicationResource ds = (ApplicationResource) dataSources[j].get(i);
+                    String appName = ds.getApplicationName();
+                    String name = (appName == null ? "" : appName) + "/" + ds.getName();
+                    DataSourceInfo dsi = ds.getDataSourceInfo();
+                    int numEstablished = dsi.getEstablishedConnections();
+                    int numBusy = dsi.getBusyConnections();
+                    logger.trace("Collecting stats for datasource: " + name);
+                    int[] handles = getHandles("datasource", name, DATASOURCE_STATS);
+                    handleList.add(handles);
+                    buildAbsoluteStats(handles[0], numEstablished, currentTime);
+                    buildAbsoluteStats(handles[1], numBusy, currentTime);
+                }
             }
             logger.debug("datasource stats collected in " + (System.currentTimeMillis() - currentTime) + "ms");
         }
     }
 
+    /**
+     * @param context application or null for the global data sources
+     */
+    private List readDataSources(Context context) {
+        try {
+            return context == null ? containerWrapper.getGlobalDataSources()
+                    : containerWrapper.getPrivateDataSources(context);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
     public void reset() throws Exception {
         if (containerWrapper == null) {
             logger.error("Cannot reset application stats. Container wrapper is not set.");
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans.stats.collectors;
+
+import com.googlecode.psiprobe.beans.JvmGCInfoAccessorBean;
+import com.googlecode.psiprobe.model.jmx.GarbageCollector;
+import java.util.List;
+
+/**
+ * Collects the series of every garbage collector: "gc.{collector}.count" and
+ * ".time" (ms) spent since the previous sample, and the pauses of the sample
+ * counted in the buckets of {@link GarbageCollector#PAUSE_BUCKETS},
+ * ".pauses.10" being the pauses of up to 10ms, ".pauses.inf" the ones longer
+ * than the last bucket. "gc.overhead" is the percentage of time spent
+ * collecting by all collectors, "gc.old_gen" the bytes of the old generation
+ * still in use after its last collection.
+ */
+public class JvmGCStatsCollectorBean extends AbstractStatsCollectorBean {
+
+    public static final String[] GC_STATS;
+
+    static {
+        long[] buckets = GarbageCollector.PAUSE_BUCKETS;
+        GC_STATS = new String[buckets.length + 3];
+        GC_STATS[0] = "gc.{0}.count";
+        GC_STATS[1] = "gc.{0}.time";
+        for (int i = 0; i < buckets.length; i++) {
+            GC_STATS[i + 2] = "gc.{0}.pauses." + buckets[i];
+        }
+        GC_STATS[buckets.length + 2] = "gc.{0}.pauses.inf";
+    }
+
+    private JvmGCInfoAccessorBean jvmGCInfoAccessor;
+
+    public JvmGCInfoAccessorBean getJvmGCInfoAccessor() {
+        return jvmGCInfoAccessor;
+    }
+
+    public void setJvmGCInfoAccessor(JvmGCInfoAccessorBean jvmGCInfoAccessor) {
+        this.jvmGCInfoAccessor = jvmGCInfoAccessor;
+    }
+
+    public void collect() throws Exception {
+        List collectors = jvmGCInfoAccessor.getCollectors();
+        long time = System.currentTimeMillis();
+        long totalTime = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            GarbageCollector gc = (GarbageCollector) collectors.get(i);
+            int[] handles = getHandles("collector", gc.getName(), GC_STATS);
+            buildDeltaStats(handles[0], gc.getCollectionCount(), time);
+            buildDeltaStats(handles[1], gc.getCollectionTime(), time);
+            long[] pauses = gc.getPauses();
+            for (int j = 0; j < pauses.length; j++) {
+                buildDeltaStats(handles[j + 2], pauses[j], time);
+            }
+            totalTime += Math.max(gc.getCollectionTime(), 0);
+        }
+        if (! collectors.isEmpty()) {
+            buildTimePercentageStats("gc.overhead", totalTime, time);
+        }
+        long oldGen = jvmGCInfoAccessor.getOldGenUsedAfterGC();
+        if (oldGen >= 0) {
+            buildAbsoluteStats("gc.old_gen", oldGen, time);
+        }
+    }
+}
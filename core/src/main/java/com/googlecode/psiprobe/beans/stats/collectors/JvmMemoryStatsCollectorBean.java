@@ -20,6 +20,8 @@ import java.util.List;
  * @author Vlad Ilyushchenko
  */
 public class JvmMemoryStatsCollectorBean extends AbstractStatsCollectorBean {
+    private static final String[] POOL_STATS = new String[] {"memory.pool.{0}"};
+
     private JvmMemoryInfoAccessorBean jvmMemoryInfoAccessor;
 
     public JvmMemoryInfoAccessorBean getJvmMemoryInfoAccessor() {
@@ -35,7 +37,7 @@ public class JvmMemoryStatsCollectorBean extends AbstractStatsCollectorBean {
         long time = System.currentTimeMillis();
         for (Iterator it = pools.iterator(); it.hasNext(); ) {
             MemoryPool pool = (MemoryPool) it.next();
-            buildAbsoluteStats("memory.pool."+pool.getName(), pool.getUsed(), time);
+            buildAbsoluteStats(getHandles("pool", pool.getName(), POOL_STATS)[0], pool.getUsed(), time);
         }
     }
 }
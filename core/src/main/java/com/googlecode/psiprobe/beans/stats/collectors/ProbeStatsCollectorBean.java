@@ -0,0 +1,77 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans.stats.collectors;
+
+import com.googlecode.psiprobe.model.ProbeOverhead;
+import com.googlecode.psiprobe.tools.ProbeMeter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects what the probe itself costs. Collectors, controllers and series
+ * providers {@link #record(String, ProbeMeter)} their {@link ProbeMeter}s
+ * under a component name such as "collector.app", and every collection turns
+ * the totals into the series "probe.{component}.count", ".time" (wall time,
+ * ms), ".cpu" (ms), ".jmx" (MBeanServer calls) and ".alloc" (bytes), each
+ * sample being the amount spent since the previous one.
+ */
+public class ProbeStatsCollectorBean extends AbstractStatsCollectorBean {
+
+    public static final String[] PROBE_STATS = new String[] {
+            "probe.{0}.count", "probe.{0}.time", "probe.{0}.cpu", "probe.{0}.jmx", "probe.{0}.alloc"};
+
+    private final Map overheads = new TreeMap();
+
+    /**
+     * Adds a stopped meter to the totals of a component.
+     */
+    public void record(String component, ProbeMeter meter) {
+        synchronized (overheads) {
+            ProbeOverhead o = (ProbeOverhead) overheads.get(component);
+            if (o == null) {
+                o = new ProbeOverhead();
+                o.setName(component);
+                overheads.put(component, o);
+            }
+            o.add(meter);
+        }
+    }
+
+    /**
+     * @return copies of the totals of every component, by name
+     */
+    public List getOverheads() {
+        synchronized (overheads) {
+            List list = new ArrayList(overheads.size());
+            for (Iterator it = overheads.values().iterator(); it.hasNext();) {
+                list.add(new ProbeOverhead((ProbeOverhead) it.next()));
+            }
+            return list;
+        }
+    }
+
+    public void collect() throws Exception {
+        long currentTime = System.currentTimeMillis();
+        List list = getOverheads();
+        for (int i = 0; i < list.size(); i++) {
+            ProbeOverhead o = (ProbeOverhead) list.get(i);
+            int[] handles = getHandles("component", o.getName(), PROBE_STATS);
+            buildDeltaStats(handles[0], o.getInvocations(), currentTime);
+            buildDeltaStats(handles[1], o.getWallTime(), currentTime);
+            buildDeltaStats(handles[2], o.getCpuTime(), currentTime);
+            buildDeltaStats(handles[3], o.getJmxCalls(), currentTime);
+            buildDeltaStats(handles[4], o.getAllocatedBytes(), currentTime);
+        }
+    }
+}
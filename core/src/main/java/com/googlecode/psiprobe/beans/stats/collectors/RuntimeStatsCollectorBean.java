@@ -19,6 +19,9 @@ import com.googlecode.psiprobe.model.jmx.RuntimeInformation;
  * @author Mark Lewis
  */
 public class RuntimeStatsCollectorBean extends AbstractStatsCollectorBean {
+    private static final String[] RUNTIME_STATS = new String[] {
+            "os.memory.committed", "os.memory.physical", "os.memory.swap", "os.fd.open", "os.fd.max", "os.cpu"};
+
     private RuntimeInfoAccessorBean runtimeInfoAccessorBean;
 
     public RuntimeInfoAccessorBean getRuntimeInfoAccessorBean() {
@@ -33,16 +36,17 @@ public class RuntimeStatsCollectorBean extends AbstractStatsCollectorBean {
         RuntimeInformation ri = runtimeInfoAccessorBean.getRuntimeInformation();
         if (ri != null) {
             long time = System.currentTimeMillis();
-            buildAbsoluteStats("os.memory.committed", ri.getCommittedVirtualMemorySize()/1024, time);
-            buildAbsoluteStats("os.memory.physical", (ri.getTotalPhysicalMemorySize() - ri.getFreePhysicalMemorySize())/1024, time);
-            buildAbsoluteStats("os.memory.swap", (ri.getTotalSwapSpaceSize() - ri.getFreeSwapSpaceSize())/1024, time);
+            int[] handles = getHandles("", RUNTIME_STATS);
+            buildAbsoluteStats(handles[0], ri.getCommittedVirtualMemorySize()/1024, time);
+            buildAbsoluteStats(handles[1], (ri.getTotalPhysicalMemorySize() - ri.getFreePhysicalMemorySize())/1024, time);
+            buildAbsoluteStats(handles[2], (ri.getTotalSwapSpaceSize() - ri.getFreeSwapSpaceSize())/1024, time);
 
-            buildAbsoluteStats("os.fd.open", ri.getOpenFDCount(), time);
-            buildAbsoluteStats("os.fd.max", ri.getMaxFDCount(), time);
+            buildAbsoluteStats(handles[3], ri.getOpenFDCount(), time);
+            buildAbsoluteStats(handles[4], ri.getMaxFDCount(), time);
             //convert from nanoseconds so times use the same units
             long processCpuTimeMs = ri.getProcessCpuTime() / 1000000;
             //divide by the number of processors to reflect shared load (<= 100%)
-            buildTimePercentageStats("os.cpu", processCpuTimeMs / ri.getAvailableProcessors(), time);
+            buildTimePercentageStats(handles[5], processCpuTimeMs / ri.getAvailableProcessors(), time);
         }
     }
 }
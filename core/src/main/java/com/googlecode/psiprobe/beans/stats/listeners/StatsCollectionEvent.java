@@ -10,7 +10,7 @@
  */
 package com.googlecode.psiprobe.beans.stats.listeners;
 
-import org.jfree.data.xy.XYDataItem;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
 
 /**
  *
@@ -19,18 +19,22 @@ import org.jfree.data.xy.XYDataItem;
 public class StatsCollectionEvent {
 
     private String name;
-    private XYDataItem data;
+    private long time;
+    private double value;
+    private StatsSeries series;
 
     public StatsCollectionEvent() {
     }
 
-    public StatsCollectionEvent(String name, XYDataItem data) {
+    public StatsCollectionEvent(String name, long time, double value, StatsSeries series) {
         this.name = name;
-        this.data = data;
+        this.time = time;
+        this.value = value;
+        this.series = series;
     }
 
     public StatsCollectionEvent(String name, long x, long y) {
-        this(name, new XYDataItem(x, y));
+        this(name, x, y, null);
     }
 
     public String getName() {
@@ -41,20 +45,32 @@ public class StatsCollectionEvent {
         this.name = name;
     }
 
-    public XYDataItem getData() {
-        return data;
+    public long getValue() {
+        return (long) value;
     }
 
-    public void setData(XYDataItem data) {
-        this.data = data;
+    public void setValue(double value) {
+        this.value = value;
     }
 
-    public long getValue() {
-        return getData().getY().longValue();
+    public long getTime() {
+        return time;
     }
 
-    public long getTime() {
-        return getData().getX().longValue();
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    /**
+     * @return the series the value was added to. Listeners that need the history of the series
+     * can walk it with {@link StatsSeries#cursor()}. May be null.
+     */
+    public StatsSeries getSeries() {
+        return series;
+    }
+
+    public void setSeries(StatsSeries series) {
+        this.series = series;
     }
 
 }
@@ -10,11 +10,13 @@
  */
 package com.googlecode.psiprobe.beans.stats.providers;
 
-import java.util.List;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
+import com.googlecode.psiprobe.tools.TimeExpression;
+import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.jfree.data.xy.XYDataItem;
 import org.jfree.data.xy.XYSeries;
+import org.springframework.web.bind.ServletRequestUtils;
 
 /**
  * 
@@ -25,13 +27,26 @@ public abstract class AbstractSeriesProvider implements SeriesProvider {
 
     protected Log logger = LogFactory.getLog(getClass());
 
-    protected XYSeries toSeries(String legend, List stats) {
+    /**
+     * Reads the time window to chart from the "w" request parameter, a time expression
+     * such as "2d".
+     *
+     * @return window in seconds or 0 if the parameter is missing or invalid
+     */
+    protected long getWindow(HttpServletRequest request) {
+        try {
+            return TimeExpression.inSeconds(ServletRequestUtils.getStringParameter(request, "w", null));
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    protected XYSeries toSeries(String legend, StatsSeries stats) {
         XYSeries xySeries = new XYSeries(legend, true, false);
-        synchronized (stats) {
-            for (int i = 0; i < stats.size(); i++) {
-                XYDataItem item = (XYDataItem) stats.get(i);
-                xySeries.addOrUpdate(item.getX(), item.getY());
-            }
+        for (StatsSeries.Cursor c = stats.cursor(); c.next();) {
+            // renderers draw no line through a missing value
+            xySeries.addOrUpdate(new Long(c.getTime()),
+                    StatsSeries.isGap(c.getValue()) ? null : new Double(c.getValue()));
         }
         return xySeries;
     }
@@ -11,7 +11,7 @@
 package com.googlecode.psiprobe.beans.stats.providers;
 
 import com.googlecode.psiprobe.model.stats.StatsCollection;
-import java.util.List;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
 import javax.servlet.http.HttpServletRequest;
 import org.jfree.data.xy.DefaultTableXYDataset;
 import org.springframework.web.bind.ServletRequestUtils;
@@ -38,7 +38,8 @@ public class ConnectorSeriesProvider extends AbstractSeriesProvider {
 
 
         if (connectorName != null && statType != null) {
-            List l = statsCollection.getStats("stat.connector." + connectorName + "." + statType);
+            StatsSeries l = statsCollection.getStats("stat.connector." + connectorName + "." + statType,
+                    getWindow(request));
             if (l != null) {
                 dataset.addSeries(toSeries(series1Legend, l));
             }
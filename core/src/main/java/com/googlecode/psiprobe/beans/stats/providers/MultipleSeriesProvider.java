@@ -11,6 +11,8 @@
 package com.googlecode.psiprobe.beans.stats.providers;
 
 import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.model.stats.StatsKey;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -20,19 +22,22 @@ import java.util.ListIterator;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import org.jfree.data.xy.DefaultTableXYDataset;
-import org.jfree.data.xy.XYDataItem;
 
 /**
- * Retrieves stats series with names that start with the statNamePrefix.
+ * Retrieves stats series with names that start with the statNamePrefix, or
+ * series matching a selector such as <code>app.requests{app=*}</code>.
  * Either all matching series or only "top" N ones can be retrieved.
  * Determines top series by comparing max moving avg values.
- * Derrives legend entries from series names by removing the statNamePrefix.
+ * Derrives legend entries from series names by removing the statNamePrefix,
+ * or from the value of the legendTag of selected series.
  * Ignores series param (sp) and legend (s...l) request parameters.
  *
  * @author Andy Shapoval
  */
 public class MultipleSeriesProvider extends AbstractSeriesProvider {
     private String statNamePrefix;
+    private String selector;
+    private String legendTag;
     private int top = 0;
     private int movingAvgFrame = 0;
 
@@ -47,6 +52,30 @@ public class MultipleSeriesProvider extends AbstractSeriesProvider {
         this.statNamePrefix = statNamePrefix;
     }
 
+    public String getSelector() {
+        return selector;
+    }
+
+    /**
+     * @param selector - if set, series matching the selector are retrieved instead of the ones
+     * starting with the statNamePrefix. See {@link com.googlecode.psiprobe.model.stats.StatsKey}.
+     */
+    public void setSelector(String selector) {
+        this.selector = selector;
+    }
+
+    public String getLegendTag() {
+        return legendTag;
+    }
+
+    /**
+     * @param legendTag - tag of the selected series used as legend entry, the series name is used
+     * if not set or if a series has no such tag.
+     */
+    public void setLegendTag(String legendTag) {
+        this.legendTag = legendTag;
+    }
+
     public int getTop() {
         return top;
     }
@@ -74,12 +103,21 @@ public class MultipleSeriesProvider extends AbstractSeriesProvider {
     }
 
     public void populate(DefaultTableXYDataset dataset, StatsCollection statsCollection, HttpServletRequest request) {
-        Map statMap = statsCollection.getStatsByPrefix(statNamePrefix);
+        Map statMap = selector != null
+                ? statsCollection.getStatsBySelector(selector) : statsCollection.getStatsByPrefix(statNamePrefix);
+        long window = getWindow(request);
+        if (window > 0) {
+            for (Iterator i = statMap.entrySet().iterator(); i.hasNext();) {
+                Map.Entry en = (Map.Entry) i.next();
+                en.setValue(statsCollection.getStats((String) en.getKey(), window));
+            }
+        }
         boolean useTop = getTop() > 0 && getTop() < statMap.size();
         List seriesList = new ArrayList();
 
         for(Iterator i = statMap.entrySet().iterator(); i.hasNext();) {
-            Series ser = new Series((Map.Entry) i.next());
+            Map.Entry en = (Map.Entry) i.next();
+            Series ser = new Series(getLegend(statsCollection, (String) en.getKey()), (StatsSeries) en.getValue());
             if (useTop) {
                 ser.calculateAvg();
             }
@@ -116,15 +154,24 @@ public class MultipleSeriesProvider extends AbstractSeriesProvider {
         }
     }
 
+    private String getLegend(StatsCollection statsCollection, String name) {
+        if (selector == null) {
+            return name.substring(statNamePrefix.length());
+        }
+        StatsKey key = legendTag == null ? null : statsCollection.getKey(name);
+        String legend = key == null ? null : key.getTag(legendTag);
+        return legend == null ? name : legend;
+    }
+
     // a helper class that holds series and calculates an avg value
     private class Series {
         final String key;
-        final List stats;
+        final StatsSeries stats;
         double avg = 0;
 
-        Series(Map.Entry en) {
-            key = ((String) en.getKey()).substring(statNamePrefix.length());
-            stats = (List) en.getValue();
+        Series(String key, StatsSeries stats) {
+            this.key = key;
+            this.stats = stats;
         }
 
         // calculating an avg value that is used for identifying the top series
@@ -132,23 +179,23 @@ public class MultipleSeriesProvider extends AbstractSeriesProvider {
             long sum = 0;
             int count = 1;
 
-            synchronized (stats) {
-                boolean useMovingAvg = getMovingAvgFrame() > 0 && getMovingAvgFrame() < stats.size();
-
-                for (Iterator i = stats.iterator(); i.hasNext();) {
-                    XYDataItem xy = (XYDataItem) i.next();
-                    sum += xy.getY().longValue();
-
-                    if ((useMovingAvg && count % getMovingAvgFrame() == 0) || ! i.hasNext()) {
-                        double a = (double) sum / count;
-                        if (a > avg) {
-                            avg = a;
-                        }
-                        sum = 0;
-                        count = 1;
-                    } else {
-                        count++;
+            StatsSeries.Cursor c = stats.cursor();
+            boolean useMovingAvg = getMovingAvgFrame() > 0 && getMovingAvgFrame() < c.size();
+
+            while (c.next()) {
+                if (! StatsSeries.isGap(c.getValue())) {
+                    sum += (long) c.getValue();
+                }
+
+                if ((useMovingAvg && count % getMovingAvgFrame() == 0) || c.isLast()) {
+                    double a = (double) sum / count;
+                    if (a > avg) {
+                        avg = a;
                     }
+                    sum = 0;
+                    count = 1;
+                } else {
+                    count++;
                 }
             }
         }
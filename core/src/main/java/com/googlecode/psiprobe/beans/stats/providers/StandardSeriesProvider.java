@@ -11,20 +11,27 @@
 package com.googlecode.psiprobe.beans.stats.providers;
 
 import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import org.jfree.data.xy.DefaultTableXYDataset;
 import org.springframework.web.bind.ServletRequestUtils;
 
 /**
- * 
+ * Retrieves the series named in statNames, "{0}" being replaced by the series
+ * param (sp). Series may also be listed as selectors such as
+ * <code>ds.*{datasource={0}}</code>, all series a selector matches are retrieved.
+ *
  * @author Vlad Ilyushchenko
  */
 public class StandardSeriesProvider extends AbstractSeriesProvider {
 
     private List statNames = new ArrayList(2);
+    private List selectors = new ArrayList(0);
 
     public List getStatNames() {
         return statNames;
@@ -34,19 +41,51 @@ public class StandardSeriesProvider extends AbstractSeriesProvider {
         this.statNames = statNames;
     }
 
+    public List getSelectors() {
+        return selectors;
+    }
+
+    /**
+     * @param selectors - selectors of series retrieved after the ones in statNames. The legend of a
+     * selector matching a single series is taken from the request like for statNames, the series
+     * name is used otherwise.
+     */
+    public void setSelectors(List selectors) {
+        this.selectors = selectors;
+    }
+
     public void populate(DefaultTableXYDataset dataset, StatsCollection statsCollection, HttpServletRequest request) {
         String seriesParam = ServletRequestUtils.getStringParameter(request, "sp", null);
+        long window = getWindow(request);
         for (int i = 0; i < statNames.size(); i++) {
             String statName = (String) statNames.get(i);
             if (seriesParam != null) {
                 statName = MessageFormat.format(statName, new Object[]{seriesParam});
             }
-            List l = statsCollection.getStats(statName);
+            StatsSeries l = statsCollection.getStats(statName, window);
             if (l != null) {
                 dataset.addSeries(
                         toSeries(ServletRequestUtils.getStringParameter(request, "s" + (i + 1) + "l", "series" + i), l)
                 );
             }
         }
+        for (int i = 0; i < selectors.size(); i++) {
+            String selector = (String) selectors.get(i);
+            if (seriesParam != null) {
+                // not MessageFormat, selector braces are no format elements
+                int p = selector.indexOf("{0}");
+                if (p >= 0) {
+                    selector = selector.substring(0, p) + seriesParam + selector.substring(p + 3);
+                }
+            }
+            Map stats = statsCollection.getStatsBySelector(selector);
+            int legend = statNames.size() + i + 1;
+            for (Iterator it = stats.keySet().iterator(); it.hasNext();) {
+                String name = (String) it.next();
+                String title = stats.size() == 1
+                        ? ServletRequestUtils.getStringParameter(request, "s" + legend + "l", name) : name;
+                dataset.addSeries(toSeries(title, statsCollection.getStats(name, window)));
+            }
+        }
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans.stats.scheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the work that keeps timing out, such as a collector or the
+ * datasources of a context, and makes it sit out a number of cycles that
+ * doubles with every further consecutive timeout. A single timeout is
+ * forgiven, the second one in a row skips one cycle, the third one two, the
+ * fourth one four and so on, up to {@link #getMaxSkip()} cycles. The first
+ * cycle that completes in time ends the quarantine.
+ */
+public class StatsQuarantine {
+
+    private final Map entries = new HashMap();
+    private int maxSkip = 32;
+
+    public int getMaxSkip() {
+        return maxSkip;
+    }
+
+    /**
+     * @param maxSkip maximum number of cycles skipped in a row
+     */
+    public void setMaxSkip(int maxSkip) {
+        this.maxSkip = Math.max(maxSkip, 1);
+    }
+
+    /**
+     * Called once per cycle before the work is started.
+     *
+     * @return true if the cycle is to be skipped
+     */
+    public synchronized boolean skip(Object key) {
+        Entry e = (Entry) entries.get(key);
+        if (e != null && e.skip > 0) {
+            e.skip--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a timeout.
+     *
+     * @return number of cycles the work will now skip
+     */
+    public synchronized int timedOut(Object key) {
+        Entry e = (Entry) entries.get(key);
+        if (e == null) {
+            e = new Entry();
+            entries.put(key, e);
+        }
+        e.timeouts++;
+        if (e.timeouts > 1) {
+            e.skip = e.timeouts > 31 ? maxSkip : Math.min(1 << (e.timeouts - 2), maxSkip);
+        }
+        return e.skip;
+    }
+
+    /**
+     * Records work completed in time, ending the quarantine.
+     */
+    public synchronized void completed(Object key) {
+        entries.remove(key);
+    }
+
+    /**
+     * @return number of consecutive timeouts
+     */
+    public synchronized int getTimeouts(Object key) {
+        Entry e = (Entry) entries.get(key);
+        return e == null ? 0 : e.timeouts;
+    }
+
+    private static class Entry {
+        int timeouts;
+        int skip;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans.stats.scheduler;
+
+import com.googlecode.psiprobe.beans.stats.collectors.ProbeStatsCollectorBean;
+import com.googlecode.psiprobe.tools.ProbeMeter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Runs the stats collectors, the journal and the serializer. A single timer
+ * thread sleeps until the earliest tick of all {@link StatsTask}s and hands
+ * the due tasks to a small pool of worker threads, so the whole stats
+ * subsystem takes the timer and the workers, and wakes up only when a task is
+ * due.
+ * <p/>
+ * A task is never called concurrently with itself, see
+ * {@link StatsTask#acquire()}. Tasks sharing a tick are queued in the order
+ * they are listed in, a task that takes long only delays the others if all
+ * workers are busy. A task exceeding its timeout, such as a collector stuck
+ * on a deadlocked datasource, is given up on: its worker is abandoned and
+ * replaced so the other tasks go on, and the task sits out a growing number of
+ * ticks, see {@link StatsQuarantine}. Its samples of the ticks missed are
+ * gaps in the series.
+ */
+public class StatsScheduler implements InitializingBean, DisposableBean, Runnable {
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    private List tasks = Collections.EMPTY_LIST;
+    private ProbeStatsCollectorBean probeStatsCollector;
+    private int workers = 2;
+    private final StatsQuarantine quarantine = new StatsQuarantine();
+    private final LinkedList queue = new LinkedList();
+    private final List threads = new ArrayList();
+    private int count = 0;
+    private Thread timer;
+    private boolean stopped = false;
+
+    public List getTasks() {
+        return tasks;
+    }
+
+    public void setTasks(List tasks) {
+        this.tasks = tasks;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @param workers number of threads calling the tasks
+     */
+    public void setWorkers(int workers) {
+        this.workers = Math.max(workers, 1);
+    }
+
+    public ProbeStatsCollectorBean getProbeStatsCollector() {
+        return probeStatsCollector;
+    }
+
+    /**
+     * @param probeStatsCollector collector the costs of the tasks with a meter name are recorded with
+     */
+    public void setProbeStatsCollector(ProbeStatsCollectorBean probeStatsCollector) {
+        this.probeStatsCollector = probeStatsCollector;
+    }
+
+    public StatsQuarantine getQuarantine() {
+        return quarantine;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < tasks.size(); i++) {
+            ((StatsTask) tasks.get(i)).prepare(now);
+        }
+        synchronized (queue) {
+            for (int i = 0; i < workers; i++) {
+                startWorker();
+            }
+        }
+        timer = new Thread(this, "psi-probe stats scheduler");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /**
+     * Stops the timer and waits for the calls in progress to complete, except
+     * for the ones given up on. Tasks queued but not started are dropped.
+     */
+    public void destroy() throws Exception {
+        List running;
+        synchronized (queue) {
+            stopped = true;
+            queue.clear();
+            queue.notifyAll();
+            running = new ArrayList(threads);
+        }
+        if (timer != null) {
+            timer.interrupt();
+            timer.join();
+        }
+        for (int i = 0; i < running.size(); i++) {
+            Worker w = (Worker) running.get(i);
+            if (! w.abandoned) {
+                w.join();
+            }
+        }
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                synchronized (queue) {
+                    long delay;
+                    while (! stopped && (delay = nextEvent() - System.currentTimeMillis()) > 0) {
+                        queue.wait(delay);
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    abandonOverdue(System.currentTimeMillis());
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < tasks.size(); i++) {
+                StatsTask task = (StatsTask) tasks.get(i);
+                if (task.getNextTime() <= now) {
+                    task.advance(now);
+                    if (quarantine.skip(task)) {
+                        logger.debug(task.getName() + " is quarantined, skipping a tick");
+                    } else if (task.acquire()) {
+                        synchronized (queue) {
+                            queue.addLast(task);
+                            queue.notifyAll();
+                        }
+                    } else {
+                        logger.warn(task.getName() + " is still running, skipping a tick. Overruns: "
+                                + task.getOverruns());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return time of the next tick or of the next timeout of a running task
+     */
+    private long nextEvent() {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < tasks.size(); i++) {
+            next = Math.min(next, ((StatsTask) tasks.get(i)).getNextTime());
+        }
+        for (int i = 0; i < threads.size(); i++) {
+            Worker w = (Worker) threads.get(i);
+            if (w.task != null && ! w.abandoned) {
+                next = Math.min(next, w.started + w.task.getTimeout());
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Gives up on the tasks running past their timeout. Called with the queue
+     * monitor held.
+     */
+    private void abandonOverdue(long now) {
+        for (int i = 0; i < threads.size(); i++) {
+            Worker w = (Worker) threads.get(i);
+            if (w.task != null && ! w.abandoned && now - w.started >= w.task.getTimeout()) {
+                w.abandoned = true;
+                w.task.timeOut();
+                int skip = quarantine.timedOut(w.task);
+                logger.warn(w.task.getName() + " did not complete in " + w.task.getTimeout()
+                        + "ms, abandoning " + w.getName() + (skip > 0 ? ", skipping " + skip + " ticks" : ""));
+                startWorker();
+            }
+        }
+    }
+
+    /**
+     * Called with the queue monitor held.
+     */
+    private void startWorker() {
+        Worker w = new Worker("psi-probe stats worker " + (count++));
+        w.setDaemon(true);
+        threads.add(w);
+        w.start();
+    }
+
+    private class Worker extends Thread {
+
+        StatsTask task;
+        long started;
+        volatile boolean abandoned = false;
+
+        Worker(String name) {
+            super(name);
+        }
+
+        public void run() {
+            while (true) {
+                StatsTask t;
+                synchronized (queue) {
+                    while (! stopped && queue.isEmpty()) {
+                        try {
+                            queue.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    t = (StatsTask) queue.removeFirst();
+                    task = t;
+                    started = System.currentTimeMillis();
+                    // the timer has a new timeout to wait for
+                    queue.notifyAll();
+                }
+                ProbeMeter meter = probeStatsCollector != null && t.getMeter() != null ? ProbeMeter.start() : null;
+                try {
+                    t.run();
+                } catch (Throwable e) {
+                    // a failing collector must not take the worker down
+                    logger.error(t.getName() + " failed", e);
+                } finally {
+                    if (meter != null) {
+                        meter.stop();
+                        probeStatsCollector.record(t.getMeter(), meter);
+                    }
+                }
+                synchronized (queue) {
+                    task = null;
+                    if (abandoned) {
+                        threads.remove(this);
+                        logger.info(t.getName() + " returned after " + t.getLastDuration() + "ms, "
+                                + getName() + " ends");
+                        return;
+                    }
+                    quarantine.completed(t);
+                }
+            }
+        }
+    }
+}
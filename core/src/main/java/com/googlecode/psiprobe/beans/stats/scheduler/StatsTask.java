@@ -0,0 +1,262 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans.stats.scheduler;
+
+import com.googlecode.psiprobe.tools.TimeExpression;
+import java.util.TimeZone;
+import org.springframework.util.MethodInvoker;
+
+/**
+ * Method of a bean called by the {@link StatsScheduler} at a fixed rate, such
+ * as the <code>collect</code> method of a stats collector. Ticks fall on the
+ * multiples of the period, shifted by the phase, in local time, the same
+ * times as the cron expressions built by {@link TimeExpression} fire at:
+ * with a period of 5m and a phase of 10s the method is called 10 seconds past
+ * every fifth minute.
+ * <p/>
+ * Ticks are computed from the previous tick rather than from the end of the
+ * previous call, so they do not drift. A tick coming while the previous call
+ * is still running, or waiting for a worker, is skipped and counted as an
+ * overrun.
+ * <p/>
+ * A call running longer than the timeout, the period by default, is given up
+ * on by the scheduler: its worker is replaced and the task is quarantined, see
+ * {@link StatsQuarantine}. The task is not called again before the call
+ * returns though, collectors are not meant to run concurrently with
+ * themselves.
+ */
+public class StatsTask {
+
+    private String name;
+    private Object targetObject;
+    private String targetMethod;
+    private String meter;
+    private long period;
+    private long phase;
+    private long timeout;
+    private MethodInvoker invoker;
+
+    private long nextTime;
+    private boolean busy = false;
+    private volatile long runs = 0;
+    private volatile long overruns = 0;
+    private volatile long lastDuration = -1;
+    private volatile long lastStartTime = 0;
+    private volatile long timeouts = 0;
+    private volatile boolean timedOut = false;
+
+    public String getName() {
+        return name != null ? name : targetObject.getClass().getName() + "." + targetMethod;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Object getTargetObject() {
+        return targetObject;
+    }
+
+    public void setTargetObject(Object targetObject) {
+        this.targetObject = targetObject;
+    }
+
+    public String getTargetMethod() {
+        return targetMethod;
+    }
+
+    public void setTargetMethod(String targetMethod) {
+        this.targetMethod = targetMethod;
+    }
+
+    public String getMeter() {
+        return meter;
+    }
+
+    /**
+     * @param meter component name the costs of the calls are recorded under, such as
+     * "collector.app", nothing is recorded if not set
+     */
+    public void setMeter(String meter) {
+        this.meter = meter;
+    }
+
+    /**
+     * @return period in milliseconds
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * @param period time expression, such as "30s", see {@link TimeExpression#inSeconds(String)}
+     */
+    public void setPeriod(String period) {
+        this.period = TimeExpression.inSeconds(period) * 1000;
+    }
+
+    /**
+     * @return phase in milliseconds
+     */
+    public long getPhase() {
+        return phase;
+    }
+
+    /**
+     * @param phase time expression, such as "10s"
+     */
+    public void setPhase(String phase) {
+        this.phase = TimeExpression.inSeconds(phase) * 1000;
+    }
+
+    /**
+     * @return timeout in milliseconds
+     */
+    public long getTimeout() {
+        return timeout > 0 ? timeout : period;
+    }
+
+    /**
+     * @param timeout time expression, the period if empty or 0
+     */
+    public void setTimeout(String timeout) {
+        this.timeout = timeout == null || timeout.trim().length() == 0 ? 0 : TimeExpression.inSeconds(timeout) * 1000;
+    }
+
+    /**
+     * @return number of calls that exceeded the timeout
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return number of completed calls
+     */
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return number of ticks skipped because the previous call had not completed
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return duration of the last completed call in milliseconds, -1 before the first one
+     */
+    public long getLastDuration() {
+        return lastDuration;
+    }
+
+    /**
+     * @return time the last call started at, 0 before the first one
+     */
+    public long getLastStartTime() {
+        return lastStartTime;
+    }
+
+    /**
+     * Resolves the target method and computes the first tick.
+     *
+     * @param now current time
+     * @throws Exception if the method cannot be resolved
+     */
+    void prepare(long now) throws Exception {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period of " + getName() + " is not set");
+        }
+        invoker = new MethodInvoker();
+        invoker.setTargetObject(targetObject);
+        invoker.setTargetMethod(targetMethod);
+        invoker.prepare();
+        nextTime = firstTick(now, period, phase, TimeZone.getDefault().getOffset(now));
+    }
+
+    /**
+     * @return the first tick after the given time
+     */
+    static long firstTick(long now, long period, long phase, long zoneOffset) {
+        long local = now + zoneOffset - phase % period;
+        return local - local % period + period - zoneOffset + phase % period;
+    }
+
+    long getNextTime() {
+        return nextTime;
+    }
+
+    /**
+     * Moves to the next tick after the given time. Ticks missed, for instance
+     * while the host was suspended, are counted as overruns.
+     */
+    void advance(long now) {
+        nextTime += period;
+        if (nextTime <= now) {
+            long missed = (now - nextTime) / period + 1;
+            overruns += missed;
+            nextTime += missed * period;
+        }
+    }
+
+    /**
+     * Marks the task as queued for a worker.
+     *
+     * @return false if the previous call has not completed, which counts as an overrun
+     */
+    synchronized boolean acquire() {
+        if (busy) {
+            overruns++;
+            return false;
+        }
+        busy = true;
+        return true;
+    }
+
+    /**
+     * @return true if the call in progress has been given up on
+     */
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Gives up on the call in progress.
+     */
+    void timeOut() {
+        timedOut = true;
+        timeouts++;
+    }
+
+    /**
+     * Calls the target method and releases the task.
+     *
+     * @throws Exception thrown by the target method
+     */
+    void run() throws Exception {
+        long start = System.currentTimeMillis();
+        lastStartTime = start;
+        timedOut = false;
+        try {
+            invoker.invoke();
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            Throwable t = e.getTargetException();
+            throw t instanceof Exception ? (Exception) t : e;
+        } finally {
+            lastDuration = System.currentTimeMillis() - start;
+            runs++;
+            synchronized (this) {
+                busy = false;
+            }
+        }
+    }
+}
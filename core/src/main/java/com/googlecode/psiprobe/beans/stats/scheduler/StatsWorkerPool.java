@@ -0,0 +1,282 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans.stats.scheduler;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Bounded pool of daemon threads the collectors fan their per-context work
+ * out to, such as reading the servlet stats of every application. Every job
+ * is given a deadline from the moment it starts: the thread of a job still
+ * running by then is abandoned and replaced, so a job hanging on a deadlocked
+ * datasource never holds up the rest of the cycle, nor the next one. An
+ * abandoned thread ends as soon as its job returns. At most
+ * {@link #getMaxAbandoned()} threads are abandoned at a time, beyond that the
+ * pool runs with fewer threads until some of them come back.
+ * <p/>
+ * Jobs of a batch are started for no longer than they would take one after
+ * the other on the threads of the pool, plus one timeout. Jobs that have not
+ * started by then, because hanging jobs held the threads, are reported as
+ * {@link #NOT_STARTED}: nothing is known about them.
+ */
+public class StatsWorkerPool implements DisposableBean {
+
+    public static final int COMPLETED = 0;
+    public static final int FAILED = 1;
+    public static final int TIMED_OUT = 2;
+    public static final int SKIPPED = 3;
+    public static final int NOT_STARTED = 4;
+
+    private static final int QUEUED = -1;
+    private static final int RUNNING = -2;
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    private int threads = 4;
+    private int maxAbandoned = 4;
+    private final LinkedList queue = new LinkedList();
+    private int live = 0;
+    private int abandoned = 0;
+    private int count = 0;
+    private boolean stopped = false;
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(threads, 1);
+    }
+
+    public int getMaxAbandoned() {
+        return maxAbandoned;
+    }
+
+    public void setMaxAbandoned(int maxAbandoned) {
+        this.maxAbandoned = Math.max(maxAbandoned, 0);
+    }
+
+    /**
+     * @return number of abandoned threads whose jobs have not returned yet
+     */
+    public synchronized int getAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Runs the jobs and waits until they have completed, timed out or could
+     * not be started in time.
+     *
+     * @param jobs jobs to run, null elements are skipped
+     * @param timeout time every job may take in milliseconds, from when it starts
+     * @return status of every job: {@link #COMPLETED}, {@link #FAILED} if it
+     * threw an exception, {@link #TIMED_OUT}, {@link #NOT_STARTED} or
+     * {@link #SKIPPED} if it was null
+     * @throws InterruptedException
+     */
+    public int[] invokeAll(Runnable[] jobs, long timeout) throws InterruptedException {
+        Batch batch = new Batch(jobs);
+        synchronized (this) {
+            if (stopped) {
+                throw new IllegalStateException("Worker pool is stopped");
+            }
+            for (int i = 0; i < jobs.length; i++) {
+                if (jobs[i] != null) {
+                    batch.status[i] = QUEUED;
+                    batch.remaining++;
+                    queue.addLast(new Job(batch, i));
+                }
+            }
+            ensureWorkers();
+            notifyAll();
+        }
+        long rounds = (batch.remaining + threads - 1) / threads;
+        long batchDeadline = System.currentTimeMillis() + timeout * (rounds + 1);
+        while (true) {
+            long now;
+            boolean expired = false;
+            synchronized (batch) {
+                while (batch.remaining > 0) {
+                    now = System.currentTimeMillis();
+                    long next = Long.MAX_VALUE;
+                    for (int i = 0; i < jobs.length; i++) {
+                        if (batch.status[i] == RUNNING) {
+                            next = Math.min(next, batch.started[i] + timeout);
+                        } else if (batch.status[i] == QUEUED) {
+                            next = Math.min(next, batchDeadline);
+                        }
+                    }
+                    if (next <= now) {
+                        expired = true;
+                        break;
+                    }
+                    batch.wait(next - now);
+                }
+                if (! expired) {
+                    return batch.status;
+                }
+            }
+            now = System.currentTimeMillis();
+            synchronized (this) {
+                synchronized (batch) {
+                    for (int i = 0; i < jobs.length; i++) {
+                        if (batch.status[i] == RUNNING && batch.started[i] + timeout <= now) {
+                            batch.status[i] = TIMED_OUT;
+                            batch.remaining--;
+                            abandon(batch, i, timeout);
+                        } else if (batch.status[i] == QUEUED && now >= batchDeadline) {
+                            batch.status[i] = NOT_STARTED;
+                            batch.remaining--;
+                        }
+                    }
+                }
+                if (now >= batchDeadline) {
+                    for (Iterator it = queue.iterator(); it.hasNext();) {
+                        if (((Job) it.next()).batch == batch) {
+                            it.remove();
+                        }
+                    }
+                }
+                ensureWorkers();
+            }
+        }
+    }
+
+    /**
+     * Leaves the thread running a job to it, the pool starts another one.
+     */
+    private void abandon(Batch batch, int index, long timeout) {
+        for (Iterator it = batch.workers.iterator(); it.hasNext();) {
+            Worker w = (Worker) it.next();
+            if (w.job != null && w.job.index == index && ! w.abandoned) {
+                w.abandoned = true;
+                live--;
+                abandoned++;
+                logger.warn(w.getName() + " abandoned, a job did not return in " + timeout + "ms");
+            }
+        }
+    }
+
+    public void destroy() throws Exception {
+        synchronized (this) {
+            stopped = true;
+            queue.clear();
+            notifyAll();
+        }
+    }
+
+    private void ensureWorkers() {
+        while (! stopped && live < threads && live + abandoned < threads + maxAbandoned) {
+            Worker w = new Worker("psi-probe stats pool " + (count++));
+            w.setDaemon(true);
+            live++;
+            w.start();
+        }
+    }
+
+    private Job take(Worker w) throws InterruptedException {
+        synchronized (this) {
+            while (! stopped && queue.isEmpty()) {
+                wait();
+            }
+            if (stopped) {
+                return null;
+            }
+            Job job = (Job) queue.removeFirst();
+            w.job = job;
+            synchronized (job.batch) {
+                job.batch.status[job.index] = RUNNING;
+                job.batch.started[job.index] = System.currentTimeMillis();
+                job.batch.workers.add(w);
+            }
+            return job;
+        }
+    }
+
+    private void done(Worker w, Job job, int status) {
+        synchronized (this) {
+            w.job = null;
+            synchronized (job.batch) {
+                job.batch.workers.remove(w);
+                if (job.batch.status[job.index] == RUNNING) {
+                    job.batch.status[job.index] = status;
+                    job.batch.remaining--;
+                    job.batch.notifyAll();
+                }
+            }
+            if (w.abandoned) {
+                abandoned--;
+                ensureWorkers();
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+        Job job;
+        volatile boolean abandoned = false;
+
+        Worker(String name) {
+            super(name);
+        }
+
+        public void run() {
+            try {
+                while (! abandoned) {
+                    Job j = take(this);
+                    if (j == null) {
+                        return;
+                    }
+                    int status = COMPLETED;
+                    try {
+                        j.batch.jobs[j.index].run();
+                    } catch (Throwable t) {
+                        logger.error("Stats job failed", t);
+                        status = FAILED;
+                    }
+                    done(this, j, status);
+                }
+            } catch (InterruptedException e) {
+                // exits
+            }
+        }
+    }
+
+    private static class Batch {
+        final Runnable[] jobs;
+        final int[] status;
+        final long[] started;
+        final LinkedList workers = new LinkedList();
+        int remaining = 0;
+
+        Batch(Runnable[] jobs) {
+            this.jobs = jobs;
+            this.status = new int[jobs.length];
+            this.started = new long[jobs.length];
+            for (int i = 0; i < status.length; i++) {
+                status[i] = SKIPPED;
+            }
+        }
+    }
+
+    private static class Job {
+        final Batch batch;
+        final int index;
+
+        Job(Batch batch, int index) {
+            this.batch = batch;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.controllers;
+
+import com.googlecode.psiprobe.beans.ContainerListenerBean;
+import com.googlecode.psiprobe.beans.ContainerWrapperBean;
+import com.googlecode.psiprobe.beans.JvmMemoryInfoAccessorBean;
+import com.googlecode.psiprobe.model.ApplicationResource;
+import com.googlecode.psiprobe.model.Connector;
+import com.googlecode.psiprobe.model.DataSourceInfo;
+import com.googlecode.psiprobe.model.ThreadPool;
+import com.googlecode.psiprobe.model.jmx.MemoryPool;
+import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.model.stats.StatsIndex;
+import com.googlecode.psiprobe.model.stats.StatsKey;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
+import com.googlecode.psiprobe.tools.MetricsWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+/**
+ * Exposes the most recent value of every series in "statsCollection", along
+ * with live connector, thread pool, datasource and memory pool figures, in the
+ * Prometheus text format. Stat keys become metric names and labels, so
+ * <code>app.requests{app=/probe}</code> is written as
+ * <code>psiprobe_app_requests{app="/probe"}</code>.
+ * <p/>
+ * The response is written straight to the servlet writer. The rendered name
+ * and labels of each series are cached until the stats index changes, so a
+ * scrape only costs a read of the last sample per series.
+ */
+public class MetricsController extends AbstractController {
+
+    public static final String PREFIX = "psiprobe_";
+
+    private Log logger = LogFactory.getLog(MetricsController.class);
+
+    private StatsCollection statsCollection;
+    private ContainerListenerBean containerListenerBean;
+    private ContainerWrapperBean containerWrapper;
+    private JvmMemoryInfoAccessorBean jvmMemoryInfoAccessorBean;
+    private long staleAfter = 600;
+    private volatile Rendered rendered;
+
+    public StatsCollection getStatsCollection() {
+        return statsCollection;
+    }
+
+    public void setStatsCollection(StatsCollection statsCollection) {
+        this.statsCollection = statsCollection;
+    }
+
+    public ContainerListenerBean getContainerListenerBean() {
+        return containerListenerBean;
+    }
+
+    public void setContainerListenerBean(ContainerListenerBean containerListenerBean) {
+        this.containerListenerBean = containerListenerBean;
+    }
+
+    public ContainerWrapperBean getContainerWrapper() {
+        return containerWrapper;
+    }
+
+    public void setContainerWrapper(ContainerWrapperBean containerWrapper) {
+        this.containerWrapper = containerWrapper;
+    }
+
+    public JvmMemoryInfoAccessorBean getJvmMemoryInfoAccessorBean() {
+        return jvmMemoryInfoAccessorBean;
+    }
+
+    public void setJvmMemoryInfoAccessorBean(JvmMemoryInfoAccessorBean jvmMemoryInfoAccessorBean) {
+        this.jvmMemoryInfoAccessorBean = jvmMemoryInfoAccessorBean;
+    }
+
+    public long getStaleAfter() {
+        return staleAfter;
+    }
+
+    /**
+     * @param staleAfter seconds after which a series that has not been added
+     * to is left out, 0 to write every series
+     */
+    public void setStaleAfter(long staleAfter) {
+        this.staleAfter = staleAfter;
+    }
+
+    protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        response.setContentType(MetricsWriter.CONTENT_TYPE);
+        Writer out = response.getWriter();
+        MetricsWriter writer = new MetricsWriter(out);
+        if (statsCollection != null) {
+            writeStats(writer, System.currentTimeMillis());
+        }
+        writeLive(writer);
+        out.flush();
+        return null;
+    }
+
+    /**
+     * Writes the last sample of every stat, one gauge family per metric.
+     *
+     * @param writer writer to write to
+     * @param now current time, series older than {@link #getStaleAfter()} are skipped
+     * @throws IOException
+     */
+    public void writeStats(MetricsWriter writer, long now) throws IOException {
+        Rendered r = render(statsCollection.getIndexView());
+        long since = staleAfter > 0 ? now - staleAfter * 1000 : Long.MIN_VALUE;
+        String family = null;
+        for (int i = 0; i < r.series.length; i++) {
+            StatsSeries stats = statsCollection.getLatestStats(r.view.getName(i));
+            if (stats == null || stats.isEmpty()) {
+                continue;
+            }
+            long time = stats.getLastTime();
+            double value = stats.getLastValue();
+            // a series missing from a scrape is stale to Prometheus, which is what a gap is
+            if (time < since || StatsSeries.isGap(value)) {
+                continue;
+            }
+            if (r.families[i] != family) {
+                family = r.families[i];
+                writer.family(family, MetricsWriter.GAUGE);
+            }
+            writer.sample(r.series[i], value, 0);
+        }
+    }
+
+    private void writeLive(MetricsWriter writer) throws IOException {
+        if (containerListenerBean != null) {
+            try {
+                List connectors = containerListenerBean.getConnectors(false);
+                writer.family(PREFIX + "connector_requests_total", MetricsWriter.COUNTER);
+                for (int i = 0; i < connectors.size(); i++) {
+                    Connector c = (Connector) connectors.get(i);
+                    writer.sample(PREFIX + "connector_requests_total", "connector", c.getName(), c.getRequestCount());
+                }
+                writer.family(PREFIX + "connector_errors_total", MetricsWriter.COUNTER);
+                for (int i = 0; i < connectors.size(); i++) {
+                    Connector c = (Connector) connectors.get(i);
+                    writer.sample(PREFIX + "connector_errors_total", "connector", c.getName(), c.getErrorCount());
+                }
+                writer.family(PREFIX + "connector_sent_bytes_total", MetricsWriter.COUNTER);
+                for (int i = 0; i < connectors.size(); i++) {
+                    Connector c = (Connector) connectors.get(i);
+                    writer.sample(PREFIX + "connector_sent_bytes_total", "connector", c.getName(), c.getBytesSent());
+                }
+                writer.family(PREFIX + "connector_received_bytes_total", MetricsWriter.COUNTER);
+                for (int i = 0; i < connectors.size(); i++) {
+                    Connector c = (Connector) connectors.get(i);
+                    writer.sample(PREFIX + "connector_received_bytes_total", "connector", c.getName(), c.getBytesReceived());
+                }
+                writer.family(PREFIX + "connector_processing_time_ms_total", MetricsWriter.COUNTER);
+                for (int i = 0; i < connectors.size(); i++) {
+                    Connector c = (Connector) connectors.get(i);
+                    writer.sample(PREFIX + "connector_processing_time_ms_total", "connector", c.getName(), c.getProcessingTime());
+                }
+
+                List pools = containerListenerBean.getThreadPools();
+                writer.family(PREFIX + "thread_pool_threads", MetricsWriter.GAUGE);
+                for (int i = 0; i < pools.size(); i++) {
+                    ThreadPool p = (ThreadPool) pools.get(i);
+                    writer.sample(PREFIX + "thread_pool_threads", "pool", p.getName(), p.getCurrentThreadCount());
+                }
+                writer.family(PREFIX + "thread_pool_busy_threads", MetricsWriter.GAUGE);
+                for (int i = 0; i < pools.size(); i++) {
+                    ThreadPool p = (ThreadPool) pools.get(i);
+                    writer.sample(PREFIX + "thread_pool_busy_threads", "pool", p.getName(), p.getCurrentThreadsBusy());
+                }
+                writer.family(PREFIX + "thread_pool_max_threads", MetricsWriter.GAUGE);
+                for (int i = 0; i < pools.size(); i++) {
+                    ThreadPool p = (ThreadPool) pools.get(i);
+                    writer.sample(PREFIX + "thread_pool_max_threads", "pool", p.getName(), p.getMaxThreads());
+                }
+            } catch (Exception e) {
+                logger.error("Could not read connectors", e);
+            }
+        }
+
+        if (containerWrapper != null) {
+            try {
+                List dataSources = containerWrapper.getDataSources();
+                writer.family(PREFIX + "datasource_established_connections", MetricsWriter.GAUGE);
+                for (int i = 0; i < dataSources.size(); i++) {
+                    ApplicationResource ds = (ApplicationResource) dataSources.get(i);
+                    writer.sample(PREFIX + "datasource_established_connections", "datasource", dataSourceName(ds),
+                            ds.getDataSourceInfo().getEstablishedConnections());
+                }
+                writer.family(PREFIX + "datasource_busy_connections", MetricsWriter.GAUGE);
+                for (int i = 0; i < dataSources.size(); i++) {
+                    ApplicationResource ds = (ApplicationResource) dataSources.get(i);
+                    writer.sample(PREFIX + "datasource_busy_connections", "datasource", dataSourceName(ds),
+                            ds.getDataSourceInfo().getBusyConnections());
+                }
+                writer.family(PREFIX + "datasource_max_connections", MetricsWriter.GAUGE);
+                for (int i = 0; i < dataSources.size(); i++) {
+                    ApplicationResource ds = (ApplicationResource) dataSources.get(i);
+                    writer.sample(PREFIX + "datasource_max_connections", "datasource", dataSourceName(ds),
+                            ds.getDataSourceInfo().getMaxConnections());
+                }
+            } catch (Exception e) {
+                logger.error("Could not read datasources", e);
+            }
+        }
+
+        if (jvmMemoryInfoAccessorBean != null) {
+            try {
+                List pools = jvmMemoryInfoAccessorBean.getPools();
+                writer.family(PREFIX + "memory_pool_used_bytes", MetricsWriter.GAUGE);
+                for (int i = 0; i < pools.size(); i++) {
+                    MemoryPool p = (MemoryPool) pools.get(i);
+                    writer.sample(PREFIX + "memory_pool_used_bytes", "pool", p.getName(), p.getUsed());
+                }
+                writer.family(PREFIX + "memory_pool_committed_bytes", MetricsWriter.GAUGE);
+                for (int i = 0; i < pools.size(); i++) {
+                    MemoryPool p = (MemoryPool) pools.get(i);
+                    writer.sample(PREFIX + "memory_pool_committed_bytes", "pool", p.getName(), p.getCommitted());
+                }
+                writer.family(PREFIX + "memory_pool_max_bytes", MetricsWriter.GAUGE);
+                for (int i = 0; i < pools.size(); i++) {
+                    MemoryPool p = (MemoryPool) pools.get(i);
+                    writer.sample(PREFIX + "memory_pool_max_bytes", "pool", p.getName(), p.getMax());
+                }
+            } catch (Exception e) {
+                logger.error("Could not read memory pools", e);
+            }
+        }
+    }
+
+    private static String dataSourceName(ApplicationResource ds) {
+        String appName = ds.getApplicationName();
+        return (appName == null ? "" : appName) + "/" + ds.getName();
+    }
+
+    /**
+     * Renders the names and labels of the series of an index view, unless that
+     * has been done for the same view before.
+     */
+    private Rendered render(StatsIndex.View view) {
+        Rendered r = rendered;
+        if (r == null || r.view != view) {
+            String[] families = new String[view.size()];
+            String[] series = new String[view.size()];
+            for (int i = 0; i < families.length; i++) {
+                StatsKey key = view.getKey(i);
+                String family = PREFIX + MetricsWriter.metricName(key.getMetric());
+                families[i] = i > 0 && family.equals(families[i - 1]) ? families[i - 1] : family;
+                series[i] = MetricsWriter.series(families[i], key.getTags());
+            }
+            r = new Rendered(view, families, series);
+            rendered = r;
+        }
+        return r;
+    }
+
+    private static class Rendered {
+        final StatsIndex.View view;
+        final String[] families;
+        final String[] series;
+
+        Rendered(StatsIndex.View view, String[] families, String[] series) {
+            this.view = view;
+            this.families = families;
+            this.series = series;
+        }
+    }
+}
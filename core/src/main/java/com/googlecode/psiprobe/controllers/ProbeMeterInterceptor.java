@@ -0,0 +1,54 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.controllers;
+
+import com.googlecode.psiprobe.beans.stats.collectors.ProbeStatsCollectorBean;
+import com.googlecode.psiprobe.tools.ProbeMeter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Records what every request to a probe controller costs, view rendering
+ * included, under the component "controller.{servlet path}", such as
+ * "controller./index.htm". Requests to /logs/* are all recorded as
+ * "controller./logs".
+ */
+public class ProbeMeterInterceptor extends HandlerInterceptorAdapter {
+
+    private static final String METER_ATTRIBUTE = ProbeMeterInterceptor.class.getName() + ".meter";
+
+    private ProbeStatsCollectorBean probeStatsCollector;
+
+    public ProbeStatsCollectorBean getProbeStatsCollector() {
+        return probeStatsCollector;
+    }
+
+    public void setProbeStatsCollector(ProbeStatsCollectorBean probeStatsCollector) {
+        this.probeStatsCollector = probeStatsCollector;
+    }
+
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (probeStatsCollector != null) {
+            request.setAttribute(METER_ATTRIBUTE, ProbeMeter.start());
+        }
+        return true;
+    }
+
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+        ProbeMeter meter = (ProbeMeter) request.getAttribute(METER_ATTRIBUTE);
+        if (meter != null) {
+            request.removeAttribute(METER_ATTRIBUTE);
+            meter.stop();
+            probeStatsCollector.record("controller." + request.getServletPath(), meter);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.controllers;
+
+import com.googlecode.psiprobe.model.stats.StatsAggregation;
+import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.model.stats.StatsKey;
+import com.googlecode.psiprobe.model.stats.StatsRollup;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.bind.ServletRequestUtils;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+/**
+ * Answers range queries over the series of "statsCollection" with JSON. The
+ * samples are aggregated on the server, in a single pass over each series,
+ * see {@link StatsSeries#aggregate(long, long, StatsAggregation)}. Request
+ * parameters:
+ * <ul>
+ * <li>series   - stat name, may be repeated</li>
+ * <li>selector - stat key selector such as app.requests{app=*}, see {@link StatsKey}</li>
+ * <li>from     - start of the range in milliseconds since the epoch, or in seconds before "to" if
+ * negative, 2 hours before "to" by default</li>
+ * <li>to       - end of the range in milliseconds since the epoch, now by default</li>
+ * <li>step     - bucket length in seconds, the whole range by default</li>
+ * <li>agg      - min, max, avg, sum, last or pNN, avg by default</li>
+ * </ul>
+ * The response looks like
+ * <pre>
+ * {"from":1300000000000,"to":1300007200000,"step":600,"agg":"avg","series":[
+ * {"name":"app.requests./probe","key":"app.requests{app=/probe}","tier":"5m","points":[[1300000000000,12.5],...]}]}
+ * </pre>
+ * Ranges the raw series no longer covers are answered from the consolidation
+ * tiers consolidated with the same function, "tier" then names the period of
+ * the tier, it is "raw" otherwise. "last" and percentiles cannot be told from
+ * consolidated figures, such queries are rejected with a 400 when a tier
+ * would be needed.
+ */
+public class QueryStatsController extends AbstractController {
+
+    private StatsCollection statsCollection;
+    private long defaultRange = 2 * 60 * 60;
+
+    public StatsCollection getStatsCollection() {
+        return statsCollection;
+    }
+
+    public void setStatsCollection(StatsCollection statsCollection) {
+        this.statsCollection = statsCollection;
+    }
+
+    public long getDefaultRange() {
+        return defaultRange;
+    }
+
+    /**
+     * @param defaultRange length of the range in seconds when "from" is not given
+     */
+    public void setDefaultRange(long defaultRange) {
+        this.defaultRange = defaultRange;
+    }
+
+    protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        long now = System.currentTimeMillis();
+        long to = ServletRequestUtils.getLongParameter(request, "to", now);
+        long from = ServletRequestUtils.getLongParameter(request, "from", -defaultRange);
+        if (from <= 0) {
+            from = to + from * 1000;
+        }
+        long step = ServletRequestUtils.getLongParameter(request, "step", 0);
+        String agg = ServletRequestUtils.getStringParameter(request, "agg", StatsAggregation.AVG);
+
+        List names = new ArrayList();
+        String[] series = request.getParameterValues("series");
+        if (series != null) {
+            for (int i = 0; i < series.length; i++) {
+                names.add(series[i]);
+            }
+        }
+        String selector = request.getParameter("selector");
+        List served;
+        try {
+            if (selector != null) {
+                names.addAll(statsCollection.getStatsBySelector(selector).keySet());
+            }
+            // fails early on an unknown aggregation
+            new StatsAggregation(agg, from, step * 1000);
+            served = resolve(names, agg, from, now);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+
+        response.setContentType("application/json; charset=utf-8");
+        Writer out = response.getWriter();
+        write(out, names, served, from, to, step, agg);
+        out.flush();
+        return null;
+    }
+
+    /**
+     * Picks the series every stat is answered from, the raw one or a consolidation tier.
+     *
+     * @param names stat names
+     * @param agg aggregation function
+     * @param from start of the range in milliseconds
+     * @param now current time
+     * @return name of the series serving every stat
+     * @throws IllegalArgumentException if the aggregation cannot be answered from the tier needed
+     */
+    public List resolve(List names, String agg, long from, long now) {
+        String function = StatsAggregation.MIN.equals(agg) ? StatsRollup.MIN
+                : StatsAggregation.MAX.equals(agg) ? StatsRollup.MAX
+                : StatsAggregation.SUM.equals(agg) ? StatsRollup.SUM : StatsRollup.AVG;
+        long window = Math.max((now - from) / 1000, 0);
+        boolean consolidated = StatsAggregation.MIN.equals(agg) || StatsAggregation.MAX.equals(agg)
+                || StatsAggregation.SUM.equals(agg) || StatsAggregation.AVG.equals(agg);
+        List served = new ArrayList(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            String name = (String) names.get(i);
+            String servedName = statsCollection.getStatsName(name, window, function);
+            if (! consolidated && StatsRollup.isTierName(servedName)) {
+                throw new IllegalArgumentException("The raw samples of " + name + " do not cover the range, "
+                        + agg + " cannot be answered from consolidated ones, use min, max, avg or sum");
+            }
+            served.add(servedName);
+        }
+        return served;
+    }
+
+    /**
+     * Writes the aggregated series as JSON. Unknown names are left out.
+     *
+     * @param out writer to write to
+     * @param names stat names
+     * @param served names of the series answering for the stats, see {@link #resolve(List, String, long, long)}
+     * @param from start of the range in milliseconds
+     * @param to end of the range in milliseconds
+     * @param step bucket length in seconds, 0 for a single bucket
+     * @param agg aggregation function
+     * @throws IOException
+     */
+    public void write(Writer out, List names, List served, long from, long to, long step, String agg)
+            throws IOException {
+        StatsAggregation aggregation = null;
+
+        out.write("{\"from\":" + from + ",\"to\":" + to + ",\"step\":" + step + ",\"agg\":");
+        writeString(out, agg);
+        out.write(",\"series\":[");
+        boolean first = true;
+        for (int i = 0; i < names.size(); i++) {
+            String name = (String) names.get(i);
+            String servedName = (String) served.get(i);
+            StatsSeries stats = statsCollection.getStats(servedName);
+            if (stats == null) {
+                continue;
+            }
+            if (aggregation == null) {
+                aggregation = new StatsAggregation(agg, from, step * 1000);
+            }
+            stats.aggregate(from, to, aggregation);
+
+            if (! first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("\n{\"name\":");
+            writeString(out, name);
+            StatsKey key = statsCollection.getKey(name);
+            if (key != null) {
+                out.write(",\"key\":");
+                writeString(out, key.toString());
+            }
+            String tier = StatsRollup.getTierPeriod(servedName);
+            out.write(",\"tier\":");
+            writeString(out, tier == null ? "raw" : tier);
+            out.write(",\"points\":[");
+            for (int j = 0; j < aggregation.size(); j++) {
+                if (j > 0) {
+                    out.write(',');
+                }
+                out.write('[');
+                out.write(Long.toString(aggregation.getTime(j)));
+                out.write(',');
+                double value = aggregation.getValue(j);
+                out.write(Double.isNaN(value) || Double.isInfinite(value) ? "null"
+                        : value == (long) value ? Long.toString((long) value) : Double.toString(value));
+                out.write(']');
+            }
+            out.write("]}");
+        }
+        out.write("]}\n");
+    }
+
+    private static void writeString(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                String hex = Integer.toHexString(c);
+                out.write("\\u");
+                out.write("0000".substring(hex.length()));
+                out.write(hex);
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
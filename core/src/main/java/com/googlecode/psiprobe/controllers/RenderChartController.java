@@ -11,8 +11,10 @@
 package com.googlecode.psiprobe.controllers;
 
 import com.googlecode.psiprobe.Utils;
+import com.googlecode.psiprobe.beans.stats.collectors.ProbeStatsCollectorBean;
 import com.googlecode.psiprobe.beans.stats.providers.SeriesProvider;
 import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.tools.ProbeMeter;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import javax.servlet.http.HttpServletRequest;
@@ -52,6 +54,7 @@ import org.springframework.web.servlet.mvc.AbstractController;
 public class RenderChartController extends AbstractController {
 
     private StatsCollection statsCollection;
+    private ProbeStatsCollectorBean probeStatsCollector;
 
     public StatsCollection getStatsCollection() {
         return statsCollection;
@@ -61,6 +64,17 @@ public class RenderChartController extends AbstractController {
         this.statsCollection = statsCollection;
     }
 
+    public ProbeStatsCollectorBean getProbeStatsCollector() {
+        return probeStatsCollector;
+    }
+
+    /**
+     * @param probeStatsCollector collector the costs of the series providers are recorded with
+     */
+    public void setProbeStatsCollector(ProbeStatsCollectorBean probeStatsCollector) {
+        this.probeStatsCollector = probeStatsCollector;
+    }
+
     protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
         final int SERIES_NUM = 9; // the max number of series
 
@@ -127,7 +141,15 @@ public class RenderChartController extends AbstractController {
         if (provider != null) {
             Object o = getApplicationContext().getBean(provider);
             if (o instanceof SeriesProvider) {
-                ((SeriesProvider) o).populate(ds, statsCollection, request);
+                ProbeMeter meter = probeStatsCollector != null ? ProbeMeter.start() : null;
+                try {
+                    ((SeriesProvider) o).populate(ds, statsCollection, request);
+                } finally {
+                    if (meter != null) {
+                        meter.stop();
+                        probeStatsCollector.record("provider." + provider, meter);
+                    }
+                }
             } else {
                 logger.error("SeriesProvider \"" + provider + "\" does not implement " + SeriesProvider.class);
             }
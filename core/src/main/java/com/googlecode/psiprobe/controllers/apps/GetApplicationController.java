@@ -10,6 +10,7 @@
  */
 package com.googlecode.psiprobe.controllers.apps;
 
+import com.googlecode.psiprobe.beans.SessionSizeEstimatorBean;
 import com.googlecode.psiprobe.controllers.ContextHandlerController;
 import com.googlecode.psiprobe.model.Application;
 import com.googlecode.psiprobe.model.stats.StatsCollection;
@@ -35,6 +36,7 @@ public class GetApplicationController extends ContextHandlerController {
     private boolean extendedInfo = false;
     private StatsCollection statsCollection;
     private long collectionPeriod;
+    private SessionSizeEstimatorBean sessionSizeEstimator;
 
     public boolean isExtendedInfo() {
         return extendedInfo;
@@ -60,14 +62,26 @@ public class GetApplicationController extends ContextHandlerController {
         this.collectionPeriod = collectionPeriod;
     }
 
+    public SessionSizeEstimatorBean getSessionSizeEstimator() {
+        return sessionSizeEstimator;
+    }
+
+    public void setSessionSizeEstimator(SessionSizeEstimatorBean sessionSizeEstimator) {
+        this.sessionSizeEstimator = sessionSizeEstimator;
+    }
+
     protected ModelAndView handleContext(String contextName, Context context,
                                          HttpServletRequest request, HttpServletResponse response) throws Exception {
 
         boolean calcSize = ServletRequestUtils.getBooleanParameter(request, "size", false)
                 && SecurityUtils.hasAttributeValueRole(getServletContext(), request);
 
+        if (calcSize && sessionSizeEstimator == null) {
+            throw new IllegalStateException("Cannot size sessions. Session size estimator is not set.");
+        }
+        SessionSizeEstimatorBean sizeEstimator = calcSize ? sessionSizeEstimator : null;
         Application app = ApplicationUtils.getApplication(
-                context, isExtendedInfo() ? getContainerWrapper().getResourceResolver() : null, calcSize, getContainerWrapper());
+                context, isExtendedInfo() ? getContainerWrapper().getResourceResolver() : null, sizeEstimator, getContainerWrapper());
 
         if (isExtendedInfo() && getStatsCollection() != null) {
             String avgStatisticName = "app.avg_proc_time." + app.getName();
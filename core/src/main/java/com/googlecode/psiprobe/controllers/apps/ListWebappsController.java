@@ -10,6 +10,7 @@
  */
 package com.googlecode.psiprobe.controllers.apps;
 
+import com.googlecode.psiprobe.beans.SessionSizeEstimatorBean;
 import com.googlecode.psiprobe.controllers.TomcatContainerController;
 import com.googlecode.psiprobe.tools.ApplicationUtils;
 import com.googlecode.psiprobe.tools.SecurityUtils;
@@ -31,6 +32,16 @@ import org.springframework.web.servlet.ModelAndView;
  */
 public class ListWebappsController extends TomcatContainerController {
 
+    private SessionSizeEstimatorBean sessionSizeEstimator;
+
+    public SessionSizeEstimatorBean getSessionSizeEstimator() {
+        return sessionSizeEstimator;
+    }
+
+    public void setSessionSizeEstimator(SessionSizeEstimatorBean sessionSizeEstimator) {
+        this.sessionSizeEstimator = sessionSizeEstimator;
+    }
+
     protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
 
         boolean calcSize = ServletRequestUtils.getBooleanParameter(request, "size", false)
@@ -42,6 +53,10 @@ public class ListWebappsController extends TomcatContainerController {
         } catch (NullPointerException ex) {
             throw new IllegalStateException("No container found for your server: " + getServletContext().getServerInfo(), ex);
         }
+        if (calcSize && sessionSizeEstimator == null) {
+            throw new IllegalStateException("Cannot size sessions. Session size estimator is not set.");
+        }
+        SessionSizeEstimatorBean sizeEstimator = calcSize ? sessionSizeEstimator : null;
         List applications = new ArrayList(apps.size());
         boolean showResources = getContainerWrapper().getResourceResolver().supportsPrivateResources();
         for (int i = 0; i < apps.size(); i++) {
@@ -50,7 +65,7 @@ public class ListWebappsController extends TomcatContainerController {
             // check if this is not the ROOT webapp
             //
             if (appContext.getName() != null) {
-                applications.add(ApplicationUtils.getApplication(appContext, getContainerWrapper().getResourceResolver(), calcSize, getContainerWrapper()));
+                applications.add(ApplicationUtils.getApplication(appContext, getContainerWrapper().getResourceResolver(), sizeEstimator, getContainerWrapper()));
             }
         }
         if (! applications.isEmpty() && ! showResources) {
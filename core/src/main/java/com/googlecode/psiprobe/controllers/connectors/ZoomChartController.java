@@ -10,8 +10,12 @@
  */
 package com.googlecode.psiprobe.controllers.connectors;
 
+import com.googlecode.psiprobe.tools.TimeExpression;
+import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.bind.ServletRequestUtils;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.ParameterizableViewController;
 
@@ -22,6 +26,7 @@ import org.springframework.web.servlet.mvc.ParameterizableViewController;
 public class ZoomChartController extends ParameterizableViewController {
 
     private long collectionPeriod;
+    private List windows = new ArrayList();
 
     public long getCollectionPeriod() {
         return collectionPeriod;
@@ -31,9 +36,31 @@ public class ZoomChartController extends ParameterizableViewController {
         this.collectionPeriod = collectionPeriod;
     }
 
+    public List getWindows() {
+        return windows;
+    }
+
+    /**
+     * @param windows time expressions of the windows offered above the chart, such as "2h" or "2d".
+     * Windows longer than the span of a collector are charted from its consolidation tiers.
+     */
+    public void setWindows(List windows) {
+        this.windows = windows;
+    }
+
     protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        String window = ServletRequestUtils.getStringParameter(request, "w", null);
+        if (window != null) {
+            try {
+                TimeExpression.inSeconds(window);
+            } catch (IllegalArgumentException e) {
+                window = null;
+            }
+        }
         return super.handleRequestInternal(request, response)
-                .addObject("collectionPeriod", new Long(getCollectionPeriod()));
+                .addObject("collectionPeriod", new Long(getCollectionPeriod()))
+                .addObject("windows", getWindows())
+                .addObject("window", window);
     }
 
 }
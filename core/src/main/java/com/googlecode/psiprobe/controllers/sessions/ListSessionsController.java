@@ -10,12 +10,16 @@
  */
 package com.googlecode.psiprobe.controllers.sessions;
 
+import com.googlecode.psiprobe.beans.SessionIndexBean;
+import com.googlecode.psiprobe.beans.SessionSizeEstimatorBean;
 import com.googlecode.psiprobe.controllers.ContextHandlerController;
 import com.googlecode.psiprobe.model.ApplicationSession;
 import com.googlecode.psiprobe.model.Attribute;
 import com.googlecode.psiprobe.model.SessionSearchInfo;
+import com.googlecode.psiprobe.model.SessionSizeEstimate;
 import com.googlecode.psiprobe.tools.ApplicationUtils;
 import com.googlecode.psiprobe.tools.SecurityUtils;
+import com.googlecode.psiprobe.tools.SessionIndex;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -38,6 +42,30 @@ import org.springframework.web.servlet.ModelAndView;
  * @author Andy Shapoval
  */
 public class ListSessionsController extends ContextHandlerController {
+
+    private SessionSizeEstimatorBean sessionSizeEstimator;
+    private SessionIndexBean sessionIndex;
+
+    public SessionSizeEstimatorBean getSessionSizeEstimator() {
+        return sessionSizeEstimator;
+    }
+
+    public void setSessionSizeEstimator(SessionSizeEstimatorBean sessionSizeEstimator) {
+        this.sessionSizeEstimator = sessionSizeEstimator;
+    }
+
+    public SessionIndexBean getSessionIndex() {
+        return sessionIndex;
+    }
+
+    /**
+     * @param sessionIndex indexes searches are answered from, all sessions are
+     * gone through if null
+     */
+    public void setSessionIndex(SessionIndexBean sessionIndex) {
+        this.sessionIndex = sessionIndex;
+    }
+
     protected ModelAndView handleContext(String contextName, Context context,
                                          HttpServletRequest request, HttpServletResponse response) throws Exception {
 
@@ -82,21 +110,50 @@ public class ListSessionsController extends ContextHandlerController {
         }
 
         List sessionList = new ArrayList();
+        List sizeEstimates = new ArrayList();
+        if (calcSize && sessionSizeEstimator == null) {
+            throw new IllegalStateException("Cannot size sessions. Session size estimator is not set.");
+        }
+        SessionSizeEstimatorBean sizeEstimator = calcSize ? sessionSizeEstimator : null;
         for (Iterator it = ctxs.iterator(); it.hasNext();) {
             Context ctx = (Context) it.next();
             if (ctx != null && ctx.getManager() != null && (!searchInfo.isApply() || searchInfo.isUseSearch())) {
-                Session[] sessions = ctx.getManager().findSessions();
+                SessionIndex index = null;
+                if (searchInfo.isUseSearch() && sessionIndex != null) {
+                    index = sessionIndex.getIndex(ctx);
+                }
+                Session[] sessions;
+                if (index != null) {
+                    List found = index.search(ctx.getManager(), searchInfo, System.currentTimeMillis());
+                    sessions = (Session[]) found.toArray(new Session[found.size()]);
+                } else {
+                    sessions = ctx.getManager().findSessions();
+                }
+                List matched = new ArrayList();
+                List matchedSessions = new ArrayList();
                 for (int i = 0; i < sessions.length; i++) {
                     Session session = sessions[i];
                     ApplicationSession appSession = ApplicationUtils.getApplicationSession(
-                            session, calcSize, searchInfo.isUseAttr());
-                    if (appSession != null && matchSession(appSession, searchInfo)) {
+                            session, null, index == null && searchInfo.isUseAttr());
+                    if (appSession != null && (index != null || matchSession(appSession, searchInfo))) {
                         if (ctx.getName() != null) {
                             appSession.setApplicationName(ctx.getName().length() > 0 ? ctx.getName() : "/");
                         }
-                        sessionList.add(appSession);
+                        matched.add(appSession);
+                        matchedSessions.add(session);
+                    }
+                }
+                if (sizeEstimator != null && ! matched.isEmpty()) {
+                    SessionSizeEstimate estimate = sizeEstimator.estimate(
+                            (Session[]) matchedSessions.toArray(new Session[matchedSessions.size()]));
+                    estimate.setApplicationName(((ApplicationSession) matched.get(0)).getApplicationName());
+                    long[] sizes = estimate.getSizes();
+                    for (int i = 0; i < sizes.length; i++) {
+                        ((ApplicationSession) matched.get(i)).setSize(sizes[i]);
                     }
+                    sizeEstimates.add(estimate);
                 }
+                sessionList.addAll(matched);
             }
         }
 
@@ -108,6 +165,7 @@ public class ListSessionsController extends ContextHandlerController {
 
         ModelAndView modelAndView = new ModelAndView(getViewName(), "sessions", sessionList);
         modelAndView.addObject("searchInfo", searchInfo);
+        modelAndView.addObject("sizeEstimates", sizeEstimates);
 
         return modelAndView;
     }
@@ -10,7 +10,9 @@
  */
 package com.googlecode.psiprobe.controllers.system;
 
+import com.googlecode.psiprobe.beans.JvmGCInfoAccessorBean;
 import com.googlecode.psiprobe.beans.JvmMemoryInfoAccessorBean;
+import com.googlecode.psiprobe.model.jmx.GarbageCollector;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
@@ -23,6 +25,7 @@ import org.springframework.web.servlet.mvc.ParameterizableViewController;
  */
 public class MemoryStatsController extends ParameterizableViewController {
     private JvmMemoryInfoAccessorBean jvmMemoryInfoAccessorBean;
+    private JvmGCInfoAccessorBean jvmGCInfoAccessorBean;
     private long collectionPeriod;
 
     public JvmMemoryInfoAccessorBean getJvmMemoryInfoAccessorBean() {
@@ -33,6 +36,14 @@ public class MemoryStatsController extends ParameterizableViewController {
         this.jvmMemoryInfoAccessorBean = jvmMemoryInfoAccessorBean;
     }
 
+    public JvmGCInfoAccessorBean getJvmGCInfoAccessorBean() {
+        return jvmGCInfoAccessorBean;
+    }
+
+    public void setJvmGCInfoAccessorBean(JvmGCInfoAccessorBean jvmGCInfoAccessorBean) {
+        this.jvmGCInfoAccessorBean = jvmGCInfoAccessorBean;
+    }
+
     public long getCollectionPeriod() {
         return collectionPeriod;
     }
@@ -42,8 +53,13 @@ public class MemoryStatsController extends ParameterizableViewController {
     }
 
     protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
-        return new ModelAndView(getViewName())
+        ModelAndView mv = new ModelAndView(getViewName())
                 .addObject("pools", getJvmMemoryInfoAccessorBean().getPools())
                 .addObject("collectionPeriod", new Long(getCollectionPeriod()));
+        if (getJvmGCInfoAccessorBean() != null) {
+            mv.addObject("collectors", getJvmGCInfoAccessorBean().getCollectors())
+                    .addObject("pauseBuckets", GarbageCollector.PAUSE_BUCKETS);
+        }
+        return mv;
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.controllers.system;
+
+import com.googlecode.psiprobe.beans.stats.collectors.ProbeStatsCollectorBean;
+import com.googlecode.psiprobe.model.ProbeOverhead;
+import com.googlecode.psiprobe.tools.ProbeMeter;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.bind.ServletRequestUtils;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.ParameterizableViewController;
+
+/**
+ * Shows what the collectors, controllers and series providers of the probe
+ * have cost since it started, and charts the costs of one of them.
+ */
+public class ProbeOverheadController extends ParameterizableViewController {
+
+    private ProbeStatsCollectorBean probeStatsCollector;
+    private long collectionPeriod;
+
+    public ProbeStatsCollectorBean getProbeStatsCollector() {
+        return probeStatsCollector;
+    }
+
+    public void setProbeStatsCollector(ProbeStatsCollectorBean probeStatsCollector) {
+        this.probeStatsCollector = probeStatsCollector;
+    }
+
+    public long getCollectionPeriod() {
+        return collectionPeriod;
+    }
+
+    public void setCollectionPeriod(long collectionPeriod) {
+        this.collectionPeriod = collectionPeriod;
+    }
+
+    protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        List overheads = getProbeStatsCollector().getOverheads();
+        String component = ServletRequestUtils.getStringParameter(request, "c", null);
+        if (component == null && ! overheads.isEmpty()) {
+            component = ((ProbeOverhead) overheads.get(0)).getName();
+        }
+        return new ModelAndView(getViewName())
+                .addObject("overheads", overheads)
+                .addObject("component", component)
+                .addObject("cpuTimeSupported", Boolean.valueOf(ProbeMeter.isCpuTimeSupported()))
+                .addObject("allocationSupported", Boolean.valueOf(ProbeMeter.isAllocationSupported()))
+                .addObject("collectionPeriod", new Long(getCollectionPeriod()));
+    }
+}
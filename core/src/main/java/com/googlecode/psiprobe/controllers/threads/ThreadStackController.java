@@ -10,16 +10,12 @@
  */
 package com.googlecode.psiprobe.controllers.threads;
 
-import com.googlecode.psiprobe.model.ThreadStackElement;
-import com.googlecode.psiprobe.tools.JmxTools;
-import java.util.ArrayList;
+import com.googlecode.psiprobe.model.SunThread;
+import com.googlecode.psiprobe.tools.JvmAccessor;
+import com.googlecode.psiprobe.tools.JvmAccessorFactory;
 import java.util.List;
-import javax.management.MBeanServer;
-import javax.management.ObjectName;
-import javax.management.openmbean.CompositeData;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.apache.commons.modeler.Registry;
 import org.springframework.web.bind.ServletRequestUtils;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.ParameterizableViewController;
@@ -45,44 +41,18 @@ public class ThreadStackController extends ParameterizableViewController {
         String threadName = ServletRequestUtils.getStringParameter(request, "name", null);
 
         List stack = null;
-        MBeanServer mBeanServer = new Registry().getMBeanServer();
-        ObjectName threadingOName = new ObjectName("java.lang:type=Threading");
-
+        JvmAccessor accessor = JvmAccessorFactory.getInstance();
 
         if (threadID == -1 && threadName != null) {
             // find thread by name
-            long[] allIds = (long[]) mBeanServer.getAttribute(threadingOName, "AllThreadIds");
-            for (int i = 0; i < allIds.length; i++) {
-                CompositeData cd = (CompositeData) mBeanServer.invoke(threadingOName, "getThreadInfo",
-                        new Object[]{new Long(allIds[i])}, new String[] {"long"});
-                String name = JmxTools.getStringAttr(cd, "threadName");
-                if (threadName.equals(name)) {
-                    threadID = allIds[i];
-                    break;
-                }
-            }
+            threadID = accessor.findThreadId(threadName);
         }
 
-        if (mBeanServer.queryMBeans(threadingOName, null) != null && threadID != -1) {
-
-            CompositeData cd = (CompositeData) mBeanServer.invoke(threadingOName, "getThreadInfo",
-                    new Object[]{new Long(threadID), new Integer(stackElementCount)}, new String[] {"long", "int"});
-            if (cd != null) {
-                CompositeData[] elements = (CompositeData[]) cd.get("stackTrace");
-                threadName = JmxTools.getStringAttr(cd, "threadName");
-
-                stack = new ArrayList(elements.length);
-
-                for (int i = 0; i < elements.length; i++) {
-                    CompositeData cd2 = elements[i];
-                    ThreadStackElement tse = new ThreadStackElement();
-                    tse.setClassName(JmxTools.getStringAttr(cd2, "className"));
-                    tse.setFileName(JmxTools.getStringAttr(cd2, "fileName"));
-                    tse.setMethodName(JmxTools.getStringAttr(cd2, "methodName"));
-                    tse.setLineNumber(JmxTools.getIntAttr(cd2, "lineNumber", -1));
-                    tse.setNativeMethod(JmxTools.getBooleanAttr(cd2, "nativeMethod"));
-                    stack.add(tse);
-                }
+        if (threadID != -1) {
+            SunThread thread = accessor.getThread(threadID, stackElementCount);
+            if (thread != null) {
+                threadName = thread.getName();
+                stack = thread.getStack();
             }
         }
 
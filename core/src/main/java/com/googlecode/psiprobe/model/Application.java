@@ -34,6 +34,7 @@ public class Application implements Serializable {
     private String servletVersion;
     private boolean serializable;
     private long size;
+    private SessionSizeEstimate sizeEstimate;
     private int servletCount;
     private int requestCount;
     private long processingTime;
@@ -150,6 +151,17 @@ public class Application implements Serializable {
         this.size += size;
     }
 
+    /**
+     * @return how the size of the sessions was come by, null if they were not sized
+     */
+    public SessionSizeEstimate getSizeEstimate() {
+        return sizeEstimate;
+    }
+
+    public void setSizeEstimate(SessionSizeEstimate sizeEstimate) {
+        this.sizeEstimate = sizeEstimate;
+    }
+
     public boolean isSerializable() {
         return serializable;
     }
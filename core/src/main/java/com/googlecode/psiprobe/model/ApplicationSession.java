@@ -23,6 +23,10 @@ import java.util.Locale;
  */
 public class ApplicationSession {
 
+    /**
+     * Name of the session note the agent valve keeps the address the session was last accessed
+     * from in. Older versions kept it in a session attribute of the same name.
+     */
     public static final String LAST_ACCESSED_BY_IP = "__psiprobe_la_ip";
 
     private String id;
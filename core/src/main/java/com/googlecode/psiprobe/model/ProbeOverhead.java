@@ -0,0 +1,103 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model;
+
+import com.googlecode.psiprobe.tools.ProbeMeter;
+
+/**
+ * POJO representing what a collector, controller or series provider of the
+ * probe has cost since the probe started.
+ */
+public class ProbeOverhead {
+
+    private String name;
+    private long invocations;
+    private long wallTime;
+    private long maxWallTime;
+    private long cpuTimeNanos;
+    private long jmxCalls;
+    private long allocatedBytes;
+
+    public ProbeOverhead() {
+    }
+
+    public ProbeOverhead(ProbeOverhead o) {
+        this.name = o.name;
+        this.invocations = o.invocations;
+        this.wallTime = o.wallTime;
+        this.maxWallTime = o.maxWallTime;
+        this.cpuTimeNanos = o.cpuTimeNanos;
+        this.jmxCalls = o.jmxCalls;
+        this.allocatedBytes = o.allocatedBytes;
+    }
+
+    public void add(ProbeMeter meter) {
+        invocations++;
+        wallTime += meter.getWallTime();
+        maxWallTime = Math.max(maxWallTime, meter.getWallTime());
+        cpuTimeNanos += meter.getCpuTime();
+        jmxCalls += meter.getJmxCalls();
+        allocatedBytes += meter.getAllocatedBytes();
+    }
+
+    /**
+     * @return name such as "collector.app" or "controller./index.htm"
+     */
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * @return wall time in milliseconds
+     */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    public long getMaxWallTime() {
+        return maxWallTime;
+    }
+
+    public long getAvgWallTime() {
+        return invocations == 0 ? 0 : wallTime / invocations;
+    }
+
+    /**
+     * @return CPU time in milliseconds
+     */
+    public long getCpuTime() {
+        return cpuTimeNanos / 1000000;
+    }
+
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos;
+    }
+
+    public long getJmxCalls() {
+        return jmxCalls;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getAvgAllocatedBytes() {
+        return invocations == 0 ? 0 : allocatedBytes / invocations;
+    }
+}
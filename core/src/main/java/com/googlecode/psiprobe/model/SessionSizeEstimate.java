@@ -0,0 +1,134 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model;
+
+/**
+ * Size of the sessions of an application, and how it was come by: every
+ * session sized, or a part of them sized and the total extrapolated.
+ */
+public class SessionSizeEstimate {
+
+    /**
+     * All sessions sized on the request thread.
+     */
+    public static final String MODE_EXACT = "exact";
+
+    /**
+     * All sessions sized by a pool of threads.
+     */
+    public static final String MODE_PARALLEL = "parallel";
+
+    /**
+     * A random sample of the sessions sized, the total extrapolated.
+     */
+    public static final String MODE_SAMPLED = "sampled";
+
+    /**
+     * Sized by a pool of threads until the CPU budget was spent, the total
+     * extrapolated from the sessions sized.
+     */
+    public static final String MODE_PARTIAL = "partial";
+
+    private String applicationName;
+    private String mode;
+    private int sessionCount;
+    private int sizedCount;
+    private long size;
+    private long margin;
+    private long cpuTime;
+    private long[] sizes;
+
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    public void setApplicationName(String applicationName) {
+        this.applicationName = applicationName;
+    }
+
+    /**
+     * @return one of the <code>MODE_</code> constants
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    public void setSessionCount(int sessionCount) {
+        this.sessionCount = sessionCount;
+    }
+
+    /**
+     * @return number of sessions actually sized
+     */
+    public int getSizedCount() {
+        return sizedCount;
+    }
+
+    public void setSizedCount(int sizedCount) {
+        this.sizedCount = sizedCount;
+    }
+
+    /**
+     * @return size of all the sessions in bytes, estimated unless {@link #isExtrapolated()} is false
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return half width in bytes of the 95% confidence interval of the size, 0 if not extrapolated
+     */
+    public long getMargin() {
+        return margin;
+    }
+
+    public void setMargin(long margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * @return CPU time the sizing took in milliseconds
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    public void setCpuTime(long cpuTime) {
+        this.cpuTime = cpuTime;
+    }
+
+    /**
+     * @return size of every session, in the order they were given in, -1 for the ones not sized
+     */
+    public long[] getSizes() {
+        return sizes;
+    }
+
+    public void setSizes(long[] sizes) {
+        this.sizes = sizes;
+    }
+
+    public boolean isExtrapolated() {
+        return sizedCount < sessionCount;
+    }
+}
@@ -10,6 +10,8 @@
  */
 package com.googlecode.psiprobe.model;
 
+import java.util.List;
+
 /**
  * 
  * @author Vlad Ilyushchenko
@@ -26,6 +28,7 @@ public class SunThread {
     private long waitedCount;
     private long blockedCount;
     private ThreadStackElement executionPoint;
+    private List stack;
 
     public long getId() {
         return id;
@@ -114,4 +117,15 @@ public class SunThread {
     public void setExecutionPoint(ThreadStackElement executionPoint) {
         this.executionPoint = executionPoint;
     }
+
+    /**
+     * @return list of {@link ThreadStackElement}s, null unless the stack was asked for
+     */
+    public List getStack() {
+        return stack;
+    }
+
+    public void setStack(List stack) {
+        this.stack = stack;
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.jmx;
+
+/**
+ * POJO representing a garbage collector of the JVM and the pauses it has
+ * caused since the probe started, counted in the buckets of
+ * {@link #PAUSE_BUCKETS}.
+ */
+public class GarbageCollector {
+
+    /**
+     * Upper bounds of the pause buckets in milliseconds, the last bucket takes
+     * the longer pauses.
+     */
+    public static final long[] PAUSE_BUCKETS = new long[] {10, 50, 100, 500, 1000};
+
+    private String name;
+    private String id;
+    private boolean notified;
+    private long collectionCount;
+    private long collectionTime;
+    private long[] pauses = new long[PAUSE_BUCKETS.length + 1];
+    private long maxPause;
+    private long lastPause;
+    private String lastCause;
+
+    public GarbageCollector() {
+    }
+
+    public GarbageCollector(GarbageCollector gc) {
+        setName(gc.name);
+        this.notified = gc.notified;
+        this.collectionCount = gc.collectionCount;
+        this.collectionTime = gc.collectionTime;
+        this.pauses = (long[]) gc.pauses.clone();
+        this.maxPause = gc.maxPause;
+        this.lastPause = gc.lastPause;
+        this.lastCause = gc.lastCause;
+    }
+
+    /**
+     * Counts pauses of the given duration.
+     *
+     * @param duration duration of every pause in milliseconds
+     * @param count number of pauses
+     */
+    public void addPauses(long duration, long count) {
+        int bucket = 0;
+        while (bucket < PAUSE_BUCKETS.length && duration > PAUSE_BUCKETS[bucket]) {
+            bucket++;
+        }
+        pauses[bucket] += count;
+        maxPause = Math.max(maxPause, duration);
+        lastPause = duration;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+        this.id = name != null ? name.replaceAll(" ", "_").toLowerCase() : null;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return true if the pauses are timed from the notifications of the
+     * collector, false if they are averaged over the collections made between
+     * two polls
+     */
+    public boolean isNotified() {
+        return notified;
+    }
+
+    public void setNotified(boolean notified) {
+        this.notified = notified;
+    }
+
+    public long getCollectionCount() {
+        return collectionCount;
+    }
+
+    public void setCollectionCount(long collectionCount) {
+        this.collectionCount = collectionCount;
+    }
+
+    /**
+     * @return accumulated collection time in milliseconds
+     */
+    public long getCollectionTime() {
+        return collectionTime;
+    }
+
+    public void setCollectionTime(long collectionTime) {
+        this.collectionTime = collectionTime;
+    }
+
+    /**
+     * @return number of pauses in each bucket of {@link #PAUSE_BUCKETS}
+     */
+    public long[] getPauses() {
+        return pauses;
+    }
+
+    public long getPauseCount() {
+        long count = 0;
+        for (int i = 0; i < pauses.length; i++) {
+            count += pauses[i];
+        }
+        return count;
+    }
+
+    public long getMaxPause() {
+        return maxPause;
+    }
+
+    public long getLastPause() {
+        return lastPause;
+    }
+
+    /**
+     * @return cause of the last collection, such as "Allocation Failure", null
+     * if the collector is polled
+     */
+    public String getLastCause() {
+        return lastCause;
+    }
+
+    public void setLastCause(String lastCause) {
+        this.lastCause = lastCause;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+/**
+ * Stats series keeping its history in sealed blocks encoded with
+ * {@link StatsBlockCodec}. New samples go to a raw head block; once the head
+ * block is full it is encoded, sealed and never changed again. Slowly changing
+ * counters and gauges take a few bits per sample instead of 16 bytes, so the
+ * same heap holds a much longer history.
+ * <p/>
+ * Old samples are dropped a sealed block at a time, whenever the remaining
+ * blocks still hold the capacity of the series. Samples beyond the capacity
+ * are hidden from readers, so the series behaves like a ring of the given
+ * capacity.
+ * <p/>
+ * Sealed blocks are immutable and the list of them is replaced as a whole,
+ * a {@link StatsSeries.Cursor} copies the head block only, under the series
+ * monitor, and decodes the sealed blocks as it walks over them outside of it.
+ */
+public class CompressedStatsSeries extends StatsSeries {
+
+    public static final int DEFAULT_BLOCK_SIZE = 120;
+
+    private static final byte[][] NO_BLOCKS = new byte[0][];
+    private static final int[] NO_COUNTS = new int[0];
+
+    private final int blockSize;
+    private int capacity;
+    private byte[][] blocks = NO_BLOCKS;
+    private int[] blockCounts = NO_COUNTS;
+    private int sealedSize = 0;
+    private long[] headTimes;
+    private double[] headValues;
+    private int headSize = 0;
+    private long lastTime;
+    private double lastValue;
+
+    public CompressedStatsSeries(int capacity) {
+        this(capacity, DEFAULT_BLOCK_SIZE);
+    }
+
+    public CompressedStatsSeries(int capacity, int blockSize) {
+        super(Math.max(capacity, 1), 0, 0);
+        this.capacity = Math.max(capacity, 1);
+        this.blockSize = Math.max(blockSize, 2);
+        headTimes = new long[this.blockSize];
+        headValues = new double[this.blockSize];
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the capacity of the series keeping the most recent samples.
+     * Blocks are never re-encoded, the ones no longer needed are dropped.
+     *
+     * @param capacity new capacity
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        trim();
+    }
+
+    public synchronized void add(long time, double value) {
+        headTimes[headSize] = time;
+        headValues[headSize] = value;
+        headSize++;
+        lastTime = time;
+        lastValue = value;
+        if (headSize == blockSize) {
+            seal();
+        }
+        trim();
+    }
+
+    /**
+     * Merges older samples ahead of the ones in the series. All blocks are
+     * encoded again, this is meant to be done once after a start.
+     */
+    public synchronized void prepend(long[] times, double[] values) {
+        Cursor c = cursor();
+        int history = times.length;
+        if (c.next()) {
+            while (history > 0 && times[history - 1] >= c.getTime()) {
+                history--;
+            }
+        }
+        long[] t = new long[history + c.size()];
+        double[] d = new double[t.length];
+        System.arraycopy(times, 0, t, 0, history);
+        System.arraycopy(values, 0, d, 0, history);
+        c.rewind();
+        for (int i = history; c.next(); i++) {
+            t[i] = c.getTime();
+            d[i] = c.getValue();
+        }
+        clear();
+        for (int i = Math.max(t.length - capacity, 0); i < t.length; i++) {
+            add(t[i], d[i]);
+        }
+    }
+
+    public synchronized int size() {
+        return Math.min(sealedSize + headSize, capacity);
+    }
+
+    public synchronized void clear() {
+        blocks = NO_BLOCKS;
+        blockCounts = NO_COUNTS;
+        sealedSize = 0;
+        headSize = 0;
+        lastTime = 0;
+        lastValue = 0;
+    }
+
+    public long getFirstTime() {
+        Cursor c = cursor();
+        return c.next() ? c.getTime() : 0;
+    }
+
+    public synchronized long getLastTime() {
+        return lastTime;
+    }
+
+    public synchronized double getLastValue() {
+        return lastValue;
+    }
+
+    /**
+     * @return number of bytes taken by the encoded blocks, for diagnostics
+     */
+    public synchronized int getEncodedSize() {
+        int size = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            size += blocks[i].length;
+        }
+        return size;
+    }
+
+    public synchronized Cursor cursor() {
+        long[] t = new long[headSize];
+        double[] d = new double[headSize];
+        System.arraycopy(headTimes, 0, t, 0, headSize);
+        System.arraycopy(headValues, 0, d, 0, headSize);
+        return new BlockCursor(blocks, blockCounts, t, d, Math.max(sealedSize + headSize - capacity, 0));
+    }
+
+    /**
+     * Walks a cursor, which only copies the head block, as the sealed blocks
+     * have to be decoded anyway.
+     */
+    public void aggregate(long from, long to, StatsAggregation aggregation) {
+        aggregation.reset();
+        Cursor c = cursor();
+        while (c.next() && c.getTime() <= to) {
+            if (c.getTime() >= from) {
+                aggregation.add(c.getTime(), c.getValue());
+            }
+        }
+        aggregation.finish();
+    }
+
+    private void seal() {
+        int n = blocks.length;
+        byte[][] b = new byte[n + 1][];
+        int[] counts = new int[n + 1];
+        System.arraycopy(blocks, 0, b, 0, n);
+        System.arraycopy(blockCounts, 0, counts, 0, n);
+        b[n] = StatsBlockCodec.encode(headTimes, headValues, headSize);
+        counts[n] = headSize;
+        blocks = b;
+        blockCounts = counts;
+        sealedSize += headSize;
+        headSize = 0;
+    }
+
+    private void trim() {
+        int drop = 0;
+        int remaining = sealedSize + headSize;
+        while (drop < blocks.length && remaining - blockCounts[drop] >= capacity) {
+            remaining -= blockCounts[drop];
+            drop++;
+        }
+        if (drop > 0) {
+            int n = blocks.length - drop;
+            byte[][] b = new byte[n][];
+            int[] counts = new int[n];
+            System.arraycopy(blocks, drop, b, 0, n);
+            System.arraycopy(blockCounts, drop, counts, 0, n);
+            blocks = b;
+            blockCounts = counts;
+            sealedSize = remaining - headSize;
+        }
+    }
+
+    /**
+     * Decodes the sealed blocks one at a time, then walks over the copy of the
+     * head block.
+     */
+    private static class BlockCursor extends Cursor {
+
+        private final byte[][] blocks;
+        private final int[] blockCounts;
+        private final long[] headTimes;
+        private final double[] headValues;
+        private final int skip;
+        private final int size;
+        private int block;
+        private StatsBlockCodec.Decoder decoder;
+        private int headIndex;
+        private int index;
+        private long time;
+        private double value;
+
+        BlockCursor(byte[][] blocks, int[] blockCounts, long[] headTimes, double[] headValues, int skip) {
+            this.blocks = blocks;
+            this.blockCounts = blockCounts;
+            this.headTimes = headTimes;
+            this.headValues = headValues;
+            this.skip = skip;
+            int total = headTimes.length;
+            for (int i = 0; i < blockCounts.length; i++) {
+                total += blockCounts[i];
+            }
+            this.size = total - skip;
+            rewind();
+        }
+
+        public boolean next() {
+            while (index + 1 < skip + size) {
+                index++;
+                if (! advance()) {
+                    return false;
+                }
+                if (index >= skip) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean advance() {
+            while (block < blocks.length) {
+                if (decoder == null) {
+                    decoder = new StatsBlockCodec.Decoder(blocks[block], blockCounts[block]);
+                }
+                if (decoder.next()) {
+                    time = decoder.getTime();
+                    value = decoder.getValue();
+                    return true;
+                }
+                decoder = null;
+                block++;
+            }
+            if (headIndex < headTimes.length) {
+                time = headTimes[headIndex];
+                value = headValues[headIndex];
+                headIndex++;
+                return true;
+            }
+            return false;
+        }
+
+        public void rewind() {
+            block = 0;
+            decoder = null;
+            headIndex = 0;
+            index = -1;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public boolean isLast() {
+            return index == skip + size - 1;
+        }
+    }
+}
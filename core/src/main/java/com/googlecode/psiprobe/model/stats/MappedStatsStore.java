@@ -0,0 +1,339 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps stats series in a memory mapped file, outside of the Java heap. The
+ * file is a header followed by fixed size slots, one slot per series:
+ * <pre>
+ * header  int magic "PSIM", int version, int slot capacity
+ * slot    int state, int capacity, int head, int size,
+ *         short name length, UTF-8 name,
+ *         slot capacity sample times, slot capacity sample values
+ * </pre>
+ * Samples are written straight into the mapped slots, so the history survives
+ * a restart without being read or parsed: {@link #load()} only maps the file
+ * and pages are brought in by the operating system when a chart needs them.
+ * <p/>
+ * The file is mapped in regions of several slots, which the slots are sliced
+ * out of, so that thousands of series take a handful of mappings rather than
+ * one each. The file grows a region at a time and slots of dropped series are
+ * reused, see {@link #free(StatsSeries)}.
+ * <p/>
+ * The slot capacity is fixed when the file is created. Series asking for a
+ * larger capacity are limited to it.
+ */
+public class MappedStatsStore {
+
+    public static final int MAGIC = 0x5053494D;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * Size a region of the file is mapped in, rounded down to whole slots.
+     */
+    private static final int REGION_SIZE = 8 * 1024 * 1024;
+
+    private static final int STATE = 0;
+    private static final int CAPACITY = 4;
+    private static final int HEAD = 8;
+    private static final int SIZE = 12;
+    private static final int NAME = 16;
+    private static final int DATA = 520;
+    private static final int MAX_NAME_BYTES = DATA - NAME - 2;
+
+    private static final int FREE = 0;
+    private static final int USED = 1;
+
+    private static Log logger = LogFactory.getLog(MappedStatsStore.class);
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int slotCapacity;
+    private final int slotSize;
+    private final int regionSlots;
+    private final List regions = new ArrayList();
+    private final List slots = new ArrayList();
+    private final boolean created;
+
+    /**
+     * Opens the file, creating it if it does not exist.
+     *
+     * @param file store file
+     * @param slotCapacity maximum number of samples per series, only used when the file is created
+     * @throws IOException if the file cannot be opened or is not a stats store
+     */
+    public MappedStatsStore(File file, int slotCapacity) throws IOException {
+        this.file = file;
+        this.created = ! file.exists() || file.length() < HEADER_SIZE;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (created) {
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(slotCapacity);
+                header.clear();
+                channel.write(header, 0);
+                this.slotCapacity = slotCapacity;
+            } else {
+                channel.read(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Not a stats store: " + file.getAbsolutePath());
+                }
+                this.slotCapacity = header.getInt();
+                if (this.slotCapacity <= 0) {
+                    throw new IOException("Corrupt stats store, slot capacity: " + this.slotCapacity);
+                }
+                if (this.slotCapacity != slotCapacity) {
+                    logger.info("Stats store " + file.getAbsolutePath() + " keeps its slot capacity of "
+                            + this.slotCapacity);
+                }
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        this.slotSize = DATA + this.slotCapacity * 16;
+        this.regionSlots = Math.max(REGION_SIZE / slotSize, 1);
+    }
+
+    /**
+     * @return true if the file did not exist before this store was opened
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    public int getSlotCapacity() {
+        return slotCapacity;
+    }
+
+    /**
+     * Maps the whole file.
+     *
+     * @return map of stat names to series of the used slots
+     * @throws IOException
+     */
+    public synchronized Map load() throws IOException {
+        Map stats = new TreeMap();
+        long count = (channel.size() - HEADER_SIZE) / slotSize;
+        while (slots.size() < count) {
+            mapRegion();
+        }
+        for (int i = 0; i < count; i++) {
+            ByteBuffer slot = (ByteBuffer) slots.get(i);
+            if (slot.getInt(STATE) == USED) {
+                int capacity = slot.getInt(CAPACITY);
+                int head = slot.getInt(HEAD);
+                int size = slot.getInt(SIZE);
+                int nameLength = slot.getShort(NAME);
+                if (capacity < 1 || capacity > slotCapacity || head < 0 || head >= capacity
+                        || size < 0 || size > capacity || nameLength < 0 || nameLength > MAX_NAME_BYTES) {
+                    logger.warn("Dropping corrupt slot " + i + " of " + file.getAbsolutePath());
+                    slot.putInt(STATE, FREE);
+                } else {
+                    byte[] name = new byte[nameLength];
+                    for (int j = 0; j < nameLength; j++) {
+                        name[j] = slot.get(NAME + 2 + j);
+                    }
+                    stats.put(new String(name, "UTF-8"), new Series(slot, capacity, head, size));
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Creates a new empty series in a free slot.
+     *
+     * @param name stat name
+     * @param capacity requested capacity
+     * @return new series or null if the name is too long to be stored
+     * @throws IOException if the file cannot be extended
+     */
+    public synchronized StatsSeries allocate(String name, int capacity) throws IOException {
+        byte[] bytes = encode(name);
+        if (bytes.length > MAX_NAME_BYTES) {
+            return null;
+        }
+        ByteBuffer slot = null;
+        for (Iterator it = slots.iterator(); slot == null && it.hasNext();) {
+            ByteBuffer s = (ByteBuffer) it.next();
+            if (s.getInt(STATE) == FREE) {
+                slot = s;
+            }
+        }
+        if (slot == null) {
+            int index = slots.size();
+            mapRegion();
+            slot = (ByteBuffer) slots.get(index);
+        }
+        int c = Math.min(Math.max(capacity, 1), slotCapacity);
+        slot.putInt(CAPACITY, c);
+        slot.putInt(HEAD, 0);
+        slot.putInt(SIZE, 0);
+        slot.putShort(NAME, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            slot.put(NAME + 2 + i, bytes[i]);
+        }
+        slot.putInt(STATE, USED);
+        return new Series(slot, c, 0, 0);
+    }
+
+    /**
+     * Returns the slot of a series to the free ones. The series is detached
+     * from the file and keeps its samples in the heap from then on, so that
+     * a collector still holding it does not write into the slot once it is
+     * taken by another series.
+     *
+     * @param series series allocated or loaded by this store, others are ignored
+     */
+    public synchronized void free(StatsSeries series) {
+        if (series instanceof Series && ((Series) series).getStore() == this) {
+            ByteBuffer slot = ((Series) series).detach();
+            if (slot != null) {
+                slot.putInt(SIZE, 0);
+                slot.putInt(STATE, FREE);
+            }
+        }
+    }
+
+    /**
+     * Writes the changed pages to disk. The operating system does that on its
+     * own too, this only narrows the window of a power loss.
+     */
+    public synchronized void force() {
+        for (Iterator it = regions.iterator(); it.hasNext();) {
+            ((MappedByteBuffer) it.next()).force();
+        }
+    }
+
+    /**
+     * Closes the file. Java has no way to unmap a file, the regions stay
+     * mapped until they are garbage collected, the series must not be used
+     * after this call though.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        force();
+        slots.clear();
+        regions.clear();
+        raf.close();
+    }
+
+    /**
+     * Maps the next region of the file, extending the file if need be, and
+     * slices its slots out of it. Slots of a new region are zeroed, thus free.
+     */
+    private void mapRegion() throws IOException {
+        long position = HEADER_SIZE + (long) regions.size() * regionSlots * slotSize;
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                (long) regionSlots * slotSize);
+        regions.add(region);
+        for (int i = 0; i < regionSlots; i++) {
+            region.limit((i + 1) * slotSize);
+            region.position(i * slotSize);
+            slots.add(region.slice());
+        }
+        region.clear();
+    }
+
+    private static byte[] encode(String name) throws IOException {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Series reading and writing its samples in a mapped slot.
+     */
+    private class Series extends StatsSeries {
+
+        private ByteBuffer slot;
+        private boolean detached = false;
+
+        Series(ByteBuffer slot, int capacity, int head, int size) {
+            super(capacity, head, size);
+            this.slot = slot;
+        }
+
+        MappedStatsStore getStore() {
+            return MappedStatsStore.this;
+        }
+
+        /**
+         * Moves the samples to a heap buffer of the same layout.
+         *
+         * @return the slot the series was in or null if it was detached before
+         */
+        synchronized ByteBuffer detach() {
+            if (detached) {
+                return null;
+            }
+            ByteBuffer mapped = slot;
+            ByteBuffer samples = mapped.duplicate();
+            samples.clear();
+            slot = ByteBuffer.allocate(slotSize);
+            slot.put(samples);
+            detached = true;
+            return mapped;
+        }
+
+        protected int limitCapacity(int capacity) {
+            return Math.min(capacity, slotCapacity);
+        }
+
+        protected void allocate(int capacity) {
+            slot.putInt(CAPACITY, capacity);
+        }
+
+        protected long timeAt(int index) {
+            return slot.getLong(DATA + index * 8);
+        }
+
+        protected double valueAt(int index) {
+            return slot.getDouble(DATA + (slotCapacity + index) * 8);
+        }
+
+        protected void store(int index, long time, double value) {
+            slot.putLong(DATA + index * 8, time);
+            slot.putDouble(DATA + (slotCapacity + index) * 8, value);
+        }
+
+        protected void positionChanged(int head, int size) {
+            slot.putInt(HEAD, head);
+            slot.putInt(SIZE, size);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates the samples of a series over fixed time buckets. Samples are fed
+ * oldest first by {@link StatsSeries#aggregate(long, long, StatsAggregation)},
+ * so a bucket is complete as soon as a sample of a later bucket arrives and
+ * only the running figures of the current bucket are kept. Percentiles are
+ * the exception, they need the values of the current bucket.
+ * <p/>
+ * Buckets without samples are left out, gap markers are not samples. A
+ * bucket is reported with its start time.
+ */
+public class StatsAggregation {
+
+    public static final String MIN = "min";
+    public static final String MAX = "max";
+    public static final String AVG = "avg";
+    public static final String SUM = "sum";
+    public static final String LAST = "last";
+
+    private static final int F_MIN = 0;
+    private static final int F_MAX = 1;
+    private static final int F_AVG = 2;
+    private static final int F_SUM = 3;
+    private static final int F_LAST = 4;
+    private static final int F_PERCENTILE = 5;
+
+    private final int function;
+    private final double percentile;
+    private final long from;
+    private final long step;
+
+    private long[] times = new long[16];
+    private double[] values = new double[16];
+    private int size;
+
+    private long bucket;
+    private int count;
+    private double acc;
+    private double[] bucketValues;
+
+    /**
+     * @param function one of min, max, avg, sum, last or pNN, e.g. p95 or p99.9
+     * @param from start of the first bucket
+     * @param step bucket length in milliseconds, 0 for a single bucket
+     * @throws IllegalArgumentException if the function is not known
+     */
+    public StatsAggregation(String function, long from, long step) {
+        double p = 0;
+        if (MIN.equals(function)) {
+            this.function = F_MIN;
+        } else if (MAX.equals(function)) {
+            this.function = F_MAX;
+        } else if (AVG.equals(function)) {
+            this.function = F_AVG;
+        } else if (SUM.equals(function)) {
+            this.function = F_SUM;
+        } else if (LAST.equals(function)) {
+            this.function = F_LAST;
+        } else if (function != null && function.length() > 1 && function.charAt(0) == 'p') {
+            try {
+                p = Double.parseDouble(function.substring(1));
+            } catch (NumberFormatException e) {
+                p = -1;
+            }
+            if (! (p > 0 && p <= 100)) {
+                throw new IllegalArgumentException("Invalid percentile: " + function);
+            }
+            this.function = F_PERCENTILE;
+            bucketValues = new double[64];
+        } else {
+            throw new IllegalArgumentException("Unknown aggregation: " + function);
+        }
+        this.percentile = p;
+        this.from = from;
+        this.step = Math.max(step, 0);
+        reset();
+    }
+
+    /**
+     * Discards everything aggregated so far.
+     */
+    public void reset() {
+        size = 0;
+        count = 0;
+    }
+
+    public void add(long time, double value) {
+        if (StatsSeries.isGap(value)) {
+            return;
+        }
+        long b = step == 0 ? 0 : (time - from) / step;
+        if (count > 0 && b != bucket) {
+            finish();
+        }
+        if (count == 0) {
+            bucket = b;
+            acc = function == F_MIN || function == F_MAX ? value : 0;
+        }
+        switch (function) {
+            case F_MIN:
+                acc = Math.min(acc, value);
+                break;
+            case F_MAX:
+                acc = Math.max(acc, value);
+                break;
+            case F_AVG:
+            case F_SUM:
+                acc += value;
+                break;
+            case F_LAST:
+                acc = value;
+                break;
+            default:
+                if (count == bucketValues.length) {
+                    double[] v = new double[count * 2];
+                    System.arraycopy(bucketValues, 0, v, 0, count);
+                    bucketValues = v;
+                }
+                bucketValues[count] = value;
+        }
+        count++;
+    }
+
+    /**
+     * Closes the current bucket.
+     */
+    public void finish() {
+        if (count == 0) {
+            return;
+        }
+        double value;
+        if (function == F_AVG) {
+            value = acc / count;
+        } else if (function == F_PERCENTILE) {
+            // nearest rank
+            Arrays.sort(bucketValues, 0, count);
+            int rank = (int) Math.ceil(percentile / 100 * count);
+            value = bucketValues[Math.max(rank, 1) - 1];
+        } else {
+            value = acc;
+        }
+        if (size == times.length) {
+            long[] t = new long[size * 2];
+            double[] v = new double[size * 2];
+            System.arraycopy(times, 0, t, 0, size);
+            System.arraycopy(values, 0, v, 0, size);
+            times = t;
+            values = v;
+        }
+        times[size] = from + bucket * step;
+        values[size] = value;
+        size++;
+        count = 0;
+    }
+
+    /**
+     * @return number of buckets
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return start time of a bucket
+     */
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+/**
+ * Bit packed encoding of a block of samples as described in the Gorilla paper
+ * (Pelkonen et al., "Gorilla: A Fast, Scalable, In-Memory Time Series Database").
+ * The first sample is stored as is. Every following time is stored as the
+ * difference between its delta and the previous delta:
+ * <pre>
+ * 0                      same delta
+ * 10   + 7 bits          difference in [-63, 64]
+ * 110  + 9 bits          difference in [-255, 256]
+ * 1110 + 12 bits         difference in [-2047, 2048]
+ * 1111 + 64 bits         any other difference
+ * </pre>
+ * and every following value as the XOR with the previous value:
+ * <pre>
+ * 0                      same value
+ * 10 + meaningful bits   fits into the window of leading and trailing zeros of the previous XOR
+ * 11 + 5 bits leading zeros + 6 bits length - 1 + meaningful bits
+ * </pre>
+ * Collectors sample at a fixed period and most series change slowly, so most
+ * samples take a few bits instead of the 16 bytes of a raw sample.
+ */
+public final class StatsBlockCodec {
+
+    private StatsBlockCodec() {
+    }
+
+    /**
+     * Encodes the first <code>count</code> samples of the arrays.
+     *
+     * @return encoded block
+     */
+    public static byte[] encode(long[] times, double[] values, int count) {
+        BitWriter w = new BitWriter(count * 4 + 16);
+        if (count == 0) {
+            return w.toByteArray();
+        }
+        long prevTime = times[0];
+        long prevDelta = 0;
+        long prevBits = Double.doubleToRawLongBits(values[0]);
+        int leading = -1;
+        int trailing = 0;
+        w.write(prevTime, 64);
+        w.write(prevBits, 64);
+        for (int i = 1; i < count; i++) {
+            long delta = times[i] - prevTime;
+            long dod = delta - prevDelta;
+            if (dod == 0) {
+                w.write(0, 1);
+            } else if (dod >= -63 && dod <= 64) {
+                w.write(2, 2);
+                w.write(dod + 63, 7);
+            } else if (dod >= -255 && dod <= 256) {
+                w.write(6, 3);
+                w.write(dod + 255, 9);
+            } else if (dod >= -2047 && dod <= 2048) {
+                w.write(14, 4);
+                w.write(dod + 2047, 12);
+            } else {
+                w.write(15, 4);
+                w.write(dod, 64);
+            }
+            prevTime = times[i];
+            prevDelta = delta;
+
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ prevBits;
+            if (xor == 0) {
+                w.write(0, 1);
+            } else {
+                int lz = Math.min(leadingZeros(xor), 31);
+                int tz = trailingZeros(xor);
+                if (leading >= 0 && lz >= leading && tz >= trailing) {
+                    w.write(2, 2);
+                    w.write(xor >>> trailing, 64 - leading - trailing);
+                } else {
+                    int length = 64 - lz - tz;
+                    w.write(3, 2);
+                    w.write(lz, 5);
+                    w.write(length - 1, 6);
+                    w.write(xor >>> tz, length);
+                    leading = lz;
+                    trailing = tz;
+                }
+            }
+            prevBits = bits;
+        }
+        return w.toByteArray();
+    }
+
+    static int leadingZeros(long v) {
+        if (v == 0) {
+            return 64;
+        }
+        int n = 0;
+        while ((v & 0x8000000000000000L) == 0) {
+            v <<= 1;
+            n++;
+        }
+        return n;
+    }
+
+    static int trailingZeros(long v) {
+        if (v == 0) {
+            return 64;
+        }
+        int n = 0;
+        while ((v & 1) == 0) {
+            v >>>= 1;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Streams the samples of an encoded block from the oldest to the newest.
+     */
+    public static class Decoder {
+
+        private final byte[] data;
+        private final int count;
+        private long bitPosition;
+        private int index = -1;
+        private long time;
+        private long delta;
+        private long bits;
+        private int leading;
+        private int trailing;
+
+        /**
+         * @param data encoded block
+         * @param count number of samples in the block
+         */
+        public Decoder(byte[] data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+
+        /**
+         * Decodes the next sample.
+         *
+         * @return false if the block has no more samples
+         */
+        public boolean next() {
+            if (index + 1 >= count) {
+                return false;
+            }
+            index++;
+            if (index == 0) {
+                time = read(64);
+                bits = read(64);
+                return true;
+            }
+            long dod;
+            if (read(1) == 0) {
+                dod = 0;
+            } else if (read(1) == 0) {
+                dod = read(7) - 63;
+            } else if (read(1) == 0) {
+                dod = read(9) - 255;
+            } else if (read(1) == 0) {
+                dod = read(12) - 2047;
+            } else {
+                dod = read(64);
+            }
+            delta += dod;
+            time += delta;
+
+            if (read(1) != 0) {
+                if (read(1) != 0) {
+                    leading = (int) read(5);
+                    trailing = 64 - leading - ((int) read(6) + 1);
+                }
+                bits ^= read(64 - leading - trailing) << trailing;
+            }
+            return true;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public double getValue() {
+            return Double.longBitsToDouble(bits);
+        }
+
+        private long read(int n) {
+            long v = 0;
+            for (int i = 0; i < n; i++) {
+                int b = data[(int) (bitPosition >>> 3)] >>> (7 - (int) (bitPosition & 7)) & 1;
+                v = v << 1 | b;
+                bitPosition++;
+            }
+            return v;
+        }
+    }
+
+    private static class BitWriter {
+
+        private byte[] buffer;
+        private long bitPosition;
+
+        BitWriter(int size) {
+            buffer = new byte[size];
+        }
+
+        /**
+         * Writes the lowest <code>n</code> bits of the value, the most significant first.
+         */
+        void write(long value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                int index = (int) (bitPosition >>> 3);
+                if (index == buffer.length) {
+                    byte[] b = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, b, 0, buffer.length);
+                    buffer = b;
+                }
+                if ((value >>> i & 1) != 0) {
+                    buffer[index] |= (byte) (0x80 >>> (int) (bitPosition & 7));
+                }
+                bitPosition++;
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] b = new byte[(int) ((bitPosition + 7) >>> 3)];
+            System.arraycopy(buffer, 0, b, 0, b.length);
+            return b;
+        }
+    }
+}
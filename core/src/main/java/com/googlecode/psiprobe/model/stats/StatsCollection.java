@@ -10,19 +10,16 @@
  */
 package com.googlecode.psiprobe.model.stats;
 
-import com.googlecode.psiprobe.tools.UpdateCommitLock;
 import com.thoughtworks.xstream.XStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,21 +32,67 @@ import org.springframework.context.ApplicationContextAware;
 import org.springframework.web.context.WebApplicationContext;
 
 /**
- * 
+ * Holds all stats series of the probe. Collectors, chart requests and the
+ * serializer never wait for each other: the map of series is copied on write
+ * and published as a whole, so lookups take no lock, and every series is
+ * appended to by a single collector while readers take consistent copies of
+ * it, see {@link StatsSeries}. Only creating series and registering handles,
+ * both rare, are serialized on the collection monitor.
+ * <p/>
+ * On start only the index of the swap file is read. Collectors append to the
+ * series right away while their history is decoded in the background, or when
+ * a chart asks for it first, see {@link StatsHistory}.
+ *
  * @author Vlad Ilyushchenko
  * @author Andy Shapoval
  * @author Mark Lewis
  */
 public class StatsCollection implements InitializingBean, DisposableBean, ApplicationContextAware {
 
+    /**
+     * Series of the time it took to write the snapshots, in milliseconds.
+     */
+    public static final String SERIALIZER_TIME = "probe.serializer.time";
+
+    /**
+     * Series of the size of the snapshots written, in bytes.
+     */
+    public static final String SERIALIZER_BYTES = "probe.serializer.bytes";
+
     private Log logger = LogFactory.getLog(this.getClass());
 
-    private Map statsData = new TreeMap();
+    private volatile SortedMap statsData = new TreeMap();
+    private final SortedMap newStatsData = new TreeMap();
+    private volatile boolean newStatsPending = false;
     private String swapFileName;
+    private String legacySwapFileName;
+    private boolean legacyImported = false;
     private String storagePath = null;
     private File contextTempDir;
     private int maxFiles = 2;
-    private final UpdateCommitLock lock = new UpdateCommitLock();
+    private boolean journalEnabled = false;
+    private long journalCompactionPeriod = 60 * 60;
+    private StatsJournal journal;
+    private long lastCompaction;
+    private boolean mappedStorage = false;
+    private int mappedSlotCapacity = 2160;
+    private MappedStatsStore store;
+    private boolean compressedSeries = false;
+    private StatsRollup rollup;
+    private String rollupPatterns;
+    private StatsRetention retention;
+    private final Map handles = new HashMap();
+    private volatile String[] handleNames = new String[64];
+    private volatile StatsSeries[] handleSeries = new StatsSeries[64];
+    private int handleCount = 0;
+    private final Object serializeLock = new Object();
+    private StatsSnapshotWriter writer;
+    private volatile StatsHistory history;
+    private int historyLoaders = 2;
+    private volatile long lastSnapshotDuration = -1;
+    private volatile long lastSnapshotBytes = -1;
+    private int serializerStatsCapacity = 240;
+    private final StatsIndex index = new StatsIndex();
 
     public String getSwapFileName() {
         return swapFileName;
@@ -59,6 +102,19 @@ public class StatsCollection implements InitializingBean, DisposableBean, Applic
         this.swapFileName = swapFileName;
     }
 
+    public String getLegacySwapFileName() {
+        return legacySwapFileName;
+    }
+
+    /**
+     * @param legacySwapFileName name of the XStream XML file written by earlier versions. If no binary swap
+     * file exists, stats are imported from this file once and the XML files are removed after the
+     * next successful write.
+     */
+    public void setLegacySwapFileName(String legacySwapFileName) {
+        this.legacySwapFileName = legacySwapFileName;
+    }
+
     public String getStoragePath() {
         return storagePath;
     }
@@ -68,7 +124,7 @@ public class StatsCollection implements InitializingBean, DisposableBean, Applic
     }
 
     public boolean isCollected(String statsName) {
-        return statsData.get(statsName) != null;
+        return lookup(statsName) != null;
     }
 
     public int getMaxFiles() {
@@ -79,122 +135,779 @@ public class StatsCollection implements InitializingBean, DisposableBean, Applic
         this.maxFiles = maxFiles > 0 ? maxFiles : 2;
     }
 
-    public synchronized List newStats(String name, int maxElements) {
-        List stats = Collections.synchronizedList(new ArrayList(maxElements));
-        statsData.put(name, stats);
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    /**
+     * @param journalEnabled if true, every sample is appended to a journal which is flushed by
+     * {@link #flushJournal()}. {@link #serialize()} then only writes the whole swap file once every
+     * journal compaction period and folds the journal into it.
+     */
+    public void setJournalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+
+    public long getJournalCompactionPeriod() {
+        return journalCompactionPeriod;
+    }
+
+    /**
+     * @param journalCompactionPeriod minimal time between journal compactions in seconds
+     */
+    public void setJournalCompactionPeriod(long journalCompactionPeriod) {
+        this.journalCompactionPeriod = journalCompactionPeriod;
+    }
+
+    public boolean isMappedStorage() {
+        return mappedStorage;
+    }
+
+    /**
+     * @param mappedStorage if true, series are kept in a memory mapped file named after the swap file
+     * with ".map" appended instead of on the heap. The history then survives a restart without being
+     * deserialized, the swap file and the journal are not written.
+     */
+    public void setMappedStorage(boolean mappedStorage) {
+        this.mappedStorage = mappedStorage;
+    }
+
+    public int getMappedSlotCapacity() {
+        return mappedSlotCapacity;
+    }
+
+    /**
+     * @param mappedSlotCapacity maximum number of samples of a series in the mapped file. Only used
+     * when the file is created.
+     */
+    public void setMappedSlotCapacity(int mappedSlotCapacity) {
+        this.mappedSlotCapacity = mappedSlotCapacity;
+    }
+
+    public boolean isCompressedSeries() {
+        return compressedSeries;
+    }
+
+    /**
+     * @param compressedSeries if true, series kept on the heap store their history in sealed blocks
+     * encoded by {@link StatsBlockCodec}, see {@link CompressedStatsSeries}. Ignored with the mapped
+     * storage.
+     */
+    public void setCompressedSeries(boolean compressedSeries) {
+        this.compressedSeries = compressedSeries;
+    }
+
+    public int getHistoryLoaders() {
+        return historyLoaders;
+    }
+
+    /**
+     * @param historyLoaders number of background threads decoding the series of the swap file
+     * after a start, see {@link StatsHistory}. The file is decoded before the start completes if 0.
+     */
+    public void setHistoryLoaders(int historyLoaders) {
+        this.historyLoaders = historyLoaders;
+    }
+
+    public StatsRollup getRollup() {
+        return rollup;
+    }
+
+    /**
+     * @param rollupTiers consolidation tiers as described in {@link StatsRollup#StatsRollup(String)},
+     * no tiers are kept if empty
+     */
+    public void setRollupTiers(String rollupTiers) {
+        this.rollup = rollupTiers == null || rollupTiers.trim().length() == 0 ? null : new StatsRollup(rollupTiers);
+        if (rollup != null) {
+            rollup.setPatterns(rollupPatterns);
+        }
+    }
+
+    public String getRollupPatterns() {
+        return rollupPatterns;
+    }
+
+    /**
+     * @param rollupPatterns name patterns of the series consolidated into the rollup tiers, see
+     * {@link StatsRollup#setPatterns(String)}, all series if empty
+     */
+    public void setRollupPatterns(String rollupPatterns) {
+        this.rollupPatterns = rollupPatterns;
+        if (rollup != null) {
+            rollup.setPatterns(rollupPatterns);
+        }
+    }
+
+    public StatsRetention getRetention() {
+        return retention;
+    }
+
+    /**
+     * @param retentionPolicies retention policies as described in {@link StatsRetention}, overriding
+     * the span collectors keep their series for. The collectors decide if empty.
+     */
+    public void setRetentionPolicies(String retentionPolicies) {
+        this.retention = retentionPolicies == null || retentionPolicies.trim().length() == 0
+                ? null : new StatsRetention(retentionPolicies);
+    }
+
+    /**
+     * @param name stat name
+     * @param defaultCapacity capacity asked for by the collector
+     * @return capacity the series is to have according to the retention policies
+     */
+    public int getCapacity(String name, int defaultCapacity) {
+        return retention == null ? defaultCapacity : retention.getCapacity(name, defaultCapacity);
+    }
+
+    private boolean isPersistent(String name) {
+        return retention == null || retention.isPersistent(name);
+    }
+
+    public synchronized StatsSeries newStats(String name, int maxElements) {
+        maxElements = getCapacity(name, maxElements);
+        StatsSeries stats = null;
+        if (store != null && isPersistent(name)) {
+            try {
+                stats = store.allocate(name, maxElements);
+                if (stats == null) {
+                    logger.warn("Stat name " + name + " is too long for the mapped storage, kept on heap");
+                }
+            } catch (IOException e) {
+                logger.error("Could not allocate " + name + " in the mapped storage, kept on heap", e);
+            }
+        }
+        if (stats == null) {
+            stats = compressedSeries ? new CompressedStatsSeries(maxElements) : new StatsSeries(maxElements);
+        }
+        StatsSeries replaced = (StatsSeries) newStatsData.put(name, stats);
+        if (replaced == null) {
+            replaced = (StatsSeries) statsData.get(name);
+        }
+        if (replaced != null && store != null) {
+            store.free(replaced);
+        }
+        newStatsPending = true;
+        if (newStatsData.size() >= Math.max(statsData.size(), 64)) {
+            // copying as the number of series doubles keeps creating them linear
+            publishNewStats();
+        }
+        index.add(name);
+        Integer handle = (Integer) handles.get(name);
+        if (handle != null) {
+            handleSeries[handle.intValue()] = stats;
+        }
         return stats;
     }
 
-    public synchronized void resetStats(String name) {
-        List stats = getStats(name);
+    /**
+     * Makes the series created since the last call part of the map readers
+     * iterate over. New series are held apart until then, so that creating
+     * thousands of them, such as on the first collection after a start, does
+     * not copy the whole map for every one.
+     */
+    private synchronized void publishNewStats() {
+        if (! newStatsData.isEmpty()) {
+            SortedMap data = new TreeMap(statsData);
+            data.putAll(newStatsData);
+            statsData = data;
+            newStatsData.clear();
+        }
+        newStatsPending = false;
+    }
+
+    /**
+     * @return the map of all the series, for readers going over a range of names
+     */
+    private SortedMap allStats() {
+        if (newStatsPending) {
+            publishNewStats();
+        }
+        return statsData;
+    }
+
+    /**
+     * @return the series of the name, looked up without a lock unless it has just been created
+     */
+    private StatsSeries lookup(String name) {
+        // read first, a publication seen here is seen by the lookup below
+        boolean pending = newStatsPending;
+        StatsSeries stats = (StatsSeries) statsData.get(name);
+        if (stats == null && pending) {
+            synchronized (this) {
+                stats = (StatsSeries) newStatsData.get(name);
+                if (stats == null) {
+                    // published meanwhile
+                    stats = (StatsSeries) statsData.get(name);
+                }
+            }
+        }
+        return stats;
+    }
+
+    public StatsSeries newStats(int handle, int maxElements) {
+        return newStats(getName(handle), maxElements);
+    }
+
+    /**
+     * Registers the stat name and returns its handle. Collectors look their
+     * series up by the handle on every tick, which saves building and comparing
+     * the name each time. Handles stay valid for the lifetime of the collection.
+     *
+     * @param name stat name
+     * @return handle of the name
+     */
+    public synchronized int getHandle(String name) {
+        Integer handle = (Integer) handles.get(name);
+        if (handle == null) {
+            if (handleCount == handleNames.length) {
+                String[] names = new String[handleCount * 2];
+                StatsSeries[] series = new StatsSeries[handleCount * 2];
+                System.arraycopy(handleNames, 0, names, 0, handleCount);
+                System.arraycopy(handleSeries, 0, series, 0, handleCount);
+                handleSeries = series;
+                handleNames = names;
+            }
+            handle = new Integer(handleCount);
+            handleNames[handleCount] = name;
+            handleCount++;
+            handles.put(name, handle);
+        }
+        return handle.intValue();
+    }
+
+    public String getName(int handle) {
+        return handleNames[handle];
+    }
+
+    public StatsSeries getStats(int handle) {
+        StatsSeries stats = handleSeries[handle];
+        if (stats == null) {
+            String name = getName(handle);
+            if (history != null) {
+                loadHistory(name);
+            }
+            synchronized (this) {
+                // the slot is cleared under this monitor when the series is removed or replaced,
+                // so the series looked up here is still the one registered under the name
+                stats = lookup(name);
+                handleSeries[handle] = stats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Replaces the whole stats data, dropping the series cached by handle and
+     * indexing the new names.
+     */
+    private synchronized void replaceStatsData(SortedMap stats) {
+        newStatsData.clear();
+        newStatsPending = false;
+        statsData = stats;
+        for (int i = 0; i < handleCount; i++) {
+            handleSeries[i] = null;
+        }
+        index.clear();
+        index.addAll(stats.keySet());
+    }
+
+    public void resetStats(String name) {
+        StatsSeries stats = getStats(name);
         if (stats != null) {
             stats.clear();
+            if (journal != null && isPersistent(name)) {
+                journal.reset(name, stats);
+            }
+        }
+        if (rollup != null && ! StatsRollup.isTierName(name)) {
+            rollup.reset(name);
+            for (int i = 0; i < rollup.getTierCount(); i++) {
+                for (int j = 0; j < StatsRollup.FUNCTIONS.length; j++) {
+                    resetStats(rollup.getTierName(name, i, StatsRollup.FUNCTIONS[j]));
+                }
+            }
         }
     }
 
-    public synchronized List getStats(String name) {
-        return (List) statsData.get(name);
+    /**
+     * Drops the series registered under the name along with its consolidation
+     * tiers. The slot of a series kept in the mapped storage is reused for the
+     * next new series.
+     */
+    public void removeStats(String name) {
+        StatsSeries stats;
+        synchronized (this) {
+            stats = (StatsSeries) newStatsData.remove(name);
+            if (statsData.containsKey(name)) {
+                SortedMap data = new TreeMap(statsData);
+                stats = (StatsSeries) data.remove(name);
+                statsData = data;
+            }
+            Integer handle = (Integer) handles.get(name);
+            if (handle != null) {
+                handleSeries[handle.intValue()] = null;
+            }
+            index.remove(name);
+            if (stats != null && store != null) {
+                store.free(stats);
+            }
+        }
+        if (stats != null && journal != null && isPersistent(name)) {
+            journal.reset(name, stats);
+        }
+        if (retention != null) {
+            retention.remove(name);
+        }
+        if (rollup != null && ! StatsRollup.isTierName(name)) {
+            rollup.reset(name);
+            for (int i = 0; i < rollup.getTierCount(); i++) {
+                for (int j = 0; j < StatsRollup.FUNCTIONS.length; j++) {
+                    removeStats(rollup.getTierName(name, i, StatsRollup.FUNCTIONS[j]));
+                }
+            }
+        }
     }
 
-    public long getLastValueForStat(String statName) {
-        long statValue = 0;
+    /**
+     * Adds a sample to the series registered under the name. Only the collector owning the series
+     * calls this. Samples closer to the previous one than the resolution of the series are only
+     * consolidated, see {@link StatsRetention}.
+     */
+    public void addValue(String name, StatsSeries stats, long time, double value) {
+        if (retention == null || retention.accept(name, stats, time)) {
+            stats.add(time, value);
+            if (journal != null && isPersistent(name)) {
+                journal.append(name, stats, time, value);
+            }
+        }
+        // the tiers consolidate figures, a gap shows in them as a bucket with fewer samples
+        if (rollup != null && ! StatsRollup.isTierName(name) && ! StatsSeries.isGap(value)) {
+            rollup.add(this, name, time, value);
+        }
+    }
+
+    public StatsSeries getStats(String name) {
+        if (history != null) {
+            loadHistory(name);
+        }
+        return lookup(name);
+    }
+
+    /**
+     * Same as {@link #getStats(String)} but leaves the history in the swap file
+     * alone, for readers that only need the most recent sample.
+     */
+    public StatsSeries getLatestStats(String name) {
+        return lookup(name);
+    }
+
+    /**
+     * Merges the history of a stat read from the swap file into its series
+     * unless that has been done already.
+     */
+    private void loadHistory(String name) {
+        StatsHistory h = history;
+        if (h != null) {
+            h.load(name);
+            if (h.isLoaded()) {
+                history = null;
+            }
+        }
+    }
+
+    /**
+     * Merges the history of all stats read from the swap file.
+     */
+    private void loadHistory() {
+        StatsHistory h = history;
+        if (h != null) {
+            long t = System.currentTimeMillis();
+            h.loadAll();
+            history = null;
+            logger.debug("stats history loaded in " + (System.currentTimeMillis() - t) + "ms.");
+        }
+    }
+
+    /**
+     * Picks the series to chart a time window with. That is the raw series if it
+     * reaches back far enough, otherwise the average of the first consolidation
+     * tier that does, or of the coarsest tier if none does.
+     *
+     * @param name stat name
+     * @param window time window in seconds ending now, 0 for the raw series
+     * @return series or null if the stat is not collected
+     */
+    public StatsSeries getStats(String name, long window) {
+        return getStats(name, window, StatsRollup.AVG);
+    }
+
+    /**
+     * Same as {@link #getStats(String, long)}, picking the tiers consolidated
+     * with the given function.
+     *
+     * @param function {@link StatsRollup#MIN}, {@link StatsRollup#AVG}, {@link StatsRollup#MAX}
+     * or {@link StatsRollup#SUM}
+     */
+    public StatsSeries getStats(String name, long window, String function) {
+        return getStats(getStatsName(name, window, function));
+    }
 
-        List stats = getStats(statName);
-        if (stats != null && ! stats.isEmpty()) {
-            XYDataItem xy = (XYDataItem) stats.get(stats.size() - 1);
-            if (xy != null && xy.getY() != null) {
-                statValue = xy.getY().longValue();
+    /**
+     * @return name of the series {@link #getStats(String, long, String)} picks, the name itself
+     * if that is the raw series
+     */
+    public String getStatsName(String name, long window, String function) {
+        StatsSeries raw = getStats(name);
+        if (raw == null || rollup == null || window <= 0) {
+            return name;
+        }
+        long since = System.currentTimeMillis() - window * 1000;
+        if (covers(raw, since)) {
+            return name;
+        }
+        String best = name;
+        for (int i = 0; i < rollup.getTierCount(); i++) {
+            String tierName = rollup.getTierName(name, i, function);
+            StatsSeries tier = getStats(tierName);
+            if (tier != null && ! tier.isEmpty()) {
+                best = tierName;
+                if (covers(tier, since)) {
+                    break;
+                }
             }
         }
+        return best;
+    }
 
-        return statValue;
+    private static boolean covers(StatsSeries series, long since) {
+        return series.size() < series.getCapacity() || series.getFirstTime() <= since;
+    }
+
+    public long getLastValueForStat(String statName) {
+        StatsSeries stats = getStats(statName);
+        return stats == null ? 0 : (long) stats.getLastValue();
     }
 
     /**
-     * Returns series if stat name starts with the prefix.
+     * Returns series if stat name starts with the prefix. Consolidation tiers are left out.
      * @param statNamePrefix
      * @return a Map of matching stats. Map keys are stat names and map values are corresponding series.
      */
-    public synchronized Map getStatsByPrefix(String statNamePrefix) {
+    public Map getStatsByPrefix(String statNamePrefix) {
         Map map = new HashMap();
-        for (Iterator i = statsData.entrySet().iterator(); i.hasNext();) {
+        for (Iterator i = allStats().tailMap(statNamePrefix).entrySet().iterator(); i.hasNext();) {
             Map.Entry en = (Map.Entry) i.next();
-            if (((String)en.getKey()).startsWith(statNamePrefix)) {
+            String name = (String) en.getKey();
+            if (! name.startsWith(statNamePrefix)) {
+                break;
+            }
+            if (! StatsRollup.isTierName(name)) {
+                loadHistory(name);
                 map.put(en.getKey(), en.getValue());
             }
         }
         return map;
     }
 
+    /**
+     * Registers a stat name template, so that names built from it are indexed
+     * by metric and tag, see {@link StatsIndex}.
+     *
+     * @param template stat name template with a "{0}" placeholder, such as "app.requests.{0}"
+     * @param tag name of the tag the placeholder stands for, such as "app"
+     */
+    public void addKeyTemplate(String template, String tag) {
+        index.addTemplate(template, tag);
+    }
+
+    /**
+     * @param keyTemplates map of stat name templates to tag names, registered as by
+     * {@link #addKeyTemplate(String, String)}. Collectors register their templates on their own,
+     * listing them here makes the series restored on start selectable before the first collection.
+     */
+    public void setKeyTemplates(Map keyTemplates) {
+        for (Iterator it = keyTemplates.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            addKeyTemplate((String) en.getKey(), (String) en.getValue());
+        }
+    }
+
+    /**
+     * @return all stat names but the consolidation tiers, ordered by metric, see {@link StatsIndex#getView()}
+     */
+    public StatsIndex.View getIndexView() {
+        return index.getView();
+    }
+
+    /**
+     * @return structured key of the stat or null if there is no such stat
+     */
+    public StatsKey getKey(String statName) {
+        return index.getKey(statName);
+    }
+
+    /**
+     * Returns series selected by metric and tags, for example
+     * <code>app.requests{app=*}</code> or <code>ds.*{datasource=jdbc/sales}</code>.
+     * Consolidation tiers are left out.
+     *
+     * @param selector selector as described in {@link StatsKey}
+     * @return a Map of matching stats sorted by name. Map keys are stat names and map values are
+     * corresponding series.
+     */
+    public Map getStatsBySelector(String selector) {
+        return getStatsBySelector(StatsKey.parse(selector));
+    }
+
+    public Map getStatsBySelector(StatsKey selector) {
+        Map map = new LinkedHashMap();
+        SortedMap data = allStats();
+        for (Iterator i = index.select(selector).iterator(); i.hasNext();) {
+            String name = (String) i.next();
+            Object series = data.get(name);
+            if (series != null) {
+                loadHistory(name);
+                map.put(name, series);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns series with names matching a pattern where "*" stands for any sequence of characters.
+     * Only the names starting with the part of the pattern before the first "*" are looked at.
+     * Consolidation tiers are left out.
+     *
+     * @param pattern stat name pattern, such as "stat.connector.*.requests"
+     * @return a Map of matching stats sorted by name
+     */
+    public Map getStatsByPattern(String pattern) {
+        Map map = new LinkedHashMap();
+        String prefix = StatsKey.literalPrefix(pattern);
+        for (Iterator i = allStats().tailMap(prefix).entrySet().iterator(); i.hasNext();) {
+            Map.Entry en = (Map.Entry) i.next();
+            String name = (String) en.getKey();
+            if (! name.startsWith(prefix)) {
+                break;
+            }
+            if (! StatsRollup.isTierName(name) && StatsKey.matches(pattern, name)) {
+                loadHistory(name);
+                map.put(name, en.getValue());
+            }
+        }
+        return map;
+    }
+
     private File makeFile() {
-        return storagePath == null ? new File(contextTempDir, swapFileName) : new File(storagePath, swapFileName);
+        return makeFile(swapFileName);
+    }
+
+    private File getStorageDir() {
+        return storagePath == null ? contextTempDir : new File(storagePath);
+    }
+
+    private String getJournalPrefix() {
+        return swapFileName + ".journal";
+    }
+
+    private File makeFile(String fileName) {
+        return storagePath == null ? new File(contextTempDir, fileName) : new File(storagePath, fileName);
+    }
+
+    private File makeFile(String fileName, int index) {
+        return index == 0 ? makeFile(fileName) : new File(makeFile(fileName).getAbsolutePath() + "." + index);
     }
 
     private void shiftFiles(int index) {
         if (index >= maxFiles - 1) {
-            new File(makeFile().getAbsolutePath() + "." + index).delete();
+            makeFile(swapFileName, index).delete();
         } else {
             shiftFiles(index + 1);
-            File srcFile = index == 0 ? makeFile() : new File(makeFile().getAbsolutePath() + "." + index);
-            File destFile = new File(makeFile().getAbsolutePath() + "." + (index + 1));
+            File srcFile = makeFile(swapFileName, index);
+            File destFile = makeFile(swapFileName, index + 1);
             srcFile.renameTo(destFile);
         }
     }
 
     /**
-     * Writes stats data to file on disk.
+     * Writes stats data to file on disk. Only a snapshot of the series is taken
+     * on the calling thread, the snapshot is written by a low priority thread
+     * of its own, see {@link StatsSnapshotWriter}.
      *
      * @throws IOException
      * @throws InterruptedException
      */
-    public synchronized void serialize() throws IOException, InterruptedException {
-        lock.lockForCommit();
+    public void serialize() throws IOException, InterruptedException {
+        if (store != null) {
+            store.force();
+            return;
+        }
+        synchronized (serializeLock) {
+            serializeData();
+        }
+    }
+
+    /**
+     * @return the series written to the swap file, all but the transient ones
+     */
+    private Map persistentStats() {
+        SortedMap data = allStats();
+        if (retention == null) {
+            return data;
+        }
+        Map persistent = new TreeMap();
+        for (Iterator it = data.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            if (retention.isPersistent((String) en.getKey())) {
+                persistent.put(en.getKey(), en.getValue());
+            }
+        }
+        return persistent;
+    }
+
+    private void serializeData() {
+        long t = System.currentTimeMillis();
+        try {
+            int journalSequence = 0;
+            if (journal != null) {
+                if (t - lastCompaction < journalCompactionPeriod * 1000) {
+                    journal.flush();
+                    return;
+                }
+                journalSequence = journal.roll();
+                lastCompaction = t;
+            }
+            // the snapshot must not miss the history that has not been merged yet
+            loadHistory();
+            if (writer == null) {
+                writer = new StatsSnapshotWriter("psi-probe stats writer") {
+                    protected void write(StatsSnapshot snapshot) throws Exception {
+                        writeSnapshot(snapshot);
+                    }
+                };
+            }
+            writer.submit(StatsSnapshot.take(persistentStats(), journalSequence));
+        } catch (Exception e) {
+            logger.error("Could not take stats snapshot", e);
+        } finally {
+            logger.debug("stats snapshot taken in " + (System.currentTimeMillis() - t) + "ms.");
+        }
+    }
+
+    private void writeSnapshot(StatsSnapshot snapshot) {
         long t = System.currentTimeMillis();
         try {
+            // the new snapshot is on the disk before it replaces the previous one
+            File tmp = makeFile(swapFileName + ".tmp");
+            long bytes = StatsSwapFile.write(snapshot, tmp);
             shiftFiles(0);
-            OutputStream os = new FileOutputStream(makeFile());
-            try {
-                new XStream().toXML(statsData, os);
-            } finally {
-                os.close();
+            if (! tmp.renameTo(makeFile())) {
+                throw new IOException("Could not rename " + tmp.getAbsolutePath() + " to " + makeFile().getName());
+            }
+            // and the journal it covers is only dropped then
+            if (journal != null) {
+                journal.deleteSegmentsBefore(snapshot.getJournalSequence());
+            }
+            if (legacyImported) {
+                removeLegacyFiles();
             }
+            long duration = System.currentTimeMillis() - t;
+            lastSnapshotDuration = duration;
+            lastSnapshotBytes = bytes;
+            addSerializerValue(SERIALIZER_TIME, t, duration);
+            addSerializerValue(SERIALIZER_BYTES, t, bytes);
+            logger.debug("stats serialized in " + duration + "ms, " + bytes + " bytes.");
         } catch (Exception e) {
             logger.error("Could not write stats data to " + makeFile().getAbsolutePath(), e);
-        } finally {
-            lock.releaseCommitLock();
-            logger.debug("stats serialized in " + (System.currentTimeMillis() - t) + "ms.");
         }
     }
 
-    private Map deserialize(File f) {
+    private void addSerializerValue(String name, long time, long value) {
+        StatsSeries series = getStats(name);
+        if (series == null) {
+            series = newStats(name, serializerStatsCapacity);
+        }
+        addValue(name, series, time, value);
+    }
+
+    /**
+     * @return how long writing the last snapshot took in milliseconds, -1 before the first one
+     */
+    public long getLastSnapshotDuration() {
+        return lastSnapshotDuration;
+    }
+
+    /**
+     * @return size of the last snapshot written in bytes, -1 before the first one
+     */
+    public long getLastSnapshotBytes() {
+        return lastSnapshotBytes;
+    }
+
+    public int getSerializerStatsCapacity() {
+        return serializerStatsCapacity;
+    }
+
+    /**
+     * @param serializerStatsCapacity number of snapshot writes kept in the
+     * probe.serializer.time and probe.serializer.bytes series
+     */
+    public void setSerializerStatsCapacity(int serializerStatsCapacity) {
+        this.serializerStatsCapacity = serializerStatsCapacity;
+    }
+
+    /**
+     * Writes the samples collected since the last flush to the journal.
+     */
+    public void flushJournal() {
+        if (journal != null) {
+            try {
+                journal.flush();
+            } catch (IOException e) {
+                logger.error("Could not flush stats journal", e);
+            }
+        }
+    }
+
+    private void removeLegacyFiles() {
+        for (int i = 0; i < maxFiles; i++) {
+            File f = makeFile(legacySwapFileName, i);
+            if (f.exists() && ! f.delete()) {
+                logger.warn("Could not delete " + f.getAbsolutePath());
+            }
+        }
+        legacyImported = false;
+    }
+
+    private Map deserialize(File f, boolean legacy) {
         Map stats = null;
         if (f.exists() && f.canRead()) {
             long t = System.currentTimeMillis();
             try {
-                FileInputStream fis = new FileInputStream(f);
-                try {
-                    stats = (Map) (new XStream().fromXML(fis));
-
-                    if (stats != null) {
-                        // adjust stats data so that charts look realistic.
-                        // we do that by ending the previous stats group with 0 value
-                        // and starting the current stats group also with 0
-                        // thus giving the chart nice plunge to zero indicating downtime
-                        //
-                        // and lets not bother about rotating stats;
-                        // regular stats collection cycle will do it
-
-                        for (Iterator it = stats.keySet().iterator(); it.hasNext();) {
-                            List l = (List) stats.get(it.next());
-                            if (l.size() > 0) {
-                                XYDataItem xy = (XYDataItem) l.get(l.size() - 1);
-                                l.add(new XYDataItem(xy.getX().longValue() + 1, 0));
-                                l.add(new XYDataItem(System.currentTimeMillis(), 0));
-                            }
-                        }
+                if (legacy) {
+                    FileInputStream fis = new FileInputStream(f);
+                    try {
+                        stats = (Map) (new XStream().fromXML(fis));
+                    } finally {
+                        fis.close();
+                    }
+                } else {
+                    StatsHistory h = StatsSwapFile.openHistory(f);
+                    if (h != null) {
+                        stats = h.createSeries(compressedSeries);
+                        history = h;
+                    } else {
+                        stats = StatsSwapFile.read(f);
+                    }
+                }
+
+                if (stats != null) {
+                    for (Iterator it = stats.entrySet().iterator(); it.hasNext();) {
+                        Map.Entry en = (Map.Entry) it.next();
+                        en.setValue(toStatsSeries(en.getValue()));
                     }
-                } finally {
-                    fis.close();
                 }
                 logger.debug("stats data read in " + (System.currentTimeMillis() - t) + "ms.");
             } catch (Throwable e) {
@@ -211,43 +924,180 @@ public class StatsCollection implements InitializingBean, DisposableBean, Applic
         return stats;
     }
 
-    public void lockForUpdate() throws InterruptedException {
-        lock.lockForUpdate();
+    /**
+     * Files written before the stats were kept in {@link StatsSeries} hold a list
+     * of XYDataItem per series. Such lists are converted on load; the series
+     * capacity leaves room for the two downtime marker points.
+     */
+    private StatsSeries toStatsSeries(Object o) {
+        if (o instanceof StatsSeries) {
+            return (StatsSeries) o;
+        }
+        List l = (List) o;
+        StatsSeries series = new StatsSeries(l.size() + 2);
+        for (Iterator it = l.iterator(); it.hasNext();) {
+            XYDataItem xy = (XYDataItem) it.next();
+            series.add(xy.getX().longValue(), xy.getY().doubleValue());
+        }
+        return series;
     }
 
-    public void releaseLock() {
-        lock.releaseUpdateLock();
+    /**
+     * Replaces the series read from the swap file and the journal with compressed copies.
+     */
+    private void compress(Map stats) {
+        for (Iterator it = stats.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            StatsSeries source = (StatsSeries) en.getValue();
+            if (! (source instanceof CompressedStatsSeries)) {
+                StatsSeries series = new CompressedStatsSeries(source.getCapacity());
+                for (StatsSeries.Cursor c = source.cursor(); c.next();) {
+                    series.add(c.getTime(), c.getValue());
+                }
+                en.setValue(series);
+            }
+        }
     }
 
     /**
-     * Reads stats data from file on disk.
-     *
-     * @throws Exception
+     * Adjusts stats data so that charts look realistic. We do that by ending the previous stats
+     * group with 0 value and starting the current stats group also with 0, thus giving the chart
+     * nice plunge to zero indicating downtime.
      */
-    public synchronized void afterPropertiesSet() throws Exception {
+    private void markDowntime(Map stats) {
+        long now = System.currentTimeMillis();
+        for (Iterator it = stats.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            StatsSeries series = (StatsSeries) en.getValue();
+            String name = (String) en.getKey();
+            // the history not merged yet is older than the samples already in the series
+            long lastTime = series.isEmpty() && history != null ? history.getLastTime(name) : series.getLastTime();
+            // tiers get their plunge from the raw samples
+            if (lastTime != 0 && ! StatsRollup.isTierName(name)) {
+                series.add(lastTime + 1, 0);
+                series.add(now, 0);
+            }
+        }
+    }
+
+    private Map deserialize(String fileName, boolean legacy) {
         int index = 0;
         Map stats;
 
         while (true) {
-            File f = index == 0 ? makeFile() : new File(makeFile().getAbsolutePath() + "." + index);
-            stats = deserialize(f);
+            stats = deserialize(makeFile(fileName, index), legacy);
             index += 1;
             if (stats != null || index >= maxFiles - 1) {
                 break;
             }
         }
+        return stats;
+    }
 
-        if (stats != null) {
-            statsData = stats;
-        } else {
+    /**
+     * Reads stats data from file on disk.
+     *
+     * @throws Exception
+     */
+    public synchronized void afterPropertiesSet() throws Exception {
+        if (mappedStorage) {
+            try {
+                openStore();
+                return;
+            } catch (IOException e) {
+                logger.error("Could not open mapped stats storage, falling back to the swap file", e);
+            }
+        }
+
+        Map stats = deserialize(swapFileName, false);
+
+        if (stats == null && legacySwapFileName != null) {
+            stats = deserialize(legacySwapFileName, true);
+            legacyImported = stats != null;
+        }
+
+        if (stats == null) {
             logger.debug("Stats data file not found. Empty file assumed.");
         }
 
+        if (journalEnabled) {
+            if (stats == null) {
+                stats = new TreeMap();
+            }
+            long t = System.currentTimeMillis();
+            int count = StatsJournal.replay(getStorageDir(), getJournalPrefix(), stats, history);
+            logger.debug(count + " journaled samples replayed in " + (System.currentTimeMillis() - t) + "ms.");
+            journal = new StatsJournal(getStorageDir(), getJournalPrefix());
+            lastCompaction = System.currentTimeMillis();
+        }
+
+        if (stats != null) {
+            if (compressedSeries) {
+                compress(stats);
+            }
+            markDowntime(stats);
+            replaceStatsData(stats instanceof SortedMap ? (SortedMap) stats : new TreeMap(stats));
+        }
+
+        if (history != null) {
+            if (historyLoaders > 0) {
+                history.startLoaders(historyLoaders);
+            } else {
+                loadHistory();
+            }
+        }
+
     }
 
 
+    private void openStore() throws IOException {
+        long t = System.currentTimeMillis();
+        store = new MappedStatsStore(makeFile(swapFileName + ".map"), mappedSlotCapacity);
+        Map stats = store.load();
+        if (store.isCreated()) {
+            // first start with the mapped storage, take over the history from the swap file
+            Map swapped = deserialize(swapFileName, false);
+            if (swapped == null && legacySwapFileName != null) {
+                swapped = deserialize(legacySwapFileName, true);
+            }
+            loadHistory();
+            if (swapped != null) {
+                for (Iterator it = swapped.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry en = (Map.Entry) it.next();
+                    StatsSeries source = (StatsSeries) en.getValue();
+                    StatsSeries series = store.allocate((String) en.getKey(), source.getCapacity());
+                    if (series != null) {
+                        for (StatsSeries.Cursor c = source.cursor(); c.next();) {
+                            series.add(c.getTime(), c.getValue());
+                        }
+                        stats.put(en.getKey(), series);
+                    }
+                }
+            }
+        }
+        markDowntime(stats);
+        replaceStatsData((SortedMap) stats);
+        logger.debug(stats.size() + " mapped stats opened in " + (System.currentTimeMillis() - t) + "ms.");
+    }
+
     public void destroy() throws Exception {
+        // a full write on shutdown keeps the journal short for the next start
+        synchronized (serializeLock) {
+            lastCompaction = 0;
+        }
         serialize();
+        if (writer != null) {
+            writer.shutdown();
+            writer = null;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (store != null) {
+            store.close();
+            store = null;
+        }
     }
 
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Series of a swap file whose samples are decoded on demand. Opening the file
+ * reads it into the heap but only decodes its index, see
+ * {@link StatsSwapFile#openHistory(java.io.File)}.
+ * {@link #createSeries(boolean)} then returns empty series collectors can
+ * append to right away; the history of a series is merged into it, ahead of
+ * the samples collected since, when it is first asked for by
+ * {@link #load(String)} or when the background loaders get to it.
+ */
+public class StatsHistory {
+
+    private static final int PENDING = 0;
+    private static final int LOADING = 1;
+    private static final int LOADED = 2;
+
+    private static Log logger = LogFactory.getLog(StatsHistory.class);
+
+    private final ByteBuffer data;
+    private final String[] names;
+    private final int[] capacities;
+    private final int[] sizes;
+    private final long[] lastTimes;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final Map indexes = new HashMap();
+    private final int[] states;
+    private StatsSeries[] targets;
+    private int next = 0;
+    private int remaining;
+
+    StatsHistory(ByteBuffer data, String[] names, int[] capacities, int[] sizes, long[] lastTimes,
+            int[] offsets, int[] lengths) {
+        this.data = data;
+        this.names = names;
+        this.capacities = capacities;
+        this.sizes = sizes;
+        this.lastTimes = lastTimes;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.states = new int[names.length];
+        this.remaining = names.length;
+        for (int i = 0; i < names.length; i++) {
+            indexes.put(names[i], new Integer(i));
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Creates the empty series the history is merged into.
+     *
+     * @param compressed if true, {@link CompressedStatsSeries} are created
+     * @return map of stat names to the new series
+     */
+    public synchronized Map createSeries(boolean compressed) {
+        Map stats = new TreeMap();
+        targets = new StatsSeries[names.length];
+        for (int i = 0; i < names.length; i++) {
+            targets[i] = compressed ? new CompressedStatsSeries(capacities[i]) : new StatsSeries(capacities[i]);
+            stats.put(names[i], targets[i]);
+        }
+        return stats;
+    }
+
+    /**
+     * @return time of the last sample in the history of the stat, 0 if there is none
+     */
+    public synchronized long getLastTime(String name) {
+        Integer i = (Integer) indexes.get(name);
+        return i == null || sizes[i.intValue()] == 0 ? 0 : lastTimes[i.intValue()];
+    }
+
+    /**
+     * Merges the history of a stat into its series, unless that has been done
+     * already. Waits if another thread is merging it.
+     */
+    public void load(String name) {
+        Integer i = (Integer) indexes.get(name);
+        if (i != null) {
+            load(i.intValue());
+        }
+    }
+
+    /**
+     * Drops the history of a stat that has not been merged yet, such as when
+     * the journal tells of the series being reset since the file was written.
+     * Waits if another thread is merging it.
+     */
+    public void discard(String name) {
+        Integer index = (Integer) indexes.get(name);
+        if (index != null) {
+            int i = index.intValue();
+            synchronized (this) {
+                while (states[i] == LOADING) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (states[i] == PENDING) {
+                    states[i] = LOADED;
+                    sizes[i] = 0;
+                    remaining--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the history of all stats, on the calling thread and on the
+     * background loaders if they are running.
+     */
+    public void loadAll() {
+        for (int i = 0; i < names.length; i++) {
+            load(i);
+        }
+    }
+
+    /**
+     * @return true if the history of every stat has been merged
+     */
+    public synchronized boolean isLoaded() {
+        return remaining == 0;
+    }
+
+    /**
+     * Starts daemon threads merging the history in the background.
+     *
+     * @param threads number of threads
+     */
+    public void startLoaders(int threads) {
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread("psi-probe stats history loader " + i) {
+                public void run() {
+                    long start = System.currentTimeMillis();
+                    int i;
+                    while ((i = nextPending()) >= 0) {
+                        load(i);
+                    }
+                    logger.debug(getName() + " finished in " + (System.currentTimeMillis() - start) + "ms.");
+                }
+            };
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            t.start();
+        }
+    }
+
+    private synchronized int nextPending() {
+        while (next < states.length && states[next] != PENDING) {
+            next++;
+        }
+        return next < states.length ? next++ : -1;
+    }
+
+    private void load(int i) {
+        synchronized (this) {
+            while (states[i] == LOADING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (states[i] == LOADED) {
+                return;
+            }
+            states[i] = LOADING;
+        }
+        try {
+            long[] times = new long[sizes[i]];
+            double[] values = new double[sizes[i]];
+            ByteBuffer body = data.duplicate();
+            body.limit(offsets[i] + lengths[i]);
+            body.position(offsets[i]);
+            StatsSwapFile.readBody(body, times, values);
+            targets[i].prepend(times, values);
+        } catch (Exception e) {
+            logger.error("Could not read the history of " + names[i] + ", dropped", e);
+        } finally {
+            synchronized (this) {
+                states[i] = LOADED;
+                remaining--;
+                notifyAll();
+            }
+        }
+    }
+}
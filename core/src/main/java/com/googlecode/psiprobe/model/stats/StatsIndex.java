@@ -0,0 +1,314 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Inverted index of stat names by {@link StatsKey}. Keys are derived from the
+ * names with templates registered by the collectors: the template
+ * <code>stat.connector.{0}.requests</code> with the tag
+ * <code>connector</code> turns <code>stat.connector.http-8080.requests</code>
+ * into <code>stat.connector.requests{connector=http-8080}</code>. Names no
+ * template matches are their own metric without tags. Since keys only depend
+ * on the names, the index is rebuilt from the names after a restart.
+ * <p/>
+ * Names are kept in sorted sets per metric and per tag value. A selector is
+ * answered from the smallest of the sets its metric and tags point at, so it
+ * costs time proportional to that set rather than to the number of series.
+ * Wildcards in a metric or a tag value walk the sorted range of their
+ * literal prefix.
+ */
+public class StatsIndex {
+
+    private final List templates = new ArrayList();
+    private final Map keys = new HashMap();
+    private final SortedMap metrics = new TreeMap();
+    private final Map tags = new HashMap();
+    private View view;
+
+    /**
+     * Registers a name template. Names already in the index that match it are
+     * keyed again.
+     *
+     * @param template stat name template with a "{0}" placeholder for the tag value
+     * @param tag tag name
+     * @return false if the template was registered before
+     */
+    public synchronized boolean addTemplate(String template, String tag) {
+        Template t = new Template(template, tag);
+        if (templates.contains(t)) {
+            return false;
+        }
+        templates.add(t);
+        List names = new ArrayList();
+        for (Iterator it = keys.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            if (((StatsKey) en.getValue()).getTags().isEmpty() && t.keyOf((String) en.getKey()) != null) {
+                names.add(en.getKey());
+            }
+        }
+        for (Iterator it = names.iterator(); it.hasNext();) {
+            String name = (String) it.next();
+            remove(name);
+            add(name);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a name to the index. Consolidation tiers are left out.
+     *
+     * @return key of the name or null if it is not indexed
+     */
+    public synchronized StatsKey add(String name) {
+        if (StatsRollup.isTierName(name)) {
+            return null;
+        }
+        StatsKey key = (StatsKey) keys.get(name);
+        if (key == null) {
+            key = keyOf(name);
+            keys.put(name, key);
+            view = null;
+            names(metrics, key.getMetric()).add(name);
+            for (Iterator it = key.getTags().entrySet().iterator(); it.hasNext();) {
+                Map.Entry en = (Map.Entry) it.next();
+                SortedMap values = (SortedMap) tags.get(en.getKey());
+                if (values == null) {
+                    values = new TreeMap();
+                    tags.put(en.getKey(), values);
+                }
+                names(values, en.getValue()).add(name);
+            }
+        }
+        return key;
+    }
+
+    public synchronized void addAll(Collection names) {
+        for (Iterator it = names.iterator(); it.hasNext();) {
+            add((String) it.next());
+        }
+    }
+
+    public synchronized StatsKey getKey(String name) {
+        return (StatsKey) keys.get(name);
+    }
+
+    /**
+     * Clears the names, keeping the templates.
+     */
+    public synchronized void clear() {
+        view = null;
+        keys.clear();
+        metrics.clear();
+        tags.clear();
+    }
+
+    /**
+     * @param selector key with optional wildcards
+     * @return sorted list of the names the selector matches
+     */
+    public synchronized List select(StatsKey selector) {
+        Collection smallest = null;
+        if (! isAny(selector.getMetric())) {
+            smallest = lookup(metrics, selector.getMetric());
+        }
+        for (Iterator it = selector.getTags().entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            SortedMap values = (SortedMap) tags.get(en.getKey());
+            Collection c = values == null ? Collections.EMPTY_SET : lookup(values, (String) en.getValue());
+            if (smallest == null || c.size() < smallest.size()) {
+                smallest = c;
+            }
+        }
+        if (smallest == null) {
+            smallest = keys.keySet();
+        }
+        SortedSet result = new TreeSet();
+        for (Iterator it = smallest.iterator(); it.hasNext();) {
+            String name = (String) it.next();
+            if (((StatsKey) keys.get(name)).matches(selector)) {
+                result.add(name);
+            }
+        }
+        return new ArrayList(result);
+    }
+
+    /**
+     * @return all names ordered by metric, then by name. The view is shared and
+     * only rebuilt after the index has changed.
+     */
+    public synchronized View getView() {
+        if (view == null) {
+            String[] names = new String[keys.size()];
+            StatsKey[] viewKeys = new StatsKey[names.length];
+            int i = 0;
+            for (Iterator it = metrics.values().iterator(); it.hasNext();) {
+                for (Iterator n = ((SortedSet) it.next()).iterator(); n.hasNext(); i++) {
+                    names[i] = (String) n.next();
+                    viewKeys[i] = (StatsKey) keys.get(names[i]);
+                }
+            }
+            view = new View(names, viewKeys);
+        }
+        return view;
+    }
+
+    private static boolean isAny(String pattern) {
+        return pattern.length() == 0 || "*".equals(pattern);
+    }
+
+    /**
+     * @return names of the entries of a sorted index matching a value or a pattern
+     */
+    private static Collection lookup(SortedMap index, String pattern) {
+        if (! StatsKey.isPattern(pattern)) {
+            Collection c = (Collection) index.get(pattern);
+            return c == null ? Collections.EMPTY_SET : c;
+        }
+        String prefix = StatsKey.literalPrefix(pattern);
+        Collection result = new ArrayList();
+        SortedMap range = prefix.length() == 0 ? index : index.subMap(prefix, prefix + Character.MAX_VALUE);
+        for (Iterator it = range.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            if (StatsKey.matches(pattern, (String) en.getKey())) {
+                result.addAll((Collection) en.getValue());
+            }
+        }
+        return result;
+    }
+
+    private static SortedSet names(SortedMap index, Object value) {
+        SortedSet names = (SortedSet) index.get(value);
+        if (names == null) {
+            names = new TreeSet();
+            index.put(value, names);
+        }
+        return names;
+    }
+
+    /**
+     * Removes a name from the index.
+     */
+    public synchronized void remove(String name) {
+        StatsKey key = (StatsKey) keys.remove(name);
+        if (key != null) {
+            view = null;
+            unindex(metrics, key.getMetric(), name);
+            for (Iterator it = key.getTags().entrySet().iterator(); it.hasNext();) {
+                Map.Entry en = (Map.Entry) it.next();
+                unindex((SortedMap) tags.get(en.getKey()), en.getValue(), name);
+            }
+        }
+    }
+
+    private static void unindex(SortedMap index, Object value, String name) {
+        SortedSet names = (SortedSet) index.get(value);
+        if (names != null) {
+            names.remove(name);
+            if (names.isEmpty()) {
+                index.remove(value);
+            }
+        }
+    }
+
+    private StatsKey keyOf(String name) {
+        StatsKey best = null;
+        int bestLength = -1;
+        for (Iterator it = templates.iterator(); it.hasNext();) {
+            Template t = (Template) it.next();
+            StatsKey key = t.keyOf(name);
+            if (key != null && t.length() > bestLength) {
+                best = key;
+                bestLength = t.length();
+            }
+        }
+        return best != null ? best : new StatsKey(name);
+    }
+
+    /**
+     * Immutable list of the indexed names along with their keys.
+     */
+    public static class View {
+        private final String[] names;
+        private final StatsKey[] keys;
+
+        View(String[] names, StatsKey[] keys) {
+            this.names = names;
+            this.keys = keys;
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        public String getName(int index) {
+            return names[index];
+        }
+
+        public StatsKey getKey(int index) {
+            return keys[index];
+        }
+    }
+
+    private static class Template {
+        final String prefix;
+        final String suffix;
+        final String metric;
+        final String tag;
+
+        Template(String template, String tag) {
+            int p = template.indexOf("{0}");
+            if (p < 0) {
+                throw new IllegalArgumentException("Template without {0}: " + template);
+            }
+            this.prefix = template.substring(0, p);
+            this.suffix = template.substring(p + 3);
+            this.tag = tag;
+            String m = prefix.endsWith(".") && (suffix.length() == 0 || suffix.startsWith("."))
+                    ? prefix.substring(0, prefix.length() - 1) : prefix;
+            this.metric = m + suffix;
+        }
+
+        StatsKey keyOf(String name) {
+            if (name.length() > length() && name.startsWith(prefix) && name.endsWith(suffix)) {
+                return new StatsKey(metric, tag, name.substring(prefix.length(), name.length() - suffix.length()));
+            }
+            return null;
+        }
+
+        int length() {
+            return prefix.length() + suffix.length();
+        }
+
+        public boolean equals(Object o) {
+            if (! (o instanceof Template)) {
+                return false;
+            }
+            Template t = (Template) o;
+            return prefix.equals(t.prefix) && suffix.equals(t.suffix) && tag.equals(t.tag);
+        }
+
+        public int hashCode() {
+            return prefix.hashCode() * 31 + suffix.hashCode();
+        }
+    }
+}
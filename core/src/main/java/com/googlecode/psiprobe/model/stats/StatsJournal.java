@@ -0,0 +1,400 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only journal of stats samples. Samples are buffered in memory and
+ * appended to the current segment file on {@link #flush()}, which forces them
+ * to the disk, so a crash loses at most the samples collected since the last
+ * flush. The buffer is swapped
+ * with a spare one before it is written, collectors appending samples never
+ * wait for the disk.
+ * <p/>
+ * Segment files are named <code>&lt;prefix&gt;.&lt;sequence&gt;</code>. Every
+ * segment starts with a header and holds a sequence of records:
+ * <pre>
+ * DEFINE  byte 1, varint id, varint capacity, UTF-8 name
+ * SAMPLE  byte 2, varint id, long time, double value
+ * RESET   byte 3, varint id
+ * </pre>
+ * Series ids are only valid within the segment that defined them. A torn
+ * record at the end of a segment is ignored on replay.
+ */
+public class StatsJournal {
+
+    public static final int MAGIC = 0x5053494A;
+    public static final int VERSION = 1;
+
+    private static final byte DEFINE = 1;
+    private static final byte SAMPLE = 2;
+    private static final byte RESET = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static Log logger = LogFactory.getLog(StatsJournal.class);
+
+    private final File dir;
+    private final String prefix;
+    private final Object flushLock = new Object();
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Map ids = new HashMap();
+    private FileChannel channel;
+    private int sequence;
+
+    /**
+     * Opens a new segment after the last one found in the directory.
+     *
+     * @param dir directory holding the segments
+     * @param prefix segment file name prefix
+     * @throws IOException
+     */
+    public StatsJournal(File dir, String prefix) throws IOException {
+        this.dir = dir;
+        this.prefix = prefix;
+        int[] segments = findSegments(dir, prefix);
+        open(segments.length == 0 ? 0 : segments[segments.length - 1] + 1);
+    }
+
+    public synchronized int getSequence() {
+        return sequence;
+    }
+
+    public synchronized void append(String name, StatsSeries series, long time, double value) {
+        try {
+            int id = define(name, series.getCapacity());
+            ensure(26);
+            buffer.put(SAMPLE);
+            putVarInt(id);
+            buffer.putLong(time);
+            buffer.putDouble(value);
+        } catch (IOException e) {
+            logger.error("Could not append to stats journal " + segmentFile(sequence).getAbsolutePath(), e);
+        }
+    }
+
+    public synchronized void reset(String name, StatsSeries series) {
+        try {
+            int id = define(name, series.getCapacity());
+            ensure(6);
+            buffer.put(RESET);
+            putVarInt(id);
+        } catch (IOException e) {
+            logger.error("Could not append to stats journal " + segmentFile(sequence).getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Writes buffered records to the current segment and forces them to the disk.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            ByteBuffer out;
+            FileChannel ch;
+            synchronized (this) {
+                out = swapBuffers();
+                ch = channel;
+            }
+            write(out, ch);
+        }
+    }
+
+    /**
+     * Flushes and closes the current segment and starts a new one. Everything
+     * appended before this call is in segments older than the returned sequence.
+     *
+     * @return sequence of the new segment
+     * @throws IOException
+     */
+    public int roll() throws IOException {
+        synchronized (flushLock) {
+            flush();
+            ByteBuffer out;
+            FileChannel ch;
+            int next;
+            synchronized (this) {
+                // whatever has been appended during the flush goes to the old segment
+                out = swapBuffers();
+                ch = channel;
+                open(sequence + 1);
+                next = sequence;
+            }
+            // appends go to the new segment while the old one is forced
+            try {
+                write(out, ch);
+            } finally {
+                ch.close();
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Deletes the segments older than the given one, used once their content
+     * has been folded into a snapshot.
+     */
+    public synchronized void deleteSegmentsBefore(int sequence) {
+        int[] segments = findSegments(dir, prefix);
+        for (int i = 0; i < segments.length && segments[i] < sequence; i++) {
+            File f = segmentFile(segments[i]);
+            if (! f.delete()) {
+                logger.warn("Could not delete " + f.getAbsolutePath());
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (flushLock) {
+            flush();
+            ByteBuffer out;
+            FileChannel ch;
+            synchronized (this) {
+                out = swapBuffers();
+                ch = channel;
+            }
+            try {
+                write(out, ch);
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    /**
+     * Hands the buffered records over for writing, appends go to the spare
+     * buffer from now on. Called holding the journal monitor, the buffer
+     * returned is written by the caller holding the flush lock only.
+     */
+    private ByteBuffer swapBuffers() {
+        ByteBuffer out = buffer;
+        buffer = spare;
+        spare = out;
+        return out;
+    }
+
+    private static void write(ByteBuffer out, FileChannel ch) throws IOException {
+        out.flip();
+        try {
+            if (out.hasRemaining()) {
+                while (out.hasRemaining()) {
+                    ch.write(out);
+                }
+                ch.force(false);
+            }
+        } finally {
+            out.clear();
+        }
+    }
+
+    private void open(int sequence) throws IOException {
+        this.sequence = sequence;
+        ids.clear();
+        channel = new FileOutputStream(segmentFile(sequence), true).getChannel();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    private int define(String name, int capacity) throws IOException {
+        Integer id = (Integer) ids.get(name);
+        if (id == null) {
+            id = new Integer(ids.size());
+            ids.put(name, id);
+            byte[] bytes = name.getBytes("UTF-8");
+            ensure(16 + bytes.length);
+            buffer.put(DEFINE);
+            putVarInt(id.intValue());
+            putVarInt(capacity);
+            putVarInt(bytes.length);
+            buffer.put(bytes);
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Grows the buffer if it is full. Records reach the file only through
+     * {@link #flush()}, which keeps them in order.
+     */
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer b = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            b.put(buffer);
+            buffer = b;
+        }
+    }
+
+    private void putVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private File segmentFile(int sequence) {
+        return new File(dir, prefix + "." + sequence);
+    }
+
+    /**
+     * Replays all segments in the directory into the stats map, oldest first.
+     * Samples that are not newer than the last sample of their series are
+     * skipped; they are already part of the snapshot the map was loaded from.
+     *
+     * @param dir directory holding the segments
+     * @param prefix segment file name prefix
+     * @param stats map of stat names to {@link StatsSeries} to replay into
+     * @return number of replayed samples
+     */
+    public static int replay(File dir, String prefix, Map stats) {
+        return replay(dir, prefix, stats, null);
+    }
+
+    /**
+     * Same as {@link #replay(File, String, Map)} for series whose history has
+     * not been merged yet. The history of a series reset in the journal is
+     * discarded, it would otherwise be merged back ahead of the samples
+     * collected after the reset.
+     *
+     * @param history history of the series of the map, may be null
+     */
+    public static int replay(File dir, String prefix, Map stats, StatsHistory history) {
+        int count = 0;
+        int[] segments = findSegments(dir, prefix);
+        for (int i = 0; i < segments.length; i++) {
+            File f = new File(dir, prefix + "." + segments[i]);
+            try {
+                count += replaySegment(f, stats, history);
+            } catch (IOException e) {
+                logger.error("Could not replay stats journal " + f.getAbsolutePath(), e);
+            }
+        }
+        return count;
+    }
+
+    private static int replaySegment(File f, Map stats, StatsHistory history) throws IOException {
+        ByteBuffer bb;
+        FileInputStream fis = new FileInputStream(f);
+        try {
+            FileChannel fc = fis.getChannel();
+            bb = ByteBuffer.allocate((int) fc.size());
+            while (bb.hasRemaining() && fc.read(bb) >= 0) {
+                // keep reading
+            }
+            bb.flip();
+        } finally {
+            fis.close();
+        }
+
+        if (bb.remaining() < 8 || bb.getInt() != MAGIC || bb.getInt() != VERSION) {
+            throw new IOException("Not a stats journal segment");
+        }
+
+        List series = new ArrayList();
+        List names = new ArrayList();
+        int count = 0;
+        try {
+            while (bb.hasRemaining()) {
+                byte type = bb.get();
+                if (type == DEFINE) {
+                    int id = getVarInt(bb);
+                    int capacity = getVarInt(bb);
+                    byte[] bytes = new byte[getVarInt(bb)];
+                    bb.get(bytes);
+                    String name = new String(bytes, "UTF-8");
+                    StatsSeries s = (StatsSeries) stats.get(name);
+                    if (s == null) {
+                        s = new StatsSeries(capacity);
+                        stats.put(name, s);
+                    }
+                    if (id != series.size()) {
+                        throw new IOException("Out of order series id " + id);
+                    }
+                    series.add(s);
+                    names.add(name);
+                } else if (type == SAMPLE) {
+                    StatsSeries s = (StatsSeries) series.get(getVarInt(bb));
+                    long time = bb.getLong();
+                    double value = bb.getDouble();
+                    if (s.isEmpty() || time > s.getLastTime()) {
+                        s.add(time, value);
+                        count++;
+                    }
+                } else if (type == RESET) {
+                    int id = getVarInt(bb);
+                    if (history != null) {
+                        history.discard((String) names.get(id));
+                    }
+                    ((StatsSeries) series.get(id)).clear();
+                } else {
+                    throw new IOException("Unknown record type " + type);
+                }
+            }
+        } catch (IOException e) {
+            logTruncated(f, count);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException or a bad id
+            logTruncated(f, count);
+        }
+        return count;
+    }
+
+    private static void logTruncated(File f, int count) {
+        logger.warn("Stats journal " + f.getAbsolutePath() + " ends with a torn record, replayed " + count + " samples");
+    }
+
+    private static int getVarInt(ByteBuffer bb) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = bb.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int[] findSegments(File dir, String prefix) {
+        String[] names = dir.list();
+        int count = 0;
+        int[] segments = new int[names == null ? 0 : names.length];
+        for (int i = 0; i < segments.length; i++) {
+            if (names[i].startsWith(prefix + ".")) {
+                try {
+                    segments[count] = Integer.parseInt(names[i].substring(prefix.length() + 1));
+                    count++;
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(segments, 0, result, 0, count);
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Structured key of a stats series: a metric and a set of tags. The series
+ * <code>app.requests./probe</code> for example has the metric
+ * <code>app.requests</code> and the tag <code>app=/probe</code>.
+ * <p/>
+ * Keys are written as <code>metric{tag=value,tag=value}</code>, the braces
+ * are left out if there are no tags. Used as a selector, the metric and the
+ * tag values may contain "*" wildcards, see {@link #matches(String, String)}.
+ */
+public class StatsKey {
+
+    private final String metric;
+    private final SortedMap tags;
+
+    public StatsKey(String metric) {
+        this(metric, Collections.EMPTY_MAP);
+    }
+
+    public StatsKey(String metric, Map tags) {
+        this.metric = metric;
+        this.tags = Collections.unmodifiableSortedMap(new TreeMap(tags));
+    }
+
+    public StatsKey(String metric, String tag, String value) {
+        this(metric, Collections.singletonMap(tag, value));
+    }
+
+    /**
+     * Parses a key or a selector.
+     *
+     * @param s text such as <code>app.requests{app=*}</code>
+     * @return parsed key
+     * @throws IllegalArgumentException if the text is not a valid key
+     */
+    public static StatsKey parse(String s) {
+        s = s.trim();
+        int open = s.indexOf('{');
+        if (open < 0) {
+            return new StatsKey(s);
+        }
+        if (! s.endsWith("}")) {
+            throw new IllegalArgumentException("Invalid stats key: " + s);
+        }
+        Map tags = new TreeMap();
+        String list = s.substring(open + 1, s.length() - 1).trim();
+        if (list.length() > 0) {
+            String[] pairs = list.split(",");
+            for (int i = 0; i < pairs.length; i++) {
+                int eq = pairs[i].indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Invalid stats key: " + s);
+                }
+                tags.put(pairs[i].substring(0, eq).trim(), pairs[i].substring(eq + 1).trim());
+            }
+        }
+        return new StatsKey(s.substring(0, open).trim(), tags);
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    /**
+     * @return map of tag names to tag values, sorted by tag name
+     */
+    public SortedMap getTags() {
+        return tags;
+    }
+
+    public String getTag(String tag) {
+        return (String) tags.get(tag);
+    }
+
+    /**
+     * Checks this key against a selector. The metric and every tag of the
+     * selector have to match, tags the selector does not name are ignored.
+     *
+     * @param selector key with optional wildcards
+     * @return true if the key is selected
+     */
+    public boolean matches(StatsKey selector) {
+        if (! matches(selector.metric, metric)) {
+            return false;
+        }
+        for (Iterator it = selector.tags.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            String value = (String) tags.get(en.getKey());
+            if (value == null || ! matches((String) en.getValue(), value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches a text against a pattern where "*" stands for any sequence of
+     * characters. An empty pattern matches anything. On a mismatch the text
+     * is only backed up to the last "*", which takes one more character, so
+     * the time taken is at most the product of both lengths whatever the
+     * pattern.
+     */
+    public static boolean matches(String pattern, String s) {
+        if (pattern.length() == 0) {
+            return true;
+        }
+        int p = 0;
+        int i = 0;
+        int star = -1;
+        int mark = 0;
+        while (i < s.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = i;
+            } else if (p < pattern.length() && pattern.charAt(p) == s.charAt(i)) {
+                p++;
+                i++;
+            } else if (star >= 0) {
+                p = star + 1;
+                i = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    /**
+     * @return the part of a pattern before the first wildcard
+     */
+    public static String literalPrefix(String pattern) {
+        int p = pattern.indexOf('*');
+        return p < 0 ? pattern : pattern.substring(0, p);
+    }
+
+    public static boolean isPattern(String s) {
+        return s.length() == 0 || s.indexOf('*') >= 0;
+    }
+
+    public boolean equals(Object o) {
+        if (! (o instanceof StatsKey)) {
+            return false;
+        }
+        StatsKey k = (StatsKey) o;
+        return metric.equals(k.metric) && tags.equals(k.tags);
+    }
+
+    public int hashCode() {
+        return metric.hashCode() * 31 + tags.hashCode();
+    }
+
+    public String toString() {
+        if (tags.isEmpty()) {
+            return metric;
+        }
+        StringBuffer sb = new StringBuffer(metric).append('{');
+        for (Iterator it = tags.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            sb.append(en.getKey()).append('=').append(en.getValue());
+            if (it.hasNext()) {
+                sb.append(',');
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
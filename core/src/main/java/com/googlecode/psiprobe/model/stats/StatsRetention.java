@@ -0,0 +1,141 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import com.googlecode.psiprobe.tools.TimeExpression;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Retention policies of stats series by name pattern, overriding the span of
+ * the collector that creates a series. A policy is written as
+ * <code>pattern=resolution/span</code>, optionally followed by
+ * <code>/transient</code>, for example
+ * <code>memory.pool.*=30s/1d,app.*=2m/1h/transient</code>. Patterns are
+ * globs as in {@link StatsKey#matches(String, String)} and the first matching
+ * policy wins.
+ * <ul>
+ * <li>resolution - minimal time between two samples of the raw series,
+ * samples collected more often are left out of it but still go into the
+ * consolidation tiers</li>
+ * <li>span - time the samples are kept for, the capacity of the series is
+ * the span divided by the resolution</li>
+ * <li>transient - the series is neither written to the swap file nor to the
+ * journal and starts empty after a restart</li>
+ * </ul>
+ * Consolidation tiers keep the capacity of their tier, they are only left
+ * out of the swap file along with their transient raw series.
+ * <p/>
+ * The policy of every name is resolved once and cached until the series is
+ * removed, see {@link #remove(String)}.
+ */
+public class StatsRetention {
+
+    private static final Rule NONE = new Rule(null, 0, 0, false);
+
+    private final Rule[] rules;
+    private final Map cache = Collections.synchronizedMap(new HashMap());
+
+    /**
+     * @param policies comma separated list of policies as described above
+     * @throws IllegalArgumentException if a policy cannot be parsed
+     */
+    public StatsRetention(String policies) {
+        String[] p = policies.split(",");
+        rules = new Rule[p.length];
+        for (int i = 0; i < p.length; i++) {
+            String policy = p[i].trim();
+            int eq = policy.indexOf('=');
+            String[] rs = eq < 0 ? new String[0] : policy.substring(eq + 1).split("/");
+            if (eq <= 0 || rs.length < 2 || rs.length > 3 || (rs.length == 3 && ! "transient".equals(rs[2].trim()))) {
+                throw new IllegalArgumentException("Invalid retention policy: " + policy);
+            }
+            long resolution = TimeExpression.inSeconds(rs[0].trim());
+            long capacity = TimeExpression.dataPoints(resolution, TimeExpression.inSeconds(rs[1].trim()));
+            if (resolution <= 0 || capacity <= 0) {
+                throw new IllegalArgumentException("Invalid retention policy: " + policy);
+            }
+            rules[i] = new Rule(policy.substring(0, eq).trim(), resolution * 1000, (int) capacity, rs.length == 3);
+        }
+    }
+
+    /**
+     * @param defaultCapacity capacity asked for by the collector
+     * @return capacity of the series
+     */
+    public int getCapacity(String name, int defaultCapacity) {
+        Rule r = getRule(name);
+        return r == NONE || StatsRollup.isTierName(name) ? defaultCapacity : r.capacity;
+    }
+
+    /**
+     * @return minimal time between two samples of the series in milliseconds, 0 if there is none
+     */
+    public long getResolution(String name) {
+        return StatsRollup.isTierName(name) ? 0 : getRule(name).resolution;
+    }
+
+    /**
+     * @return false if the series, or the raw series of a consolidation tier, is transient
+     */
+    public boolean isPersistent(String name) {
+        return ! getRule(name).transientSeries;
+    }
+
+    /**
+     * @return true if the sample is to be kept in the raw series, that is if
+     * the series is empty or its last sample is at least the resolution older.
+     * A tenth of the resolution is allowed for the jitter of the collectors.
+     */
+    public boolean accept(String name, StatsSeries stats, long time) {
+        long resolution = getResolution(name);
+        return resolution == 0 || stats.isEmpty() || time - stats.getLastTime() >= resolution - resolution / 10;
+    }
+
+    private Rule getRule(String name) {
+        Rule r = (Rule) cache.get(name);
+        if (r == null) {
+            int p = name.indexOf(StatsRollup.SEPARATOR);
+            String raw = p < 0 ? name : name.substring(0, p);
+            r = NONE;
+            for (int i = 0; i < rules.length; i++) {
+                if (StatsKey.matches(rules[i].pattern, raw)) {
+                    r = rules[i];
+                    break;
+                }
+            }
+            cache.put(name, r);
+        }
+        return r;
+    }
+
+    /**
+     * Forgets the policy resolved for a series that has been removed.
+     */
+    public void remove(String name) {
+        cache.remove(name);
+    }
+
+    private static class Rule {
+        final String pattern;
+        final long resolution;
+        final int capacity;
+        final boolean transientSeries;
+
+        Rule(String pattern, long resolution, int capacity, boolean transientSeries) {
+            this.pattern = pattern;
+            this.resolution = resolution;
+            this.capacity = capacity;
+            this.transientSeries = transientSeries;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import com.googlecode.psiprobe.tools.TimeExpression;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Consolidation tiers of stats series, in the spirit of RRDtool. Every tier
+ * has a period and a span, for example 5 minutes for 2 days. Samples of a raw
+ * series are accumulated into a bucket per tier. When a sample falls into the
+ * next period, the minimum, the average, the maximum and the sum of the
+ * finished bucket are added to the tier series named
+ * <code>&lt;raw name&gt;@@&lt;period&gt;.min|avg|max|sum</code>, timestamped
+ * with the start of the bucket. The sum tiers keep what a delta series, such
+ * as the requests served, adds up to over a period.
+ * <p/>
+ * Tier series are ordinary series of the {@link StatsCollection}, they are
+ * persisted together with the raw ones. The bucket being filled is not, a
+ * restart loses at most one period of every tier.
+ * <p/>
+ * Every tier keeps four series per raw one, so consolidating every series
+ * multiplies the memory the stats take many times over. Tiers are better kept
+ * for the series long windows are charted for, see {@link #setPatterns(String)}.
+ */
+public class StatsRollup {
+
+    public static final String SEPARATOR = "@@";
+
+    public static final String MIN = "min";
+    public static final String AVG = "avg";
+    public static final String MAX = "max";
+    public static final String SUM = "sum";
+
+    /**
+     * Functions every tier is consolidated with.
+     */
+    static final String[] FUNCTIONS = new String[] {MIN, AVG, MAX, SUM};
+
+    private final String[] periodExpressions;
+    private final long[] periods;
+    private final int[] capacities;
+    private final Map buckets = new HashMap();
+    private String[] patterns;
+
+    /**
+     * @param tiers comma separated list of tiers, each written as period/span
+     * time expressions, for example "5m/2d,1h/90d". Tiers have to be listed
+     * from the finest to the coarsest.
+     */
+    public StatsRollup(String tiers) {
+        String[] t = tiers.split(",");
+        periodExpressions = new String[t.length];
+        periods = new long[t.length];
+        capacities = new int[t.length];
+        for (int i = 0; i < t.length; i++) {
+            String[] ps = t[i].trim().split("/");
+            if (ps.length != 2) {
+                throw new IllegalArgumentException("Invalid rollup tier: " + t[i]);
+            }
+            periodExpressions[i] = ps[0].trim();
+            long period = TimeExpression.inSeconds(periodExpressions[i]);
+            long capacity = TimeExpression.dataPoints(period, TimeExpression.inSeconds(ps[1].trim()));
+            if (period <= 0 || capacity <= 0 || (i > 0 && period * 1000 <= periods[i - 1])) {
+                throw new IllegalArgumentException("Invalid rollup tier: " + t[i]);
+            }
+            periods[i] = period * 1000;
+            capacities[i] = (int) capacity;
+        }
+    }
+
+    /**
+     * @param patterns comma separated list of name patterns, as in
+     * {@link StatsKey#matches(String, String)}, of the series to consolidate,
+     * all series if empty
+     */
+    public void setPatterns(String patterns) {
+        this.patterns = patterns == null || patterns.trim().length() == 0 ? null : patterns.trim().split("\\s*,\\s*");
+        synchronized (buckets) {
+            buckets.clear();
+        }
+    }
+
+    /**
+     * @return true if the series is consolidated
+     */
+    public boolean isRolledUp(String name) {
+        if (isTierName(name)) {
+            return false;
+        } else if (patterns == null) {
+            return true;
+        }
+        for (int i = 0; i < patterns.length; i++) {
+            if (StatsKey.matches(patterns[i], name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getTierCount() {
+        return periods.length;
+    }
+
+    /**
+     * @return period of the tier in milliseconds
+     */
+    public long getPeriod(int tier) {
+        return periods[tier];
+    }
+
+    public int getCapacity(int tier) {
+        return capacities[tier];
+    }
+
+    public String getTierName(String name, int tier, String function) {
+        return name + SEPARATOR + periodExpressions[tier] + "." + function;
+    }
+
+    public static boolean isTierName(String name) {
+        return name.indexOf(SEPARATOR) >= 0;
+    }
+
+    /**
+     * @return period expression of the tier a series belongs to, such as "5m", or null if the
+     * series is a raw one
+     */
+    public static String getTierPeriod(String name) {
+        int p = name.indexOf(SEPARATOR);
+        return p < 0 ? null : name.substring(p + SEPARATOR.length(), name.lastIndexOf('.'));
+    }
+
+    /**
+     * Accumulates a raw sample and adds finished buckets to the tier series.
+     * The buckets of a series are looked up, or created, holding the bucket
+     * map, and are then filled and emitted holding the buckets of that series
+     * only, so collectors of different series do not wait for each other.
+     */
+    void add(StatsCollection collection, String name, long time, double value) {
+        Bucket[] b;
+        synchronized (buckets) {
+            b = (Bucket[]) buckets.get(name);
+            if (b == null) {
+                // series not consolidated get no buckets
+                b = new Bucket[isRolledUp(name) ? periods.length : 0];
+                for (int i = 0; i < b.length; i++) {
+                    b[i] = new Bucket();
+                }
+                buckets.put(name, b);
+            }
+        }
+        synchronized (b) {
+            for (int i = 0; i < b.length; i++) {
+                long start = time - time % periods[i];
+                if (b[i].count > 0 && start != b[i].start) {
+                    emit(collection, name, i, b[i]);
+                }
+                b[i].add(start, value);
+            }
+        }
+    }
+
+    /**
+     * Drops the bucket being filled, used when the raw series is reset.
+     */
+    void reset(String name) {
+        synchronized (buckets) {
+            buckets.remove(name);
+        }
+    }
+
+    private void emit(StatsCollection collection, String name, int tier, Bucket b) {
+        add(collection, getTierName(name, tier, MIN), tier, b.start, b.min);
+        add(collection, getTierName(name, tier, AVG), tier, b.start, b.sum / b.count);
+        add(collection, getTierName(name, tier, MAX), tier, b.start, b.max);
+        add(collection, getTierName(name, tier, SUM), tier, b.start, b.sum);
+        b.count = 0;
+    }
+
+    private void add(StatsCollection collection, String tierName, int tier, long time, double value) {
+        StatsSeries series = collection.getStats(tierName);
+        if (series == null) {
+            series = collection.newStats(tierName, capacities[tier]);
+        } else if (series.getCapacity() != capacities[tier]) {
+            series.setCapacity(capacities[tier]);
+        }
+        if (series.isEmpty() || time > series.getLastTime()) {
+            collection.addValue(tierName, series, time, value);
+        }
+    }
+
+    private static class Bucket {
+        long start;
+        int count;
+        double min;
+        double max;
+        double sum;
+
+        void add(long start, double value) {
+            if (count == 0) {
+                this.start = start;
+                min = value;
+                max = value;
+                sum = 0;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            sum += value;
+            count++;
+        }
+    }
+}
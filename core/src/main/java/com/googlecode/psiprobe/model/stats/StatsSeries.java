@@ -0,0 +1,431 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+/**
+ * Fixed capacity ring of stats samples. Sample times and values are kept in
+ * two parallel primitive arrays, so adding a sample does not shift the
+ * existing data. The arrays start small and double until they reach the
+ * capacity, a series collected for a short while takes little room whatever
+ * its span. Once the ring is full every new sample replaces the oldest one.
+ * <p/>
+ * Writers are expected to be a single collector per series. Writers and
+ * readers are serialized on the series monitor, which writers only hold for
+ * the few stores of a sample, so readers do not wait for long. Samples are
+ * read from the oldest to the newest with a {@link Cursor} over a copy taken
+ * under the monitor.
+ * <p/>
+ * Subclasses may keep the slots outside of the heap, see {@link MappedStatsStore},
+ * or store the samples differently altogether, see {@link CompressedStatsSeries}.
+ * <p/>
+ * A sample whose value is {@link #GAP} marks a time the figure could not be
+ * read. Charts break the line there and aggregations leave it out.
+ */
+public class StatsSeries {
+
+    /**
+     * Value of a gap marker, see {@link #isGap(double)}.
+     */
+    public static final double GAP = Double.NaN;
+
+    /**
+     * Number of samples room is made for up front, the arrays grow as the
+     * series fills up.
+     */
+    private static final int INITIAL_ALLOCATION = 16;
+
+    private long[] times;
+    private double[] values;
+    private int capacity;
+    private int head = 0;
+    private int size = 0;
+
+    public StatsSeries(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        allocate(this.capacity);
+    }
+
+    /**
+     * Constructor for series that keep their samples in a storage of their own
+     * and restore the ring position from it.
+     */
+    protected StatsSeries(int capacity, int head, int size) {
+        this.capacity = capacity;
+        this.head = head;
+        this.size = size;
+    }
+
+    /**
+     * @return true if the value marks a gap rather than a figure
+     */
+    public static boolean isGap(double value) {
+        return Double.isNaN(value);
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the capacity of the series keeping the most recent samples.
+     * It is meant to be used when a series restored from disk is taken over
+     * by a collector configured with a different span.
+     *
+     * @param capacity new capacity
+     */
+    public synchronized void setCapacity(int capacity) {
+        int c = limitCapacity(Math.max(capacity, 1));
+        if (c != this.capacity) {
+            int skip = Math.max(size - c, 0);
+            int count = size - skip;
+            long[] newTimes = new long[count];
+            double[] newValues = new double[count];
+            for (int i = 0; i < count; i++) {
+                int slot = slot(skip + i);
+                newTimes[i] = timeAt(slot);
+                newValues[i] = valueAt(slot);
+            }
+            allocate(c);
+            this.capacity = c;
+            for (int i = 0; i < count; i++) {
+                store(i, newTimes[i], newValues[i]);
+            }
+            head = 0;
+            size = count;
+            positionChanged(head, size);
+        }
+    }
+
+    /**
+     * Merges older samples ahead of the ones in the series, used to join the
+     * history read from disk with the samples collected since the start.
+     * Samples not older than the oldest sample of the series are ignored, the
+     * most recent samples are kept if they do not all fit.
+     *
+     * @param times sample times in ascending order
+     * @param values sample values
+     */
+    public synchronized void prepend(long[] times, double[] values) {
+        int history = times.length;
+        if (size > 0) {
+            long first = timeAt(head);
+            while (history > 0 && times[history - 1] >= first) {
+                history--;
+            }
+        }
+        int total = history + size;
+        int skip = Math.max(total - capacity, 0);
+        long[] newTimes = new long[total - skip];
+        double[] newValues = new double[total - skip];
+        for (int i = skip; i < total; i++) {
+            if (i < history) {
+                newTimes[i - skip] = times[i];
+                newValues[i - skip] = values[i];
+            } else {
+                int slot = slot(i - history);
+                newTimes[i - skip] = timeAt(slot);
+                newValues[i - skip] = valueAt(slot);
+            }
+        }
+        for (int i = 0; i < newTimes.length; i++) {
+            store(i, newTimes[i], newValues[i]);
+        }
+        head = 0;
+        size = newTimes.length;
+        positionChanged(head, size);
+    }
+
+    public synchronized void add(long time, double value) {
+        int slot;
+        if (size < capacity) {
+            slot = slot(size);
+            size++;
+        } else {
+            slot = head;
+            head = head + 1 == capacity ? 0 : head + 1;
+        }
+        store(slot, time, value);
+        positionChanged(head, size);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        positionChanged(head, size);
+    }
+
+    /**
+     * @return time of the oldest sample or 0 if the series is empty
+     */
+    public synchronized long getFirstTime() {
+        return size == 0 ? 0 : timeAt(head);
+    }
+
+    /**
+     * @return time of the most recent sample or 0 if the series is empty
+     */
+    public synchronized long getLastTime() {
+        return size == 0 ? 0 : timeAt(slot(size - 1));
+    }
+
+    /**
+     * @return value of the most recent sample or 0 if the series is empty
+     */
+    public synchronized double getLastValue() {
+        return size == 0 ? 0 : valueAt(slot(size - 1));
+    }
+
+    /**
+     * Creates a cursor over a copy of the samples, positioned before the
+     * oldest one.
+     *
+     * @return new cursor
+     */
+    public synchronized Cursor cursor() {
+        long[] t = new long[size];
+        double[] d = new double[size];
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            t[i] = timeAt(slot);
+            d[i] = valueAt(slot);
+        }
+        return new ArrayCursor(t, d);
+    }
+
+    /**
+     * Creates a cursor over a copy of the samples not more recent than the
+     * given time, the ones added since are left out.
+     *
+     * @param to time of the most recent sample to include
+     * @return new cursor
+     */
+    public Cursor cursor(long to) {
+        Cursor c = cursor();
+        int n = 0;
+        while (c.next() && c.getTime() <= to) {
+            n++;
+        }
+        c.rewind();
+        return n == c.size() ? c : new LimitedCursor(c, n);
+    }
+
+    /**
+     * Feeds the samples of a time range to an aggregation, reading the ring in
+     * place rather than copying it.
+     *
+     * @param from time of the oldest sample to include
+     * @param to time of the most recent sample to include
+     * @param aggregation aggregation to feed, finished when this returns
+     */
+    public synchronized void aggregate(long from, long to, StatsAggregation aggregation) {
+        aggregation.reset();
+        // samples are in ascending time order, look up the first one in range
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timeAt(slot(mid)) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < size; i++) {
+            int slot = slot(i);
+            long t = timeAt(slot);
+            if (t > to) {
+                break;
+            }
+            aggregation.add(t, valueAt(slot));
+        }
+        aggregation.finish();
+    }
+
+    private int slot(int index) {
+        int slot = head + index;
+        return slot < capacity ? slot : slot - capacity;
+    }
+
+    /*
+     * Storage of the ring slots. Subclasses keeping the samples outside of
+     * the heap override all of the methods below. They are called with the
+     * series monitor held.
+     */
+
+    /**
+     * @return the capacity the storage can provide, never more than requested
+     */
+    protected int limitCapacity(int capacity) {
+        return capacity;
+    }
+
+    /**
+     * Discards the current slots and makes room for the given number of samples.
+     */
+    protected void allocate(int capacity) {
+        int n = Math.min(capacity, INITIAL_ALLOCATION);
+        times = new long[n];
+        values = new double[n];
+    }
+
+    protected long timeAt(int slot) {
+        return times[slot];
+    }
+
+    protected double valueAt(int slot) {
+        return values[slot];
+    }
+
+    protected void store(int slot, long time, double value) {
+        if (slot >= times.length) {
+            // the ring has not wrapped yet, the slots in use start at 0
+            int n = Math.min(Math.max(times.length * 2, slot + 1), capacity);
+            long[] t = new long[n];
+            double[] d = new double[n];
+            System.arraycopy(times, 0, t, 0, times.length);
+            System.arraycopy(values, 0, d, 0, values.length);
+            times = t;
+            values = d;
+        }
+        times[slot] = time;
+        values[slot] = value;
+    }
+
+    /**
+     * Called after every change of the ring position.
+     */
+    protected void positionChanged(int head, int size) {
+    }
+
+    /**
+     * Forward-only view over a copy of the samples of the series.
+     */
+    public abstract static class Cursor {
+
+        /**
+         * Moves to the next sample.
+         *
+         * @return false if there are no more samples
+         */
+        public abstract boolean next();
+
+        /**
+         * Moves back before the oldest sample.
+         */
+        public abstract void rewind();
+
+        /**
+         * @return number of samples the cursor walks over
+         */
+        public abstract int size();
+
+        public abstract long getTime();
+
+        public abstract double getValue();
+
+        /**
+         * @return true if the cursor is positioned at the most recent sample
+         */
+        public abstract boolean isLast();
+    }
+
+    private static class ArrayCursor extends Cursor {
+
+        private final long[] times;
+        private final double[] values;
+        private int index = -1;
+
+        ArrayCursor(long[] times, double[] values) {
+            this.times = times;
+            this.values = values;
+        }
+
+        public boolean next() {
+            if (index + 1 >= times.length) {
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        public void rewind() {
+            index = -1;
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        public long getTime() {
+            return times[index];
+        }
+
+        public double getValue() {
+            return values[index];
+        }
+
+        public boolean isLast() {
+            return index == times.length - 1;
+        }
+    }
+
+    /**
+     * Cursor over the oldest samples of another one.
+     */
+    private static class LimitedCursor extends Cursor {
+
+        private final Cursor cursor;
+        private final int size;
+        private int index = -1;
+
+        LimitedCursor(Cursor cursor, int size) {
+            this.cursor = cursor;
+            this.size = size;
+        }
+
+        public boolean next() {
+            if (index + 1 >= size) {
+                return false;
+            }
+            index++;
+            return cursor.next();
+        }
+
+        public void rewind() {
+            cursor.rewind();
+            index = -1;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getTime() {
+            return cursor.getTime();
+        }
+
+        public double getValue() {
+            return cursor.getValue();
+        }
+
+        public boolean isLast() {
+            return index == size - 1;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The series to be written to disk at a point in time: the name and the
+ * series of every stat. Taking a snapshot only copies the references and the
+ * time of the last sample of every series, the samples are copied series by
+ * series when the snapshot is written, on the thread writing it, so the thread
+ * taking it does not copy every ring.
+ * <p/>
+ * The samples added once the snapshot has been taken are left out of the
+ * copies, they are in the journal segments from {@link #getJournalSequence()}
+ * on, see {@link StatsJournal}. A series that is full drops its oldest
+ * samples meanwhile though, those are missing from the snapshot.
+ */
+public class StatsSnapshot {
+
+    private final String[] names;
+    private final StatsSeries[] series;
+    private final long[] lastTimes;
+    private final long time;
+    private final int journalSequence;
+
+    private StatsSnapshot(String[] names, StatsSeries[] series, long[] lastTimes, long time, int journalSequence) {
+        this.names = names;
+        this.series = series;
+        this.lastTimes = lastTimes;
+        this.time = time;
+        this.journalSequence = journalSequence;
+    }
+
+    /**
+     * Takes a snapshot of all series.
+     *
+     * @param statsData map of stat names to {@link StatsSeries}, not changed while the snapshot is taken
+     * @param journalSequence first journal segment not covered by the snapshot
+     * @return new snapshot
+     */
+    public static StatsSnapshot take(Map statsData, int journalSequence) {
+        int n = statsData.size();
+        String[] names = new String[n];
+        StatsSeries[] series = new StatsSeries[n];
+        long[] lastTimes = new long[n];
+        int i = 0;
+        for (Iterator it = statsData.entrySet().iterator(); it.hasNext(); i++) {
+            Map.Entry en = (Map.Entry) it.next();
+            names[i] = (String) en.getKey();
+            series[i] = (StatsSeries) en.getValue();
+            lastTimes[i] = series[i].getLastTime();
+        }
+        return new StatsSnapshot(names, series, lastTimes, System.currentTimeMillis(), journalSequence);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public int getCapacity(int index) {
+        return series[index].getCapacity();
+    }
+
+    /**
+     * Copies the samples of a series up to its last sample when the snapshot
+     * was taken, see {@link StatsSeries#cursor(long)}.
+     *
+     * @return new cursor over the copy
+     */
+    public StatsSeries.Cursor getCursor(int index) {
+        return series[index].cursor(lastTimes[index]);
+    }
+
+    /**
+     * @return time the snapshot was taken
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public int getJournalSequence() {
+        return journalSequence;
+    }
+}
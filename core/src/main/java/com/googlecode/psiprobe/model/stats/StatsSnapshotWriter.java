@@ -0,0 +1,118 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes {@link StatsSnapshot}s on a dedicated low priority thread. There are
+ * two buffers: the snapshot being written and the one submitted next. A
+ * snapshot submitted while another one is still waiting replaces it, it is
+ * more recent and covers the same data, so a slow disk never queues up
+ * snapshots and the submitter never waits.
+ */
+public abstract class StatsSnapshotWriter implements Runnable {
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    private final Thread thread;
+    private StatsSnapshot pending;
+    private boolean writing = false;
+    private boolean stopped = false;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param name name of the thread
+     */
+    public StatsSnapshotWriter(String name) {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Queues a snapshot for writing, replacing a snapshot still waiting.
+     */
+    public synchronized void submit(StatsSnapshot snapshot) {
+        if (pending != null) {
+            logger.debug("stats snapshot of " + pending.getTime() + " superseded before it was written");
+        }
+        pending = snapshot;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the submitted snapshots have been written and stops the
+     * thread.
+     *
+     * @throws InterruptedException
+     */
+    public void shutdown() throws InterruptedException {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        thread.join();
+    }
+
+    /**
+     * Waits until there is nothing to write.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (pending != null || writing) {
+            wait();
+        }
+    }
+
+    public void run() {
+        while (true) {
+            StatsSnapshot snapshot;
+            synchronized (this) {
+                while (pending == null && ! stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending == null) {
+                    return;
+                }
+                snapshot = pending;
+                pending = null;
+                writing = true;
+            }
+            try {
+                write(snapshot);
+            } catch (Throwable e) {
+                logger.error("Could not write stats snapshot", e);
+                if (e instanceof ThreadDeath) {
+                    throw (ThreadDeath) e;
+                }
+            } finally {
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot, called on the writer thread.
+     */
+    protected abstract void write(StatsSnapshot snapshot) throws Exception;
+}
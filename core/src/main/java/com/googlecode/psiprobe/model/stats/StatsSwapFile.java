@@ -0,0 +1,469 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads and writes stats data in a compact, versioned binary layout:
+ * <pre>
+ * header      magic "PSIS", int version
+ * dictionary  int series count, then the UTF-8 name of every series
+ * index       for every name in dictionary order:
+ *             int capacity, int size, long time of the last sample, int body length
+ * series      for every name in dictionary order:
+ *             byte flags,
+ *             zig-zag varint deltas of the sample times,
+ *             sample values
+ * </pre>
+ * Values of series that only hold whole numbers (flag {@link #FLAG_INTEGRAL}) are
+ * written as zig-zag varint deltas, all other series store every value as a varint
+ * of its bits XOR-ed with the bits of the previous value. Slowly changing
+ * series therefore take a couple of bytes per sample.
+ * <p/>
+ * The index locates the body of every series, so that a {@link StatsHistory}
+ * can decode the series one by one when they are needed. Version 1 files have
+ * no index, capacity and size precede the flags of every series; they are
+ * still read.
+ * <p/>
+ * All I/O goes through a {@link FileChannel} and a single direct buffer.
+ */
+public class StatsSwapFile {
+
+    public static final int MAGIC = 0x50534953;
+    public static final int VERSION = 2;
+
+    static final int FLAG_INTEGRAL = 1;
+
+    private static final int INDEX_ENTRY_SIZE = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_CAPACITY = 1 << 24;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long flushed = 0;
+
+    private StatsSwapFile(FileChannel channel, boolean forWriting) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        if (! forWriting) {
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Reads from a buffer holding the whole input.
+     */
+    private StatsSwapFile(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Writes the stats to the file, replacing its content.
+     *
+     * @param statsData map of stat names to {@link StatsSeries}
+     * @param f destination file
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public static long write(Map statsData, File f) throws IOException {
+        return write(StatsSnapshot.take(statsData, 0), f);
+    }
+
+    /**
+     * Writes a snapshot of the stats to the file, replacing its content. The
+     * content is forced to the disk before this returns.
+     *
+     * @param snapshot stats to write
+     * @param f destination file
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public static long write(StatsSnapshot snapshot, File f) throws IOException {
+        FileOutputStream fos = new FileOutputStream(f);
+        try {
+            StatsSwapFile out = new StatsSwapFile(fos.getChannel(), true);
+            out.writeStats(snapshot);
+            out.flush();
+            fos.getChannel().force(true);
+            return fos.getChannel().position();
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Reads the stats from the file.
+     *
+     * @param f source file
+     * @return map of stat names to {@link StatsSeries}
+     * @throws IOException if the file cannot be read or is not a stats swap file
+     */
+    public static Map read(File f) throws IOException {
+        FileInputStream fis = new FileInputStream(f);
+        try {
+            return new StatsSwapFile(fis.getChannel(), false).readStats();
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Reads the file into the heap and decodes its dictionary and index only.
+     * The file is not mapped: it is closed by the time this returns, so that the
+     * next snapshot can replace it, which Windows does not let happen to a file
+     * mapped until the buffer is garbage collected.
+     *
+     * @param f source file
+     * @return history of the series or null if the file has no index, see {@link #read(File)}
+     * @throws IOException if the file cannot be read or is not a stats swap file
+     */
+    public static StatsHistory openHistory(File f) throws IOException {
+        FileInputStream fis = new FileInputStream(f);
+        try {
+            FileChannel ch = fis.getChannel();
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Stats swap file too large: " + size + " bytes");
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining()) {
+                if (ch.read(data, data.position()) < 0) {
+                    throw new EOFException("Stats swap file truncated while reading");
+                }
+            }
+            data.flip();
+            StatsSwapFile in = new StatsSwapFile(data);
+            if (in.readHeader() == 1) {
+                return null;
+            }
+            int count = in.readCount();
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = in.readString();
+            }
+            int[] capacities = new int[count];
+            int[] sizes = new int[count];
+            long[] lastTimes = new long[count];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            in.fill(count * INDEX_ENTRY_SIZE);
+            long offset = data.position() + (long) count * INDEX_ENTRY_SIZE;
+            for (int i = 0; i < count; i++) {
+                capacities[i] = data.getInt();
+                sizes[i] = data.getInt();
+                lastTimes[i] = data.getLong();
+                lengths[i] = data.getInt();
+                checkSize(capacities[i], sizes[i]);
+                if (lengths[i] < 1) {
+                    throw new IOException("Corrupt stats swap file, series length: " + lengths[i]);
+                }
+                offsets[i] = (int) offset;
+                offset += lengths[i];
+            }
+            if (offset != data.limit()) {
+                throw new IOException("Corrupt stats swap file, " + data.limit() + " bytes instead of " + offset);
+            }
+            return new StatsHistory(data, names, capacities, sizes, lastTimes, offsets, lengths);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Decodes the body of a series.
+     *
+     * @param body buffer positioned at the body, limited to its end
+     * @param times receives the sample times
+     * @param values receives the sample values
+     * @throws IOException if the body is corrupt
+     */
+    static void readBody(ByteBuffer body, long[] times, double[] values) throws IOException {
+        new StatsSwapFile(body).readSamples(times, values);
+    }
+
+    private void writeStats(StatsSnapshot snapshot) throws IOException {
+        int count = snapshot.size();
+        ensure(12);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(count);
+
+        for (int i = 0; i < count; i++) {
+            writeString(snapshot.getName(i));
+        }
+
+        // the index is written once the body lengths are known
+        flush();
+        long indexPosition = flushed;
+        ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+        channel.position(indexPosition + index.capacity());
+        flushed += index.capacity();
+
+        for (int i = 0; i < count; i++) {
+            StatsSeries.Cursor c = snapshot.getCursor(i);
+            long start = written();
+            long lastTime = writeSeries(c);
+            index.putInt(Math.max(snapshot.getCapacity(i), c.size()));
+            index.putInt(c.size());
+            index.putLong(lastTime);
+            index.putInt((int) (written() - start));
+        }
+        flush();
+        index.flip();
+        while (index.hasRemaining()) {
+            channel.write(index, indexPosition + index.position());
+        }
+    }
+
+    /**
+     * @return time of the last sample
+     */
+    private long writeSeries(StatsSeries.Cursor c) throws IOException {
+        c.rewind();
+        int flags = FLAG_INTEGRAL;
+        while (c.next()) {
+            double v = c.getValue();
+            if ((double) (long) v != v) {
+                flags = 0;
+                break;
+            }
+        }
+
+        ensure(1);
+        buffer.put((byte) flags);
+
+        long previousTime = 0;
+        c.rewind();
+        while (c.next()) {
+            writeVarLong(zigZag(c.getTime() - previousTime));
+            previousTime = c.getTime();
+        }
+
+        long previousValue = 0;
+        c.rewind();
+        while (c.next()) {
+            if (flags == FLAG_INTEGRAL) {
+                long v = (long) c.getValue();
+                writeVarLong(zigZag(v - previousValue));
+                previousValue = v;
+            } else {
+                long bits = Double.doubleToLongBits(c.getValue());
+                writeVarLong(bits ^ previousValue);
+                previousValue = bits;
+            }
+        }
+        return previousTime;
+    }
+
+    private int readHeader() throws IOException {
+        fill(8);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a stats swap file");
+        }
+        int version = buffer.getInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported stats swap file version: " + version);
+        }
+        return version;
+    }
+
+    private int readCount() throws IOException {
+        fill(4);
+        int count = buffer.getInt();
+        if (count < 0) {
+            throw new IOException("Corrupt stats swap file, series count: " + count);
+        }
+        return count;
+    }
+
+    private Map readStats() throws IOException {
+        int version = readHeader();
+        int count = readCount();
+
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = readString();
+        }
+
+        int[] capacities = new int[count];
+        int[] sizes = new int[count];
+        if (version > 1) {
+            for (int i = 0; i < count; i++) {
+                fill(INDEX_ENTRY_SIZE);
+                capacities[i] = buffer.getInt();
+                sizes[i] = buffer.getInt();
+                buffer.getLong();
+                buffer.getInt();
+            }
+        }
+
+        Map stats = new TreeMap();
+        for (int i = 0; i < count; i++) {
+            if (version == 1) {
+                fill(8);
+                capacities[i] = buffer.getInt();
+                sizes[i] = buffer.getInt();
+            }
+            checkSize(capacities[i], sizes[i]);
+            long[] times = new long[sizes[i]];
+            double[] values = new double[sizes[i]];
+            readSamples(times, values);
+            StatsSeries series = new StatsSeries(capacities[i]);
+            for (int j = 0; j < times.length; j++) {
+                series.add(times[j], values[j]);
+            }
+            stats.put(names[i], series);
+        }
+        return stats;
+    }
+
+    private static void checkSize(int capacity, int size) throws IOException {
+        if (size < 0 || capacity < size || capacity > MAX_CAPACITY) {
+            throw new IOException("Corrupt stats swap file, series size: " + size + ", capacity: " + capacity);
+        }
+    }
+
+    private void readSamples(long[] times, double[] values) throws IOException {
+        fill(1);
+        int flags = buffer.get();
+        long time = 0;
+        for (int i = 0; i < times.length; i++) {
+            time += unZigZag(readVarLong());
+            times[i] = time;
+        }
+
+        long previousValue = 0;
+        for (int i = 0; i < values.length; i++) {
+            if ((flags & FLAG_INTEGRAL) != 0) {
+                previousValue += unZigZag(readVarLong());
+                values[i] = previousValue;
+            } else {
+                previousValue ^= readVarLong();
+                values[i] = Double.longBitsToDouble(previousValue);
+            }
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarLong(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensure(1);
+            int len = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, len);
+            offset += len;
+        }
+    }
+
+    private String readString() throws IOException {
+        long len = readVarLong();
+        if (len < 0 || len > Short.MAX_VALUE) {
+            throw new IOException("Corrupt stats swap file, name length: " + len);
+        }
+        byte[] bytes = new byte[(int) len];
+        int offset = 0;
+        while (offset < bytes.length) {
+            fill(1);
+            int n = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.get(bytes, offset, n);
+            offset += n;
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            fill(1);
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt stats swap file, malformed varint");
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Makes sure the write buffer has room for the given number of bytes.
+     */
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return number of bytes written so far, including the ones still buffered
+     */
+    private long written() {
+        return flushed + buffer.position();
+    }
+
+    /**
+     * Makes sure the read buffer holds at least the given number of bytes.
+     */
+    private void fill(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            if (channel == null) {
+                throw new EOFException("Unexpected end of stats swap file");
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Unexpected end of stats swap file");
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
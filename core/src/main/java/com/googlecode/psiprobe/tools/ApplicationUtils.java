@@ -15,10 +15,8 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
 import javax.naming.NamingException;
 import javax.servlet.ServletContext;
@@ -39,6 +37,7 @@ import org.springframework.util.ClassUtils;
 
 import com.googlecode.psiprobe.beans.ContainerWrapperBean;
 import com.googlecode.psiprobe.beans.ResourceResolver;
+import com.googlecode.psiprobe.beans.SessionSizeEstimatorBean;
 import com.googlecode.psiprobe.model.Application;
 import com.googlecode.psiprobe.model.ApplicationParam;
 import com.googlecode.psiprobe.model.ApplicationResource;
@@ -47,6 +46,7 @@ import com.googlecode.psiprobe.model.Attribute;
 import com.googlecode.psiprobe.model.FilterInfo;
 import com.googlecode.psiprobe.model.ServletInfo;
 import com.googlecode.psiprobe.model.ServletMapping;
+import com.googlecode.psiprobe.model.SessionSizeEstimate;
 
 /**
  * 
@@ -59,7 +59,7 @@ public class ApplicationUtils {
     private static Log logger = LogFactory.getLog(ApplicationUtils.class);
     
     public static Application getApplication(Context context, ContainerWrapperBean containerWrapper) {
-        return getApplication(context, null, false, containerWrapper);
+        return getApplication(context, null, null, containerWrapper);
     }
 
     /**
@@ -71,10 +71,11 @@ public class ApplicationUtils {
      *
      * @param context
      * @param resourceResolver
-     * @param calcSize
+     * @param sizeEstimator estimator the sessions are sized with, they are not if null
      * @return Application object
      */
-    public static Application getApplication(Context context, ResourceResolver resourceResolver, boolean calcSize, ContainerWrapperBean containerWrapper) {
+    public static Application getApplication(Context context, ResourceResolver resourceResolver,
+            SessionSizeEstimatorBean sizeEstimator, ContainerWrapperBean containerWrapper) {
 //ContainerWrapperBean containerWrapper
         logger.debug("Querying webapp: " + context.getName());
 
@@ -104,20 +105,27 @@ public class ApplicationUtils {
 
                 boolean serializable = true;
                 int sessionAttributeCount = 0;
-                long size = 0;
 
                 Session[] sessions = context.getManager().findSessions();
                 for (int i = 0; i < sessions.length; i++) {
-                    ApplicationSession appSession = getApplicationSession(sessions[i], calcSize, false);
+                    ApplicationSession appSession = getApplicationSession(sessions[i], null, false);
                     if (appSession != null) {
                         sessionAttributeCount += appSession.getObjectCount();
                         serializable = serializable && appSession.isSerializable();
-                        size += appSession.getSize();
                     }
                 }
                 app.setSerializable(serializable);
                 app.setSessionAttributeCount(sessionAttributeCount);
-                app.setSize(size);
+                if (sizeEstimator != null) {
+                    try {
+                        SessionSizeEstimate estimate = sizeEstimator.estimate(sessions);
+                        estimate.setApplicationName(app.getName());
+                        app.setSize(estimate.getSize());
+                        app.setSizeEstimate(estimate);
+                    } catch (InterruptedException e) {
+                        logger.info("Interrupted while sizing the sessions of " + app.getName());
+                    }
+                }
             }
 
             logger.debug("aggregating servlet stats");
@@ -194,6 +202,15 @@ public class ApplicationUtils {
     }
 
     public static ApplicationSession getApplicationSession(Session session, boolean calcSize, boolean addAttributes) {
+        return getApplicationSession(session, calcSize ? new ObjectSizer() : null, addAttributes);
+    }
+
+    /**
+     * @param sizer sizer the attributes are sized with, reset for the session, or null not
+     * to size them. A sizer can be reused for all the sessions of a request so that
+     * the classes of their attributes are only looked at once.
+     */
+    public static ApplicationSession getApplicationSession(Session session, ObjectSizer sizer, boolean addAttributes) {
         ApplicationSession sbean = null;
         if (session != null && session.isValid()) {
             sbean = new ApplicationSession();
@@ -211,10 +228,11 @@ public class ApplicationUtils {
             long size = 0;
 
             HttpSession httpSession = session.getSession();
-            Set processedObjects = new HashSet(1000);
-            
-            //Exclude references back to the session itself
-            processedObjects.add(httpSession);
+            if (sizer != null) {
+                sizer.reset();
+                //Exclude references back to the session itself
+                sizer.exclude(httpSession);
+            }
             try {
                 for (Enumeration e = httpSession.getAttributeNames(); e.hasMoreElements();) {
                     String name = (String) e.nextElement();
@@ -222,10 +240,10 @@ public class ApplicationUtils {
                     sessionSerializable = sessionSerializable && o instanceof Serializable;
 
                     long oSize = 0;
-                    if (calcSize) {
+                    if (sizer != null) {
                         try {
-                            oSize += Instruments.sizeOf(name, processedObjects);
-                            oSize += Instruments.sizeOf(o, processedObjects);
+                            oSize += sizer.sizeOf(name);
+                            oSize += sizer.sizeOf(o);
                         } catch (Throwable th) {
                             logger.error("Cannot estimate size of attribute \"" + name + "\"", th);
                             //
@@ -249,19 +267,19 @@ public class ApplicationUtils {
                     attributeCount++;
                     size += oSize;
                 }
-                String lastAccessedIP = (String) httpSession.getAttribute(ApplicationSession.LAST_ACCESSED_BY_IP);
+                String lastAccessedIP = getLastAccessedIP(session);
                 if (lastAccessedIP != null) {
                     sbean.setLastAccessedIP(lastAccessedIP);
-                }
-                try {
-                    sbean.setLastAccessedIPLocale(InetAddressLocator.getLocale(InetAddress.getByName(lastAccessedIP).getAddress()));
-                } catch (Throwable e) {
-                    logger.error("Cannot determine Locale of "+lastAccessedIP);
-                    //
-                    // make sure we always re-throw ThreadDeath
-                    //
-                    if (e instanceof ThreadDeath) {
-                        throw (ThreadDeath) e;
+                    try {
+                        sbean.setLastAccessedIPLocale(InetAddressLocator.getLocale(InetAddress.getByName(lastAccessedIP).getAddress()));
+                    } catch (Throwable e) {
+                        logger.error("Cannot determine Locale of "+lastAccessedIP);
+                        //
+                        // make sure we always re-throw ThreadDeath
+                        //
+                        if (e instanceof ThreadDeath) {
+                            throw (ThreadDeath) e;
+                        }
                     }
                 }
 
@@ -278,6 +296,42 @@ public class ApplicationUtils {
         return sbean;
     }
 
+    /**
+     * @param sizer sizer the attributes are sized with, reset first
+     * @return bytes taken by the attributes of the session and their names, -1 if the
+     * session has been invalidated
+     */
+    public static long getSessionSize(Session session, ObjectSizer sizer) {
+        sizer.reset();
+        HttpSession httpSession = session.getSession();
+        //Exclude references back to the session itself
+        sizer.exclude(httpSession);
+        long size = 0;
+        try {
+            for (Enumeration e = httpSession.getAttributeNames(); e.hasMoreElements();) {
+                String name = (String) e.nextElement();
+                size += sizer.sizeOf(name);
+                size += sizer.sizeOf(httpSession.getAttribute(name));
+            }
+        } catch (IllegalStateException e) {
+            return -1;
+        }
+        return size;
+    }
+
+    /**
+     * @return address the session was last accessed from, as noted by the agent valve, or null
+     */
+    public static String getLastAccessedIP(Session session) {
+        String ip = (String) session.getNote(ApplicationSession.LAST_ACCESSED_BY_IP);
+        if (ip == null) {
+            // sessions persisted by older versions
+            Object attr = session.getSession().getAttribute(ApplicationSession.LAST_ACCESSED_BY_IP);
+            ip = attr instanceof String ? (String) attr : null;
+        }
+        return ip;
+    }
+
     public static List getApplicationAttributes(Context context) {
         List attrs = new ArrayList();
         ServletContext servletCtx = context.getServletContext();
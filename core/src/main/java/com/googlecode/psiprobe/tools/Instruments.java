@@ -10,14 +10,7 @@
  */
 package com.googlecode.psiprobe.tools;
 
-import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
 
 /**
  * 
@@ -39,131 +32,26 @@ public class Instruments {
     public static final long SIZE_REFERENCE;
 
     private static final Accessor ACCESSOR = AccessorFactory.getInstance();
-    private static final boolean IGNORE_NIO;
     static {
-        String ignoreNIOProp = System.getProperty("com.googlecode.psiprobe.intruments.ignoreNIO");
         String os64bitProp = System.getProperty("sun.arch.data.model");
-        IGNORE_NIO = (ignoreNIOProp == null || "true".equalsIgnoreCase(ignoreNIOProp));
         SIZE_REFERENCE = ("64".equals(os64bitProp) ? 8 : 4);
     }
 
-    private Set processedObjects = new HashSet(2048);
-    private List thisQueue = new LinkedList();
-    private List nextQueue = new LinkedList();
-    private ClassLoader classLoader = null;
-
+    /**
+     * @return bytes taken by the objects reachable from the given one, see {@link ObjectSizer}
+     */
     public static long sizeOf(Object o) {
-        return new Instruments().internalSizeOf(o);
+        return new ObjectSizer().sizeOf(o);
     }
 
+    /**
+     * @return bytes taken by the objects of the classes of the given loader
+     * reachable from the given one through such objects
+     */
     public static long sizeOf(Object o, ClassLoader cl) {
-        Instruments instruments = new Instruments();
-        instruments.classLoader = cl;
-        return instruments.internalSizeOf(o);
-    }
-
-    public static long sizeOf(Object o, Set objects) {
-        Instruments instruments = new Instruments();
-        instruments.processedObjects = objects;
-        return instruments.internalSizeOf(o);
-    }
-
-    private long internalSizeOf(Object obj) {
-        long size = 0;
-        thisQueue.add(obj);
-        while (!thisQueue.isEmpty()) {
-            Iterator it = thisQueue.iterator();
-            while (it.hasNext()) {
-                Object o = it.next();
-                if (isInitialized()
-                        && o != null
-                        && (classLoader == null || classLoader == o.getClass().getClassLoader())
-                        && (!IGNORE_NIO || !o.getClass().getName().startsWith("java.nio.")) ) {
-                    ObjectWrapper ow = new ObjectWrapper(o);
-                    if (!processedObjects.contains(ow)) {
-                        if (o.getClass().isArray()) {
-                            size += sizeOfArray(o);
-                        } else if (o.getClass().isPrimitive()) {
-                            size += sizeOfPrimitive(o.getClass());
-                        } else {
-                            processedObjects.add(ow);
-                            size += sizeOfObject(o);
-                        }
-                    }
-                }
-                it.remove();
-            }
-            //avoids ConcurrentModificationException
-            if (!nextQueue.isEmpty()) {
-                thisQueue.addAll(nextQueue);
-                nextQueue.clear();
-            }
-        }
-        return size;
-    }
-
-    private long sizeOfObject(Object o) {
-        long size = SIZE_OBJECT;
-        Class clazz = o.getClass();
-        while (clazz != null) {
-            Field fields[] = clazz.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                if (!Modifier.isStatic(f.getModifiers())) {
-                    if (f.getType().isPrimitive()) {
-                        size += sizeOfPrimitive(f.getType());
-                    } else {
-                        Object val = ACCESSOR.get(o, f);
-                        if (f.getType().isArray()) {
-                            size += sizeOfArray(val);
-                        } else {
-                            size += SIZE_REFERENCE;
-                            nextQueue.add(val);
-                        }
-                    }
-                }
-            }
-            clazz = clazz.getSuperclass();
-        }
-        return size;
-    }
-
-    private long sizeOfArray(Object o) {
-        if (o != null) {
-            Class ct = o.getClass().getComponentType();
-            if (ct.isPrimitive()) {
-                return Array.getLength(o) * sizeOfPrimitive(ct);
-            } else {
-                for (int i = 0; i < Array.getLength(o); i++) {
-                    nextQueue.add(Array.get(o, i));
-                }
-            }
-        }
-        return 0;
-    }
-
-    private static long sizeOfPrimitive(Class t) {
-        if (t == Boolean.TYPE) {
-            return SIZE_BOOLEAN;
-        } else if (t == Byte.TYPE) {
-            return SIZE_BYTE;
-        } else if (t == Character.TYPE) {
-            return SIZE_CHAR;
-        } else if (t == Short.TYPE) {
-            return SIZE_SHORT;
-        } else if (t == Integer.TYPE) {
-            return SIZE_INT;
-        } else if (t == Long.TYPE) {
-            return SIZE_LONG;
-        } else if (t == Float.TYPE) {
-            return SIZE_FLOAT;
-        } else if (t == Double.TYPE) {
-            return SIZE_DOUBLE;
-        } else if (t == Void.TYPE) {
-            return SIZE_VOID;
-        } else {
-            return SIZE_REFERENCE;
-        }
+        ObjectSizer sizer = new ObjectSizer();
+        sizer.setClassLoader(cl);
+        return sizer.sizeOf(o);
     }
 
     public static boolean isInitialized() {
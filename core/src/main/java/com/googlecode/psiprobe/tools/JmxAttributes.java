@@ -0,0 +1,82 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+
+/**
+ * Typed view of the attributes of an MBean read in a single call, see
+ * {@link JmxTools#getAttributes(javax.management.MBeanServer, javax.management.ObjectName, String[])}.
+ * An attribute that does not exist or could not be read is missing, its
+ * getters return the default value.
+ */
+public class JmxAttributes {
+
+    private final Map values;
+
+    public JmxAttributes(List attributes) {
+        values = new HashMap(attributes.size() * 2);
+        for (Iterator it = attributes.iterator(); it.hasNext();) {
+            Attribute a = (Attribute) it.next();
+            values.put(a.getName(), a.getValue());
+        }
+    }
+
+    /**
+     * @return true if the attribute was read, its value may still be null
+     */
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    public Object get(String name) {
+        return values.get(name);
+    }
+
+    public String getString(String name) {
+        Object o = values.get(name);
+        return o == null ? null : o.toString();
+    }
+
+    public long getLong(String name) {
+        return getLong(name, 0);
+    }
+
+    public long getLong(String name, long defaultValue) {
+        Object o = values.get(name);
+        return o instanceof Number ? ((Number) o).longValue() : defaultValue;
+    }
+
+    public int getInt(String name) {
+        return getInt(name, 0);
+    }
+
+    public int getInt(String name, int defaultValue) {
+        Object o = values.get(name);
+        return o instanceof Number ? ((Number) o).intValue() : defaultValue;
+    }
+
+    public boolean getBoolean(String name) {
+        Object o = values.get(name);
+        return o instanceof Boolean && ((Boolean) o).booleanValue();
+    }
+
+    /**
+     * @return number of attributes read
+     */
+    public int size() {
+        return values.size();
+    }
+}
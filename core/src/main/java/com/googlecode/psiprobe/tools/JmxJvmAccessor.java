@@ -0,0 +1,204 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import com.googlecode.psiprobe.model.SunThread;
+import com.googlecode.psiprobe.model.ThreadStackElement;
+import com.googlecode.psiprobe.model.jmx.MemoryPool;
+import com.googlecode.psiprobe.model.jmx.RuntimeInformation;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.modeler.Registry;
+
+/**
+ * Reads the JVM information from the "java.lang" MBeans of the MBeanServer,
+ * for the JVMs whose platform MXBeans cannot be used directly.
+ */
+public class JmxJvmAccessor implements JvmAccessor {
+
+    private static final String[] RUNTIME_ATTRIBUTES = new String[] {"StartTime", "Uptime", "VmVendor"};
+    private static final String[] OS_ATTRIBUTES = new String[] {"Name", "Version", "TotalPhysicalMemorySize",
+            "CommittedVirtualMemorySize", "FreePhysicalMemorySize", "FreeSwapSpaceSize", "TotalSwapSpaceSize",
+            "ProcessCpuTime", "TotalPhysicalMemory", "OpenFileDescriptorCount", "MaxFileDescriptorCount"};
+    private static final String[] POOL_ATTRIBUTES = new String[] {"Name", "Type", "Usage"};
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    private MBeanServer getMBeanServer() {
+        return ProbeMeter.countCalls(new Registry().getMBeanServer());
+    }
+
+    public RuntimeInformation getRuntimeInformation() throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        RuntimeInformation ri = new RuntimeInformation();
+
+        ObjectName runtimeOName = new ObjectName("java.lang:type=Runtime");
+        JmxAttributes runtime = JmxTools.getAttributes(mBeanServer, runtimeOName, RUNTIME_ATTRIBUTES);
+        ri.setStartTime(runtime.getLong("StartTime"));
+        ri.setUptime(runtime.getLong("Uptime"));
+        ri.setVmVendor(runtime.getString("VmVendor"));
+
+        ObjectName osOName = new ObjectName("java.lang:type=OperatingSystem");
+        JmxAttributes os = JmxTools.getAttributes(mBeanServer, osOName, OS_ATTRIBUTES);
+        ri.setOsName(os.getString("Name"));
+        ri.setOsVersion(os.getString("Version"));
+
+        if(!ri.getVmVendor().startsWith("IBM Corporation")){
+            ri.setTotalPhysicalMemorySize(os.getLong("TotalPhysicalMemorySize"));
+            ri.setCommittedVirtualMemorySize(os.getLong("CommittedVirtualMemorySize"));
+            ri.setFreePhysicalMemorySize(os.getLong("FreePhysicalMemorySize"));
+            ri.setFreeSwapSpaceSize(os.getLong("FreeSwapSpaceSize"));
+            ri.setTotalSwapSpaceSize(os.getLong("TotalSwapSpaceSize"));
+            ri.setProcessCpuTime(os.getLong("ProcessCpuTime"));
+            ri.setAvailableProcessors(Runtime.getRuntime().availableProcessors());
+        } else {
+            ri.setTotalPhysicalMemorySize(os.getLong("TotalPhysicalMemory"));
+        }
+
+        if (os.has("OpenFileDescriptorCount") && os.has("MaxFileDescriptorCount")) {
+            ri.setOpenFDCount(os.getLong("OpenFileDescriptorCount"));
+            ri.setMaxFDCount(os.getLong("MaxFileDescriptorCount"));
+        }
+        return ri;
+    }
+
+    public List getMemoryPools() throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        Set memoryOPools = mBeanServer.queryMBeans(new ObjectName("java.lang:type=MemoryPool,*"), null);
+        List memoryPools = new ArrayList(memoryOPools.size() + 1);
+
+        for (Iterator it = memoryOPools.iterator(); it.hasNext();) {
+            ObjectName oName = ((ObjectInstance) it.next()).getObjectName();
+            JmxAttributes attrs = JmxTools.getAttributes(mBeanServer, oName, POOL_ATTRIBUTES);
+            MemoryPool memoryPool = new MemoryPool();
+            memoryPool.setName(attrs.getString("Name"));
+            memoryPool.setType(attrs.getString("Type"));
+
+            CompositeData cd = (CompositeData) attrs.get("Usage");
+            //
+            // It seems that "Usage" attribute of one of the pools may turn into null intermittently. We better have a
+            // dip in the graph then an NPE though.
+            //
+            if (cd != null) {
+                memoryPool.setMax(JmxTools.getLongAttr(cd, "max"));
+                memoryPool.setUsed(JmxTools.getLongAttr(cd, "used"));
+                memoryPool.setInit(JmxTools.getLongAttr(cd, "init"));
+                memoryPool.setCommitted(JmxTools.getLongAttr(cd, "committed"));
+            } else {
+                logger.error("Oops, JVM problem? "+oName.toString()+" \"Usage\" attribute is NULL!");
+            }
+            memoryPools.add(memoryPool);
+        }
+        return memoryPools;
+    }
+
+    public List getThreads(int stackDepth) throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        ObjectName threadingOName = new ObjectName("java.lang:type=Threading");
+
+        long[] deadlockedIds = (long[]) mBeanServer.invoke(threadingOName, "findMonitorDeadlockedThreads", null, null);
+        long[] allIds = (long[]) mBeanServer.getAttribute(threadingOName, "AllThreadIds");
+        List threads = new ArrayList(allIds == null ? 0 : allIds.length);
+
+        if (allIds != null) {
+            for (int i = 0; i < allIds.length; i++) {
+                CompositeData cd = (CompositeData) mBeanServer.invoke(threadingOName, "getThreadInfo",
+                        new Object[]{new Long(allIds[i]), new Integer(stackDepth)}, new String[]{"long", "int"});
+                if (cd != null) {
+                    SunThread st = toThread(cd);
+                    st.setDeadlocked(contains(deadlockedIds, st.getId()));
+                    threads.add(st);
+                }
+            }
+        }
+        return threads;
+    }
+
+    public SunThread getThread(long threadId, int stackDepth) throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        ObjectName threadingOName = new ObjectName("java.lang:type=Threading");
+        CompositeData cd = (CompositeData) mBeanServer.invoke(threadingOName, "getThreadInfo",
+                new Object[]{new Long(threadId), new Integer(stackDepth)}, new String[] {"long", "int"});
+        if (cd == null) {
+            return null;
+        }
+        SunThread st = toThread(cd);
+        CompositeData[] elements = (CompositeData[]) cd.get("stackTrace");
+        List stack = new ArrayList(elements.length);
+        for (int i = 0; i < elements.length; i++) {
+            stack.add(toStackElement(elements[i]));
+        }
+        st.setStack(stack);
+        return st;
+    }
+
+    public long findThreadId(String threadName) throws Exception {
+        MBeanServer mBeanServer = getMBeanServer();
+        ObjectName threadingOName = new ObjectName("java.lang:type=Threading");
+        long[] allIds = (long[]) mBeanServer.getAttribute(threadingOName, "AllThreadIds");
+        for (int i = 0; i < allIds.length; i++) {
+            CompositeData cd = (CompositeData) mBeanServer.invoke(threadingOName, "getThreadInfo",
+                    new Object[]{new Long(allIds[i])}, new String[] {"long"});
+            if (cd != null && threadName.equals(JmxTools.getStringAttr(cd, "threadName"))) {
+                return allIds[i];
+            }
+        }
+        return -1;
+    }
+
+    private static SunThread toThread(CompositeData cd) {
+        SunThread st = new SunThread();
+        st.setId(JmxTools.getLongAttr(cd, "threadId"));
+        st.setName(JmxTools.getStringAttr(cd, "threadName"));
+        st.setState(JmxTools.getStringAttr(cd, "threadState"));
+        st.setSuspended(JmxTools.getBooleanAttr(cd, "suspended"));
+        st.setInNative(JmxTools.getBooleanAttr(cd, "inNative"));
+        st.setLockName(JmxTools.getStringAttr(cd, "lockName"));
+        st.setLockOwnerName(JmxTools.getStringAttr(cd, "lockOwnerName"));
+        st.setWaitedCount(JmxTools.getLongAttr(cd, "waitedCount"));
+        st.setBlockedCount(JmxTools.getLongAttr(cd, "blockedCount"));
+
+        CompositeData[] stack = (CompositeData[]) cd.get("stackTrace");
+        if (stack != null && stack.length > 0) {
+            st.setExecutionPoint(toStackElement(stack[0]));
+        }
+        return st;
+    }
+
+    private static ThreadStackElement toStackElement(CompositeData cd) {
+        ThreadStackElement tse = new ThreadStackElement();
+        tse.setClassName(JmxTools.getStringAttr(cd, "className"));
+        tse.setFileName(JmxTools.getStringAttr(cd, "fileName"));
+        tse.setMethodName(JmxTools.getStringAttr(cd, "methodName"));
+        tse.setLineNumber(JmxTools.getIntAttr(cd, "lineNumber", -1));
+        tse.setNativeMethod(JmxTools.getBooleanAttr(cd, "nativeMethod"));
+        return tse;
+    }
+
+    static boolean contains(long[] array, long e) {
+        if (array != null) {
+            for (int i = 0; i < array.length; i++) {
+                if (array[i] == e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
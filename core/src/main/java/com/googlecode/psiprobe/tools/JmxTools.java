@@ -11,10 +11,12 @@
 package com.googlecode.psiprobe.tools;
 
 import javax.management.AttributeNotFoundException;
+import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanInfo;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.management.ReflectionException;
 import javax.management.openmbean.CompositeData;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -87,6 +89,18 @@ public class JmxTools {
         }
     }
 
+    /**
+     * Reads the attributes of an MBean in a single call. Attributes that do not
+     * exist or cannot be read are missing from the result rather than failing
+     * the whole read.
+     *
+     * @throws InstanceNotFoundException if the MBean is not registered
+     */
+    public static JmxAttributes getAttributes(MBeanServer server, ObjectName oName, String[] attrNames)
+            throws InstanceNotFoundException, ReflectionException {
+        return new JmxAttributes(server.getAttributes(oName, attrNames));
+    }
+
     public static boolean hasAttribute(MBeanServer server, ObjectName mbean, String attrName) throws Exception {
         MBeanInfo info = server.getMBeanInfo(mbean);
         MBeanAttributeInfo[] ai = info.getAttributes();
@@ -0,0 +1,49 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import com.googlecode.psiprobe.model.SunThread;
+import com.googlecode.psiprobe.model.jmx.RuntimeInformation;
+import java.util.List;
+
+/**
+ * Reads the runtime, memory and threading data of the local JVM. See
+ * {@link JvmAccessorFactory#getInstance()} for the implementation in use.
+ */
+public interface JvmAccessor {
+
+    /**
+     * @return runtime and operating system information
+     */
+    RuntimeInformation getRuntimeInformation() throws Exception;
+
+    /**
+     * @return list of {@link com.googlecode.psiprobe.model.jmx.MemoryPool}s, one per pool of the JVM
+     */
+    List getMemoryPools() throws Exception;
+
+    /**
+     * @param stackDepth number of stack elements read, the top one is the execution point
+     * @return list of {@link SunThread}s, one per live thread
+     */
+    List getThreads(int stackDepth) throws Exception;
+
+    /**
+     * @param stackDepth number of stack elements read into the stack of the thread
+     * @return the thread or null if it is not alive
+     */
+    SunThread getThread(long threadId, int stackDepth) throws Exception;
+
+    /**
+     * @return id of the first live thread of the given name, -1 if there is none
+     */
+    long findThreadId(String threadName) throws Exception;
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Picks the {@link JvmAccessor}: the platform MXBeans where the JVM has them,
+ * the MBeanServer otherwise.
+ */
+public class JvmAccessorFactory {
+
+    private static Log logger = LogFactory.getLog(JvmAccessorFactory.class);
+
+    private static final JvmAccessor INSTANCE = create();
+
+    private JvmAccessorFactory() {
+    }
+
+    public static JvmAccessor getInstance() {
+        return INSTANCE;
+    }
+
+    private static JvmAccessor create() {
+        try {
+            // loaded by name, the class does not link on a 1.4 JVM
+            return (JvmAccessor) Class.forName("com.googlecode.psiprobe.tools.PlatformJvmAccessor").newInstance();
+        } catch (Throwable e) {
+            logger.info("Platform MXBeans are not available, JVM information is read from the MBeanServer");
+            logger.debug(e);
+            return new JmxJvmAccessor();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+/**
+ * Counts of request durations over an interval, in log-linear buckets of
+ * microseconds as recorded by {@link StripedLatencyRecorder}. Durations up to
+ * 15us have a bucket each, every power of two above is split into 8 buckets,
+ * so a percentile is off by at most 1/8 of its value. Durations of more than
+ * 2^32us, about 71 minutes, fall into the last bucket.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BITS = 4;
+    static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int HALF_COUNT = SUB_COUNT / 2;
+    static final int MAX_MAGNITUDE = 31;
+    static final int BUCKETS = SUB_COUNT + (MAX_MAGNITUDE - SUB_BITS + 1) * HALF_COUNT;
+
+    private final long[] counts;
+    private long count;
+    private long max;
+
+    public LatencyHistogram() {
+        this(new long[BUCKETS], 0);
+    }
+
+    LatencyHistogram(long[] counts, long max) {
+        this.counts = counts;
+        this.max = max;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+        }
+    }
+
+    /**
+     * @return index of the bucket of a duration in microseconds
+     */
+    static int indexOf(long micros) {
+        if (micros < SUB_COUNT) {
+            return micros < 0 ? 0 : (int) micros;
+        }
+        int magnitude = 63;
+        while ((micros >>> magnitude) == 0) {
+            magnitude--;
+        }
+        return indexOf(micros, magnitude);
+    }
+
+    static int indexOf(long micros, int magnitude) {
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (magnitude - SUB_BITS + 1));
+        return SUB_COUNT + (magnitude - SUB_BITS) * HALF_COUNT + sub - HALF_COUNT;
+    }
+
+    /**
+     * @return highest duration in microseconds counted in a bucket
+     */
+    static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int magnitude = (index - SUB_COUNT) / HALF_COUNT + SUB_BITS;
+        long sub = (index - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+        return ((sub + 1) << (magnitude - SUB_BITS + 1)) - 1;
+    }
+
+    /**
+     * Adds the counts of another histogram, such as the one of another
+     * application, to this one.
+     */
+    public void add(LatencyHistogram h) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += h.counts[i];
+        }
+        count += h.count;
+        max = Math.max(max, h.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return longest duration in microseconds, 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile percentile such as 99.0
+     * @return upper bound of the bucket the percentile falls into, never more
+     * than the maximum, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4:
+ * <pre>
+ * # TYPE psiprobe_connector_requests_total counter
+ * psiprobe_connector_requests_total{connector="http-8080"} 1027
+ * </pre>
+ * Lines go straight to the writer. Callers write all samples of a family
+ * right after its {@link #family(String, String)} line.
+ */
+public class MetricsWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final String GAUGE = "gauge";
+    public static final String COUNTER = "counter";
+
+    private final Writer out;
+
+    public MetricsWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a metric family.
+     *
+     * @param name metric name, see {@link #metricName(String)}
+     * @param type {@link #GAUGE} or {@link #COUNTER}
+     * @throws IOException
+     */
+    public void family(String name, String type) throws IOException {
+        out.write("# TYPE ");
+        out.write(name);
+        out.write(' ');
+        out.write(type);
+        out.write('\n');
+    }
+
+    /**
+     * Writes a sample with a single label.
+     */
+    public void sample(String name, String label, String labelValue, double value) throws IOException {
+        out.write(name);
+        out.write('{');
+        out.write(label);
+        out.write("=\"");
+        writeEscaped(labelValue);
+        out.write("\"} ");
+        writeValue(value);
+        out.write('\n');
+    }
+
+    /**
+     * Writes a sample whose name and labels have been rendered before, see
+     * {@link #series(String, Map)}.
+     *
+     * @param series metric name and labels
+     * @param value sample value
+     * @param timestamp sample time in milliseconds, left out if 0
+     * @throws IOException
+     */
+    public void sample(String series, double value, long timestamp) throws IOException {
+        out.write(series);
+        out.write(' ');
+        writeValue(value);
+        if (timestamp != 0) {
+            out.write(' ');
+            out.write(Long.toString(timestamp));
+        }
+        out.write('\n');
+    }
+
+    private void writeValue(double value) throws IOException {
+        if (Double.isNaN(value)) {
+            out.write("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.write(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == (long) value) {
+            out.write(Long.toString((long) value));
+        } else {
+            out.write(Double.toString(value));
+        }
+    }
+
+    private void writeEscaped(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.write('\\');
+                out.write(c);
+            } else if (c == '\n') {
+                out.write("\\n");
+            } else {
+                out.write(c);
+            }
+        }
+    }
+
+    /**
+     * Turns a name such as "app.avg_proc_time" into a valid metric name by
+     * replacing every character other than a letter, a digit, '_' and ':' with '_'.
+     */
+    public static String metricName(String name) {
+        StringBuffer sb = new StringBuffer(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (c >= '0' && c <= '9' && i > 0);
+            sb.append(valid ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renders a metric name with its labels.
+     *
+     * @param name metric name
+     * @param labels map of label names to values
+     * @return text such as <code>psiprobe_app_requests{app="/probe"}</code>
+     */
+    public static String series(String name, Map labels) {
+        if (labels.isEmpty()) {
+            return name;
+        }
+        StringBuffer sb = new StringBuffer(name).append('{');
+        for (Iterator it = labels.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            sb.append(metricName((String) en.getKey())).append("=\"");
+            String value = (String) en.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+            if (it.hasNext()) {
+                sb.append(',');
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
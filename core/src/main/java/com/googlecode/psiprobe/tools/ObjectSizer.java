@@ -0,0 +1,373 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Estimates the heap taken by object graphs, such as the attributes of a
+ * session. Objects are counted once per sizer, so successive calls to
+ * {@link #sizeOf(Object)} only add what the previous ones have not seen yet.
+ * <p/>
+ * Sizes follow the HotSpot layout: an object takes its header plus its
+ * fields, an array its header plus its elements, and both are padded to a
+ * multiple of 8 bytes. Header and reference sizes depend on the JVM being 32
+ * or 64-bit and on compressed references, see {@link #ObjectSizer()}. Field
+ * packing is not modelled, so the size of an object with fields of mixed
+ * widths can be a few bytes short.
+ * <p/>
+ * The fields of a class are looked up once per sizer rather than once per
+ * object, and the objects seen are kept in an identity hash table rather than
+ * a set of wrappers. A sizer is meant to be used for one request, such as
+ * listing the sessions of an application, and then dropped: it holds on to the
+ * classes it has seen. It is not thread safe.
+ */
+public class ObjectSizer {
+
+    private static Log logger = LogFactory.getLog(ObjectSizer.class);
+
+    private static final int ALIGNMENT = 8;
+    private static final long COMPRESSED_OOPS_MAX_HEAP = 32L * 1024 * 1024 * 1024;
+
+    private static final int DEFAULT_REFERENCE;
+    private static final boolean DEFAULT_COMPRESSED;
+    private static final boolean DEFAULT_IGNORE_NIO;
+
+    static {
+        boolean is64bit = "64".equals(System.getProperty("sun.arch.data.model"))
+                || System.getProperty("os.arch", "").indexOf("64") >= 0;
+        DEFAULT_COMPRESSED = is64bit && useCompressedOops();
+        DEFAULT_REFERENCE = is64bit && ! DEFAULT_COMPRESSED ? 8 : 4;
+        String ignoreNio = System.getProperty("com.googlecode.psiprobe.intruments.ignoreNIO");
+        DEFAULT_IGNORE_NIO = ignoreNio == null || "true".equalsIgnoreCase(ignoreNio);
+    }
+
+    private final int reference;
+    private final int header;
+    private final int arrayHeader;
+    private ClassLoader classLoader;
+    private boolean ignoreNio = DEFAULT_IGNORE_NIO;
+
+    private final Map layouts = new HashMap();
+    private Object[] visited = new Object[1024];
+    private int visitedCount = 0;
+    private Object[] stack = new Object[64];
+    private int depth = 0;
+
+    /**
+     * Creates a sizer for the running JVM. A 64-bit HotSpot JVM is assumed to
+     * compress references when it says so, or when asked nothing and its
+     * maximum heap is under 32G.
+     */
+    public ObjectSizer() {
+        this(DEFAULT_REFERENCE, DEFAULT_REFERENCE == 8 ? 16 : DEFAULT_COMPRESSED ? 12 : 8);
+    }
+
+    /**
+     * @param reference size of a reference, 4 or 8 bytes
+     * @param header size of an object header, 8 on a 32-bit JVM, 12 on a 64-bit one with
+     * compressed references, 16 without
+     */
+    public ObjectSizer(int reference, int header) {
+        this.reference = reference;
+        this.header = header;
+        // the array length follows the header, the elements start on a word
+        this.arrayHeader = align(header + 4, reference);
+    }
+
+    public int getReferenceSize() {
+        return reference;
+    }
+
+    public int getHeaderSize() {
+        return header;
+    }
+
+    public int getArrayHeaderSize() {
+        return arrayHeader;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * @param classLoader only objects of the classes of this loader are counted and
+     * followed, all objects if null
+     */
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public boolean isIgnoreNio() {
+        return ignoreNio;
+    }
+
+    /**
+     * @param ignoreNio whether objects of the <code>java.nio</code> classes, whose
+     * buffers are mostly off the heap, are skipped. Defaults to the
+     * <code>com.googlecode.psiprobe.intruments.ignoreNIO</code> system property, true if not set.
+     */
+    public void setIgnoreNio(boolean ignoreNio) {
+        this.ignoreNio = ignoreNio;
+    }
+
+    /**
+     * Marks an object as seen without counting it, such as the session whose
+     * attributes are sized, so that references back to it are not followed.
+     */
+    public void exclude(Object o) {
+        if (o != null) {
+            visit(o);
+        }
+    }
+
+    /**
+     * Forgets the objects seen, the class layouts are kept.
+     */
+    public void reset() {
+        if (visited.length > 1024) {
+            visited = new Object[1024];
+        } else {
+            Arrays.fill(visited, null);
+        }
+        visitedCount = 0;
+        clearStack();
+    }
+
+    /**
+     * @return bytes taken by the objects reachable from the given one that this
+     * sizer has not seen yet
+     */
+    public long sizeOf(Object root) {
+        long size = 0;
+        push(root);
+        try {
+            while (depth > 0) {
+                Object o = stack[--depth];
+                stack[depth] = null;
+                Layout layout = layoutOf(o.getClass());
+                if (classLoader != null && classLoader != layout.classLoader
+                        || ignoreNio && layout.nio
+                        || ! visit(o)) {
+                    continue;
+                }
+                if (layout.elementSize > 0) {
+                    size += align(layout.arrayHeader + (long) Array.getLength(o) * layout.elementSize);
+                } else if (layout.elementSize < 0) {
+                    Object[] array = (Object[]) o;
+                    size += align(arrayHeader + (long) array.length * reference);
+                    for (int i = 0; i < array.length; i++) {
+                        push(array[i]);
+                    }
+                } else {
+                    size += align(header + layout.primitiveBytes + (long) layout.referenceCount * reference);
+                    Field[] fields = layout.references;
+                    for (int i = 0; i < fields.length; i++) {
+                        try {
+                            push(fields[i].get(o));
+                        } catch (IllegalAccessException e) {
+                            // not followed
+                        }
+                    }
+                }
+            }
+        } finally {
+            // a walk that failed part-way leaves nothing behind for the next one
+            clearStack();
+        }
+        return size;
+    }
+
+    private void clearStack() {
+        if (stack.length > 64) {
+            stack = new Object[64];
+        } else {
+            Arrays.fill(stack, 0, depth, null);
+        }
+        depth = 0;
+    }
+
+    /**
+     * @return the size rounded up to the object alignment
+     */
+    public static long align(long size) {
+        return (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+
+    private static int align(int size, int alignment) {
+        return (size + alignment - 1) & ~(alignment - 1);
+    }
+
+    private void push(Object o) {
+        if (o != null) {
+            if (depth == stack.length) {
+                Object[] grown = new Object[depth * 2];
+                System.arraycopy(stack, 0, grown, 0, depth);
+                stack = grown;
+            }
+            stack[depth++] = o;
+        }
+    }
+
+    /**
+     * Adds an object to the identity table, open addressing with linear
+     * probing, kept at most half full.
+     *
+     * @return false if the object had been seen already
+     */
+    private boolean visit(Object o) {
+        Object[] table = visited;
+        int mask = table.length - 1;
+        int i = hash(o) & mask;
+        for (Object e = table[i]; e != null; e = table[i]) {
+            if (e == o) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = o;
+        if (++visitedCount * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    private void rehash() {
+        Object[] old = visited;
+        Object[] table = new Object[old.length * 2];
+        int mask = table.length - 1;
+        for (int j = 0; j < old.length; j++) {
+            if (old[j] != null) {
+                int i = hash(old[j]) & mask;
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = old[j];
+            }
+        }
+        visited = table;
+    }
+
+    private static int hash(Object o) {
+        int h = System.identityHashCode(o);
+        // spreads the clustered identity hashes over the table
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Layout layoutOf(Class clazz) {
+        Layout layout = (Layout) layouts.get(clazz);
+        if (layout == null) {
+            layout = new Layout(clazz);
+            layouts.put(clazz, layout);
+        }
+        return layout;
+    }
+
+    private static int sizeOfPrimitive(Class t) {
+        if (t == Long.TYPE || t == Double.TYPE) {
+            return 8;
+        } else if (t == Integer.TYPE || t == Float.TYPE) {
+            return 4;
+        } else if (t == Character.TYPE || t == Short.TYPE) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    private static boolean useCompressedOops() {
+        try {
+            Class factory = Class.forName("java.lang.management.ManagementFactory");
+            Method getServer = factory.getMethod("getPlatformMBeanServer", new Class[0]);
+            MBeanServer server = (MBeanServer) getServer.invoke(null, new Object[0]);
+            CompositeData option = (CompositeData) server.invoke(
+                    new ObjectName("com.sun.management:type=HotSpotDiagnostic"), "getVMOption",
+                    new Object[] {"UseCompressedOops"}, new String[] {String.class.getName()});
+            return "true".equals(option.get("value"));
+        } catch (Throwable e) {
+            // not a HotSpot JVM or older than 6u23, compressed by default from 7 on
+            logger.debug("Cannot read UseCompressedOops, guessing from the maximum heap size", e);
+            return Runtime.getRuntime().maxMemory() < COMPRESSED_OOPS_MAX_HEAP;
+        }
+    }
+
+    /**
+     * What the sizer needs to know about a class, computed once.
+     */
+    private class Layout {
+
+        /**
+         * Size of an element for primitive arrays, -1 for arrays of objects, 0 for other classes.
+         */
+        final int elementSize;
+        final int arrayHeader;
+        final ClassLoader classLoader;
+        final boolean nio;
+        int primitiveBytes = 0;
+        int referenceCount = 0;
+        Field[] references;
+
+        Layout(Class clazz) {
+            classLoader = clazz.getClassLoader();
+            nio = clazz.getName().startsWith("java.nio.");
+            Class component = clazz.getComponentType();
+            if (component == null) {
+                elementSize = 0;
+                arrayHeader = 0;
+                List refs = new ArrayList();
+                for (Class c = clazz; c != null; c = c.getSuperclass()) {
+                    Field[] fields = c.getDeclaredFields();
+                    for (int i = 0; i < fields.length; i++) {
+                        Field f = fields[i];
+                        if (Modifier.isStatic(f.getModifiers())) {
+                            continue;
+                        }
+                        if (f.getType().isPrimitive()) {
+                            primitiveBytes += sizeOfPrimitive(f.getType());
+                        } else {
+                            referenceCount++;
+                            try {
+                                f.setAccessible(true);
+                                refs.add(f);
+                            } catch (RuntimeException e) {
+                                // denied by the security manager or the module system, the
+                                // reference is counted but not followed
+                            }
+                        }
+                    }
+                }
+                references = (Field[]) refs.toArray(new Field[refs.size()]);
+            } else if (component.isPrimitive()) {
+                elementSize = sizeOfPrimitive(component);
+                // arrays of longs and doubles start on 8 bytes on a 32-bit JVM too
+                arrayHeader = align(ObjectSizer.this.arrayHeader, elementSize);
+            } else {
+                elementSize = -1;
+                arrayHeader = ObjectSizer.this.arrayHeader;
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import com.googlecode.psiprobe.model.SunThread;
+import com.googlecode.psiprobe.model.ThreadStackElement;
+import com.googlecode.psiprobe.model.jmx.MemoryPool;
+import com.googlecode.psiprobe.model.jmx.RuntimeInformation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.RuntimeMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads the JVM information from the platform MXBeans directly, with no
+ * MBeanServer, ObjectName or CompositeData in between. Only loaded by
+ * {@link JvmAccessorFactory} on a JVM that has them.
+ * <p/>
+ * The operating system figures are HotSpot extensions. Other JVMs, such as
+ * the IBM one, get their runtime information from the MBeanServer.
+ */
+public class PlatformJvmAccessor implements JvmAccessor {
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    private final RuntimeMXBean runtimeBean = ManagementFactory.getRuntimeMXBean();
+    private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final boolean sunOperatingSystem;
+    private final JmxJvmAccessor fallback = new JmxJvmAccessor();
+
+    public PlatformJvmAccessor() {
+        boolean sun = false;
+        try {
+            sun = Class.forName("com.sun.management.OperatingSystemMXBean").isInstance(osBean)
+                    && ! String.valueOf(runtimeBean.getVmVendor()).startsWith("IBM Corporation");
+        } catch (ClassNotFoundException e) {
+            // not a HotSpot JVM
+        }
+        sunOperatingSystem = sun;
+    }
+
+    public RuntimeInformation getRuntimeInformation() throws Exception {
+        if (! sunOperatingSystem) {
+            return fallback.getRuntimeInformation();
+        }
+        RuntimeInformation ri = new RuntimeInformation();
+        ri.setStartTime(runtimeBean.getStartTime());
+        ri.setUptime(runtimeBean.getUptime());
+        ri.setVmVendor(runtimeBean.getVmVendor());
+        ri.setOsName(osBean.getName());
+        ri.setOsVersion(osBean.getVersion());
+        ri.setAvailableProcessors(osBean.getAvailableProcessors());
+        SunOperatingSystem.read(osBean, ri);
+        return ri;
+    }
+
+    public List getMemoryPools() throws Exception {
+        List beans = ManagementFactory.getMemoryPoolMXBeans();
+        List memoryPools = new ArrayList(beans.size() + 1);
+        for (int i = 0; i < beans.size(); i++) {
+            MemoryPoolMXBean bean = (MemoryPoolMXBean) beans.get(i);
+            MemoryPool memoryPool = new MemoryPool();
+            memoryPool.setName(bean.getName());
+            // the enum name, "HEAP" or "NON_HEAP", as the Type attribute reads over JMX
+            memoryPool.setType(bean.getType().name());
+            MemoryUsage usage = bean.getUsage();
+            // null once the pool is no longer valid
+            if (usage != null) {
+                memoryPool.setMax(usage.getMax());
+                memoryPool.setUsed(usage.getUsed());
+                memoryPool.setInit(usage.getInit());
+                memoryPool.setCommitted(usage.getCommitted());
+            } else {
+                logger.error("Oops, JVM problem? Usage of memory pool " + bean.getName() + " is NULL!");
+            }
+            memoryPools.add(memoryPool);
+        }
+        return memoryPools;
+    }
+
+    public List getThreads(int stackDepth) throws Exception {
+        long[] deadlockedIds = threadBean.findMonitorDeadlockedThreads();
+        ThreadInfo[] infos = threadBean.getThreadInfo(threadBean.getAllThreadIds(), stackDepth);
+        List threads = new ArrayList(infos.length);
+        for (int i = 0; i < infos.length; i++) {
+            // null if the thread has died since the ids were read
+            if (infos[i] != null) {
+                SunThread st = toThread(infos[i]);
+                st.setDeadlocked(JmxJvmAccessor.contains(deadlockedIds, st.getId()));
+                threads.add(st);
+            }
+        }
+        return threads;
+    }
+
+    public SunThread getThread(long threadId, int stackDepth) throws Exception {
+        ThreadInfo info = threadBean.getThreadInfo(threadId, stackDepth);
+        if (info == null) {
+            return null;
+        }
+        SunThread st = toThread(info);
+        StackTraceElement[] elements = info.getStackTrace();
+        List stack = new ArrayList(elements.length);
+        for (int i = 0; i < elements.length; i++) {
+            stack.add(toStackElement(elements[i]));
+        }
+        st.setStack(stack);
+        return st;
+    }
+
+    public long findThreadId(String threadName) throws Exception {
+        ThreadInfo[] infos = threadBean.getThreadInfo(threadBean.getAllThreadIds(), 0);
+        for (int i = 0; i < infos.length; i++) {
+            if (infos[i] != null && threadName.equals(infos[i].getThreadName())) {
+                return infos[i].getThreadId();
+            }
+        }
+        return -1;
+    }
+
+    private static SunThread toThread(ThreadInfo info) {
+        SunThread st = new SunThread();
+        st.setId(info.getThreadId());
+        st.setName(info.getThreadName());
+        st.setState(String.valueOf(info.getThreadState()));
+        st.setSuspended(info.isSuspended());
+        st.setInNative(info.isInNative());
+        st.setLockName(info.getLockName());
+        st.setLockOwnerName(info.getLockOwnerName());
+        st.setWaitedCount(info.getWaitedCount());
+        st.setBlockedCount(info.getBlockedCount());
+        StackTraceElement[] stack = info.getStackTrace();
+        if (stack.length > 0) {
+            st.setExecutionPoint(toStackElement(stack[0]));
+        }
+        return st;
+    }
+
+    private static ThreadStackElement toStackElement(StackTraceElement e) {
+        ThreadStackElement tse = new ThreadStackElement();
+        tse.setClassName(e.getClassName());
+        tse.setFileName(e.getFileName());
+        tse.setMethodName(e.getMethodName());
+        tse.setLineNumber(e.getLineNumber());
+        tse.setNativeMethod(e.isNativeMethod());
+        return tse;
+    }
+
+    /**
+     * Keeps the HotSpot extensions out of the accessor, so that it still links
+     * on the JVMs without them.
+     */
+    private static class SunOperatingSystem {
+
+        static void read(OperatingSystemMXBean osBean, RuntimeInformation ri) {
+            com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) osBean;
+            ri.setTotalPhysicalMemorySize(os.getTotalPhysicalMemorySize());
+            ri.setCommittedVirtualMemorySize(os.getCommittedVirtualMemorySize());
+            ri.setFreePhysicalMemorySize(os.getFreePhysicalMemorySize());
+            ri.setFreeSwapSpaceSize(os.getFreeSwapSpaceSize());
+            ri.setTotalSwapSpaceSize(os.getTotalSwapSpaceSize());
+            ri.setProcessCpuTime(os.getProcessCpuTime());
+            if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+                com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+                ri.setOpenFDCount(unix.getOpenFileDescriptorCount());
+                ri.setMaxFDCount(unix.getMaxFileDescriptorCount());
+            }
+        }
+    }
+}
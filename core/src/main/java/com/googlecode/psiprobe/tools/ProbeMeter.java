@@ -0,0 +1,239 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.management.MBeanServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Measures what a piece of the probe itself costs on the current thread: wall
+ * time, CPU time, MBeanServer calls and allocated bytes. For example
+ * <pre>
+ * ProbeMeter meter = ProbeMeter.start();
+ * collect();
+ * meter.stop();
+ * </pre>
+ * CPU time and allocated bytes are read from the platform ThreadMXBean, which
+ * is looked up by reflection so that the class still loads on a 1.4 JVM. They
+ * are 0 where the JVM does not support them, allocated bytes being a HotSpot
+ * extension. MBeanServer calls are only counted on the servers wrapped with
+ * {@link #countCalls(MBeanServer)}.
+ */
+public class ProbeMeter {
+
+    private static Log logger = LogFactory.getLog(ProbeMeter.class);
+
+    private static final ThreadLocal JMX_CALLS = new ThreadLocal() {
+        protected Object initialValue() {
+            return new long[1];
+        }
+    };
+
+    private static final ThreadLocal CURRENT = new ThreadLocal();
+
+    private static final Class[] NO_PARAMETERS = new Class[0];
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private static Object threadBean;
+    private static Method currentThreadCpuTime;
+    private static Method threadAllocatedBytes;
+    private static Method threadId;
+
+    private static MBeanServer lastServer;
+    private static MBeanServer lastProxy;
+
+    static {
+        try {
+            Class factory = Class.forName("java.lang.management.ManagementFactory");
+            Object bean = factory.getMethod("getThreadMXBean", NO_PARAMETERS).invoke(null, NO_ARGUMENTS);
+            Class cpuIface = Class.forName("java.lang.management.ThreadMXBean");
+            if (((Boolean) cpuIface.getMethod("isCurrentThreadCpuTimeSupported", NO_PARAMETERS).invoke(bean, NO_ARGUMENTS)).booleanValue()) {
+                currentThreadCpuTime = cpuIface.getMethod("getCurrentThreadCpuTime", NO_PARAMETERS);
+            }
+            try {
+                Class allocIface = Class.forName("com.sun.management.ThreadMXBean");
+                if (allocIface.isInstance(bean)
+                        && ((Boolean) allocIface.getMethod("isThreadAllocatedMemorySupported", NO_PARAMETERS).invoke(bean, NO_ARGUMENTS)).booleanValue()) {
+                    threadAllocatedBytes = allocIface.getMethod("getThreadAllocatedBytes", new Class[] {Long.TYPE});
+                    threadId = Thread.class.getMethod("getId", NO_PARAMETERS);
+                }
+            } catch (ClassNotFoundException e) {
+                // not a HotSpot JVM
+            }
+            threadBean = bean;
+        } catch (Throwable e) {
+            logger.info("Thread CPU time is not available, probe overhead is measured in wall time only");
+            logger.debug(e);
+        }
+    }
+
+    private final long startTime;
+    private final long startCpuTime;
+    private final long startAllocated;
+    private final long startJmxCalls;
+    private final ProbeMeter previous;
+
+    private long wallTime = -1;
+    private long cpuTime;
+    private long allocatedBytes;
+    private long jmxCalls;
+
+    private ProbeMeter() {
+        startJmxCalls = ((long[]) JMX_CALLS.get())[0];
+        startAllocated = allocatedBytes();
+        startCpuTime = cpuTime();
+        startTime = System.currentTimeMillis();
+        previous = (ProbeMeter) CURRENT.get();
+        CURRENT.set(this);
+    }
+
+    /**
+     * Starts measuring on the current thread.
+     */
+    public static ProbeMeter start() {
+        return new ProbeMeter();
+    }
+
+    /**
+     * @return the innermost meter running on the current thread or null
+     */
+    public static ProbeMeter current() {
+        return (ProbeMeter) CURRENT.get();
+    }
+
+    /**
+     * Stops measuring. Has to be called on the thread the meter was started on.
+     */
+    public void stop() {
+        if (wallTime < 0) {
+            wallTime = System.currentTimeMillis() - startTime;
+            long cpu = cpuTime();
+            long allocated = allocatedBytes();
+            synchronized (this) {
+                cpuTime += cpu < 0 || startCpuTime < 0 ? 0 : cpu - startCpuTime;
+                allocatedBytes += allocated < 0 || startAllocated < 0 ? 0 : allocated - startAllocated;
+                jmxCalls += ((long[]) JMX_CALLS.get())[0] - startJmxCalls;
+            }
+            if (CURRENT.get() == this) {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Adds the CPU time, allocated bytes and MBeanServer calls of a meter run on
+     * another thread on behalf of this one, such as a job of a worker pool. The
+     * wall time is left alone.
+     */
+    public synchronized void add(ProbeMeter meter) {
+        cpuTime += meter.getCpuTime();
+        allocatedBytes += meter.getAllocatedBytes();
+        jmxCalls += meter.getJmxCalls();
+    }
+
+    /**
+     * @return wall time in milliseconds, -1 before the meter is stopped
+     */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    /**
+     * @return CPU time in nanoseconds, 0 if not supported
+     */
+    public synchronized long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * @return allocated bytes, 0 if not supported
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized long getJmxCalls() {
+        return jmxCalls;
+    }
+
+    public static boolean isCpuTimeSupported() {
+        return currentThreadCpuTime != null;
+    }
+
+    public static boolean isAllocationSupported() {
+        return threadAllocatedBytes != null;
+    }
+
+    /**
+     * Wraps an MBeanServer so that the calls made through it are counted
+     * against the meters running on the calling thread.
+     */
+    public static MBeanServer countCalls(MBeanServer server) {
+        if (server == null || Proxy.isProxyClass(server.getClass())) {
+            return server;
+        }
+        synchronized (ProbeMeter.class) {
+            if (server != lastServer) {
+                lastProxy = (MBeanServer) Proxy.newProxyInstance(ProbeMeter.class.getClassLoader(),
+                        new Class[] {MBeanServer.class}, new CountingHandler(server));
+                lastServer = server;
+            }
+            return lastProxy;
+        }
+    }
+
+    private static long cpuTime() {
+        if (currentThreadCpuTime != null) {
+            try {
+                return ((Long) currentThreadCpuTime.invoke(threadBean, NO_ARGUMENTS)).longValue();
+            } catch (Exception e) {
+                // falls through
+            }
+        }
+        return -1;
+    }
+
+    private static long allocatedBytes() {
+        if (threadAllocatedBytes != null) {
+            try {
+                Object id = threadId.invoke(Thread.currentThread(), NO_ARGUMENTS);
+                return ((Long) threadAllocatedBytes.invoke(threadBean, new Object[] {id})).longValue();
+            } catch (Exception e) {
+                // falls through
+            }
+        }
+        return -1;
+    }
+
+    private static class CountingHandler implements InvocationHandler {
+        private final MBeanServer server;
+
+        CountingHandler(MBeanServer server) {
+            this.server = server;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() != Object.class) {
+                ((long[]) JMX_CALLS.get())[0]++;
+            }
+            try {
+                return method.invoke(server, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
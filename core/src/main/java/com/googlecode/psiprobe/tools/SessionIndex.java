@@ -0,0 +1,584 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import com.googlecode.psiprobe.model.SessionSearchInfo;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionAttributeListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+
+/**
+ * Index of the sessions of a context the session search is answered from,
+ * kept up to date by the session and attribute events of the context rather
+ * than by going through all the sessions on every search. Sessions are kept
+ * sorted by creation time, for the age range, and by last access time, for
+ * the idle time range, and the sessions holding an attribute are kept by
+ * attribute name.
+ * <p/>
+ * The events are fired on the request threads of the application, so they
+ * are only queued, the index is brought up to date by the next search. The
+ * request threads never wait for a search: the queue is held for an append
+ * only, and once it holds {@link #MAX_PENDING} events it is dropped and the
+ * next search rebuilds the index. Searches run one at a time, the sessions are
+ * looked up from the manager and checked after the index has been let go.
+ * <p/>
+ * No event tells of a session being accessed, so the last access times in the
+ * index can be behind. They only ever grow though: a session indexed as
+ * accessed after a time was, and the sessions a search looks at are moved to
+ * their actual last access time. Addresses are read from the sessions found,
+ * see {@link ApplicationUtils#getLastAccessedIP(Session)}.
+ * <p/>
+ * Sessions restored by the manager on start fire no event, nor do sessions
+ * whose id changes or sessions replicated from other nodes of a cluster.
+ * Whenever the number of sessions differs or a session is missing, the index
+ * is reconciled with the sessions of the manager: the sessions not indexed
+ * are added and the ones the manager no longer has are dropped, the rest of
+ * the index is left alone. It is only rebuilt from scratch when events have
+ * been dropped.
+ */
+public class SessionIndex implements HttpSessionListener, HttpSessionAttributeListener {
+
+    /**
+     * Number of events queued between two searches past which the index is rebuilt instead.
+     */
+    public static final int MAX_PENDING = 10000;
+
+    private static final int CREATED = 0;
+    private static final int DESTROYED = 1;
+    private static final int ATTRIBUTE_ADDED = 2;
+    private static final int ATTRIBUTE_REMOVED = 3;
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private static final Comparator CREATION = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            Entry e1 = (Entry) o1;
+            Entry e2 = (Entry) o2;
+            return compareTimes(e1.creationTime, e1.id, e2.creationTime, e2.id);
+        }
+    };
+
+    private static final Comparator LAST_ACCESS = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            Entry e1 = (Entry) o1;
+            Entry e2 = (Entry) o2;
+            return compareTimes(e1.lastAccessTime, e1.id, e2.lastAccessTime, e2.id);
+        }
+    };
+
+    private static int compareTimes(long t1, String id1, long t2, String id2) {
+        if (t1 != t2) {
+            return t1 < t2 ? -1 : 1;
+        } else if (id1 == id2) {
+            return 0;
+        } else if (id1 == null || id2 == null) {
+            return id1 == null ? 1 : -1;
+        }
+        return id1.compareTo(id2);
+    }
+
+    /**
+     * Guards the events not applied yet, taken by the request threads.
+     */
+    private final Object queueLock = new Object();
+    private List pending = new ArrayList();
+    private boolean overflow = false;
+    private boolean closed = false;
+
+    /**
+     * Lets one search at a time bring the index up to date.
+     */
+    private final Object searchLock = new Object();
+
+    /**
+     * Guarded by this, taken by the searches only, and never while the
+     * manager is asked for sessions.
+     */
+    private State state = new State();
+    private boolean stale = true;
+    private boolean drifted = false;
+
+    public void sessionCreated(HttpSessionEvent event) {
+        HttpSession session = event.getSession();
+        try {
+            queue(new Event(CREATED, session.getId(), session.getCreationTime(),
+                    session.getLastAccessedTime(), namesOf(session)));
+        } catch (IllegalStateException e) {
+            // invalidated meanwhile
+        }
+    }
+
+    public void sessionDestroyed(HttpSessionEvent event) {
+        queue(new Event(DESTROYED, event.getSession().getId(), null));
+    }
+
+    public void attributeAdded(HttpSessionBindingEvent event) {
+        queue(new Event(ATTRIBUTE_ADDED, event.getSession().getId(), event.getName()));
+    }
+
+    public void attributeRemoved(HttpSessionBindingEvent event) {
+        queue(new Event(ATTRIBUTE_REMOVED, event.getSession().getId(), event.getName()));
+    }
+
+    public void attributeReplaced(HttpSessionBindingEvent event) {
+    }
+
+    /**
+     * Makes the next search rebuild the index, such as after events have been missed.
+     */
+    public synchronized void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Drops the sessions indexed and makes the index ignore the events from
+     * now on, for when it cannot be removed from the listeners of the context.
+     */
+    public void close() {
+        synchronized (queueLock) {
+            closed = true;
+            pending = new ArrayList();
+        }
+        synchronized (this) {
+            state = new State();
+            stale = true;
+        }
+    }
+
+    /**
+     * @return number of sessions indexed as of the last search
+     */
+    public synchronized int size() {
+        return state.entries.size();
+    }
+
+    /**
+     * @param manager manager of the context
+     * @param searchInfo search conditions, all of which have to be met
+     * @param now current time
+     * @return sessions matching the conditions
+     */
+    public List search(Manager manager, SessionSearchInfo searchInfo, long now) {
+        synchronized (searchLock) {
+            List result = find(manager, searchInfo, now);
+            if (isOutdated()) {
+                // a session may have changed its id
+                result = find(manager, searchInfo, now);
+            }
+            return result;
+        }
+    }
+
+    private synchronized boolean isOutdated() {
+        return stale || drifted;
+    }
+
+    private void queue(Event event) {
+        synchronized (queueLock) {
+            if (closed || overflow) {
+                return;
+            } else if (pending.size() >= MAX_PENDING) {
+                // nobody has searched for a while, cheaper to rebuild than to catch up
+                pending.clear();
+                overflow = true;
+            } else {
+                pending.add(event);
+            }
+        }
+    }
+
+    /**
+     * @return the events queued since the last call, null if some were dropped
+     */
+    private List takePending() {
+        synchronized (queueLock) {
+            List events = overflow ? null : pending;
+            pending = new ArrayList();
+            overflow = false;
+            return events;
+        }
+    }
+
+    private void applyPending() {
+        List events = takePending();
+        if (events == null) {
+            stale = true;
+            return;
+        }
+        for (int i = 0; i < events.size(); i++) {
+            Event event = (Event) events.get(i);
+            switch (event.type) {
+                case CREATED:
+                    state.add(new Entry(event.id, event.creationTime, event.lastAccessTime), event.names);
+                    break;
+                case DESTROYED:
+                    state.remove((Entry) state.entries.get(event.id));
+                    break;
+                case ATTRIBUTE_ADDED:
+                    Entry e = (Entry) state.entries.get(event.id);
+                    if (e != null) {
+                        state.addName(e, event.name);
+                    } else {
+                        // added with all its attributes by the next reconciliation
+                        drifted = true;
+                    }
+                    break;
+                case ATTRIBUTE_REMOVED:
+                    state.removeName((Entry) state.entries.get(event.id), event.name);
+                    break;
+                default:
+            }
+        }
+    }
+
+    private List find(Manager manager, SessionSearchInfo searchInfo, long now) {
+        int active = manager.getActiveSessions();
+        boolean outdated;
+        boolean drift;
+        synchronized (this) {
+            applyPending();
+            outdated = stale;
+            drift = drifted || state.entries.size() != active;
+        }
+        if (outdated) {
+            rebuild(manager);
+        } else if (drift) {
+            reconcile(manager);
+        }
+
+        long createdFrom = searchInfo.isUseAgeTo() ? now - searchInfo.getAgeToSec().longValue() * 1000 : Long.MIN_VALUE;
+        long createdTo = searchInfo.isUseAgeFrom() ? now - searchInfo.getAgeFromSec().longValue() * 1000 : Long.MAX_VALUE;
+        long accessedFrom = searchInfo.isUseIdleTimeTo() ? now - searchInfo.getIdleTimeToSec().longValue() * 1000 : Long.MIN_VALUE;
+        long accessedTo = searchInfo.isUseIdleTimeFrom() ? now - searchInfo.getIdleTimeFromSec().longValue() * 1000 : Long.MAX_VALUE;
+
+        Entry[] candidates;
+        synchronized (this) {
+            Collection c;
+            if (createdFrom > createdTo || accessedFrom > accessedTo) {
+                c = new ArrayList();
+            } else if (searchInfo.isUseAttrName()) {
+                // holding all the attributes searched for
+                c = state.withAttributes(searchInfo.getAttrNamePatterns());
+            } else if (searchInfo.isUseAgeFrom() || searchInfo.isUseAgeTo()) {
+                c = state.byCreation.subSet(new Entry(createdFrom, ""), new Entry(createdTo, null));
+            } else if (searchInfo.isUseIdleTimeFrom()) {
+                // indexed times are never ahead of the actual ones
+                c = state.byLastAccess.headSet(new Entry(accessedTo, null));
+            } else {
+                c = state.entries.values();
+            }
+            candidates = (Entry[]) c.toArray(new Entry[c.size()]);
+        }
+
+        // the sessions are looked up with the index let go
+        List result = new ArrayList();
+        List moved = new ArrayList();
+        List missing = new ArrayList();
+        for (int i = 0; i < candidates.length; i++) {
+            Entry e = candidates[i];
+            if (e.creationTime < createdFrom || e.creationTime > createdTo
+                    || searchInfo.isUseSessionId() && ! searchInfo.getSessionIdPattern().matcher(e.id).matches()) {
+                continue;
+            }
+            Session session;
+            try {
+                session = manager.findSession(e.id);
+            } catch (IOException ex) {
+                session = null;
+            }
+            if (session == null || ! session.isValid()) {
+                missing.add(e);
+                continue;
+            }
+            long lastAccessTime = session.getLastAccessedTime();
+            if (lastAccessTime > e.lastAccessTime) {
+                e.actualLastAccessTime = lastAccessTime;
+                moved.add(e);
+            }
+            if (lastAccessTime >= accessedFrom && lastAccessTime <= accessedTo
+                    && (! searchInfo.isUseLastIP() || matchesIP(session, searchInfo.getLastIP()))) {
+                result.add(session);
+            }
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < moved.size(); i++) {
+                Entry e = (Entry) moved.get(i);
+                if (state.entries.get(e.id) == e) {
+                    state.byLastAccess.remove(e);
+                    e.lastAccessTime = e.actualLastAccessTime;
+                    state.byLastAccess.add(e);
+                }
+            }
+            for (int i = 0; i < missing.size(); i++) {
+                Entry e = (Entry) missing.get(i);
+                if (state.entries.get(e.id) == e) {
+                    state.remove(e);
+                    drifted = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the address the session was last accessed from contains
+     * the given one, or is not known
+     */
+    private static boolean matchesIP(Session session, String ip) {
+        String lastAccessedIP = ApplicationUtils.getLastAccessedIP(session);
+        return lastAccessedIP == null || lastAccessedIP.indexOf(ip) > -1;
+    }
+
+    /**
+     * Builds a new index from the sessions of the manager and swaps it in,
+     * the current one stays in place should the manager fail.
+     */
+    private void rebuild(Manager manager) {
+        // the events queued from now on are applied to the new index
+        takePending();
+        State rebuilt = new State();
+        Session[] sessions = manager.findSessions();
+        for (int i = 0; i < sessions.length; i++) {
+            HttpSession session = sessions[i].getSession();
+            try {
+                rebuilt.add(new Entry(session.getId(), session.getCreationTime(), session.getLastAccessedTime()),
+                        namesOf(session));
+            } catch (IllegalStateException ex) {
+                // invalidated meanwhile
+            }
+        }
+        synchronized (this) {
+            state = rebuilt;
+            stale = false;
+            drifted = false;
+        }
+    }
+
+    /**
+     * Brings the index in line with the sessions of the manager, adding the
+     * sessions it does not hold and dropping the ones the manager no longer
+     * has. The events applied so far all predate the sessions read, those
+     * queued meanwhile are applied by the next search.
+     */
+    private void reconcile(Manager manager) {
+        Session[] sessions = manager.findSessions();
+        Set ids = new HashSet(sessions.length * 2);
+        List unknown = new ArrayList();
+        synchronized (this) {
+            for (int i = 0; i < sessions.length; i++) {
+                String id = sessions[i].getId();
+                if (id != null) {
+                    ids.add(id);
+                    if (! state.entries.containsKey(id)) {
+                        unknown.add(sessions[i]);
+                    }
+                }
+            }
+            List extra = new ArrayList();
+            for (Iterator it = state.entries.values().iterator(); it.hasNext();) {
+                Entry e = (Entry) it.next();
+                if (! ids.contains(e.id)) {
+                    extra.add(e);
+                }
+            }
+            for (int i = 0; i < extra.size(); i++) {
+                state.remove((Entry) extra.get(i));
+            }
+        }
+
+        // the attributes are read with the index let go
+        List added = new ArrayList(unknown.size());
+        List names = new ArrayList(unknown.size());
+        for (int i = 0; i < unknown.size(); i++) {
+            HttpSession session = ((Session) unknown.get(i)).getSession();
+            try {
+                Entry e = new Entry(session.getId(), session.getCreationTime(), session.getLastAccessedTime());
+                String[] n = namesOf(session);
+                added.add(e);
+                names.add(n);
+            } catch (IllegalStateException ex) {
+                // invalidated meanwhile
+            }
+        }
+        synchronized (this) {
+            for (int i = 0; i < added.size(); i++) {
+                Entry e = (Entry) added.get(i);
+                if (! state.entries.containsKey(e.id)) {
+                    state.add(e, (String[]) names.get(i));
+                }
+            }
+            drifted = false;
+        }
+    }
+
+    private static String[] namesOf(HttpSession session) {
+        List names = null;
+        for (Enumeration e = session.getAttributeNames(); e.hasMoreElements();) {
+            if (names == null) {
+                names = new ArrayList();
+            }
+            names.add(e.nextElement());
+        }
+        return names == null ? NO_NAMES : (String[]) names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * The sessions indexed.
+     */
+    private static class State {
+        final Map entries = new HashMap();
+        final TreeSet byCreation = new TreeSet(CREATION);
+        final TreeSet byLastAccess = new TreeSet(LAST_ACCESS);
+        final Map byAttribute = new HashMap();
+
+        void add(Entry e, String[] names) {
+            remove((Entry) entries.get(e.id));
+            entries.put(e.id, e);
+            byCreation.add(e);
+            byLastAccess.add(e);
+            for (int i = 0; i < names.length; i++) {
+                addName(e, names[i]);
+            }
+        }
+
+        void remove(Entry e) {
+            if (e != null && entries.remove(e.id) != null) {
+                byCreation.remove(e);
+                byLastAccess.remove(e);
+                for (Iterator it = e.names.iterator(); it.hasNext();) {
+                    removeId((String) it.next(), e.id);
+                }
+            }
+        }
+
+        void addName(Entry e, String name) {
+            if (e.names.add(name)) {
+                Set ids = (Set) byAttribute.get(name);
+                if (ids == null) {
+                    ids = new HashSet();
+                    byAttribute.put(name, ids);
+                }
+                ids.add(e.id);
+            }
+        }
+
+        void removeName(Entry e, String name) {
+            if (e != null && e.names.remove(name)) {
+                removeId(name, e.id);
+            }
+        }
+
+        private void removeId(String name, String id) {
+            Set ids = (Set) byAttribute.get(name);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                byAttribute.remove(name);
+            }
+        }
+
+        /**
+         * @return entries of the sessions holding, for every pattern, an attribute whose name matches it
+         */
+        Collection withAttributes(List patterns) {
+            Set result = null;
+            for (int i = 0; i < patterns.size(); i++) {
+                Pattern p = (Pattern) patterns.get(i);
+                Set ids = new HashSet();
+                for (Iterator it = byAttribute.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry names = (Map.Entry) it.next();
+                    if (p.matcher((String) names.getKey()).matches()) {
+                        ids.addAll((Set) names.getValue());
+                    }
+                }
+                if (result == null) {
+                    result = ids;
+                } else {
+                    result.retainAll(ids);
+                }
+            }
+            List matched = new ArrayList();
+            if (result != null) {
+                for (Iterator it = result.iterator(); it.hasNext();) {
+                    matched.add(entries.get(it.next()));
+                }
+            }
+            return matched;
+        }
+    }
+
+    private static class Event {
+        final int type;
+        final String id;
+        final long creationTime;
+        final long lastAccessTime;
+        final String name;
+        final String[] names;
+
+        Event(int type, String id, long creationTime, long lastAccessTime, String[] names) {
+            this(type, id, creationTime, lastAccessTime, null, names);
+        }
+
+        Event(int type, String id, String name) {
+            this(type, id, 0, 0, name, NO_NAMES);
+        }
+
+        private Event(int type, String id, long creationTime, long lastAccessTime, String name, String[] names) {
+            this.type = type;
+            this.id = id;
+            this.creationTime = creationTime;
+            this.lastAccessTime = lastAccessTime;
+            this.name = name;
+            this.names = names;
+        }
+    }
+
+    private static class Entry {
+        final String id;
+        final long creationTime;
+        long lastAccessTime;
+        long actualLastAccessTime;
+        final Set names = new HashSet();
+
+        Entry(String id, long creationTime, long lastAccessTime) {
+            this.id = id;
+            this.creationTime = creationTime;
+            this.lastAccessTime = lastAccessTime;
+        }
+
+        /**
+         * Bound of a range of times: an id of "" sorts before the entries of
+         * the time, a null id after them.
+         */
+        Entry(long time, String id) {
+            this.id = id;
+            this.creationTime = time;
+            this.lastAccessTime = time;
+        }
+    }
+}
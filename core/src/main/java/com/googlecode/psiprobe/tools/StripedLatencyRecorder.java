@@ -0,0 +1,81 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records request durations into a {@link LatencyHistogram} without locks or
+ * allocation, for the agent valves to call on every request. Recording
+ * threads are spread by id over a few stripes of counters so that they rarely
+ * update the same cache line. The memory taken is fixed, a few KB per stripe.
+ * <p/>
+ * Requires Java 5, only the valves of the Tomcat 7 and later adaptors create
+ * it.
+ */
+public class StripedLatencyRecorder {
+
+    private static final int MAX_STRIPES = 8;
+    // buckets and the max of a stripe, rounded up to 64 bytes
+    private static final int STRIDE = (LatencyHistogram.BUCKETS + 1 + 7) & ~7;
+    private static final int MAX_SLOT = LatencyHistogram.BUCKETS;
+
+    private final int mask;
+    private final AtomicLongArray slots;
+
+    public StripedLatencyRecorder() {
+        int stripes = 1;
+        while (stripes < MAX_STRIPES && stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        mask = stripes - 1;
+        slots = new AtomicLongArray(stripes * STRIDE);
+    }
+
+    /**
+     * @param nanos duration in nanoseconds, as measured with System.nanoTime()
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int index;
+        if (micros < LatencyHistogram.SUB_COUNT) {
+            index = micros < 0 ? 0 : (int) micros;
+        } else {
+            index = LatencyHistogram.indexOf(micros, 63 - Long.numberOfLeadingZeros(micros));
+        }
+        int base = ((int) Thread.currentThread().getId() & mask) * STRIDE;
+        slots.incrementAndGet(base + index);
+        long max;
+        while (micros > (max = slots.get(base + MAX_SLOT))) {
+            if (slots.compareAndSet(base + MAX_SLOT, max, micros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Takes the durations recorded since the previous call. Durations recorded
+     * meanwhile are counted in either this or the next histogram.
+     */
+    public LatencyHistogram snapshotAndReset() {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        long max = 0;
+        for (int base = 0; base < slots.length(); base += STRIDE) {
+            for (int i = 0; i < counts.length; i++) {
+                if (slots.get(base + i) != 0) {
+                    counts[i] += slots.getAndSet(base + i, 0);
+                }
+            }
+            max = Math.max(max, slots.getAndSet(base + MAX_SLOT, 0));
+        }
+        return new LatencyHistogram(counts, max);
+    }
+}
@@ -109,6 +109,8 @@ public class TimeExpression {
                 return 60;
             case 'h':
                 return 60 * 60;
+            case 'd':
+                return 60 * 60 * 24;
             default:
                 throw new IllegalArgumentException("Invalid unit: " + unit);
         }
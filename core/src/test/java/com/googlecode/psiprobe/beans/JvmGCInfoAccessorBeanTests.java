@@ -0,0 +1,73 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans;
+
+import com.googlecode.psiprobe.model.jmx.GarbageCollector;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class JvmGCInfoAccessorBeanTests extends TestCase {
+
+    static {
+        // the MBeanServer the accessor finds, as it does in Tomcat
+        ManagementFactory.getPlatformMBeanServer();
+    }
+
+    public void testPauseBuckets() {
+        GarbageCollector gc = new GarbageCollector();
+        gc.addPauses(0, 1);
+        gc.addPauses(10, 2);
+        gc.addPauses(11, 1);
+        gc.addPauses(1000, 1);
+        gc.addPauses(5000, 3);
+        long[] pauses = gc.getPauses();
+        Assert.assertEquals(6, pauses.length);
+        Assert.assertEquals(3, pauses[0]);
+        Assert.assertEquals(1, pauses[1]);
+        Assert.assertEquals(1, pauses[4]);
+        Assert.assertEquals(3, pauses[5]);
+        Assert.assertEquals(8, gc.getPauseCount());
+        Assert.assertEquals(5000, gc.getMaxPause());
+    }
+
+    public void testCollections() throws Exception {
+        JvmGCInfoAccessorBean accessor = new JvmGCInfoAccessorBean();
+        accessor.afterPropertiesSet();
+        try {
+            long before = countAll(accessor.getCollectors(), false);
+            System.gc();
+            long pauses = 0;
+            for (int i = 0; i < 50 && pauses == 0; i++) {
+                // notifications are sent asynchronously
+                Thread.sleep(20);
+                pauses = countAll(accessor.getCollectors(), true);
+            }
+            List collectors = accessor.getCollectors();
+            Assert.assertFalse(collectors.isEmpty());
+            Assert.assertTrue(countAll(collectors, false) > before);
+            Assert.assertTrue(pauses > 0);
+            Assert.assertTrue(accessor.getOldGenUsedAfterGC() >= 0);
+        } finally {
+            accessor.destroy();
+        }
+    }
+
+    private static long countAll(List collectors, boolean pauses) {
+        long count = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            GarbageCollector gc = (GarbageCollector) collectors.get(i);
+            count += pauses ? gc.getPauseCount() : gc.getCollectionCount();
+        }
+        return count;
+    }
+}
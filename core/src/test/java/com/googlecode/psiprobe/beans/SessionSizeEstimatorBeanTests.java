@@ -0,0 +1,131 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans;
+
+import com.googlecode.psiprobe.beans.stats.scheduler.StatsWorkerPool;
+import com.googlecode.psiprobe.model.SessionSizeEstimate;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import javax.servlet.http.HttpSession;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.catalina.Session;
+
+public class SessionSizeEstimatorBeanTests extends TestCase {
+
+    private SessionSizeEstimatorBean estimator;
+
+    protected void setUp() {
+        estimator = new SessionSizeEstimatorBean();
+        estimator.setExactLimit(100);
+        estimator.setSampleSize(50);
+    }
+
+    public void testExact() throws Exception {
+        Session[] sessions = sessions(80);
+        SessionSizeEstimate estimate = estimator.estimate(sessions);
+        Assert.assertEquals(SessionSizeEstimate.MODE_EXACT, estimate.getMode());
+        Assert.assertEquals(80, estimate.getSizedCount());
+        Assert.assertFalse(estimate.isExtrapolated());
+        Assert.assertEquals(0, estimate.getMargin());
+        Assert.assertEquals(sum(estimate.getSizes()), estimate.getSize());
+        // sessions holding bigger arrays are bigger
+        Assert.assertTrue(estimate.getSizes()[79] > estimate.getSizes()[0]);
+    }
+
+    public void testSampled() throws Exception {
+        Session[] sessions = sessions(1000);
+        estimator.setExactLimit(2000);
+        long total = estimator.estimate(sessions).getSize();
+
+        estimator.setExactLimit(100);
+        SessionSizeEstimate estimate = estimator.estimate(sessions);
+        Assert.assertEquals(SessionSizeEstimate.MODE_SAMPLED, estimate.getMode());
+        Assert.assertEquals(50, estimate.getSizedCount());
+        Assert.assertTrue(estimate.isExtrapolated());
+        Assert.assertTrue(estimate.getMargin() > 0);
+        int unsized = 0;
+        for (int i = 0; i < sessions.length; i++) {
+            unsized += estimate.getSizes()[i] < 0 ? 1 : 0;
+        }
+        Assert.assertEquals(950, unsized);
+        // 95% of the intervals hold the total, twice the margin makes a failure very unlikely
+        Assert.assertTrue(Math.abs(estimate.getSize() - total) <= 2 * estimate.getMargin());
+    }
+
+    public void testParallel() throws Exception {
+        Session[] sessions = sessions(500);
+        StatsWorkerPool pool = new StatsWorkerPool();
+        pool.setThreads(3);
+        estimator.setWorkerPool(pool);
+        estimator.setParallel(true);
+        try {
+            SessionSizeEstimate estimate = estimator.estimate(sessions);
+            Assert.assertEquals(SessionSizeEstimate.MODE_PARALLEL, estimate.getMode());
+            Assert.assertEquals(500, estimate.getSizedCount());
+            Assert.assertEquals(sum(estimate.getSizes()), estimate.getSize());
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    public void testBudgetSpent() throws Exception {
+        estimator.setParallel(true);
+        estimator.setCpuBudget(0);
+        SessionSizeEstimate estimate = estimator.estimate(sessions(500));
+        Assert.assertEquals(SessionSizeEstimate.MODE_PARTIAL, estimate.getMode());
+        Assert.assertEquals(0, estimate.getSizedCount());
+    }
+
+    private static long sum(long[] sizes) {
+        long sum = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sum += sizes[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return sessions holding one array each, of a size growing with their index
+     */
+    private static Session[] sessions(int count) {
+        Session[] sessions = new Session[count];
+        for (int i = 0; i < count; i++) {
+            final String id = "session" + i;
+            final Object value = new long[i % 100];
+            final HttpSession httpSession = (HttpSession) Proxy.newProxyInstance(
+                    HttpSession.class.getClassLoader(), new Class[] {HttpSession.class}, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("getAttributeNames".equals(method.getName())) {
+                                return Collections.enumeration(Collections.singleton("value"));
+                            } else if ("getAttribute".equals(method.getName())) {
+                                return value;
+                            }
+                            return null;
+                        }
+                    });
+            sessions[i] = (Session) Proxy.newProxyInstance(
+                    Session.class.getClassLoader(), new Class[] {Session.class}, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("getSession".equals(method.getName())) {
+                                return httpSession;
+                            } else if ("getId".equals(method.getName())) {
+                                return id;
+                            }
+                            return null;
+                        }
+                    });
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans.stats.collectors;
+
+import com.googlecode.psiprobe.model.stats.StatsAggregation;
+import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class AbstractStatsCollectorBeanTests extends TestCase {
+
+    private static final String[] REQUESTS = new String[] {"app.requests.{0}", "app.errors.{0}"};
+    private static final String[] SESSIONS = new String[] {"app.sessions.{0}"};
+
+    private StatsCollection collection;
+    private MockCollector collector;
+
+    protected void setUp() {
+        collection = new StatsCollection();
+        collector = new MockCollector();
+        collector.setStatsCollection(collection);
+        collector.setMaxSeries(10);
+    }
+
+    public void testHandlesPerTemplates() {
+        int[] requests = collector.handles("/probe", REQUESTS);
+        Assert.assertSame(requests, collector.handles("/probe", REQUESTS));
+        Assert.assertEquals("app.requests./probe", collection.getName(requests[0]));
+        Assert.assertEquals("app.errors./probe", collection.getName(requests[1]));
+
+        // the same key with other templates gets handles of its own
+        int[] sessions = collector.handles("/probe", SESSIONS);
+        Assert.assertEquals(1, sessions.length);
+        Assert.assertEquals("app.sessions./probe", collection.getName(sessions[0]));
+        Assert.assertEquals(collection.getHandle("app.sessions./probe"), sessions[0]);
+
+        int[] other = collector.handles("/other", REQUESTS);
+        Assert.assertEquals("app.requests./other", collection.getName(other[0]));
+    }
+
+    public void testStatsByHandle() throws Exception {
+        int handle = collector.handles("/probe", REQUESTS)[0];
+        Assert.assertNull(collection.getStats(handle));
+
+        // the first sample creates the series, the next ones are added to it
+        collector.buildAbsoluteStats(handle, 1, 1000);
+        StatsSeries stats = collection.getStats(handle);
+        Assert.assertNotNull(stats);
+        Assert.assertSame(stats, collection.getStats("app.requests./probe"));
+        Assert.assertEquals(10, stats.getCapacity());
+        collector.buildAbsoluteStats(handle, 2, 2000);
+        Assert.assertEquals(2000, stats.getLastTime());
+
+        // a series created by name is seen by handle
+        StatsSeries replaced = collection.newStats("app.requests./probe", 20);
+        Assert.assertSame(replaced, collection.getStats(handle));
+        StatsSeries created = collection.newStats(handle, 30);
+        Assert.assertSame(created, collection.getStats("app.requests./probe"));
+        Assert.assertSame(created, collection.getStats(handle));
+    }
+
+    public void testDeltaAfterGap() throws Exception {
+        int handle = collector.handles("/probe", REQUESTS)[0];
+        collector.buildDeltaStats(handle, 100, 1000);
+        collector.buildDeltaStats(handle, 110, 2000);
+        StatsSeries stats = collection.getStats(handle);
+        Assert.assertEquals(10, stats.getLastValue(), 0);
+
+        // missed cycles leave a gap, the next value read is only a new baseline
+        collector.buildGapStats(handle, 3000);
+        Assert.assertTrue(StatsSeries.isGap(stats.getLastValue()));
+        collector.buildGapStats(handle, 4000);
+        Assert.assertTrue(collector.isAfterGap(handle));
+        Assert.assertEquals(0, collector.buildDeltaStats(handle, 200, 5000));
+        Assert.assertEquals(4000, stats.getLastTime());
+        Assert.assertFalse(collector.isAfterGap(handle));
+        Assert.assertEquals(15, collector.buildDeltaStats(handle, 215, 6000));
+        Assert.assertEquals(15, stats.getLastValue(), 0);
+
+        // gaps are left out of aggregations
+        StatsAggregation sum = new StatsAggregation(StatsAggregation.SUM, 0, 0);
+        stats.aggregate(0, Long.MAX_VALUE, sum);
+        Assert.assertEquals(25, sum.getValue(0), 0);
+    }
+
+    public void testGapBeforeBaseline() throws Exception {
+        int handle = collector.handles("/probe", REQUESTS)[0];
+        // a series restored from disk, whose first cycle timed out
+        StatsSeries stats = collection.newStats(handle, 10);
+        collector.buildGapStats(handle, 1000);
+        Assert.assertTrue(StatsSeries.isGap(stats.getLastValue()));
+
+        // the value read next is the baseline, not a delta against 0
+        Assert.assertEquals(0, collector.buildDeltaStats(handle, 5000, 2000));
+        Assert.assertEquals(1000, stats.getLastTime());
+        Assert.assertEquals(10, collector.buildDeltaStats(handle, 5010, 3000));
+        Assert.assertEquals(10, stats.getLastValue(), 0);
+
+        // the same without a series yet
+        int other = collector.handles("/other", REQUESTS)[0];
+        collector.buildGapStats(other, 1000);
+        Assert.assertEquals(0, collector.buildDeltaStats(other, 7000, 2000));
+        Assert.assertEquals(3, collector.buildDeltaStats(other, 7003, 3000));
+    }
+
+    public void testTimePercentagePerInterval() throws Exception {
+        int handle = collection.getHandle("gc.overhead");
+        collector.buildTimePercentageStats(handle, 0, 0);
+        Assert.assertNull(collection.getStats(handle));
+
+        // busy for the whole first second, idle for the next two
+        collector.buildTimePercentageStats(handle, 1000, 1000);
+        StatsSeries stats = collection.getStats(handle);
+        Assert.assertEquals(100, stats.getLastValue(), 0.001);
+        collector.buildTimePercentageStats(handle, 1000, 2000);
+        Assert.assertEquals(0, stats.getLastValue(), 0.001);
+        collector.buildTimePercentageStats(handle, 1000, 3000);
+        Assert.assertEquals(0, stats.getLastValue(), 0.001);
+        collector.buildTimePercentageStats(handle, 1250, 4000);
+        Assert.assertEquals(25, stats.getLastValue(), 0.001);
+    }
+
+    private static class MockCollector extends AbstractStatsCollectorBean {
+
+        public void collect() {
+        }
+
+        int[] handles(String key, String[] templates) {
+            return getHandles("app", key, templates);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.beans.stats.scheduler;
+
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StatsSchedulerTests extends TestCase {
+
+    public void testTicks() {
+        // 5 minutes, 10 seconds past
+        Assert.assertEquals(310000, StatsTask.firstTick(1000, 300000, 10000, 0));
+        Assert.assertEquals(610000, StatsTask.firstTick(310000, 300000, 10000, 0));
+        // ticks follow the local time, one hour ahead of UTC
+        Assert.assertEquals(86400000 - 3600000, StatsTask.firstTick(1000, 86400000, 0, 3600000));
+
+        StatsTask task = new StatsTask();
+        task.setPeriod("30s");
+        task.setPhase("0s");
+        Assert.assertEquals(30000, task.getPeriod());
+    }
+
+    public void testOverrun() throws Exception {
+        Counter counter = new Counter();
+        StatsTask task = new StatsTask();
+        task.setTargetObject(counter);
+        task.setTargetMethod("count");
+        task.setPeriod("1s");
+        task.setPhase("0s");
+        task.prepare(0);
+        Assert.assertEquals(1000, task.getNextTime());
+
+        Assert.assertTrue(task.acquire());
+        Assert.assertFalse(task.acquire());
+        Assert.assertEquals(1, task.getOverruns());
+        task.run();
+        Assert.assertEquals(1, counter.count);
+        Assert.assertEquals(1, task.getRuns());
+        Assert.assertTrue(task.acquire());
+
+        // the ticks at 2s and 3s are missed
+        task.advance(3500);
+        Assert.assertEquals(4000, task.getNextTime());
+        Assert.assertEquals(3, task.getOverruns());
+    }
+
+    public void testScheduler() throws Exception {
+        Counter counter = new Counter();
+        StatsTask task = new StatsTask();
+        task.setTargetObject(counter);
+        task.setTargetMethod("count");
+        task.setPeriod("1s");
+        task.setPhase("0s");
+        StatsScheduler scheduler = new StatsScheduler();
+        scheduler.setTasks(Arrays.asList(new Object[] {task}));
+        scheduler.afterPropertiesSet();
+        Thread.sleep(2500);
+        scheduler.destroy();
+        Assert.assertTrue(counter.count >= 1);
+    }
+
+    public void testQuarantine() {
+        StatsQuarantine quarantine = new StatsQuarantine();
+        quarantine.setMaxSkip(4);
+        Assert.assertFalse(quarantine.skip("a"));
+        // the first timeout is forgiven
+        Assert.assertEquals(0, quarantine.timedOut("a"));
+        Assert.assertFalse(quarantine.skip("a"));
+        Assert.assertEquals(1, quarantine.timedOut("a"));
+        Assert.assertTrue(quarantine.skip("a"));
+        Assert.assertFalse(quarantine.skip("a"));
+        Assert.assertEquals(2, quarantine.timedOut("a"));
+        Assert.assertEquals(4, quarantine.timedOut("a"));
+        Assert.assertEquals(4, quarantine.timedOut("a"));
+        Assert.assertEquals(5, quarantine.getTimeouts("a"));
+        quarantine.completed("a");
+        Assert.assertEquals(0, quarantine.getTimeouts("a"));
+        Assert.assertFalse(quarantine.skip("a"));
+    }
+
+    public void testWorkerPool() throws Exception {
+        StatsWorkerPool pool = new StatsWorkerPool();
+        pool.setThreads(2);
+        final Object lock = new Object();
+        Runnable hang = new Runnable() {
+            public void run() {
+                synchronized (lock) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // returns
+                    }
+                }
+            }
+        };
+        Runnable fail = new Runnable() {
+            public void run() {
+                throw new IllegalStateException();
+            }
+        };
+        Counter counter = new Counter();
+        Runnable count = new Counter.Job(counter);
+        try {
+            int[] status = pool.invokeAll(new Runnable[] {count, hang, null, fail, count}, 500);
+            Assert.assertEquals(StatsWorkerPool.COMPLETED, status[0]);
+            Assert.assertEquals(StatsWorkerPool.TIMED_OUT, status[1]);
+            Assert.assertEquals(StatsWorkerPool.SKIPPED, status[2]);
+            Assert.assertEquals(StatsWorkerPool.FAILED, status[3]);
+            Assert.assertEquals(StatsWorkerPool.COMPLETED, status[4]);
+            Assert.assertEquals(1, pool.getAbandoned());
+
+            // the hanging job does not hold up the next batch
+            status = pool.invokeAll(new Runnable[] {count, count}, 500);
+            Assert.assertEquals(StatsWorkerPool.COMPLETED, status[0]);
+            Assert.assertEquals(StatsWorkerPool.COMPLETED, status[1]);
+            Assert.assertEquals(4, counter.count);
+        } finally {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            pool.destroy();
+        }
+    }
+
+    public void testJobDeadlines() throws Exception {
+        StatsWorkerPool pool = new StatsWorkerPool();
+        pool.setThreads(1);
+        pool.setMaxAbandoned(0);
+        final Object lock = new Object();
+        Runnable sleep = new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // returns
+                }
+            }
+        };
+        Runnable hang = new Runnable() {
+            public void run() {
+                synchronized (lock) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // returns
+                    }
+                }
+            }
+        };
+        Counter counter = new Counter();
+        try {
+            // every job gets the whole timeout, however long it waited for the thread
+            int[] status = pool.invokeAll(new Runnable[] {sleep, sleep}, 300);
+            Assert.assertEquals(StatsWorkerPool.COMPLETED, status[0]);
+            Assert.assertEquals(StatsWorkerPool.COMPLETED, status[1]);
+
+            // no thread can replace the abandoned one, the job behind is not held to account
+            status = pool.invokeAll(new Runnable[] {hang, new Counter.Job(counter)}, 300);
+            Assert.assertEquals(StatsWorkerPool.TIMED_OUT, status[0]);
+            Assert.assertEquals(StatsWorkerPool.NOT_STARTED, status[1]);
+            Assert.assertEquals(0, counter.count);
+        } finally {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            pool.destroy();
+        }
+    }
+
+    public static class Counter {
+        volatile int count;
+
+        public void count() {
+            count++;
+        }
+
+        static class Job implements Runnable {
+            private final Counter counter;
+
+            Job(Counter counter) {
+                this.counter = counter;
+            }
+
+            public void run() {
+                synchronized (counter) {
+                    counter.count();
+                }
+            }
+        }
+    }
+}
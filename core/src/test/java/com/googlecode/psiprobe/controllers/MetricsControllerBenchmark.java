@@ -0,0 +1,55 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.controllers;
+
+import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.tools.MetricsWriter;
+import java.io.StringWriter;
+
+/**
+ * Measures how long writing the exposition of 5000 series takes.
+ */
+public class MetricsControllerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        StatsCollection collection = new StatsCollection();
+        collection.addKeyTemplate("app.requests.{0}", "app");
+        collection.addKeyTemplate("app.errors.{0}", "app");
+        collection.addKeyTemplate("app.proc_time.{0}", "app");
+        collection.addKeyTemplate("app.avg_proc_time.{0}", "app");
+        collection.addKeyTemplate("app.sessions.{0}", "app");
+        String[] metrics = new String[] {"app.requests.", "app.errors.", "app.proc_time.", "app.avg_proc_time.", "app.sessions."};
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            for (int m = 0; m < metrics.length; m++) {
+                String name = metrics[m] + "/app" + i;
+                collection.addValue(name, collection.newStats(name, 120), now, i * m);
+            }
+        }
+
+        MetricsController controller = new MetricsController();
+        controller.setStatsCollection(collection);
+        int size = 0;
+        for (int i = 0; i < 200; i++) {
+            StringWriter out = new StringWriter(1 << 18);
+            controller.writeStats(new MetricsWriter(out), now);
+            size = out.getBuffer().length();
+        }
+        int runs = 500;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            StringWriter out = new StringWriter(1 << 18);
+            controller.writeStats(new MetricsWriter(out), now);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("5000 series, " + size + " chars: " + (elapsed / runs / 1000) + "us per scrape");
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.controllers;
+
+import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
+import com.googlecode.psiprobe.tools.MetricsWriter;
+import java.io.StringWriter;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class MetricsControllerTests extends TestCase {
+
+    public void testWriteStats() throws Exception {
+        StatsCollection collection = new StatsCollection();
+        collection.addKeyTemplate("app.requests.{0}", "app");
+        collection.addValue("app.requests./probe", collection.newStats("app.requests./probe", 10), 100000, 12);
+        collection.addValue("app.requests./a\"b", collection.newStats("app.requests./a\"b", 10), 100000, 1.5);
+        collection.addValue("os.cpu", collection.newStats("os.cpu", 10), 1000, 3);
+        StatsSeries missed = collection.newStats("app.requests./missed", 10);
+        collection.addValue("app.requests./missed", missed, 90000, 4);
+        collection.addValue("app.requests./missed", missed, 100000, StatsSeries.GAP);
+        collection.newStats("os.empty", 10);
+
+        MetricsController controller = new MetricsController();
+        controller.setStatsCollection(collection);
+        controller.setStaleAfter(60);
+        StringWriter out = new StringWriter();
+        controller.writeStats(new MetricsWriter(out), 120000);
+
+        Assert.assertEquals("# TYPE psiprobe_app_requests gauge\n"
+                + "psiprobe_app_requests{app=\"/a\\\"b\"} 1.5\n"
+                + "psiprobe_app_requests{app=\"/probe\"} 12\n", out.toString());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.controllers;
+
+import com.googlecode.psiprobe.model.stats.StatsCollection;
+import com.googlecode.psiprobe.model.stats.StatsSeries;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class QueryStatsControllerTests extends TestCase {
+
+    private StatsCollection collection;
+    private QueryStatsController controller;
+    private long now;
+    private long start;
+
+    protected void setUp() {
+        collection = new StatsCollection();
+        collection.setRollupTiers("1m/10m,5m/1h");
+        now = System.currentTimeMillis();
+        // fifty minutes of a request every 30 seconds, ending at the start of the current 5 minutes
+        start = now - now % 300000 - 50 * 60000;
+        StatsSeries raw = collection.newStats("app.requests./probe", 4);
+        for (int i = 0; i <= 100; i++) {
+            collection.addValue("app.requests./probe", raw, start + i * 30000, 1);
+        }
+        controller = new QueryStatsController();
+        controller.setStatsCollection(collection);
+    }
+
+    public void testSumFromTier() throws Exception {
+        List names = Collections.singletonList("app.requests./probe");
+        List served = controller.resolve(names, "sum", start, now);
+        Assert.assertEquals("app.requests./probe@@5m.sum", served.get(0));
+        StringWriter out = new StringWriter();
+        controller.write(out, names, served, start, now, 0, "sum");
+        // ten finished buckets of ten requests, the last request is in the bucket being filled
+        Assert.assertTrue(out.toString(), out.toString().indexOf("\"tier\":\"5m\",\"points\":[[" + start + ",100]]") > 0);
+
+        served = controller.resolve(names, "avg", start, now);
+        Assert.assertEquals("app.requests./probe@@5m.avg", served.get(0));
+        out = new StringWriter();
+        controller.write(out, names, served, start, now, 0, "avg");
+        Assert.assertTrue(out.toString(), out.toString().indexOf("\"tier\":\"5m\",\"points\":[[" + start + ",1]]") > 0);
+    }
+
+    public void testRawOnlyAggregations() throws Exception {
+        List names = Collections.singletonList("app.requests./probe");
+        try {
+            controller.resolve(names, "p99", start, now);
+            fail("percentiles of averages are not percentiles");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // the raw samples cover the last minute
+        List served = controller.resolve(names, "last", start + 49 * 60000, now);
+        Assert.assertEquals("app.requests./probe", served.get(0));
+        StringWriter out = new StringWriter();
+        controller.write(out, names, served, start + 49 * 60000, now, 0, "last");
+        Assert.assertTrue(out.toString(), out.toString().indexOf("\"tier\":\"raw\"") > 0);
+    }
+}
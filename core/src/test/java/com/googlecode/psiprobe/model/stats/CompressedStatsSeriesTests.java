@@ -0,0 +1,87 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class CompressedStatsSeriesTests extends TestCase {
+
+    public void testCodecRoundTrip() {
+        Random random = new Random(1);
+        long[] times = new long[500];
+        double[] values = new double[500];
+        long t = 1200000000000L;
+        for (int i = 0; i < times.length; i++) {
+            t += i == 250 ? 3600000 : 30000 + random.nextInt(200) - 100;
+            times[i] = t;
+            values[i] = i % 7 == 0 ? random.nextDouble() * 1e6 : (i % 5 == 0 ? Double.NaN : i / 3);
+        }
+        byte[] data = StatsBlockCodec.encode(times, values, times.length);
+        StatsBlockCodec.Decoder d = new StatsBlockCodec.Decoder(data, times.length);
+        for (int i = 0; i < times.length; i++) {
+            Assert.assertTrue(d.next());
+            Assert.assertEquals(times[i], d.getTime());
+            Assert.assertEquals(Double.doubleToLongBits(values[i]), Double.doubleToLongBits(d.getValue()));
+        }
+        Assert.assertFalse(d.next());
+    }
+
+    public void testBehavesLikeRing() {
+        StatsSeries plain = new StatsSeries(250);
+        CompressedStatsSeries compressed = new CompressedStatsSeries(250, 120);
+        for (int i = 1; i <= 1000; i++) {
+            plain.add(i * 30000L, i / 10);
+            compressed.add(i * 30000L, i / 10);
+            if (i % 97 == 0) {
+                assertSame(plain, compressed);
+            }
+        }
+        assertSame(plain, compressed);
+
+        plain.setCapacity(100);
+        compressed.setCapacity(100);
+        assertSame(plain, compressed);
+
+        compressed.clear();
+        Assert.assertTrue(compressed.isEmpty());
+        Assert.assertFalse(compressed.cursor().next());
+    }
+
+    public void testCounterCompression() {
+        CompressedStatsSeries series = new CompressedStatsSeries(2880);
+        long t = 1200000000000L;
+        for (int i = 0; i < 2880; i++) {
+            t += 30000 + (i % 3) * 7;
+            series.add(t, 100 + i / 60);
+        }
+        // 16 bytes per sample raw
+        Assert.assertTrue(series.getEncodedSize() * 10 < 2880 * 16);
+    }
+
+    private static void assertSame(StatsSeries expected, StatsSeries actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected.getFirstTime(), actual.getFirstTime());
+        Assert.assertEquals(expected.getLastTime(), actual.getLastTime());
+        Assert.assertEquals(expected.getLastValue(), actual.getLastValue(), 0);
+        StatsSeries.Cursor e = expected.cursor();
+        StatsSeries.Cursor a = actual.cursor();
+        Assert.assertEquals(e.size(), a.size());
+        while (e.next()) {
+            Assert.assertTrue(a.next());
+            Assert.assertEquals(e.getTime(), a.getTime());
+            Assert.assertEquals(e.getValue(), a.getValue(), 0);
+            Assert.assertEquals(e.isLast(), a.isLast());
+        }
+        Assert.assertFalse(a.next());
+    }
+}
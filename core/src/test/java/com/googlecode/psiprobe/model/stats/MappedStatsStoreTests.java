@@ -0,0 +1,101 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.io.File;
+import java.util.Map;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class MappedStatsStoreTests extends TestCase {
+
+    private File file;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("stats", ".map");
+        file.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testReopen() throws Exception {
+        MappedStatsStore store = new MappedStatsStore(file, 8);
+        Assert.assertTrue(store.isCreated());
+        Assert.assertTrue(store.load().isEmpty());
+
+        StatsSeries cpu = store.allocate("os.cpu", 4);
+        for (int i = 1; i <= 6; i++) {
+            cpu.add(i * 1000, i * 0.5);
+        }
+        StatsSeries requests = store.allocate("app.requests./probe", 100);
+        Assert.assertEquals(8, requests.getCapacity());
+        requests.add(1000, 7);
+        store.close();
+
+        store = new MappedStatsStore(file, 16);
+        Assert.assertFalse(store.isCreated());
+        Assert.assertEquals(8, store.getSlotCapacity());
+        Map stats = store.load();
+        Assert.assertEquals(2, stats.size());
+
+        StatsSeries series = (StatsSeries) stats.get("os.cpu");
+        Assert.assertEquals(4, series.getCapacity());
+        StatsSeries.Cursor c = series.cursor();
+        for (int i = 3; i <= 6; i++) {
+            Assert.assertTrue(c.next());
+            Assert.assertEquals(i * 1000, c.getTime());
+            Assert.assertEquals(i * 0.5, c.getValue(), 0);
+        }
+        Assert.assertFalse(c.next());
+
+        series.setCapacity(2);
+        Assert.assertEquals(2, series.size());
+        Assert.assertEquals(6000, series.getLastTime());
+        series.setCapacity(20);
+        Assert.assertEquals(8, series.getCapacity());
+        Assert.assertEquals(7.0, ((StatsSeries) stats.get("app.requests./probe")).getLastValue(), 0);
+        store.close();
+    }
+
+    public void testFree() throws Exception {
+        MappedStatsStore store = new MappedStatsStore(file, 8);
+        store.load();
+        StatsSeries dropped = store.allocate("app.requests./old", 8);
+        dropped.add(1000, 1);
+        StatsSeries kept = store.allocate("os.cpu", 8);
+        kept.add(1000, 2);
+        long length = file.length();
+
+        store.free(dropped);
+        store.free(dropped);
+        StatsSeries reused = store.allocate("app.requests./new", 8);
+        reused.add(2000, 3);
+        // the slots are sliced out of one region, the file does not grow
+        Assert.assertEquals(length, file.length());
+
+        // the dropped series keeps its samples, away from the slot it was in
+        dropped.add(3000, 4);
+        Assert.assertEquals(2, dropped.size());
+        Assert.assertEquals(1, reused.size());
+        Assert.assertEquals(3.0, reused.getLastValue(), 0);
+        store.close();
+
+        store = new MappedStatsStore(file, 8);
+        Map stats = store.load();
+        Assert.assertEquals(2, stats.size());
+        Assert.assertFalse(stats.containsKey("app.requests./old"));
+        Assert.assertEquals(2000, ((StatsSeries) stats.get("app.requests./new")).getLastTime());
+        Assert.assertEquals(2.0, ((StatsSeries) stats.get("os.cpu")).getLastValue(), 0);
+        store.close();
+    }
+}
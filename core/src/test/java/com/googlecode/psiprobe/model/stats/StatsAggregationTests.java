@@ -0,0 +1,64 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StatsAggregationTests extends TestCase {
+
+    public void testBuckets() {
+        StatsSeries series = new StatsSeries(8);
+        // wraps the ring, 1000..2000 are dropped
+        for (int i = 1; i <= 10; i++) {
+            series.add(i * 1000, i);
+        }
+        assertBuckets(series);
+        CompressedStatsSeries compressed = new CompressedStatsSeries(8, 3);
+        for (int i = 1; i <= 10; i++) {
+            compressed.add(i * 1000, i);
+        }
+        assertBuckets(compressed);
+    }
+
+    private void assertBuckets(StatsSeries series) {
+        StatsAggregation avg = new StatsAggregation(StatsAggregation.AVG, 2000, 3000);
+        series.aggregate(2000, 9000, avg);
+        Assert.assertEquals(3, avg.size());
+        Assert.assertEquals(2000, avg.getTime(0));
+        Assert.assertEquals(3.5, avg.getValue(0), 0);
+        Assert.assertEquals(5000, avg.getTime(1));
+        Assert.assertEquals(6, avg.getValue(1), 0);
+        Assert.assertEquals(8000, avg.getTime(2));
+        Assert.assertEquals(8.5, avg.getValue(2), 0);
+
+        StatsAggregation max = new StatsAggregation(StatsAggregation.MAX, 0, 0);
+        series.aggregate(0, Long.MAX_VALUE, max);
+        Assert.assertEquals(1, max.size());
+        Assert.assertEquals(10, max.getValue(0), 0);
+    }
+
+    public void testPercentile() {
+        StatsSeries series = new StatsSeries(200);
+        for (int i = 100; i >= 1; i--) {
+            series.add(1000 - i, i);
+        }
+        StatsAggregation p95 = new StatsAggregation("p95", 0, 0);
+        series.aggregate(0, 1000, p95);
+        Assert.assertEquals(95, p95.getValue(0), 0);
+        try {
+            new StatsAggregation("p101", 0, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import org.jfree.data.xy.XYSeries;
+
+/**
+ * Runs 6 collectors, 50 concurrent chart requests and the serializer against one
+ * {@link StatsCollection} and reports how long each of them took. Collectors tick
+ * and charts are requested much more often than in production to make contention
+ * visible. On a machine with fewer cores than threads the numbers include waiting
+ * for a CPU.
+ * Not a unit test, run it with the test classpath:
+ * <pre>
+ * java com.googlecode.psiprobe.model.stats.StatsCollectionContentionBenchmark [seconds] [series per collector]
+ * </pre>
+ */
+public class StatsCollectionContentionBenchmark {
+
+    private static final int COLLECTORS = 6;
+    private static final int CHART_REQUESTS = 50;
+
+    private static volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final int seriesCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        File dir = File.createTempFile("stats", ".benchmark");
+        dir.delete();
+        dir.mkdir();
+        final StatsCollection collection = new StatsCollection();
+        collection.setStoragePath(dir.getAbsolutePath());
+        collection.setSwapFileName("stats.bin");
+        collection.setRollupTiers("5m/2d,1h/90d");
+
+        final Stats[] collectorStats = new Stats[COLLECTORS];
+        Thread[] collectors = new Thread[COLLECTORS];
+        for (int i = 0; i < COLLECTORS; i++) {
+            final int collector = i;
+            collectorStats[i] = new Stats();
+            collectors[i] = new Thread() {
+                public void run() {
+                    int[] handles = new int[seriesCount];
+                    for (int j = 0; j < seriesCount; j++) {
+                        handles[j] = collection.getHandle("collector" + collector + ".series" + j);
+                    }
+                    Random random = new Random(collector);
+                    long time = System.currentTimeMillis() - 90L * 24 * 60 * 60 * 1000;
+                    while (running) {
+                        long t = System.currentTimeMillis();
+                        time += 30000;
+                        for (int j = 0; j < seriesCount; j++) {
+                            StatsSeries series = collection.getStats(handles[j]);
+                            if (series == null) {
+                                series = collection.newStats(handles[j], 240);
+                            }
+                            collection.addValue(collection.getName(handles[j]), series, time, random.nextInt(1000));
+                        }
+                        collectorStats[collector].record(System.currentTimeMillis() - t);
+                        pause(5);
+                    }
+                }
+            };
+        }
+
+        final Stats chartStats = new Stats();
+        Thread[] charts = new Thread[CHART_REQUESTS];
+        for (int i = 0; i < CHART_REQUESTS; i++) {
+            final int request = i;
+            charts[i] = new Thread() {
+                public void run() {
+                    Random random = new Random(request);
+                    while (running) {
+                        long t = System.currentTimeMillis();
+                        Map series = collection.getStatsByPrefix("collector" + random.nextInt(COLLECTORS) + ".series1");
+                        for (Iterator it = series.entrySet().iterator(); it.hasNext();) {
+                            Map.Entry en = (Map.Entry) it.next();
+                            XYSeries xySeries = new XYSeries((String) en.getKey(), true, false);
+                            for (StatsSeries.Cursor c = ((StatsSeries) en.getValue()).cursor(); c.next();) {
+                                xySeries.add(c.getTime(), c.getValue(), false);
+                            }
+                        }
+                        chartStats.record(System.currentTimeMillis() - t);
+                        pause(20);
+                    }
+                }
+            };
+        }
+
+        final Stats serializerStats = new Stats();
+        Thread serializer = new Thread() {
+            public void run() {
+                while (running) {
+                    long t = System.currentTimeMillis();
+                    try {
+                        collection.serialize();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    serializerStats.record(System.currentTimeMillis() - t);
+                    pause(100);
+                }
+            }
+        };
+
+        for (int i = 0; i < COLLECTORS; i++) {
+            collectors[i].start();
+        }
+        for (int i = 0; i < CHART_REQUESTS; i++) {
+            charts[i].start();
+        }
+        serializer.start();
+        Thread.sleep(seconds * 1000L);
+        running = false;
+        for (int i = 0; i < COLLECTORS; i++) {
+            collectors[i].join();
+        }
+        for (int i = 0; i < CHART_REQUESTS; i++) {
+            charts[i].join();
+        }
+        serializer.join();
+
+        System.out.println(COLLECTORS + " collectors x " + seriesCount + " series, " + CHART_REQUESTS
+                + " chart requests, " + seconds + "s");
+        for (int i = 0; i < COLLECTORS; i++) {
+            collectorStats[i].print("collector " + i + " tick");
+        }
+        chartStats.print("chart request");
+        serializerStats.print("serialize");
+        collection.destroy();
+        System.out.println("last snapshot: " + collection.getLastSnapshotBytes() + " bytes written in "
+                + collection.getLastSnapshotDuration() + "ms");
+
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    private static class Stats {
+        private long count;
+        private long total;
+        private long max;
+
+        synchronized void record(long millis) {
+            count++;
+            total += millis;
+            max = Math.max(max, millis);
+        }
+
+        synchronized void print(String name) {
+            System.out.println(name + ": " + count + " times, avg " + (count == 0 ? 0 : total / (double) count)
+                    + "ms, max " + max + "ms");
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.io.File;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StatsCollectionTests extends TestCase {
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("stats", ".collection");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    public void testNewStatsVisible() {
+        StatsCollection collection = new StatsCollection();
+        for (int i = 0; i < 1000; i++) {
+            StatsSeries series = collection.newStats("app.requests.app" + i, 10);
+            // found right away, whether published to the readers yet or not
+            Assert.assertSame(series, collection.getStats("app.requests.app" + i));
+        }
+        Assert.assertEquals(1000, collection.getStatsByPrefix("app.requests.").size());
+        Assert.assertEquals(111, collection.getStatsByPattern("app.requests.app1*").size());
+        Assert.assertFalse(collection.isCollected("app.requests.app1000"));
+    }
+
+    public void testBackgroundSnapshot() throws Exception {
+        StatsCollection collection = newCollection();
+        StatsSeries cpu = collection.newStats("os.cpu", 10);
+        for (int i = 1; i <= 5; i++) {
+            collection.addValue("os.cpu", cpu, i * 1000, i);
+        }
+        collection.serialize();
+        collection.destroy();
+        Assert.assertTrue(collection.getLastSnapshotBytes() > 0);
+        Assert.assertTrue(collection.getLastSnapshotDuration() >= 0);
+        // written aside and renamed over the previous snapshot
+        Assert.assertTrue(new File(dir, "stats.bin").exists());
+        Assert.assertFalse(new File(dir, "stats.bin.tmp").exists());
+
+        collection = newCollection();
+        // 5 samples and the downtime marks
+        Assert.assertEquals(7, collection.getStats("os.cpu").size());
+        Assert.assertNotNull(collection.getStats(StatsCollection.SERIALIZER_BYTES));
+        collection.destroy();
+    }
+
+    public void testResetBeforeLazyLoad() throws Exception {
+        StatsCollection collection = newCollection();
+        StatsSeries cpu = collection.newStats("os.cpu", 20);
+        for (int i = 1; i <= 5; i++) {
+            collection.addValue("os.cpu", cpu, i * 1000, i);
+        }
+        collection.destroy();
+
+        collection = newCollection();
+        collection.resetStats("os.cpu");
+        collection.addValue("os.cpu", collection.getStats("os.cpu"), 10000, 10);
+        // stops without a snapshot, the reset is only in the journal
+        collection.flushJournal();
+
+        collection = newCollection();
+        StatsSeries series = collection.getStats("os.cpu");
+        // the sample after the reset and the downtime marks, none of the history
+        Assert.assertEquals(3, series.size());
+        Assert.assertEquals(10000, series.getFirstTime());
+        collection.destroy();
+    }
+
+    public void testRetention() throws Exception {
+        StatsCollection collection = newCollection("memory.pool.*=30s/1d, app.*=2m/1h/transient");
+        Assert.assertEquals(2880, collection.newStats("memory.pool.Eden", 240).getCapacity());
+        Assert.assertEquals(240, collection.newStats("os.cpu", 240).getCapacity());
+        StatsSeries app = collection.newStats("app.requests./probe", 240);
+        Assert.assertEquals(30, app.getCapacity());
+        for (int i = 0; i < 8; i++) {
+            collection.addValue("app.requests./probe", app, i * 30000, i);
+        }
+        // only one sample per 2 minutes is kept
+        Assert.assertEquals(2, app.size());
+        collection.serialize();
+        collection.destroy();
+
+        collection = newCollection(null);
+        Assert.assertNull(collection.getStats("app.requests./probe"));
+        Assert.assertNotNull(collection.getStats("os.cpu"));
+        collection.destroy();
+    }
+
+    public void testRemoveMapped() throws Exception {
+        StatsCollection collection = newMappedCollection();
+        collection.addValue("app.requests./old", collection.newStats("app.requests./old", 10), 1000, 1);
+        collection.addValue("os.cpu", collection.newStats("os.cpu", 10), 1000, 2);
+        collection.removeStats("app.requests./old");
+        Assert.assertNull(collection.getStats("app.requests./old"));
+        Assert.assertTrue(collection.getStatsByPrefix("app.").isEmpty());
+        Assert.assertTrue(collection.getStatsBySelector("app.requests./old").isEmpty());
+        collection.addValue("app.requests./new", collection.newStats("app.requests./new", 10), 2000, 3);
+        collection.destroy();
+
+        collection = newMappedCollection();
+        Assert.assertNull(collection.getStats("app.requests./old"));
+        // the sample is followed by the downtime marks
+        Assert.assertEquals(2000, collection.getStats("app.requests./new").getFirstTime());
+        Assert.assertNotNull(collection.getStats("os.cpu"));
+        collection.destroy();
+    }
+
+    public void testHandleAcrossRemove() throws Exception {
+        StatsCollection collection = new StatsCollection();
+        int handle = collection.getHandle("app.requests./probe");
+        HandleReader[] readers = new HandleReader[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new HandleReader(collection, handle);
+            readers[i].start();
+        }
+        try {
+            for (int i = 0; i < 20000; i++) {
+                collection.removeStats("app.requests./probe");
+                StatsSeries series = collection.newStats(handle, 10);
+                Assert.assertSame(series, collection.getStats(handle));
+            }
+            collection.removeStats("app.requests./probe");
+        } finally {
+            for (int i = 0; i < readers.length; i++) {
+                readers[i].running = false;
+                readers[i].join();
+            }
+        }
+        // no reader put the removed series back
+        Assert.assertNull(collection.getStats(handle));
+        StatsSeries series = collection.newStats(handle, 10);
+        Assert.assertSame(series, collection.getStats(handle));
+        Assert.assertSame(series, collection.getStats("app.requests./probe"));
+    }
+
+    private static class HandleReader extends Thread {
+        private final StatsCollection collection;
+        private final int handle;
+        volatile boolean running = true;
+
+        HandleReader(StatsCollection collection, int handle) {
+            this.collection = collection;
+            this.handle = handle;
+        }
+
+        public void run() {
+            while (running) {
+                collection.getStats(handle);
+            }
+        }
+    }
+
+    private StatsCollection newMappedCollection() throws Exception {
+        StatsCollection collection = new StatsCollection();
+        collection.setStoragePath(dir.getAbsolutePath());
+        collection.setSwapFileName("stats.bin");
+        collection.setMappedStorage(true);
+        collection.setMappedSlotCapacity(10);
+        collection.afterPropertiesSet();
+        return collection;
+    }
+
+    private StatsCollection newCollection() throws Exception {
+        return newCollection(null);
+    }
+
+    private StatsCollection newCollection(String retentionPolicies) throws Exception {
+        StatsCollection collection = new StatsCollection();
+        collection.setRetentionPolicies(retentionPolicies);
+        collection.setStoragePath(dir.getAbsolutePath());
+        collection.setSwapFileName("stats.bin");
+        collection.setJournalEnabled(true);
+        collection.afterPropertiesSet();
+        return collection;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StatsIndexTests extends TestCase {
+
+    public void testSelect() {
+        StatsIndex index = new StatsIndex();
+        index.add("app.requests./probe");
+        index.add("app.requests./manager");
+        index.add("app.requests./probe@@5m.avg");
+        index.add("app.errors./probe");
+        index.add("stat.connector.http-8080.requests");
+        index.add("stat.connector.ajp-8009.requests");
+        index.add("os.cpu");
+
+        // registering a template keys the names indexed before
+        Assert.assertTrue(index.addTemplate("app.requests.{0}", "app"));
+        Assert.assertFalse(index.addTemplate("app.requests.{0}", "app"));
+        index.addTemplate("app.errors.{0}", "app");
+        index.addTemplate("stat.connector.{0}.requests", "connector");
+
+        Assert.assertEquals(StatsKey.parse("app.requests{app=/probe}"), index.getKey("app.requests./probe"));
+        Assert.assertEquals("stat.connector.requests{connector=http-8080}",
+                index.getKey("stat.connector.http-8080.requests").toString());
+        Assert.assertNull(index.getKey("app.requests./probe@@5m.avg"));
+
+        Assert.assertEquals(Arrays.asList(new String[] {"app.requests./manager", "app.requests./probe"}),
+                index.select(StatsKey.parse("app.requests{app=*}")));
+        Assert.assertEquals(Arrays.asList(new String[] {"app.errors./probe", "app.requests./probe"}),
+                index.select(StatsKey.parse("app.*{app=/probe}")));
+        Assert.assertEquals(Arrays.asList(new String[] {"app.requests./manager"}),
+                index.select(StatsKey.parse("{app=/man*}")));
+        Assert.assertEquals(Arrays.asList(new String[] {"stat.connector.http-8080.requests"}),
+                index.select(StatsKey.parse("stat.connector.requests{connector=http-*}")));
+        Assert.assertEquals(Arrays.asList(new String[] {"os.cpu"}), index.select(StatsKey.parse("os.cpu")));
+        Assert.assertEquals(Collections.EMPTY_LIST, index.select(StatsKey.parse("os.cpu{app=*}")));
+    }
+
+    public void testPatterns() {
+        Assert.assertTrue(StatsKey.matches("stat.connector.*.requests", "stat.connector.http-8080.requests"));
+        Assert.assertFalse(StatsKey.matches("stat.connector.*.requests", "stat.connector.http-8080.errors"));
+        Assert.assertTrue(StatsKey.matches("*", ""));
+        Assert.assertTrue(StatsKey.matches("a*b*c", "aXbYbc"));
+        Assert.assertFalse(StatsKey.matches("a*b*c", "aXbYbcd"));
+        Assert.assertTrue(StatsKey.matches("app.*", "app."));
+        Assert.assertFalse(StatsKey.matches("app.*x", "app."));
+        Assert.assertTrue(StatsKey.matches("*.requests*", "app.requests./probe"));
+    }
+
+    public void testPatternBacktracking() {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 10000; i++) {
+            sb.append('a');
+        }
+        // exponential for a recursive matcher
+        Assert.assertFalse(StatsKey.matches("a*a*a*a*a*a*a*a*a*a*b", sb.toString()));
+        Assert.assertTrue(StatsKey.matches("a*a*a*a*a*a*a*a*a*a*", sb.toString()));
+        Assert.assertEquals("stat.connector.", StatsKey.literalPrefix("stat.connector.*.requests"));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StatsJournalTests extends TestCase {
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("stats", ".journal");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    public void testReplayOnTopOfSnapshot() throws Exception {
+        StatsSeries cpu = new StatsSeries(4);
+        StatsJournal journal = new StatsJournal(dir, "stats.bin.journal");
+        for (int i = 1; i <= 3; i++) {
+            journal.append("os.cpu", cpu, i * 1000, i * 1.5);
+        }
+        int sequence = journal.roll();
+        for (int i = 4; i <= 6; i++) {
+            journal.append("os.cpu", cpu, i * 1000, i * 1.5);
+        }
+        journal.append("os.memory", cpu, 6000, 42);
+        journal.close();
+        Assert.assertEquals(1, sequence);
+
+        // snapshot taken after the second sample
+        Map stats = new TreeMap();
+        StatsSeries snapshot = new StatsSeries(4);
+        snapshot.add(1000, 1.5);
+        snapshot.add(2000, 3.0);
+        stats.put("os.cpu", snapshot);
+
+        Assert.assertEquals(5, StatsJournal.replay(dir, "stats.bin.journal", stats));
+        Assert.assertEquals(4, snapshot.size());
+        Assert.assertEquals(6000, snapshot.getLastTime());
+        Assert.assertEquals(9.0, snapshot.getLastValue(), 0);
+        Assert.assertEquals(42.0, ((StatsSeries) stats.get("os.memory")).getLastValue(), 0);
+    }
+
+    public void testTornTailAndReset() throws Exception {
+        StatsSeries series = new StatsSeries(10);
+        StatsJournal journal = new StatsJournal(dir, "j");
+        journal.append("a", series, 1000, 1);
+        journal.reset("a", series);
+        journal.append("a", series, 2000, 2);
+        journal.append("a", series, 3000, 3);
+        journal.close();
+
+        RandomAccessFile raf = new RandomAccessFile(new File(dir, "j.0"), "rw");
+        try {
+            raf.setLength(raf.length() - 5);
+        } finally {
+            raf.close();
+        }
+
+        Map stats = new TreeMap();
+        StatsJournal.replay(dir, "j", stats);
+        StatsSeries a = (StatsSeries) stats.get("a");
+        Assert.assertEquals(1, a.size());
+        Assert.assertEquals(2000, a.getLastTime());
+
+        journal = new StatsJournal(dir, "j");
+        Assert.assertEquals(1, journal.getSequence());
+        journal.deleteSegmentsBefore(1);
+        journal.close();
+        Assert.assertFalse(new File(dir, "j.0").exists());
+    }
+}
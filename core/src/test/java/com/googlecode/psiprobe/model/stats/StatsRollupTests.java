@@ -0,0 +1,91 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StatsRollupTests extends TestCase {
+
+    public void testConsolidation() throws Exception {
+        StatsCollection collection = new StatsCollection();
+        collection.setRollupTiers("1m/1h, 5m/1d");
+        StatsRollup rollup = collection.getRollup();
+        Assert.assertEquals(60, rollup.getCapacity(0));
+        Assert.assertEquals(288, rollup.getCapacity(1));
+
+        // ten minutes of 30 second samples: 0, 1, 2, ...
+        long start = 1200000000000L;
+        StatsSeries raw = collection.newStats("os.cpu", 4);
+        for (int i = 0; i <= 20; i++) {
+            collection.addValue("os.cpu", raw, start + i * 30000, i);
+        }
+
+        StatsSeries avg = collection.getStats("os.cpu@@1m.avg");
+        Assert.assertEquals(10, avg.size());
+        Assert.assertEquals(start + 9 * 60000, avg.getLastTime());
+        Assert.assertEquals(18.5, avg.getLastValue(), 0);
+        Assert.assertEquals(18.0, collection.getStats("os.cpu@@1m.min").getLastValue(), 0);
+        Assert.assertEquals(19.0, collection.getStats("os.cpu@@1m.max").getLastValue(), 0);
+        Assert.assertEquals(37.0, collection.getStats("os.cpu@@1m.sum").getLastValue(), 0);
+
+        StatsSeries coarse = collection.getStats("os.cpu@@5m.avg");
+        Assert.assertEquals(2, coarse.size());
+        Assert.assertEquals(14.5, coarse.getLastValue(), 0);
+
+        Assert.assertEquals(1, collection.getStatsByPrefix("os.").size());
+
+        collection.resetStats("os.cpu");
+        Assert.assertTrue(avg.isEmpty());
+        Assert.assertTrue(coarse.isEmpty());
+    }
+
+    public void testWindowSelection() throws Exception {
+        StatsCollection collection = new StatsCollection();
+        collection.setRollupTiers("1m/10m,5m/1h");
+        long now = System.currentTimeMillis();
+        StatsSeries raw = collection.newStats("os.cpu", 4);
+        for (int i = 120; i >= 0; i--) {
+            collection.addValue("os.cpu", raw, now - i * 30000, i);
+        }
+
+        Assert.assertSame(raw, collection.getStats("os.cpu", 0));
+        Assert.assertSame(raw, collection.getStats("os.cpu", 60));
+        Assert.assertSame(collection.getStats("os.cpu@@1m.avg"), collection.getStats("os.cpu", 5 * 60));
+        Assert.assertSame(collection.getStats("os.cpu@@5m.avg"), collection.getStats("os.cpu", 30 * 60));
+        Assert.assertSame(collection.getStats("os.cpu@@5m.avg"), collection.getStats("os.cpu", 24 * 60 * 60));
+    }
+
+    public void testPatterns() throws Exception {
+        StatsCollection collection = new StatsCollection();
+        collection.setRollupPatterns("os.*, memory.pool.*");
+        collection.setRollupTiers("1m/1h");
+        long start = 1200000000000L;
+        StatsSeries cpu = collection.newStats("os.cpu", 4);
+        StatsSeries req = collection.newStats("app.requests", 4);
+        for (int i = 0; i <= 4; i++) {
+            collection.addValue("os.cpu", cpu, start + i * 30000, i);
+            collection.addValue("app.requests", req, start + i * 30000, i);
+        }
+        Assert.assertNotNull(collection.getStats("os.cpu@@1m.avg"));
+        Assert.assertNull(collection.getStats("app.requests@@1m.avg"));
+        Assert.assertSame(req, collection.getStats("app.requests", 30 * 60));
+    }
+
+    public void testInvalidTiers() {
+        try {
+            new StatsRollup("1h/1d,5m/2d");
+            fail("tiers have to get coarser");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.util.Map;
+import java.util.TreeMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StatsSeriesTests extends TestCase {
+
+    public void testEmpty() {
+        StatsSeries series = new StatsSeries(3);
+        Assert.assertTrue(series.isEmpty());
+        Assert.assertEquals(0, series.getLastTime());
+        Assert.assertEquals(0, series.getLastValue(), 0);
+        Assert.assertFalse(series.cursor().next());
+    }
+
+    public void testAddBelowCapacity() {
+        StatsSeries series = new StatsSeries(3);
+        series.add(1, 10);
+        series.add(2, 20);
+        assertSeries(series, new long[] {1, 2}, new double[] {10, 20});
+        Assert.assertEquals(2, series.getLastTime());
+        Assert.assertEquals(20, series.getLastValue(), 0);
+    }
+
+    public void testAddOverCapacityDropsOldest() {
+        StatsSeries series = new StatsSeries(3);
+        for (int i = 1; i <= 5; i++) {
+            series.add(i, i * 10);
+        }
+        Assert.assertEquals(3, series.size());
+        assertSeries(series, new long[] {3, 4, 5}, new double[] {30, 40, 50});
+    }
+
+    public void testRingGrowsAsItFills() {
+        StatsSeries series = new StatsSeries(100);
+        for (int i = 1; i <= 150; i++) {
+            series.add(i, i);
+        }
+        Assert.assertEquals(100, series.size());
+        Assert.assertEquals(51, series.getFirstTime());
+        Assert.assertEquals(150, series.getLastTime());
+        StatsSeries.Cursor c = series.cursor();
+        for (int i = 51; c.next(); i++) {
+            Assert.assertEquals(i, c.getTime());
+        }
+    }
+
+    public void testShrinkKeepsNewest() {
+        StatsSeries series = new StatsSeries(4);
+        for (int i = 1; i <= 6; i++) {
+            series.add(i, i);
+        }
+        series.setCapacity(2);
+        assertSeries(series, new long[] {5, 6}, new double[] {5, 6});
+        series.add(7, 7);
+        assertSeries(series, new long[] {6, 7}, new double[] {6, 7});
+    }
+
+    public void testGrowKeepsAll() {
+        StatsSeries series = new StatsSeries(2);
+        for (int i = 1; i <= 3; i++) {
+            series.add(i, i);
+        }
+        series.setCapacity(4);
+        series.add(4, 4);
+        assertSeries(series, new long[] {2, 3, 4}, new double[] {2, 3, 4});
+    }
+
+    public void testClear() {
+        StatsSeries series = new StatsSeries(2);
+        series.add(1, 1);
+        series.clear();
+        Assert.assertTrue(series.isEmpty());
+        series.add(2, 2);
+        assertSeries(series, new long[] {2}, new double[] {2});
+    }
+
+    public void testCursorUpTo() {
+        StatsSeries[] all = new StatsSeries[] {new StatsSeries(10), new CompressedStatsSeries(10, 2)};
+        for (int i = 0; i < all.length; i++) {
+            StatsSeries series = all[i];
+            for (int t = 1; t <= 5; t++) {
+                series.add(t, t * 10);
+            }
+            StatsSeries.Cursor c = series.cursor(3);
+            Assert.assertEquals(3, c.size());
+            for (int t = 1; c.next(); t++) {
+                Assert.assertEquals(t, c.getTime());
+                Assert.assertEquals(t * 10, c.getValue(), 0);
+                Assert.assertEquals(t == 3, c.isLast());
+            }
+            c.rewind();
+            Assert.assertTrue(c.next());
+            Assert.assertEquals(1, c.getTime());
+            Assert.assertEquals(5, series.cursor(5).size());
+            Assert.assertEquals(0, series.cursor(0).size());
+            Assert.assertFalse(series.cursor(0).next());
+        }
+    }
+
+    public void testSnapshotLeavesOutLaterSamples() {
+        StatsSeries series = new StatsSeries(10);
+        series.add(1, 10);
+        series.add(2, 20);
+        StatsSeries empty = new StatsSeries(10);
+        Map data = new TreeMap();
+        data.put("a", series);
+        data.put("b", empty);
+        StatsSnapshot snapshot = StatsSnapshot.take(data, 0);
+
+        // added after the journal roll, replayed from the journal
+        series.add(3, 30);
+        empty.add(3, 30);
+        Assert.assertEquals(2, snapshot.getCursor(0).size());
+        Assert.assertEquals(0, snapshot.getCursor(1).size());
+    }
+
+    public void testCursorIsConsistentWhileWriting() throws Exception {
+        final StatsSeries series = new StatsSeries(50);
+        final boolean[] done = new boolean[1];
+        Thread writer = new Thread() {
+            public void run() {
+                for (int i = 1; i <= 200000; i++) {
+                    series.add(i, i * 2);
+                    if (i % 1000 == 0) {
+                        series.setCapacity(i % 3000 == 0 ? 30 : 50);
+                    }
+                }
+                synchronized (done) {
+                    done[0] = true;
+                }
+            }
+        };
+        writer.start();
+        boolean finished = false;
+        while (! finished) {
+            synchronized (done) {
+                finished = done[0];
+            }
+            long previous = 0;
+            for (StatsSeries.Cursor c = series.cursor(); c.next();) {
+                Assert.assertEquals(c.getTime() * 2, c.getValue(), 0);
+                Assert.assertEquals(previous == 0 ? c.getTime() : previous + 1, c.getTime());
+                previous = c.getTime();
+            }
+        }
+        writer.join();
+    }
+
+    private void assertSeries(StatsSeries series, long[] times, double[] values) {
+        int i = 0;
+        for (StatsSeries.Cursor c = series.cursor(); c.next(); i++) {
+            Assert.assertEquals(times[i], c.getTime());
+            Assert.assertEquals(values[i], c.getValue(), 0);
+            Assert.assertEquals(i == times.length - 1, c.isLast());
+        }
+        Assert.assertEquals(times.length, i);
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.jfree.data.xy.XYDataItem;
+
+/**
+ * Compares {@link StatsSwapFile} with the XStream XML swap file, which held a list of
+ * XYDataItem per series. The data set resembles a host with many applications: every
+ * series holds 2 hours of 30 second samples.
+ * Not a unit test, run it with the test classpath:
+ * <pre>
+ * java com.googlecode.psiprobe.model.stats.StatsSwapFileBenchmark [series] [points] [rounds]
+ * </pre>
+ */
+public class StatsSwapFileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int seriesCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int points = args.length > 1 ? Integer.parseInt(args[1]) : 240;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Map stats = createStats(seriesCount, points);
+        Map legacyStats = toLegacyStats(stats);
+        File xml = File.createTempFile("stats", ".xml");
+        File bin = File.createTempFile("stats", ".bin");
+        try {
+            System.out.println(seriesCount + " series x " + points + " points, best of " + rounds + " rounds");
+            long xmlWrite = Long.MAX_VALUE;
+            long xmlRead = Long.MAX_VALUE;
+            long binWrite = Long.MAX_VALUE;
+            long binRead = Long.MAX_VALUE;
+            for (int i = 0; i < rounds; i++) {
+                long t = System.currentTimeMillis();
+                writeXml(legacyStats, xml);
+                xmlWrite = Math.min(xmlWrite, System.currentTimeMillis() - t);
+
+                t = System.currentTimeMillis();
+                readXml(xml);
+                xmlRead = Math.min(xmlRead, System.currentTimeMillis() - t);
+
+                t = System.currentTimeMillis();
+                StatsSwapFile.write(stats, bin);
+                binWrite = Math.min(binWrite, System.currentTimeMillis() - t);
+
+                t = System.currentTimeMillis();
+                StatsSwapFile.read(bin);
+                binRead = Math.min(binRead, System.currentTimeMillis() - t);
+            }
+            print("xstream", xmlWrite, xmlRead, xml.length());
+            print("binary", binWrite, binRead, bin.length());
+        } finally {
+            xml.delete();
+            bin.delete();
+        }
+    }
+
+    private static Map createStats(int seriesCount, int points) {
+        Random random = new Random(0);
+        long start = System.currentTimeMillis() - points * 30000L;
+        Map stats = new TreeMap();
+        for (int i = 0; i < seriesCount; i++) {
+            StatsSeries series = new StatsSeries(points);
+            boolean gauge = i % 4 == 0;
+            double value = random.nextInt(1000);
+            for (int j = 0; j < points; j++) {
+                // collection jitter of a few milliseconds
+                long time = start + j * 30000L + random.nextInt(20);
+                value = gauge ? random.nextDouble() * 100 : Math.max(0, value + random.nextInt(21) - 10);
+                series.add(time, value);
+            }
+            stats.put("app.requests./application" + i, series);
+        }
+        return stats;
+    }
+
+    private static Map toLegacyStats(Map stats) {
+        Map legacyStats = new TreeMap();
+        for (Iterator it = stats.entrySet().iterator(); it.hasNext();) {
+            Map.Entry en = (Map.Entry) it.next();
+            List l = new ArrayList();
+            for (StatsSeries.Cursor c = ((StatsSeries) en.getValue()).cursor(); c.next();) {
+                l.add(new XYDataItem(c.getTime(), c.getValue()));
+            }
+            legacyStats.put(en.getKey(), l);
+        }
+        return legacyStats;
+    }
+
+    private static void writeXml(Map stats, File f) throws IOException {
+        FileOutputStream fos = new FileOutputStream(f);
+        try {
+            new XStream().toXML(stats, fos);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static void readXml(File f) throws IOException {
+        FileInputStream fis = new FileInputStream(f);
+        try {
+            new XStream().fromXML(fis);
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static void print(String format, long write, long read, long size) {
+        System.out.println(format + ": write " + write + "ms, read " + read + "ms, " + (size / 1024) + "KB");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.model.stats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StatsSwapFileTests extends TestCase {
+
+    private File file;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("stats", ".bin");
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        Map stats = new TreeMap();
+
+        StatsSeries counter = new StatsSeries(5);
+        for (int i = 0; i < 8; i++) {
+            counter.add(1300000000000L + i * 30000, i * i - 10);
+        }
+        stats.put("app.requests./probe", counter);
+
+        StatsSeries percentage = new StatsSeries(3);
+        percentage.add(1000, 12.5);
+        percentage.add(2000, -0.25);
+        percentage.add(3000, Double.NaN);
+        stats.put("os.cpu", percentage);
+
+        stats.put("memory.pool.éden", new StatsSeries(4));
+
+        StatsSwapFile.write(stats, file);
+        Map read = StatsSwapFile.read(file);
+
+        Assert.assertEquals(stats.keySet(), read.keySet());
+        assertSeriesEquals(counter, (StatsSeries) read.get("app.requests./probe"));
+        assertSeriesEquals(percentage, (StatsSeries) read.get("os.cpu"));
+        assertSeriesEquals((StatsSeries) stats.get("memory.pool.éden"), (StatsSeries) read.get("memory.pool.éden"));
+    }
+
+    public void testLazyHistory() throws Exception {
+        Map stats = new TreeMap();
+        StatsSeries cpu = new StatsSeries(6);
+        for (int i = 1; i <= 4; i++) {
+            cpu.add(i * 1000, i * 1.5);
+        }
+        stats.put("os.cpu", cpu);
+        stats.put("os.fd.open", new StatsSeries(3));
+        StatsSwapFile.write(stats, file);
+
+        StatsHistory history = StatsSwapFile.openHistory(file);
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals(4000, history.getLastTime("os.cpu"));
+        Assert.assertEquals(0, history.getLastTime("os.fd.open"));
+
+        Map series = history.createSeries(false);
+        StatsSeries live = (StatsSeries) series.get("os.cpu");
+        Assert.assertEquals(6, live.getCapacity());
+        Assert.assertTrue(live.isEmpty());
+        // collected since the start, the first one also made it into the file
+        live.add(4000, 6);
+        live.add(5000, 7.5);
+        live.add(6000, 9);
+
+        history.load("os.cpu");
+        Assert.assertFalse(history.isLoaded());
+        history.loadAll();
+        Assert.assertTrue(history.isLoaded());
+
+        StatsSeries.Cursor c = live.cursor();
+        for (int i = 1; i <= 6; i++) {
+            Assert.assertTrue(c.next());
+            Assert.assertEquals(i * 1000, c.getTime());
+            Assert.assertEquals(i * 1.5, c.getValue(), 0);
+        }
+        Assert.assertFalse(c.next());
+        Assert.assertTrue(((StatsSeries) series.get("os.fd.open")).isEmpty());
+    }
+
+    public void testNotASwapFile() throws Exception {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write("<map></map>".getBytes());
+        } finally {
+            fos.close();
+        }
+        try {
+            StatsSwapFile.read(file);
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    static void assertSeriesEquals(StatsSeries expected, StatsSeries actual) {
+        Assert.assertEquals(expected.getCapacity(), actual.getCapacity());
+        Assert.assertEquals(expected.size(), actual.size());
+        StatsSeries.Cursor a = actual.cursor();
+        for (StatsSeries.Cursor e = expected.cursor(); e.next();) {
+            Assert.assertTrue(a.next());
+            Assert.assertEquals(e.getTime(), a.getTime());
+            Assert.assertEquals(Double.doubleToLongBits(e.getValue()), Double.doubleToLongBits(a.getValue()));
+        }
+    }
+
+}
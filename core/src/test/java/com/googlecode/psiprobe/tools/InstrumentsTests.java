@@ -19,119 +19,182 @@ import junit.framework.Assert;
 import junit.framework.TestCase;
 
 /**
+ * Sizes are checked against the layout of the JVM the tests run on, see
+ * {@link ObjectSizerTests} for fixed layouts, including graphs laid out like
+ * the JDK collections sessions hold. The fields of the JDK classes differ from
+ * one JDK to the next, and JDK 9 and later block reading them, so JDK strings
+ * and collections are only checked for the fields every JDK has.
  *
  * @author Mark Lewis
  */
 public class InstrumentsTests extends TestCase {
 
-    private String sunArchDataModelProperty;
+    private static final ObjectSizer[] LAYOUTS = new ObjectSizer[] {
+            new ObjectSizer(4, 8), new ObjectSizer(4, 12), new ObjectSizer(8, 16)};
 
-    /**
-     * Forces the tests to run in 32-bit mode.
-     */
-    protected void setUp() {
-        sunArchDataModelProperty = System.getProperty("sun.arch.data.model");
-        System.setProperty("sun.arch.data.model", "32");
-    }
+    private long header;
+    private long reference;
+    private long arrayHeader;
+    private long holder;
 
-    /**
-     * Undoes the changes made in {@link #setUp()}.
-     */
-    protected void tearDown() {
-        System.setProperty("sun.arch.data.model", sunArchDataModelProperty);
+    protected void setUp() {
+        ObjectSizer sizer = new ObjectSizer();
+        header = sizer.getHeaderSize();
+        reference = sizer.getReferenceSize();
+        arrayHeader = sizer.getArrayHeaderSize();
+        holder = ObjectSizer.align(header + 2 * reference);
     }
 
     public void testObject() {
         long oSize = Instruments.sizeOf(new Object());
-        Assert.assertEquals(Instruments.SIZE_OBJECT, oSize);
+        Assert.assertEquals(ObjectSizer.align(header), oSize);
+    }
+
+    public void testNull() {
+        Assert.assertEquals(0, Instruments.sizeOf(null));
     }
 
     public void testBoolean() {
         boolean b = false;
-        long booleanSize = Instruments.sizeOf(new Boolean(b)) - Instruments.SIZE_OBJECT;
-        Assert.assertEquals(Instruments.SIZE_BOOLEAN, booleanSize);
+        long booleanSize = Instruments.sizeOf(new Boolean(b));
+        Assert.assertEquals(ObjectSizer.align(header + Instruments.SIZE_BOOLEAN), booleanSize);
     }
 
     public void testByte() {
         byte b = 0x00;
-        long byteSize = Instruments.sizeOf(new Byte(b)) - Instruments.SIZE_OBJECT;
-        Assert.assertEquals(Instruments.SIZE_BYTE, byteSize);
+        long byteSize = Instruments.sizeOf(new Byte(b));
+        Assert.assertEquals(ObjectSizer.align(header + Instruments.SIZE_BYTE), byteSize);
     }
-    
+
     public void testChar() {
         char c = '\0';
-        long charSize = Instruments.sizeOf(new Character(c)) - Instruments.SIZE_OBJECT;
-        Assert.assertEquals(Instruments.SIZE_CHAR, charSize);
+        long charSize = Instruments.sizeOf(new Character(c));
+        Assert.assertEquals(ObjectSizer.align(header + Instruments.SIZE_CHAR), charSize);
     }
 
     public void testShort() {
         short s = 0;
-        long shortSize = Instruments.sizeOf(new Short(s)) - Instruments.SIZE_OBJECT;
-        Assert.assertEquals(Instruments.SIZE_SHORT, shortSize);
+        long shortSize = Instruments.sizeOf(new Short(s));
+        Assert.assertEquals(ObjectSizer.align(header + Instruments.SIZE_SHORT), shortSize);
     }
 
     public void testInt() {
         int i = 0;
-        long intSize = Instruments.sizeOf(new Integer(i)) - Instruments.SIZE_OBJECT;
-        Assert.assertEquals(Instruments.SIZE_INT, intSize);
+        long intSize = Instruments.sizeOf(new Integer(i));
+        Assert.assertEquals(ObjectSizer.align(header + Instruments.SIZE_INT), intSize);
     }
 
     public void testLong() {
         long l = 0;
-        long longSize = Instruments.sizeOf(new Long(l)) - Instruments.SIZE_OBJECT;
-        Assert.assertEquals(Instruments.SIZE_LONG, longSize);
+        long longSize = Instruments.sizeOf(new Long(l));
+        Assert.assertEquals(ObjectSizer.align(header + Instruments.SIZE_LONG), longSize);
     }
 
     public void testFloat() {
         float f = 0.0f;
-        long floatSize = Instruments.sizeOf(new Float(f)) - Instruments.SIZE_OBJECT;
-        Assert.assertEquals(Instruments.SIZE_FLOAT, floatSize);
+        long floatSize = Instruments.sizeOf(new Float(f));
+        Assert.assertEquals(ObjectSizer.align(header + Instruments.SIZE_FLOAT), floatSize);
     }
 
     public void testDouble() {
         double d = 0.0;
-        long doubleSize = Instruments.sizeOf(new Double(d)) - Instruments.SIZE_OBJECT;
-        Assert.assertEquals(Instruments.SIZE_DOUBLE, doubleSize);
+        long doubleSize = Instruments.sizeOf(new Double(d));
+        Assert.assertEquals(ObjectSizer.align(header + Instruments.SIZE_DOUBLE), doubleSize);
     }
-    
+
     public void testString() {
         String s = "test";
         long stringSize = Instruments.sizeOf(s);
-        Assert.assertEquals((s.length() * Instruments.SIZE_CHAR) + (3 * Instruments.SIZE_INT) + Instruments.SIZE_OBJECT, stringSize);
+        // hash and value
+        Assert.assertTrue(stringSize >= ObjectSizer.align(header + Instruments.SIZE_INT + reference));
     }
 
-    public void testList() {
-        List bikes = new ArrayList();
-        bikes.add("specialized");
-        bikes.add("kona");
-        bikes.add("GT");
+    public void testArray() {
+        Object[] bikes = new Object[] {new char[11], new char[4], new char[2]};
         long size = Instruments.sizeOf(bikes);
-        Assert.assertEquals(110, size);
+        Assert.assertEquals(ObjectSizer.align(arrayHeader + 3 * reference) + ObjectSizer.align(arrayHeader + 22)
+                + ObjectSizer.align(arrayHeader + 8) + ObjectSizer.align(arrayHeader + 4), size);
+    }
+
+    public void testList() {
+        long size = Instruments.sizeOf(bikes());
+        // size, modCount and elementData
+        Assert.assertTrue(size >= ObjectSizer.align(header + 2 * Instruments.SIZE_INT + reference));
     }
 
     public void testMap() {
         Map session = new HashMap();
         session.put("test1", "test message");
-        List bikes = new ArrayList();
-        bikes.add("specialized");
-        bikes.add("kona");
-        bikes.add("GT");
+        List bikes = bikes();
         session.put("bikes", bikes);
-
         Map bikeParts = new TreeMap();
         bikeParts.put("bikes", bikes);
         session.put("parts", bikeParts);
-
         long size = Instruments.sizeOf(session);
-        Assert.assertEquals(425, size);
+        // size, modCount, threshold, loadFactor, table, entrySet, keySet and values
+        Assert.assertTrue(size >= ObjectSizer.align(header + 4 * Instruments.SIZE_INT + 4 * reference));
     }
 
-    public void testCircularReference() {
+    public void testCircularMap() {
         Map session = new HashMap();
         session.put("test1", "test message");
         session.put("self", session);
         long size = Instruments.sizeOf(session);
-        Assert.assertEquals(186, size);
+        Assert.assertTrue(size >= ObjectSizer.align(header + 4 * Instruments.SIZE_INT + 4 * reference));
+        // the walk ends
+        Assert.assertEquals(size, Instruments.sizeOf(session));
+    }
+
+    public void testGraph() {
+        Object[] bikes = new Object[] {new char[11], new char[4], new char[2]};
+        Holder session = new Holder(new char[12], bikes);
+        Holder bikeParts = new Holder(bikes, null);
+        Holder root = new Holder(session, bikeParts);
+        // three holders, the chars of the message, then the bikes counted once
+        assertSizes(new long[] {192, 232, 304}, root);
+    }
+
+    public void testCircularReference() {
+        Holder session = new Holder(new char[12], null);
+        session.next = session;
+        long size = Instruments.sizeOf(session);
+        Assert.assertEquals(holder + ObjectSizer.align(arrayHeader + 24), size);
+        assertSizes(new long[] {56, 64, 80}, session);
+    }
+
+    public void testClassLoader() {
+        Holder session = new Holder(new Object(), new Holder(null, null));
+        long size = Instruments.sizeOf(session, Holder.class.getClassLoader());
+        // the object of the bootstrap loader is left out
+        Assert.assertEquals(2 * holder, size);
+    }
+
+    private static List bikes() {
+        List bikes = new ArrayList();
+        bikes.add("specialized");
+        bikes.add("kona");
+        bikes.add("GT");
+        return bikes;
+    }
+
+    /**
+     * @param sizes expected sizes in the 32-bit, the compressed and the uncompressed layout
+     */
+    private static void assertSizes(long[] sizes, Object o) {
+        for (int i = 0; i < LAYOUTS.length; i++) {
+            LAYOUTS[i].reset();
+            Assert.assertEquals(sizes[i], LAYOUTS[i].sizeOf(o));
+        }
+    }
+
+    static class Holder {
+        Object value;
+        Object next;
+
+        Holder(Object value, Object next) {
+            this.value = value;
+            this.next = next;
+        }
     }
 
 }
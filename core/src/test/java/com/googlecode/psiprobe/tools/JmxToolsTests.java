@@ -0,0 +1,54 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class JmxToolsTests extends TestCase {
+
+    private static final ObjectName DELEGATE;
+
+    static {
+        try {
+            DELEGATE = new ObjectName("JMImplementation:type=MBeanServerDelegate");
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    public void testGetAttributes() throws Exception {
+        MBeanServer server = ProbeMeter.countCalls(MBeanServerFactory.newMBeanServer());
+        ProbeMeter meter = ProbeMeter.start();
+        JmxAttributes attrs = JmxTools.getAttributes(server, DELEGATE,
+                new String[] {"MBeanServerId", "ImplementationVersion", "NoSuchAttribute"});
+        meter.stop();
+        Assert.assertEquals(1, meter.getJmxCalls());
+        Assert.assertEquals(2, attrs.size());
+        Assert.assertTrue(attrs.has("MBeanServerId"));
+        Assert.assertNotNull(attrs.getString("MBeanServerId"));
+        Assert.assertFalse(attrs.has("NoSuchAttribute"));
+        Assert.assertNull(attrs.getString("NoSuchAttribute"));
+        Assert.assertEquals(-1, attrs.getLong("NoSuchAttribute", -1));
+        Assert.assertEquals(0, attrs.getInt("MBeanServerId"));
+
+        try {
+            JmxTools.getAttributes(server, new ObjectName("test:type=Missing"), new String[] {"a"});
+            fail("InstanceNotFoundException expected");
+        } catch (InstanceNotFoundException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import com.googlecode.psiprobe.model.SunThread;
+import com.googlecode.psiprobe.model.jmx.MemoryPool;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class JvmAccessorTests extends TestCase {
+
+    static {
+        // the MBeanServer the JMX accessor finds, as it does in Tomcat
+        ManagementFactory.getPlatformMBeanServer();
+    }
+
+    public void testPlatformAccessor() throws Exception {
+        Assert.assertTrue(JvmAccessorFactory.getInstance() instanceof PlatformJvmAccessor);
+    }
+
+    public void testMemoryPools() throws Exception {
+        List platform = new PlatformJvmAccessor().getMemoryPools();
+        List jmx = new JmxJvmAccessor().getMemoryPools();
+        Assert.assertFalse(platform.isEmpty());
+        Assert.assertEquals(jmx.size(), platform.size());
+        for (int i = 0; i < platform.size(); i++) {
+            Assert.assertFalse("Total".equals(((MemoryPool) platform.get(i)).getName()));
+        }
+    }
+
+    public void testMemoryPoolTypes() throws Exception {
+        Map platform = poolTypes(new PlatformJvmAccessor());
+        Map jmx = poolTypes(new JmxJvmAccessor());
+        Assert.assertEquals(jmx, platform);
+        Assert.assertTrue(platform.containsValue("HEAP"));
+        Assert.assertTrue(platform.containsValue("NON_HEAP"));
+    }
+
+    private static Map poolTypes(JvmAccessor accessor) throws Exception {
+        List pools = accessor.getMemoryPools();
+        Map types = new HashMap();
+        for (int i = 0; i < pools.size(); i++) {
+            MemoryPool pool = (MemoryPool) pools.get(i);
+            types.put(pool.getName(), pool.getType());
+        }
+        return types;
+    }
+
+    public void testThreads() throws Exception {
+        checkThreads(new PlatformJvmAccessor());
+        checkThreads(new JmxJvmAccessor());
+    }
+
+    private void checkThreads(JvmAccessor accessor) throws Exception {
+        String name = Thread.currentThread().getName();
+        long id = accessor.findThreadId(name);
+        Assert.assertTrue(id != -1);
+        Assert.assertEquals(-1, accessor.findThreadId("no such thread " + System.currentTimeMillis()));
+
+        SunThread thread = accessor.getThread(id, 5);
+        Assert.assertEquals(name, thread.getName());
+        Assert.assertEquals("RUNNABLE", thread.getState());
+        Assert.assertTrue(thread.getStack().size() > 0 && thread.getStack().size() <= 5);
+        Assert.assertNotNull(thread.getExecutionPoint());
+
+        List threads = accessor.getThreads(1);
+        boolean found = false;
+        for (int i = 0; i < threads.size(); i++) {
+            found |= ((SunThread) threads.get(i)).getId() == id;
+        }
+        Assert.assertTrue(found);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class LatencyHistogramTests extends TestCase {
+
+    public void testBuckets() {
+        for (long v = 0; v < 1L << 33; v = v < 100 ? v + 1 : v + v / 7) {
+            int index = LatencyHistogram.indexOf(v);
+            Assert.assertTrue(index < LatencyHistogram.BUCKETS);
+            if (index < LatencyHistogram.BUCKETS - 1) {
+                Assert.assertTrue("bucket of " + v, v <= LatencyHistogram.upperBound(index));
+                Assert.assertTrue("bucket of " + v, index == 0 || v > LatencyHistogram.upperBound(index - 1));
+                // at most 1/8 off
+                Assert.assertTrue(LatencyHistogram.upperBound(index) - v <= v / 8);
+            }
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    public void testPercentiles() {
+        StripedLatencyRecorder recorder = new StripedLatencyRecorder();
+        for (int i = 1; i <= 1000; i++) {
+            recorder.record(i * 1000000L);
+        }
+        LatencyHistogram h = recorder.snapshotAndReset();
+        Assert.assertEquals(1000, h.getCount());
+        Assert.assertEquals(1000000, h.getMax());
+        assertNear(500000, h.getValueAtPercentile(50));
+        assertNear(900000, h.getValueAtPercentile(90));
+        assertNear(990000, h.getValueAtPercentile(99));
+        Assert.assertEquals(1000000, h.getValueAtPercentile(100));
+
+        h = recorder.snapshotAndReset();
+        Assert.assertEquals(0, h.getCount());
+        Assert.assertEquals(0, h.getMax());
+        Assert.assertEquals(0, h.getValueAtPercentile(99));
+    }
+
+    public void testAdd() {
+        StripedLatencyRecorder a = new StripedLatencyRecorder();
+        StripedLatencyRecorder b = new StripedLatencyRecorder();
+        a.record(5000);
+        b.record(7000);
+        b.record(3000000);
+        LatencyHistogram total = new LatencyHistogram();
+        total.add(a.snapshotAndReset());
+        total.add(b.snapshotAndReset());
+        Assert.assertEquals(3, total.getCount());
+        Assert.assertEquals(3000, total.getMax());
+        Assert.assertEquals(7, total.getValueAtPercentile(50));
+    }
+
+    public void testConcurrentRecording() throws Exception {
+        final StripedLatencyRecorder recorder = new StripedLatencyRecorder();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        recorder.record(j * 100);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        long count = 0;
+        for (int i = 0; i < threads.length; i++) {
+            count += recorder.snapshotAndReset().getCount();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        count += recorder.snapshotAndReset().getCount();
+        Assert.assertEquals(400000, count);
+    }
+
+    private static void assertNear(long expected, long actual) {
+        Assert.assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual - expected <= expected / 8);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares {@link ObjectSizer} with the walk <code>Instruments.sizeOf</code>
+ * used to do, kept below, on sessions of a few attributes each, sized the way
+ * the session list sizes them: one sizer for all the sessions, reset for each.
+ * The graphs are made of the classes below, the JDK collections cannot be
+ * walked by reflection on a JVM with modules.
+ * Not a unit test, run it with the test classpath:
+ * <pre>
+ * java com.googlecode.psiprobe.tools.ObjectSizerBenchmark [sessions] [attributes]
+ * </pre>
+ */
+public class ObjectSizerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int attributeCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        Entry[][] sessions = new Entry[sessionCount][];
+        for (int i = 0; i < sessionCount; i++) {
+            sessions[i] = new Entry[attributeCount];
+            for (int j = 0; j < attributeCount; j++) {
+                sessions[i][j] = attribute(j);
+            }
+        }
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long legacySize = 0;
+            for (int i = 0; i < sessionCount; i++) {
+                Set processed = new HashSet(1000);
+                for (int j = 0; j < attributeCount; j++) {
+                    legacySize += new LegacySizer(processed).sizeOf(sessions[i][j]);
+                }
+            }
+            long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long size = 0;
+            ObjectSizer sizer = new ObjectSizer();
+            for (int i = 0; i < sessionCount; i++) {
+                sizer.reset();
+                for (int j = 0; j < attributeCount; j++) {
+                    size += sizer.sizeOf(sessions[i][j]);
+                }
+            }
+            long sized = System.nanoTime() - start;
+
+            System.out.println(sessionCount + " sessions: legacy " + (legacy / 1000000) + "ms ("
+                    + legacySize + " bytes), sizer " + (sized / 1000000) + "ms (" + size + " bytes)");
+        }
+    }
+
+    /**
+     * @return a linked list of entries with a key, an array and a shared value, about
+     * 20 objects
+     */
+    private static Entry attribute(int n) {
+        Entry head = null;
+        for (int i = 0; i < 6; i++) {
+            Entry e = new Entry();
+            e.key = ("attribute" + n + "." + i).toCharArray();
+            e.values = new Object[] {new Entry(), new long[4], SHARED};
+            e.next = head;
+            head = e;
+        }
+        return head;
+    }
+
+    private static final Entry SHARED = new Entry();
+
+    static class Entry {
+        int hash;
+        long stamp;
+        char[] key;
+        Object[] values;
+        Entry next;
+    }
+
+    /**
+     * The breadth first walk of <code>Instruments</code> before the
+     * {@link ObjectSizer}, with its sizes.
+     */
+    static class LegacySizer {
+
+        private final Accessor accessor = AccessorFactory.getInstance();
+        private final Set processedObjects;
+        private final List thisQueue = new LinkedList();
+        private final List nextQueue = new LinkedList();
+
+        LegacySizer(Set processedObjects) {
+            this.processedObjects = processedObjects;
+        }
+
+        long sizeOf(Object obj) {
+            long size = 0;
+            thisQueue.add(obj);
+            while (!thisQueue.isEmpty()) {
+                Iterator it = thisQueue.iterator();
+                while (it.hasNext()) {
+                    Object o = it.next();
+                    if (o != null && !o.getClass().getName().startsWith("java.nio.")) {
+                        Wrapper ow = new Wrapper(o);
+                        if (!processedObjects.contains(ow)) {
+                            if (o.getClass().isArray()) {
+                                size += sizeOfArray(o);
+                            } else {
+                                processedObjects.add(ow);
+                                size += sizeOfObject(o);
+                            }
+                        }
+                    }
+                    it.remove();
+                }
+                if (!nextQueue.isEmpty()) {
+                    thisQueue.addAll(nextQueue);
+                    nextQueue.clear();
+                }
+            }
+            return size;
+        }
+
+        private long sizeOfObject(Object o) {
+            long size = Instruments.SIZE_OBJECT;
+            Class clazz = o.getClass();
+            while (clazz != null) {
+                Field fields[] = clazz.getDeclaredFields();
+                for (int i = 0; i < fields.length; i++) {
+                    Field f = fields[i];
+                    if (!Modifier.isStatic(f.getModifiers())) {
+                        if (f.getType().isPrimitive()) {
+                            size += sizeOfPrimitive(f.getType());
+                        } else {
+                            Object val = accessor.get(o, f);
+                            if (f.getType().isArray()) {
+                                size += sizeOfArray(val);
+                            } else {
+                                size += Instruments.SIZE_REFERENCE;
+                                nextQueue.add(val);
+                            }
+                        }
+                    }
+                }
+                clazz = clazz.getSuperclass();
+            }
+            return size;
+        }
+
+        private long sizeOfArray(Object o) {
+            if (o != null) {
+                Class ct = o.getClass().getComponentType();
+                if (ct.isPrimitive()) {
+                    return Array.getLength(o) * sizeOfPrimitive(ct);
+                } else {
+                    for (int i = 0; i < Array.getLength(o); i++) {
+                        nextQueue.add(Array.get(o, i));
+                    }
+                }
+            }
+            return 0;
+        }
+
+        private static long sizeOfPrimitive(Class t) {
+            if (t == Long.TYPE || t == Double.TYPE) {
+                return 8;
+            } else if (t == Integer.TYPE || t == Float.TYPE) {
+                return 4;
+            } else if (t == Character.TYPE || t == Short.TYPE) {
+                return 2;
+            } else {
+                return 1;
+            }
+        }
+    }
+
+    static class Wrapper {
+        private final Object o;
+
+        Wrapper(Object o) {
+            this.o = o;
+        }
+
+        public boolean equals(Object other) {
+            return ((Wrapper) other).o == o;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(o);
+        }
+    }
+}
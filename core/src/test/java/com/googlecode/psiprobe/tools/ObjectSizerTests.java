@@ -0,0 +1,233 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Sizes are checked against a 32-bit layout: 8 bytes of header, 4 bytes
+ * references, 12 bytes of array header, whatever JVM the tests run on, and
+ * against the 64-bit layouts with and without compressed references. The
+ * graphs are built of the classes below rather than of JDK collections, whose
+ * fields differ from one JDK to the next. Text, Items and Table have the
+ * fields of the JDK 8 String, ArrayList and HashMap entries, the sizes of a
+ * session's attributes are checked with those.
+ *
+ * @author Mark Lewis
+ */
+public class ObjectSizerTests extends TestCase {
+
+    private static final ObjectSizer[] LAYOUTS = new ObjectSizer[] {
+            new ObjectSizer(4, 8), new ObjectSizer(4, 12), new ObjectSizer(8, 16)};
+
+    private ObjectSizer sizer;
+
+    protected void setUp() {
+        sizer = new ObjectSizer(4, 8);
+    }
+
+    public void testLayouts() {
+        Assert.assertEquals(12, new ObjectSizer(4, 8).getArrayHeaderSize());
+        Assert.assertEquals(16, new ObjectSizer(4, 12).getArrayHeaderSize());
+        Assert.assertEquals(24, new ObjectSizer(8, 16).getArrayHeaderSize());
+    }
+
+    public void testObject() {
+        Assert.assertEquals(8, sizer.sizeOf(new Object()));
+        Assert.assertEquals(16, new ObjectSizer(4, 12).sizeOf(new Object()));
+    }
+
+    public void testPrimitiveWrappers() {
+        Assert.assertEquals(16, sizer.sizeOf(Boolean.valueOf(false)));
+        Assert.assertEquals(16, sizer.sizeOf(new Character('\0')));
+        Assert.assertEquals(16, sizer.sizeOf(new Integer(0)));
+        Assert.assertEquals(16, sizer.sizeOf(new Long(0)));
+        Assert.assertEquals(16, sizer.sizeOf(new Double(0.0)));
+    }
+
+    public void testFields() {
+        // header 8, long 8, int 4, byte 1, two references 8
+        Assert.assertEquals(ObjectSizer.align(29), sizer.sizeOf(new Node()));
+    }
+
+    public void testArrays() {
+        Assert.assertEquals(ObjectSizer.align(12 + 5), sizer.sizeOf(new byte[5]));
+        Assert.assertEquals(ObjectSizer.align(12 + 3 * 2), sizer.sizeOf(new char[3]));
+        // elements of 8 bytes start on 8 bytes
+        Assert.assertEquals(16 + 2 * 8, sizer.sizeOf(new long[2]));
+        Assert.assertEquals(ObjectSizer.align(12 + 3 * 4) + 8, sizer.sizeOf(new Object[] {new Object(), null, null}));
+    }
+
+    public void testGraph() {
+        Node root = new Node();
+        root.next = new Node();
+        root.value = new int[4];
+        root.next.value = "x".toCharArray();
+        long node = ObjectSizer.align(29);
+        Assert.assertEquals(2 * node + ObjectSizer.align(12 + 4 * 4) + ObjectSizer.align(12 + 2), sizer.sizeOf(root));
+    }
+
+    public void testCircularReference() {
+        Node a = new Node();
+        Node b = new Node();
+        a.next = b;
+        b.next = a;
+        b.value = a;
+        Assert.assertEquals(2 * ObjectSizer.align(29), sizer.sizeOf(a));
+    }
+
+    public void testSharedReferences() {
+        Object shared = new long[8];
+        Node a = new Node();
+        a.value = shared;
+        Node b = new Node();
+        b.value = shared;
+        long node = ObjectSizer.align(29);
+        Assert.assertEquals(node + 16 + 64, sizer.sizeOf(a));
+        Assert.assertEquals(node, sizer.sizeOf(b));
+        sizer.reset();
+        Assert.assertEquals(node + 16 + 64, sizer.sizeOf(b));
+    }
+
+    public void testExclude() {
+        Node a = new Node();
+        a.next = new Node();
+        sizer.exclude(a.next);
+        Assert.assertEquals(ObjectSizer.align(29), sizer.sizeOf(a));
+    }
+
+    public void testClassLoader() {
+        Node a = new Node();
+        a.value = new Object();
+        sizer.setClassLoader(Node.class.getClassLoader());
+        Assert.assertEquals(ObjectSizer.align(29), sizer.sizeOf(a));
+        Assert.assertEquals(0, sizer.sizeOf(new Object()));
+    }
+
+    public void testCompressedReferences() {
+        ObjectSizer compressed = new ObjectSizer(4, 12);
+        // header 12, long 8, int 4, byte 1, two references 8
+        Assert.assertEquals(40, compressed.sizeOf(new Node()));
+        Assert.assertEquals(16 + 8, compressed.sizeOf(new byte[5]));
+        Assert.assertEquals(16 + 2 * 8, compressed.sizeOf(new long[2]));
+        Assert.assertEquals(16 + 16 + 16, compressed.sizeOf(new Object[] {new Object(), null, null, null}));
+    }
+
+    public void testUncompressedReferences() {
+        ObjectSizer uncompressed = new ObjectSizer(8, 16);
+        // header 16, long 8, int 4, byte 1, two references 16
+        Assert.assertEquals(48, uncompressed.sizeOf(new Node()));
+        Assert.assertEquals(24 + 8, uncompressed.sizeOf(new byte[5]));
+        Assert.assertEquals(24 + 2 * 8, uncompressed.sizeOf(new long[2]));
+        Assert.assertEquals(24 + 32 + 16, uncompressed.sizeOf(new Object[] {new Object(), null, null, null}));
+    }
+
+    public void testText() {
+        // hash and value, then 4 chars
+        assertSizes(new long[] {40, 48, 64}, new Text("test"));
+    }
+
+    public void testList() {
+        // the list, its array of 10 and the texts with their chars
+        assertSizes(new long[] {208, 240, 344}, bikes());
+    }
+
+    public void testTable() {
+        Table session = new Table();
+        session.put(new Text("test1"), new Text("test message"));
+        Items bikes = bikes();
+        session.put(new Text("bikes"), bikes);
+        Table bikeParts = new Table();
+        bikeParts.put(new Text("bikes"), bikes);
+        session.put(new Text("parts"), bikeParts);
+        // the list is counted once
+        assertSizes(new long[] {744, 880, 1288}, session);
+    }
+
+    public void testCircularTable() {
+        Table session = new Table();
+        session.put(new Text("test1"), new Text("test message"));
+        session.put(new Text("self"), session);
+        assertSizes(new long[] {296, 344, 504}, session);
+    }
+
+    private static Items bikes() {
+        Items bikes = new Items();
+        bikes.add(new Text("specialized"));
+        bikes.add(new Text("kona"));
+        bikes.add(new Text("GT"));
+        return bikes;
+    }
+
+    /**
+     * @param sizes expected sizes in the 32-bit, the compressed and the uncompressed layout
+     */
+    private static void assertSizes(long[] sizes, Object o) {
+        for (int i = 0; i < LAYOUTS.length; i++) {
+            LAYOUTS[i].reset();
+            Assert.assertEquals(sizes[i], LAYOUTS[i].sizeOf(o));
+        }
+    }
+
+    static class Node {
+        long id;
+        int count;
+        byte flags;
+        Node next;
+        Object value;
+    }
+
+    static class Text {
+        char[] value;
+        int hash;
+
+        Text(String s) {
+            value = s.toCharArray();
+        }
+    }
+
+    static class Items {
+        Object[] elementData = new Object[10];
+        int size;
+        int modCount;
+
+        void add(Object o) {
+            elementData[size++] = o;
+            modCount++;
+        }
+    }
+
+    static class Table {
+        Entry[] table = new Entry[16];
+        int size;
+        int modCount;
+        int threshold = 12;
+        float loadFactor = 0.75f;
+
+        void put(Object key, Object value) {
+            table[size++] = new Entry(key, value);
+            modCount++;
+        }
+    }
+
+    static class Entry {
+        int hash;
+        Object key;
+        Object value;
+        Entry next;
+
+        Entry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ProbeMeterTests extends TestCase {
+
+    public void testJmxCalls() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        MBeanServer counted = ProbeMeter.countCalls(server);
+        Assert.assertSame(counted, ProbeMeter.countCalls(server));
+        Assert.assertSame(counted, ProbeMeter.countCalls(counted));
+
+        ObjectName delegate = new ObjectName("JMImplementation:type=MBeanServerDelegate");
+        ProbeMeter outer = ProbeMeter.start();
+        counted.getAttribute(delegate, "MBeanServerId");
+        ProbeMeter inner = ProbeMeter.start();
+        Assert.assertSame(inner, ProbeMeter.current());
+        counted.isRegistered(delegate);
+        server.isRegistered(delegate);
+        inner.stop();
+        Assert.assertSame(outer, ProbeMeter.current());
+        outer.stop();
+        Assert.assertNull(ProbeMeter.current());
+
+        Assert.assertEquals(1, inner.getJmxCalls());
+        Assert.assertEquals(2, outer.getJmxCalls());
+        Assert.assertTrue(outer.getWallTime() >= 0);
+
+        outer.add(inner);
+        Assert.assertEquals(3, outer.getJmxCalls());
+    }
+
+    public void testCpuTime() {
+        ProbeMeter meter = ProbeMeter.start();
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 100000; i++) {
+            sb.append(i);
+        }
+        meter.stop();
+        if (ProbeMeter.isCpuTimeSupported()) {
+            Assert.assertTrue(meter.getCpuTime() > 0);
+        }
+        if (ProbeMeter.isAllocationSupported()) {
+            Assert.assertTrue(meter.getAllocatedBytes() > sb.length());
+        }
+    }
+}
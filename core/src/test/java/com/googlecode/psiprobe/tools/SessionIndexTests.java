@@ -0,0 +1,289 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+import com.googlecode.psiprobe.model.ApplicationSession;
+import com.googlecode.psiprobe.model.SessionSearchInfo;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionEvent;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+
+public class SessionIndexTests extends TestCase {
+
+    private static final long NOW = 1000000000L;
+
+    private Map sessions;
+    private Manager manager;
+    private SessionIndex index;
+
+    protected void setUp() {
+        sessions = new LinkedHashMap();
+        manager = (Manager) Proxy.newProxyInstance(
+                Manager.class.getClassLoader(), new Class[] {Manager.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getActiveSessions".equals(method.getName())) {
+                            return new Integer(sessions.size());
+                        } else if ("findSession".equals(method.getName())) {
+                            FakeSession s = (FakeSession) sessions.get(args[0]);
+                            return s == null ? null : s.session;
+                        } else if ("findSessions".equals(method.getName())) {
+                            List found = new ArrayList();
+                            for (Iterator it = sessions.values().iterator(); it.hasNext();) {
+                                found.add(((FakeSession) it.next()).session);
+                            }
+                            return found.toArray(new Session[found.size()]);
+                        }
+                        return null;
+                    }
+                });
+        index = new SessionIndex();
+        for (int i = 0; i < 10; i++) {
+            // created i minutes ago, accessed i seconds after
+            create("s" + i, NOW - i * 60000L, NOW - i * 60000L + i * 1000L);
+        }
+    }
+
+    public void testAll() {
+        Assert.assertEquals(10, index.search(manager, search(), NOW).size());
+        Assert.assertEquals(10, index.size());
+    }
+
+    public void testAge() {
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setAgeFrom("120");
+        searchInfo.setAgeTo("300");
+        Assert.assertEquals(ids(new String[] {"s2", "s3", "s4", "s5"}), ids(index.search(manager, searchInfo, NOW)));
+    }
+
+    public void testInvertedRange() {
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setAgeFrom("300");
+        searchInfo.setAgeTo("120");
+        Assert.assertTrue(index.search(manager, searchInfo, NOW).isEmpty());
+    }
+
+    public void testIdleTime() {
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setIdleTimeFrom("400");
+        Assert.assertEquals(ids(new String[] {"s7", "s8", "s9"}), ids(index.search(manager, searchInfo, NOW)));
+
+        // accessed without an event, found to be back in use
+        ((FakeSession) sessions.get("s8")).lastAccessTime = NOW;
+        Assert.assertEquals(ids(new String[] {"s7", "s9"}), ids(index.search(manager, searchInfo, NOW)));
+
+        searchInfo = search();
+        searchInfo.setIdleTimeTo("10");
+        Assert.assertEquals(ids(new String[] {"s0", "s8"}), ids(index.search(manager, searchInfo, NOW)));
+    }
+
+    public void testAttributes() {
+        index.search(manager, search(), NOW);
+        addAttribute("s1", "user");
+        addAttribute("s2", "user");
+        addAttribute("s2", "cart");
+        addAttribute("s3", "cart");
+
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setAttrName("user");
+        Assert.assertEquals(ids(new String[] {"s1", "s2"}), ids(index.search(manager, searchInfo, NOW)));
+        searchInfo.setAttrName("user,c.*");
+        Assert.assertEquals(ids(new String[] {"s2"}), ids(index.search(manager, searchInfo, NOW)));
+
+        FakeSession s = (FakeSession) sessions.get("s2");
+        s.attributes.remove("user");
+        index.attributeRemoved(new HttpSessionBindingEvent(s.httpSession, "user"));
+        searchInfo.setAttrName("user");
+        Assert.assertEquals(ids(new String[] {"s1"}), ids(index.search(manager, searchInfo, NOW)));
+    }
+
+    public void testLastIP() {
+        ((FakeSession) sessions.get("s1")).notes.put(ApplicationSession.LAST_ACCESSED_BY_IP, "10.0.0.1");
+        ((FakeSession) sessions.get("s2")).notes.put(ApplicationSession.LAST_ACCESSED_BY_IP, "192.168.0.1");
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setLastIP("10.0.");
+        searchInfo.setAgeTo("150");
+        // addresses not known match
+        Assert.assertEquals(ids(new String[] {"s0", "s1"}), ids(index.search(manager, searchInfo, NOW)));
+    }
+
+    public void testDestroyed() {
+        index.search(manager, search(), NOW);
+        FakeSession s = (FakeSession) sessions.remove("s3");
+        index.sessionDestroyed(new HttpSessionEvent(s.httpSession));
+        Assert.assertEquals(9, index.search(manager, search(), NOW).size());
+        Assert.assertEquals(9, index.size());
+    }
+
+    public void testRenamed() {
+        index.search(manager, search(), NOW);
+        // the container tells of the new id only
+        FakeSession s = (FakeSession) sessions.remove("s3");
+        create("t3", s.creationTime, s.lastAccessTime);
+
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setSessionId("[st]3");
+        Assert.assertEquals(ids(new String[] {"t3"}), ids(index.search(manager, searchInfo, NOW)));
+        Assert.assertEquals(10, index.size());
+    }
+
+    public void testEventsMissed() {
+        index.search(manager, search(), NOW);
+        // restored without an event
+        sessions.put("t3", new FakeSession("t3", NOW, NOW));
+
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setSessionId("t.*");
+        Assert.assertEquals(ids(new String[] {"t3"}), ids(index.search(manager, searchInfo, NOW)));
+    }
+
+    public void testReplicated() {
+        index.search(manager, search(), NOW);
+        // only a rebuild would read this attribute, the index is reconciled instead
+        ((FakeSession) sessions.get("s1")).attributes.put("user", "value");
+        // replicated from other nodes and expired there, no event on this node
+        for (int i = 0; i < 3; i++) {
+            FakeSession s = new FakeSession("r" + i, NOW - i * 1000L, NOW);
+            s.attributes.put("user", "value");
+            sessions.put(s.id, s);
+        }
+        sessions.remove("s4");
+        sessions.remove("s5");
+
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setAttrName("user");
+        Assert.assertEquals(ids(new String[] {"r0", "r1", "r2"}), ids(index.search(manager, searchInfo, NOW)));
+        Assert.assertEquals(11, index.size());
+        Assert.assertEquals(11, index.search(manager, search(), NOW).size());
+
+        // events of the replicated sessions apply to the index from now on
+        addAttribute("r1", "cart");
+        searchInfo.setAttrName("cart");
+        Assert.assertEquals(ids(new String[] {"r1"}), ids(index.search(manager, searchInfo, NOW)));
+    }
+
+    public void testEventsDropped() {
+        index.search(manager, search(), NOW);
+        FakeSession s = (FakeSession) sessions.get("s1");
+        for (int i = 0; i <= SessionIndex.MAX_PENDING; i++) {
+            index.attributeAdded(new HttpSessionBindingEvent(s.httpSession, "a" + i));
+        }
+        s.attributes.put("user", "value");
+
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setAttrName("user");
+        Assert.assertEquals(ids(new String[] {"s1"}), ids(index.search(manager, searchInfo, NOW)));
+    }
+
+    public void testClosed() {
+        index.search(manager, search(), NOW);
+        index.close();
+        Assert.assertEquals(0, index.size());
+        addAttribute("s1", "user");
+        // the events are ignored, the next search starts over from the manager
+        SessionSearchInfo searchInfo = search();
+        searchInfo.setAttrName("user");
+        Assert.assertEquals(ids(new String[] {"s1"}), ids(index.search(manager, searchInfo, NOW)));
+    }
+
+    private void create(String id, long creationTime, long lastAccessTime) {
+        FakeSession s = new FakeSession(id, creationTime, lastAccessTime);
+        sessions.put(id, s);
+        index.sessionCreated(new HttpSessionEvent(s.httpSession));
+    }
+
+    private void addAttribute(String id, String name) {
+        FakeSession s = (FakeSession) sessions.get(id);
+        s.attributes.put(name, "value");
+        index.attributeAdded(new HttpSessionBindingEvent(s.httpSession, name));
+    }
+
+    private static SessionSearchInfo search() {
+        SessionSearchInfo searchInfo = new SessionSearchInfo();
+        searchInfo.setSearchAction(SessionSearchInfo.ACTION_APPLY);
+        return searchInfo;
+    }
+
+    private static TreeSet ids(String[] ids) {
+        TreeSet set = new TreeSet();
+        for (int i = 0; i < ids.length; i++) {
+            set.add(ids[i]);
+        }
+        return set;
+    }
+
+    private static TreeSet ids(List found) {
+        TreeSet set = new TreeSet();
+        for (Iterator it = found.iterator(); it.hasNext();) {
+            set.add(((Session) it.next()).getId());
+        }
+        return set;
+    }
+
+    private static class FakeSession {
+
+        final String id;
+        final long creationTime;
+        long lastAccessTime;
+        final Map attributes = new HashMap();
+        final Map notes = new HashMap();
+        final HttpSession httpSession;
+        final Session session;
+
+        FakeSession(String id, long creationTime, long lastAccessTime) {
+            this.id = id;
+            this.creationTime = creationTime;
+            this.lastAccessTime = lastAccessTime;
+            httpSession = (HttpSession) Proxy.newProxyInstance(
+                    HttpSession.class.getClassLoader(), new Class[] {HttpSession.class}, new Handler());
+            session = (Session) Proxy.newProxyInstance(
+                    Session.class.getClassLoader(), new Class[] {Session.class}, new Handler());
+        }
+
+        private class Handler implements InvocationHandler {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("getId".equals(name)) {
+                    return id;
+                } else if ("getCreationTime".equals(name)) {
+                    return new Long(creationTime);
+                } else if ("getLastAccessedTime".equals(name)) {
+                    return new Long(lastAccessTime);
+                } else if ("isValid".equals(name)) {
+                    return Boolean.TRUE;
+                } else if ("getSession".equals(name)) {
+                    return httpSession;
+                } else if ("getNote".equals(name)) {
+                    return notes.get(args[0]);
+                } else if ("getAttribute".equals(name)) {
+                    return attributes.get(args[0]);
+                } else if ("getAttributeNames".equals(name)) {
+                    return Collections.enumeration(new ArrayList(attributes.keySet()));
+                }
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.googlecode.psiprobe.tools;
+
+/**
+ * Measures what {@link StripedLatencyRecorder#record(long)} costs a request,
+ * with a number of threads recording into the same recorder as the agent valve
+ * does for a busy application.
+ * Not a unit test, run it with the test classpath:
+ * <pre>
+ * java com.googlecode.psiprobe.tools.StripedLatencyRecorderBenchmark [threads] [records]
+ * </pre>
+ */
+public class StripedLatencyRecorderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final int records = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+        final StripedLatencyRecorder recorder = new StripedLatencyRecorder();
+
+        for (int round = 0; round < 3; round++) {
+            Thread[] threads = new Thread[threadCount];
+            final long[] nanos = new long[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                final int index = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        long start = System.nanoTime();
+                        for (int j = 0; j < records; j++) {
+                            recorder.record((j & 0xFFFF) * 1000L);
+                        }
+                        nanos[index] = System.nanoTime() - start;
+                    }
+                };
+            }
+            for (int i = 0; i < threadCount; i++) {
+                threads[i].start();
+            }
+            long total = 0;
+            for (int i = 0; i < threadCount; i++) {
+                threads[i].join();
+                total += nanos[i];
+            }
+            LatencyHistogram h = recorder.snapshotAndReset();
+            System.out.println(threadCount + " threads, " + h.getCount() + " records, "
+                    + (total / ((long) threadCount * records)) + " ns per record");
+        }
+    }
+}
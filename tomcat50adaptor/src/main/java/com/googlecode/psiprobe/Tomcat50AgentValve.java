@@ -17,9 +17,11 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
-import org.apache.catalina.Valve;
+import org.apache.catalina.Context;
 import org.apache.catalina.Request;
 import org.apache.catalina.Response;
+import org.apache.catalina.Session;
+import org.apache.catalina.Valve;
 import org.apache.catalina.ValveContext;
 
 /**
@@ -37,10 +39,17 @@ public class Tomcat50AgentValve implements Valve {
         ServletRequest servletRequest = request.getRequest();
         if (servletRequest instanceof HttpServletRequest) {
             HttpServletRequest hsr = (HttpServletRequest) request;
-            HttpSession session = hsr.getSession(false);
-            if (session != null) {
-                String ip = IPInfo.getClientAddress(hsr);
-                session.setAttribute(ApplicationSession.LAST_ACCESSED_BY_IP, ip);
+            HttpSession httpSession = hsr.getSession(false);
+            Context context = request.getContext();
+            if (httpSession != null && context != null && context.getManager() != null) {
+                Session session = context.getManager().findSession(httpSession.getId());
+                if (session != null) {
+                    // a note rather than an attribute: no listeners, no replication
+                    String ip = IPInfo.getClientAddress(hsr);
+                    if (! ip.equals(session.getNote(ApplicationSession.LAST_ACCESSED_BY_IP))) {
+                        session.setNote(ApplicationSession.LAST_ACCESSED_BY_IP, ip);
+                    }
+                }
             }
         }
     }
@@ -14,8 +14,7 @@ import com.googlecode.psiprobe.model.ApplicationSession;
 import com.googlecode.psiprobe.model.IPInfo;
 import java.io.IOException;
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpSession;
+import org.apache.catalina.Session;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 import org.apache.catalina.valves.ValveBase;
@@ -34,11 +33,13 @@ public class Tomcat60AgentValve extends ValveBase {
     public void invoke(Request request, Response response) throws IOException, ServletException {
         getNext().invoke(request, response);
 
-        HttpServletRequest servletRequest = request.getRequest();
-        HttpSession session = servletRequest.getSession(false);
+        Session session = request.getSessionInternal(false);
         if (session != null) {
-            String ip = IPInfo.getClientAddress(servletRequest);
-            session.setAttribute(ApplicationSession.LAST_ACCESSED_BY_IP, ip);
+            // a note rather than an attribute: no listeners, no replication
+            String ip = IPInfo.getClientAddress(request.getRequest());
+            if (! ip.equals(session.getNote(ApplicationSession.LAST_ACCESSED_BY_IP))) {
+                session.setNote(ApplicationSession.LAST_ACCESSED_BY_IP, ip);
+            }
         }
     }
 }
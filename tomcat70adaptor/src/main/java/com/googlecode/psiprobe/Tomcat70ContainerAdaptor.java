@@ -32,6 +32,7 @@ import org.apache.catalina.Host;
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.Valve;
 import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.deploy.ApplicationParameter;
 import org.apache.catalina.deploy.ContextResource;
 import org.apache.catalina.deploy.ContextResourceLink;
@@ -50,6 +51,7 @@ import com.googlecode.psiprobe.model.ApplicationParam;
 import com.googlecode.psiprobe.model.ApplicationResource;
 import com.googlecode.psiprobe.model.FilterInfo;
 import com.googlecode.psiprobe.model.FilterMapping;
+import com.googlecode.psiprobe.tools.LatencyHistogram;
 
 /**
  * 
@@ -61,7 +63,7 @@ public class Tomcat70ContainerAdaptor extends AbstractTomcatContainer {
 	private Host host;
 	private ObjectName deployerOName;
 	private MBeanServer mBeanServer;
-	private Valve valve = new Tomcat70AgentValve();
+	private Tomcat70AgentValve valve = new Tomcat70AgentValve();
 
 	public void setWrapper(Wrapper wrapper) {
 		if (wrapper != null) {
@@ -391,4 +393,33 @@ public class Tomcat70ContainerAdaptor extends AbstractTomcatContainer {
 		return result;
 	}
 
+	public LatencyHistogram snapshotLatencies(Context context) {
+		return valve.snapshotLatencies(context.getName());
+	}
+
+	public boolean addApplicationListener(Context context, Object listener) {
+		if (context instanceof StandardContext) {
+			StandardContext standardContext = (StandardContext) context;
+			standardContext.addApplicationLifecycleListener(listener);
+			standardContext.addApplicationEventListener(listener);
+			return true;
+		}
+		return false;
+	}
+
+	public void removeApplicationListener(Context context, Object listener) {
+		context.setApplicationLifecycleListeners(without(context.getApplicationLifecycleListeners(), listener));
+		context.setApplicationEventListeners(without(context.getApplicationEventListeners(), listener));
+	}
+
+	private static Object[] without(Object[] listeners, Object listener) {
+		List left = new ArrayList(listeners == null ? 0 : listeners.length);
+		for (int i = 0; listeners != null && i < listeners.length; i++) {
+			if (listeners[i] != listener) {
+				left.add(listeners[i]);
+			}
+		}
+		return left.toArray();
+	}
+
 }
@@ -12,21 +12,56 @@ package com.googlecode.psiprobe;
 
 import com.googlecode.psiprobe.model.ApplicationSession;
 import com.googlecode.psiprobe.model.IPInfo;
+import com.googlecode.psiprobe.tools.LatencyHistogram;
+import com.googlecode.psiprobe.tools.StripedLatencyRecorder;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpSession;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Session;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 import org.apache.catalina.valves.ValveBase;
 
 /**
- * 
+ * Sits on the host pipeline. Records the duration of every request per
+ * context, see {@link StripedLatencyRecorder}, and the address each session
+ * was last accessed from. The recorder of a context is dropped when the
+ * context stops, so undeployed contexts do not pile up. The valve stops
+ * listening to the contexts when it is removed from the pipeline, so they
+ * do not keep the probe loaded after it is undeployed.
+ *
  * @author Vlad Ilyushchenko
  * @author Mark Lewis
  */
 public class Tomcat80AgentValve extends ValveBase {
 
+    private final ConcurrentMap<String, StripedLatencyRecorder> latencies =
+            new ConcurrentHashMap<String, StripedLatencyRecorder>();
+
+    private final Set<Context> watched = Collections.newSetFromMap(new ConcurrentHashMap<Context, Boolean>());
+
+    private final LifecycleListener stopListener = new LifecycleListener() {
+        public void lifecycleEvent(LifecycleEvent event) {
+            if (event.getLifecycle() instanceof Context) {
+                Context context = (Context) event.getLifecycle();
+                if (Lifecycle.AFTER_STOP_EVENT.equals(event.getType())) {
+                    // the durations not taken yet are lost with the context
+                    latencies.remove(context.getName());
+                } else if (Lifecycle.AFTER_DESTROY_EVENT.equals(event.getType())) {
+                    unwatch(context);
+                }
+            }
+        }
+    };
+
     public Tomcat80AgentValve() {
         super(true);
     }
@@ -36,14 +71,83 @@ public class Tomcat80AgentValve extends ValveBase {
     }
 
     public void invoke(Request request, Response response) throws IOException, ServletException {
-        getNext().invoke(request, response);
+        long start = System.nanoTime();
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            Context context = request.getContext();
+            // requests finishing after the context stopped would bring its recorder back
+            if (context != null && context.getState().isAvailable()) {
+                getRecorder(context).record(System.nanoTime() - start);
+            }
+        }
 
-        HttpServletRequest servletRequest = request.getRequest();
-        HttpSession session = servletRequest.getSession(false);
+        Session session = request.getSessionInternal(false);
         if (session != null) {
-            String ip = IPInfo.getClientAddress(servletRequest);
-            session.setAttribute(ApplicationSession.LAST_ACCESSED_BY_IP, ip);
+            // a note rather than an attribute: no listeners, no replication
+            String ip = IPInfo.getClientAddress(request.getRequest());
+            if (! ip.equals(session.getNote(ApplicationSession.LAST_ACCESSED_BY_IP))) {
+                session.setNote(ApplicationSession.LAST_ACCESSED_BY_IP, ip);
+            }
+        }
+    }
+
+    /**
+     * Takes the durations of the requests to a context recorded since the
+     * previous call.
+     *
+     * @param contextName name of the context
+     */
+    public LatencyHistogram snapshotLatencies(String contextName) {
+        StripedLatencyRecorder recorder = latencies.get(contextName);
+        return recorder == null ? new LatencyHistogram() : recorder.snapshotAndReset();
+    }
+
+    private StripedLatencyRecorder getRecorder(Context context) {
+        StripedLatencyRecorder recorder = latencies.get(context.getName());
+        if (recorder == null) {
+            StripedLatencyRecorder created = new StripedLatencyRecorder();
+            recorder = latencies.putIfAbsent(context.getName(), created);
+            if (recorder == null) {
+                recorder = created;
+                watch(context);
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * Registers the stop listener with a context, once, as it stays registered
+     * when the context is restarted.
+     */
+    private void watch(Context context) {
+        if (watched.add(context)) {
+            context.addLifecycleListener(stopListener);
+            // removed from the pipeline meanwhile
+            if (! getState().isAvailable()) {
+                unwatch(context);
+            }
+        }
+    }
+
+    private void unwatch(Context context) {
+        if (watched.remove(context)) {
+            context.removeLifecycleListener(stopListener);
+        }
+    }
+
+    /**
+     * Called when the valve is removed from the pipeline. Drops the stop
+     * listener from every context, which would otherwise keep the valve and
+     * the probe classes reachable.
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        for (Context context : watched) {
+            unwatch(context);
         }
+        latencies.clear();
     }
 
 }
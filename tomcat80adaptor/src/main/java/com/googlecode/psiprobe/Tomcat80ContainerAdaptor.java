@@ -50,6 +50,7 @@ import com.googlecode.psiprobe.model.ApplicationParam;
 import com.googlecode.psiprobe.model.ApplicationResource;
 import com.googlecode.psiprobe.model.FilterInfo;
 import com.googlecode.psiprobe.model.FilterMapping;
+import com.googlecode.psiprobe.tools.LatencyHistogram;
 
 /**
  * 
@@ -61,7 +62,7 @@ public class Tomcat80ContainerAdaptor extends AbstractTomcatContainer {
 	private Host host;
 	private ObjectName deployerOName;
 	private MBeanServer mBeanServer;
-	private Valve valve = new Tomcat80AgentValve();
+	private Tomcat80AgentValve valve = new Tomcat80AgentValve();
 
 	public void setWrapper(Wrapper wrapper) {
 		if (wrapper != null) {
@@ -387,6 +388,30 @@ public class Tomcat80ContainerAdaptor extends AbstractTomcatContainer {
 		result[1] = resource.getLastModified();
 		return result;
 	}
-	
+
+	public LatencyHistogram snapshotLatencies(Context context) {
+		return valve.snapshotLatencies(context.getName());
+	}
+
+	public boolean addApplicationListener(Context context, Object listener) {
+		context.addApplicationLifecycleListener(listener);
+		context.addApplicationEventListener(listener);
+		return true;
+	}
+
+	public void removeApplicationListener(Context context, Object listener) {
+		context.setApplicationLifecycleListeners(without(context.getApplicationLifecycleListeners(), listener));
+		context.setApplicationEventListeners(without(context.getApplicationEventListeners(), listener));
+	}
+
+	private static Object[] without(Object[] listeners, Object listener) {
+		List left = new ArrayList(listeners == null ? 0 : listeners.length);
+		for (int i = 0; listeners != null && i < listeners.length; i++) {
+			if (listeners[i] != listener) {
+				left.add(listeners[i]);
+			}
+		}
+		return left.toArray();
+	}
 
 }
@@ -75,7 +75,15 @@
 					</td>
 					<c:if test="${param.size}">
 						<td>
-							<probe:volume value="${app.size}"/>
+							<c:choose>
+								<c:when test="${! empty app.sizeEstimate}">
+									<c:set var="sizeEstimate" value="${app.sizeEstimate}" scope="request"/>
+									<jsp:include page="/WEB-INF/jsp/size_estimate.jsp"/>
+								</c:when>
+								<c:otherwise>
+									<probe:volume value="${app.size}"/>
+								</c:otherwise>
+							</c:choose>
 						</td>
 					</c:if>
 					<td>
@@ -206,7 +206,15 @@
 			<c:if test="${param.size}">
 				<display:column sortProperty="size" sortable="true"
 								titleKey="probe.jsp.applications.col.size" class="highlighted">
-					<probe:volume value="${app.size}"/>
+					<c:choose>
+						<c:when test="${! empty app.sizeEstimate}">
+							<c:set var="sizeEstimate" value="${app.sizeEstimate}" scope="request"/>
+							<jsp:include page="/WEB-INF/jsp/size_estimate.jsp"/>
+						</c:when>
+						<c:otherwise>
+							<probe:volume value="${app.size}"/>
+						</c:otherwise>
+					</c:choose>
 				</display:column>
 			</c:if>
 
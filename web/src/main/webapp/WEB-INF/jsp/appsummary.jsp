@@ -196,6 +196,33 @@
 							</c:param>
 						</c:url>
 
+						<c:url value="/chart.png" var="latency_url">
+							<c:param name="p" value="app_latency"/>
+							<c:param name="sp" value="${param.webapp}"/>
+							<c:param name="xz" value="${chartWidth}"/>
+							<c:param name="yz" value="${chartHeight}"/>
+							<c:param name="l" value="false"/>
+						</c:url>
+
+						<c:url value="/chart.png" var="latency_url_full">
+							<c:param name="p" value="app_latency"/>
+							<c:param name="sp" value="${param.webapp}"/>
+							<c:param name="xz" value="${fullChartWidth}"/>
+							<c:param name="yz" value="${fullChartHeight}"/>
+							<c:param name="s1l">
+								<spring:message code="probe.jsp.app.summary.charts.latency.p50.legend"/>
+							</c:param>
+							<c:param name="s2l">
+								<spring:message code="probe.jsp.app.summary.charts.latency.p90.legend"/>
+							</c:param>
+							<c:param name="s3l">
+								<spring:message code="probe.jsp.app.summary.charts.latency.p99.legend"/>
+							</c:param>
+							<c:param name="s4l">
+								<spring:message code="probe.jsp.app.summary.charts.latency.max.legend"/>
+							</c:param>
+						</c:url>
+
 						<div id="chart_group">
 							<div class="chartContainer">
 								<dl>
@@ -220,6 +247,15 @@
 									</dd>
 								</dl>
 							</div>
+
+							<div class="chartContainer">
+								<dl>
+									<dt><spring:message code="probe.jsp.app.summary.charts.latency.title"/></dt>
+									<dd class="image">
+										<img id="latency_chart" border="0" src="${latency_url}" width="${chartWidth}" height="${chartHeight}" alt="+"/>
+									</dd>
+								</dl>
+							</div>
 						</div>
 
 						<div id="full_chart" class="chartContainer" style="display: none;">
@@ -277,6 +313,11 @@
 									zoomIn('${avg_proc_time_url_full}', '<spring:message code="probe.jsp.app.summary.charts.avgProcTime.title"/>');
 								}
 							},
+							'#latency_chart': function(element) {
+								element.onclick = function() {
+									zoomIn('${latency_url_full}', '<spring:message code="probe.jsp.app.summary.charts.latency.title"/>');
+								}
+							},
 							'#full_chart': function(element) {
 								element.onclick = function() {
 									zoomOut();
@@ -288,6 +329,7 @@
 
 						imageUpdaters[0] = new Ajax.ImgUpdater('req_chart', ${probe:max(collectionPeriod, 5)});
 						imageUpdaters[1] = new Ajax.ImgUpdater('avg_proc_time_chart', ${probe:max(collectionPeriod, 5)});
+						imageUpdaters[2] = new Ajax.ImgUpdater('latency_chart', ${probe:max(collectionPeriod, 5)});
 						new Ajax.PeriodicalUpdater('dd-req', '<c:url value="/appreqdetails.ajax"/>?webapp=${app.name}', {frequency: 3});
 						new Ajax.PeriodicalUpdater('dd-proc_time', '<c:url value="/appprocdetails.ajax"/>?webapp=${app.name}', {frequency: 3});
 					</script>
@@ -29,6 +29,11 @@
 				<spring:message code="probe.jsp.decorator.system.memory"/>
 			</a>
 		</li>
+		<li>
+			<a class="${systemTabProbeOverhead}" href="<c:url value='/probeoverhead.htm'/>">
+				<spring:message code="probe.jsp.decorator.system.probeOverhead"/>
+			</a>
+		</li>
 		<li>
 			<a class="${systemTabSysProps}" href="<c:url value='/sysprops.htm'/>">
 				<spring:message code="probe.jsp.decorator.system.props"/>
@@ -119,6 +119,118 @@
 				<div id="fullMemoryChart" style="display: none;">
 					<img id="fullImg" class="clickable" src="${fullChartBase}&sp=Total" width="${fullChartWidth}" height="${fullChartHeight}" alt="-" onclick="zoomOut();"/>
 				</div>
+
+				<c:if test="${! empty collectors}">
+					<h3><spring:message code="probe.jsp.memory.gc.h3"/></h3>
+
+					<spring:message code="probe.jsp.memory.gc.col.pauses" arguments="${pauseBuckets[0]}" var="pauseTitle_0"/>
+					<spring:message code="probe.jsp.memory.gc.col.pauses" arguments="${pauseBuckets[1]}" var="pauseTitle_1"/>
+					<spring:message code="probe.jsp.memory.gc.col.pauses" arguments="${pauseBuckets[2]}" var="pauseTitle_2"/>
+					<spring:message code="probe.jsp.memory.gc.col.pauses" arguments="${pauseBuckets[3]}" var="pauseTitle_3"/>
+					<spring:message code="probe.jsp.memory.gc.col.pauses" arguments="${pauseBuckets[4]}" var="pauseTitle_4"/>
+					<spring:message code="probe.jsp.memory.gc.col.pausesOver" arguments="${pauseBuckets[4]}" var="pauseTitle_5"/>
+
+					<display:table name="collectors" class="genericTbl" cellspacing="0" uid="gc" requestURI="">
+						<display:column titleKey="probe.jsp.memory.gc.col.name" sortable="true" sortProperty="name" class="leftmost">
+							${gc.name}<c:if test="${! gc.notified}">&nbsp;*</c:if>
+						</display:column>
+						<display:column titleKey="probe.jsp.memory.gc.col.count" property="collectionCount" sortable="true"/>
+						<display:column titleKey="probe.jsp.memory.gc.col.time" property="collectionTime" sortable="true"/>
+						<display:column title="${pauseTitle_0}">${gc.pauses[0]}</display:column>
+						<display:column title="${pauseTitle_1}">${gc.pauses[1]}</display:column>
+						<display:column title="${pauseTitle_2}">${gc.pauses[2]}</display:column>
+						<display:column title="${pauseTitle_3}">${gc.pauses[3]}</display:column>
+						<display:column title="${pauseTitle_4}">${gc.pauses[4]}</display:column>
+						<display:column title="${pauseTitle_5}">${gc.pauses[5]}</display:column>
+						<display:column titleKey="probe.jsp.memory.gc.col.maxPause" property="maxPause" sortable="true"/>
+						<display:column titleKey="probe.jsp.memory.gc.col.lastPause" property="lastPause"/>
+						<display:column titleKey="probe.jsp.memory.gc.col.lastCause" property="lastCause"/>
+					</display:table>
+
+					<c:forEach items="${collectors}" var="gc">
+						<c:if test="${! gc.notified}">
+							<c:set var="gcPolled" value="true"/>
+						</c:if>
+					</c:forEach>
+					<c:if test="${gcPolled}">
+						<div class="infoMessage">
+							<p>
+								<spring:message code="probe.jsp.memory.gc.polled"/>
+							</p>
+						</div>
+					</c:if>
+
+					<div id="gcChartGroup">
+						<c:url value="/chart.png" var="gcOverheadUrl">
+							<c:param name="p" value="gc_overhead"/>
+							<c:param name="xz" value="${chartWidth}"/>
+							<c:param name="yz" value="${chartHeight}"/>
+							<c:param name="l" value="false"/>
+						</c:url>
+						<c:url value="/chart.png" var="gcOldGenUrl">
+							<c:param name="p" value="gc_old_gen"/>
+							<c:param name="xz" value="${chartWidth}"/>
+							<c:param name="yz" value="${chartHeight}"/>
+							<c:param name="l" value="false"/>
+						</c:url>
+						<c:url value="/chart.png" var="gcTimeUrl">
+							<c:param name="p" value="gc_time"/>
+							<c:param name="xz" value="${chartWidth}"/>
+							<c:param name="yz" value="${chartHeight}"/>
+						</c:url>
+
+						<div class="memoryChart">
+							<dl>
+								<dt><spring:message code="probe.jsp.memory.gc.chart.overhead"/></dt>
+								<dd class="image"><img id="img_gc_overhead" src="<c:out value='${gcOverheadUrl}' escapeXml='false'/>" width="${chartWidth}" height="${chartHeight}" alt="+"/></dd>
+							</dl>
+						</div>
+						<div class="memoryChart">
+							<dl>
+								<dt><spring:message code="probe.jsp.memory.gc.chart.oldGen"/></dt>
+								<dd class="image"><img id="img_gc_old_gen" src="<c:out value='${gcOldGenUrl}' escapeXml='false'/>" width="${chartWidth}" height="${chartHeight}" alt="+"/></dd>
+							</dl>
+						</div>
+						<div class="memoryChart">
+							<dl>
+								<dt><spring:message code="probe.jsp.memory.gc.chart.time"/></dt>
+								<dd class="image"><img id="img_gc_time" src="<c:out value='${gcTimeUrl}' escapeXml='false'/>" width="${chartWidth}" height="${chartHeight}" alt="+"/></dd>
+							</dl>
+						</div>
+
+						<script type="text/javascript">
+							new Ajax.ImgUpdater('img_gc_overhead', ${probe:max(collectionPeriod, 5)});
+							new Ajax.ImgUpdater('img_gc_old_gen', ${probe:max(collectionPeriod, 5)});
+							new Ajax.ImgUpdater('img_gc_time', ${probe:max(collectionPeriod, 5)});
+						</script>
+
+						<c:forEach items="${collectors}" var="gc">
+							<c:url value="/chart.png" var="gcPausesUrl" scope="page">
+								<c:param name="p" value="gc_pauses"/>
+								<c:param name="sp" value="${gc.name}"/>
+								<c:param name="xz" value="${chartWidth}"/>
+								<c:param name="yz" value="${chartHeight}"/>
+								<c:param name="s1l" value="${pauseTitle_0}"/>
+								<c:param name="s2l" value="${pauseTitle_1}"/>
+								<c:param name="s3l" value="${pauseTitle_2}"/>
+								<c:param name="s4l" value="${pauseTitle_3}"/>
+								<c:param name="s5l" value="${pauseTitle_4}"/>
+								<c:param name="s6l" value="${pauseTitle_5}"/>
+							</c:url>
+
+							<div class="memoryChart">
+								<dl>
+									<dt><spring:message code="probe.jsp.memory.gc.chart.pauses" arguments="${gc.name}"/></dt>
+									<dd class="image"><img id="img_gc_${gc.id}" src="<c:out value='${gcPausesUrl}' escapeXml='false'/>" width="${chartWidth}" height="${chartHeight}" alt="+"/></dd>
+								</dl>
+							</div>
+
+							<script type="text/javascript">
+								new Ajax.ImgUpdater('img_gc_${gc.id}', ${probe:max(collectionPeriod, 5)});
+							</script>
+						</c:forEach>
+					</div>
+				</c:if>
 			</div>
 
 			<script type="text/javascript">
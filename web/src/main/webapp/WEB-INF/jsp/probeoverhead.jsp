@@ -0,0 +1,90 @@
+<%--
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+--%>
+
+<%@ page contentType="text/html;charset=UTF-8" language="java" session="false" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
+<%@ taglib uri="http://www.springframework.org/tags" prefix="spring" %>
+<%@ taglib uri="http://displaytag.sf.net" prefix="display" %>
+<%@ taglib uri="/WEB-INF/tld/probe.tld" prefix="probe" %>
+
+<%--
+	Displays what the collectors, controllers and series providers of the probe cost.
+--%>
+
+<html>
+	<head>
+		<title><spring:message code="probe.jsp.title.probeoverhead"/></title>
+		<script type="text/javascript" language="javascript" src="<c:url value='/js/prototype.js'/>"></script>
+		<script type="text/javascript" language="javascript" src="<c:url value='/js/func.js'/>"></script>
+	</head>
+
+	<c:set var="navTabSystem" value="active" scope="request"/>
+	<c:set var="systemTabProbeOverhead" value="active" scope="request"/>
+	<c:set var="use_decorator" value="system" scope="request"/>
+
+	<c:set var="chartWidth" value="750"/>
+	<c:set var="chartHeight" value="250"/>
+
+	<body>
+
+		<c:if test="${! cpuTimeSupported || ! allocationSupported}">
+			<div class="infoMessage">
+				<p>
+					<spring:message code="probe.jsp.probeoverhead.partial"/>
+				</p>
+			</div>
+		</c:if>
+
+		<h3><spring:message code="probe.jsp.probeoverhead.h3.table"/></h3>
+
+		<display:table name="overheads" uid="o" class="genericTbl" cellspacing="0" requestURI="" defaultsort="3" defaultorder="descending">
+			<display:column sortable="true" sortProperty="name" titleKey="probe.jsp.probeoverhead.name" style="white-space:nowrap;" class="leftmost">
+				<a href="<c:url value='/probeoverhead.htm'><c:param name='c' value='${o.name}'/></c:url>">${o.name}</a>
+			</display:column>
+			<display:column property="invocations" sortable="true" titleKey="probe.jsp.probeoverhead.invocations"/>
+			<display:column property="wallTime" sortable="true" titleKey="probe.jsp.probeoverhead.wallTime"/>
+			<display:column property="avgWallTime" sortable="true" titleKey="probe.jsp.probeoverhead.avgWallTime"/>
+			<display:column property="maxWallTime" sortable="true" titleKey="probe.jsp.probeoverhead.maxWallTime"/>
+			<display:column property="cpuTime" sortable="true" titleKey="probe.jsp.probeoverhead.cpuTime"/>
+			<display:column property="jmxCalls" sortable="true" titleKey="probe.jsp.probeoverhead.jmxCalls"/>
+			<display:column sortable="true" sortProperty="allocatedBytes" titleKey="probe.jsp.probeoverhead.allocated">
+				<probe:volume value="${o.allocatedBytes}"/>
+			</display:column>
+			<display:column sortable="true" sortProperty="avgAllocatedBytes" titleKey="probe.jsp.probeoverhead.avgAllocated">
+				<probe:volume value="${o.avgAllocatedBytes}"/>
+			</display:column>
+		</display:table>
+
+		<c:if test="${! empty component}">
+			<h3><spring:message code="probe.jsp.probeoverhead.h3.chart" arguments="${component}"/></h3>
+
+			<c:url value="/chart.png" var="chartUrl">
+				<c:param name="p" value="probe_cost"/>
+				<c:param name="sp" value="${component}"/>
+				<c:param name="xz" value="${chartWidth}"/>
+				<c:param name="yz" value="${chartHeight}"/>
+				<c:param name="s1c" value="#95FE8B"/>
+				<c:param name="s1o" value="#009406"/>
+				<c:param name="s2c" value="#FDFB8B"/>
+				<c:param name="s2o" value="#D9CB00"/>
+				<c:param name="s1l"><spring:message code="probe.jsp.probeoverhead.chart.wallTime"/></c:param>
+				<c:param name="s2l"><spring:message code="probe.jsp.probeoverhead.chart.cpuTime"/></c:param>
+			</c:url>
+
+			<img id="probeCost" src="<c:out value='${chartUrl}' escapeXml='false'/>" width="${chartWidth}" height="${chartHeight}" alt="+"/>
+
+			<script type="text/javascript">
+				new Ajax.ImgUpdater('probeCost', ${probe:max(collectionPeriod, 5)});
+			</script>
+		</c:if>
+
+	</body>
+</html>
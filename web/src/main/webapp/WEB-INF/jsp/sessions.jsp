@@ -199,6 +199,13 @@
 						<c:if test="${! searchInfo.apply}">
 							<h3><spring:message code="probe.jsp.sessions.h3"/></h3>
 						</c:if>
+						<c:forEach items="${sizeEstimates}" var="estimate">
+							<p>
+								<spring:message code="probe.jsp.sessions.sizeEstimate" arguments="${estimate.applicationName}"/>
+								<c:set var="sizeEstimate" value="${estimate}" scope="request"/>
+								<jsp:include page="/WEB-INF/jsp/size_estimate.jsp"/>
+							</p>
+						</c:forEach>
 						<display:table name="sessions" class="genericTbl" uid="session" cellspacing="0" pagesize="50"
 								requestURI="">
 
@@ -265,7 +272,9 @@
 							<c:if test="${param.size}">
 								<display:column sortProperty="size" sortable="true" titleKey="probe.jsp.sessions.col.size"
 										class="highlighted">
-									<probe:volume value="${session.size}"/>
+									<c:if test="${session.size >= 0}">
+										<probe:volume value="${session.size}"/>
+									</c:if>
 								</display:column>
 							</c:if>
 
@@ -0,0 +1,39 @@
+<%--
+ * Licensed under the GPL License.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+--%>
+
+<%--
+	Size of the sessions of an application and how it was estimated, from the
+	request attribute "sizeEstimate".
+--%>
+
+<%@ page contentType="text/html;charset=UTF-8" language="java" session="false" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
+<%@ taglib uri="http://www.springframework.org/tags" prefix="spring" %>
+<%@ taglib uri="/WEB-INF/tld/probe.tld" prefix="probe" %>
+
+<c:if test="${sizeEstimate.extrapolated}">~</c:if><probe:volume value="${sizeEstimate.size}"/>
+<c:if test="${sizeEstimate.margin > 0}">
+	&plusmn;&nbsp;<probe:volume value="${sizeEstimate.margin}"/>
+</c:if>
+<c:choose>
+	<c:when test="${sizeEstimate.mode == 'parallel'}">
+		<span class="sizeEstimate">(<spring:message code="probe.jsp.sizeEstimate.parallel"
+				arguments="${sizeEstimate.sessionCount},${sizeEstimate.cpuTime}"/>)</span>
+	</c:when>
+	<c:when test="${sizeEstimate.mode == 'sampled'}">
+		<span class="sizeEstimate">(<spring:message code="probe.jsp.sizeEstimate.sampled"
+				arguments="${sizeEstimate.sizedCount},${sizeEstimate.sessionCount}"/>)</span>
+	</c:when>
+	<c:when test="${sizeEstimate.mode == 'partial'}">
+		<span class="sizeEstimate">(<spring:message code="probe.jsp.sizeEstimate.partial"
+				arguments="${sizeEstimate.sizedCount},${sizeEstimate.sessionCount},${sizeEstimate.cpuTime}"/>)</span>
+	</c:when>
+</c:choose>
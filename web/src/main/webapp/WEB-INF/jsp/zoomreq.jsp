@@ -29,6 +29,9 @@
 		<c:param name="l" value="true"/>
 		<c:param name="p" value="${param.p}"/>
 		<c:param name="sp" value="${param.sp}"/>
+		<c:if test="${! empty window}">
+			<c:param name="w" value="${window}"/>
+		</c:if>
 		<c:choose>
 			<c:when test="${param.p == 'traffic'}">
 				<c:param name="s1c" value="#95FE8B"/>
@@ -60,6 +63,16 @@
 					<spring:message code="probe.jsp.zoomedchart.back"/>
 				</a>
 			</li>
+			<c:forEach items="${windows}" var="w">
+				<li>
+					<c:url value="/zoomchart.htm" var="windowUrl">
+						<c:param name="p" value="${param.p}"/>
+						<c:param name="sp" value="${param.sp}"/>
+						<c:param name="w" value="${w}"/>
+					</c:url>
+					<a href="${windowUrl}"><spring:message code="probe.jsp.zoomedchart.window" arguments="${w}"/></a>
+				</li>
+			</c:forEach>
 		</ul>
 
 		<div class="blockContainer">